@@ -6,10 +6,17 @@ import gov.hhs.cdc.trustedintermediary.domainconnector.DomainConnector;
 import gov.hhs.cdc.trustedintermediary.domainconnector.DomainConnectorConstructionException;
 import gov.hhs.cdc.trustedintermediary.domainconnector.DomainResponseHelper;
 import gov.hhs.cdc.trustedintermediary.domainconnector.UnableToReadOpenApiSpecificationException;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.DeliveryStatusPoller;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.IngestionTimeEnrichmentWorker;
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxSenderWorker;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.TransformationRuleEngine;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation.ValidationRuleEngine;
 import gov.hhs.cdc.trustedintermediary.etor.utils.security.HashHelper;
+import gov.hhs.cdc.trustedintermediary.external.apache.ApacheAsyncClient;
 import gov.hhs.cdc.trustedintermediary.external.apache.ApacheClient;
 import gov.hhs.cdc.trustedintermediary.external.azure.AzureDatabaseCredentialsProvider;
 import gov.hhs.cdc.trustedintermediary.external.azure.AzureSecrets;
+import gov.hhs.cdc.trustedintermediary.external.database.CachingPartnerMetadataStorage;
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirImplementation;
 import gov.hhs.cdc.trustedintermediary.external.hikari.HikariConnectionPool;
 import gov.hhs.cdc.trustedintermediary.external.inmemory.KeyCache;
@@ -18,9 +25,11 @@ import gov.hhs.cdc.trustedintermediary.external.jackson.Jackson;
 import gov.hhs.cdc.trustedintermediary.external.jjwt.JjwtEngine;
 import gov.hhs.cdc.trustedintermediary.external.localfile.EnvironmentDatabaseCredentialsProvider;
 import gov.hhs.cdc.trustedintermediary.external.localfile.LocalSecrets;
+import gov.hhs.cdc.trustedintermediary.external.postgres.PostgresNotificationListener;
 import gov.hhs.cdc.trustedintermediary.external.slf4j.DeployedLogger;
 import gov.hhs.cdc.trustedintermediary.external.slf4j.LocalLogger;
 import gov.hhs.cdc.trustedintermediary.organizations.OrganizationsSettings;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoaderException;
 import gov.hhs.cdc.trustedintermediary.wrappers.AuthEngine;
 import gov.hhs.cdc.trustedintermediary.wrappers.Cache;
 import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir;
@@ -31,6 +40,7 @@ import gov.hhs.cdc.trustedintermediary.wrappers.Secrets;
 import gov.hhs.cdc.trustedintermediary.wrappers.YamlCombiner;
 import gov.hhs.cdc.trustedintermediary.wrappers.database.ConnectionPool;
 import gov.hhs.cdc.trustedintermediary.wrappers.database.DatabaseCredentialsProvider;
+import gov.hhs.cdc.trustedintermediary.wrappers.database.DatabaseNotificationListener;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter;
 import io.javalin.Javalin;
 import java.util.Set;
@@ -63,6 +73,8 @@ public class App {
             registerDomains(app);
             ApplicationContext.injectRegisteredImplementations();
             OrganizationsSettings.getInstance().loadOrganizations();
+            loadRules();
+            startBackgroundWorkers();
         } catch (Exception exception) {
             // Not using the logger because boostrapping has failed.
             System.out.println(
@@ -72,6 +84,23 @@ public class App {
         }
     }
 
+    private static void loadRules() throws RuleLoaderException {
+        // load the rules up front so invalid rule definitions or transformation args stop startup
+        ApplicationContext.getImplementation(ValidationRuleEngine.class).ensureRulesLoaded();
+        ApplicationContext.getImplementation(TransformationRuleEngine.class).ensureRulesLoaded();
+    }
+
+    private static void startBackgroundWorkers() {
+        // backfills the ingestion time of metadata saved before the last shutdown
+        ApplicationContext.getImplementation(IngestionTimeEnrichmentWorker.class).start();
+        // delivers the messages in the outbox, including those left by other nodes
+        ApplicationContext.getImplementation(OutboxSenderWorker.class).start();
+        // keeps the delivery status of pending metadata up to date
+        ApplicationContext.getImplementation(DeliveryStatusPoller.class).start();
+        // invalidates the cached metadata when any node changes it
+        ApplicationContext.getImplementation(CachingPartnerMetadataStorage.class).start();
+    }
+
     private static void registerDomains(Javalin app)
             throws DomainConnectorConstructionException, UnableToReadOpenApiSpecificationException {
         Set<Class<? extends DomainConnector>> domainConnectors =
@@ -90,7 +119,11 @@ public class App {
         ApplicationContext.register(HapiFhir.class, HapiFhirImplementation.getInstance());
         ApplicationContext.register(YamlCombiner.class, Jackson.getInstance());
         ApplicationContext.register(OpenApi.class, OpenApi.getInstance());
-        ApplicationContext.register(HttpClient.class, ApacheClient.getInstance());
+        ApplicationContext.register(
+                HttpClient.class,
+                ApplicationContext.getProperty("HTTP_CLIENT", "async").equalsIgnoreCase("blocking")
+                        ? ApacheClient.getInstance()
+                        : ApacheAsyncClient.getInstance());
         ApplicationContext.register(HashHelper.class, HashHelper.getInstance());
         ApplicationContext.register(AuthEngine.class, JjwtEngine.getInstance());
         ApplicationContext.register(Cache.class, KeyCache.getInstance());
@@ -114,6 +147,8 @@ public class App {
                         AzureDatabaseCredentialsProvider.getInstance());
             }
             ApplicationContext.register(ConnectionPool.class, HikariConnectionPool.getInstance());
+            ApplicationContext.register(
+                    DatabaseNotificationListener.class, PostgresNotificationListener.getInstance());
         }
     }
 }
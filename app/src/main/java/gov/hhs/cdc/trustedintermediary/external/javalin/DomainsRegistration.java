@@ -16,6 +16,8 @@ import io.javalin.http.Context;
 import io.javalin.http.Handler;
 import io.javalin.http.HandlerType;
 import io.javalin.router.Endpoint;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashSet;
@@ -186,13 +188,28 @@ public class DomainsRegistration {
         request.setUrl(ctx.url());
         request.setHeaders(caseInsensitiveHeaderMap);
         request.setPathParams(ctx.pathParamMap());
+        request.setQueryParams(
+                ctx.queryParamMap().entrySet().stream()
+                        .filter(entry -> !entry.getValue().isEmpty())
+                        .collect(
+                                Collectors.toMap(
+                                        Map.Entry::getKey, entry -> entry.getValue().get(0))));
 
         return request;
     }
 
-    static void domainResponseFillsInJavalinContext(DomainResponse response, Context ctx) {
+    static void domainResponseFillsInJavalinContext(DomainResponse response, Context ctx)
+            throws IOException {
         ctx.status(response.getStatusCode());
         response.getHeaders().forEach(ctx::header);
-        ctx.result(response.getBody());
+
+        if (response.getBodyWriter() == null) {
+            ctx.result(response.getBody());
+            return;
+        }
+
+        try (OutputStream output = ctx.outputStream()) {
+            response.getBodyWriter().writeTo(output);
+        }
     }
 }
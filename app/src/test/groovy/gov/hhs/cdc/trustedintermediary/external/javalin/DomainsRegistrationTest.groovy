@@ -17,6 +17,8 @@ import io.javalin.http.Context
 import io.javalin.http.Handler
 import io.javalin.http.HandlerType
 import io.javalin.router.Endpoint
+import jakarta.servlet.ServletOutputStream
+import jakarta.servlet.WriteListener
 import spock.lang.Specification
 
 import java.util.function.Function
@@ -46,6 +48,7 @@ class DomainsRegistrationTest extends Specification {
         javalinContext.body() >> bodyString
         javalinContext.url() >> urlString
         javalinContext.headerMap() >> headerMap
+        javalinContext.queryParamMap() >> [:]
 
         when:
         def domainRequest = DomainsRegistration.javalinContextToDomainRequest(javalinContext)
@@ -103,6 +106,7 @@ class DomainsRegistrationTest extends Specification {
         def javalinContext = Mock(Context)
         javalinContext.method() >> HandlerType.POST
         javalinContext.headerMap() >> [:]
+        javalinContext.queryParamMap() >> [:]
 
         when:
         def javalinHandler = DomainsRegistration.createHandler(rawHandler, false)
@@ -245,6 +249,7 @@ class DomainsRegistrationTest extends Specification {
         def mockContext = Mock(Context)
         mockContext.method() >> HandlerType.POST
         mockContext.headerMap() >> [:]
+        mockContext.queryParamMap() >> [:]
 
         def mockAuthValidator = Mock(AuthRequestValidator)
         mockAuthValidator.isValidAuthenticatedRequest(_ as DomainRequest) >> false
@@ -336,6 +341,7 @@ class DomainsRegistrationTest extends Specification {
 
         def javalinContext = Mock(Context)
         javalinContext.headerMap() >> headerMap
+        javalinContext.queryParamMap() >> [:]
 
         when:
         def domainRequest = DomainsRegistration.javalinContextToDomainRequest(javalinContext)
@@ -347,6 +353,54 @@ class DomainsRegistrationTest extends Specification {
         transformedHeaderMap.get("testkey3") == "testvalue3"
     }
 
+    def "javalinContextToDomainRequest keeps the first value of each query parameter"() {
+        given:
+        def javalinContext = Mock(Context)
+        javalinContext.headerMap() >> [:]
+        javalinContext.queryParamMap() >> [
+            "limit": ["10", "20"],
+            "since": ["2024-01-01T00:00:00Z"],
+            "empty": []
+        ]
+
+        when:
+        def domainRequest = DomainsRegistration.javalinContextToDomainRequest(javalinContext)
+
+        then:
+        domainRequest.getQueryParams() == ["limit": "10", "since": "2024-01-01T00:00:00Z"]
+    }
+
+    def "a streamed DomainResponse body is written to the Javalin output stream"() {
+        given:
+        def response = new DomainResponse(200)
+        response.setHeaders(["Content-Type": "application/json"])
+        response.setBodyWriter({ OutputStream output -> output.write("DogCow".getBytes()) })
+
+        def output = new ByteArrayOutputStream()
+        def servletOutput = new ServletOutputStream() {
+                    boolean isReady() {
+                        return true
+                    }
+
+                    void setWriteListener(WriteListener writeListener) {}
+
+                    void write(int b) {
+                        output.write(b)
+                    }
+                }
+        def javalinContext = Mock(Context)
+        javalinContext.outputStream() >> servletOutput
+
+        when:
+        DomainsRegistration.domainResponseFillsInJavalinContext(response, javalinContext)
+
+        then:
+        1 * javalinContext.status(200)
+        1 * javalinContext.header("Content-Type", "application/json")
+        0 * javalinContext.result(_)
+        output.toString() == "DogCow"
+    }
+
     static class Example1DomainConnector implements DomainConnector {
 
         static def endpointCount = 0
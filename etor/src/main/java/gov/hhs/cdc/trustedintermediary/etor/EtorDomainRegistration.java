@@ -10,11 +10,16 @@ import gov.hhs.cdc.trustedintermediary.domainconnector.UnableToReadOpenApiSpecif
 import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLinkStorage;
 import gov.hhs.cdc.trustedintermediary.etor.messages.MessageRequestHandler;
 import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageHelper;
+import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageStageGraph;
 import gov.hhs.cdc.trustedintermediary.etor.messages.UnableToSendMessageException;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.ConsolidatedMetadataPage;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.DeliveryStatusPoller;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.IngestionTimeEnrichmentWorker;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataConverter;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataOrchestrator;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatus;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStorage;
 import gov.hhs.cdc.trustedintermediary.etor.operationoutcomes.FhirMetadata;
 import gov.hhs.cdc.trustedintermediary.etor.orders.Order;
@@ -22,14 +27,21 @@ import gov.hhs.cdc.trustedintermediary.etor.orders.OrderController;
 import gov.hhs.cdc.trustedintermediary.etor.orders.OrderResponse;
 import gov.hhs.cdc.trustedintermediary.etor.orders.OrderSender;
 import gov.hhs.cdc.trustedintermediary.etor.orders.SendOrderUseCase;
+import gov.hhs.cdc.trustedintermediary.etor.outbox.MessageOutbox;
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxSenderWorker;
 import gov.hhs.cdc.trustedintermediary.etor.results.Result;
 import gov.hhs.cdc.trustedintermediary.etor.results.ResultController;
 import gov.hhs.cdc.trustedintermediary.etor.results.ResultResponse;
 import gov.hhs.cdc.trustedintermediary.etor.results.ResultSender;
 import gov.hhs.cdc.trustedintermediary.etor.results.SendResultUseCase;
 import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.TransformationRuleEngine;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.TransformationShadowRunner;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap.CodeMapRegistry;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation.ValidationDispatcher;
 import gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation.ValidationRuleEngine;
+import gov.hhs.cdc.trustedintermediary.external.database.CachingPartnerMetadataStorage;
 import gov.hhs.cdc.trustedintermediary.external.database.DatabaseMessageLinkStorage;
+import gov.hhs.cdc.trustedintermediary.external.database.DatabaseMessageOutbox;
 import gov.hhs.cdc.trustedintermediary.external.database.DatabasePartnerMetadataStorage;
 import gov.hhs.cdc.trustedintermediary.external.database.DbDao;
 import gov.hhs.cdc.trustedintermediary.external.database.PostgresDao;
@@ -40,15 +52,28 @@ import gov.hhs.cdc.trustedintermediary.external.localfile.FileMessageLinkStorage
 import gov.hhs.cdc.trustedintermediary.external.localfile.FilePartnerMetadataStorage;
 import gov.hhs.cdc.trustedintermediary.external.localfile.MockRSEndpointClient;
 import gov.hhs.cdc.trustedintermediary.external.openapi.OpenApiReaderImplementation;
+import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamCircuitBreakers;
 import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamEndpointClient;
 import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamOrderSender;
 import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamResultSender;
 import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamSenderHelper;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleDefinitionsWatcher;
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoader;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics;
 import gov.hhs.cdc.trustedintermediary.wrappers.FhirParseException;
 import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir;
 import gov.hhs.cdc.trustedintermediary.wrappers.HealthDataExpressionEvaluator;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter;
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -67,6 +92,20 @@ public class EtorDomainRegistration implements DomainConnector {
 
     static final String CONSOLIDATED_SUMMARY_API_ENDPOINT = "/v1/etor/metadata/summary/{sender}";
 
+    static final String STATUS_COUNTS_API_ENDPOINT = "/v1/etor/metadata/summary/{sender}/counts";
+
+    static final String METRICS_API_ENDPOINT = "/v1/etor/metrics";
+
+    static final String STATUS_AGE_HEADER = "Age";
+
+    static final String CONTINUATION_TOKEN_PARAMETER = "continuationToken";
+
+    static final String CONTINUATION_TOKEN_HEADER = "Continuation-Token";
+
+    static final int DEFAULT_SUMMARY_PAGE_SIZE = 1000;
+
+    static final int MAX_SUMMARY_PAGE_SIZE = 5000;
+
     @Inject OrderController orderController;
     @Inject SendOrderUseCase sendOrderUseCase;
 
@@ -80,6 +119,17 @@ public class EtorDomainRegistration implements DomainConnector {
     @Inject PartnerMetadataConverter partnerMetadataConverter;
 
     @Inject HapiFhir fhir;
+    @Inject Formatter formatter;
+
+    @Inject RuleStatistics ruleStatistics;
+    @Inject ValidationDispatcher validationDispatcher;
+    @Inject TransformationShadowRunner transformationShadowRunner;
+    @Inject ReportStreamCircuitBreakers reportStreamCircuitBreakers;
+    @Inject SendMessageStageGraph sendMessageStageGraph;
+    @Inject IngestionTimeEnrichmentWorker ingestionTimeEnrichmentWorker;
+    @Inject OutboxSenderWorker outboxSenderWorker;
+    @Inject DeliveryStatusPoller deliveryStatusPoller;
+    @Inject CachingPartnerMetadataStorage cachingPartnerMetadataStorage;
 
     private final Map<HttpEndpoint, Function<DomainRequest, DomainResponse>> endpoints =
             Map.of(
@@ -87,7 +137,10 @@ public class EtorDomainRegistration implements DomainConnector {
                     new HttpEndpoint("GET", METADATA_API_ENDPOINT, true), this::handleMetadata,
                     new HttpEndpoint("POST", RESULTS_API_ENDPOINT, true), this::handleResults,
                     new HttpEndpoint("GET", CONSOLIDATED_SUMMARY_API_ENDPOINT, true),
-                            this::handleConsolidatedSummary);
+                            this::handleConsolidatedSummary,
+                    new HttpEndpoint("GET", STATUS_COUNTS_API_ENDPOINT, true),
+                            this::handleStatusCounts,
+                    new HttpEndpoint("GET", METRICS_API_ENDPOINT, true), this::handleMetrics);
 
     @Override
     public Map<HttpEndpoint, Function<DomainRequest, DomainResponse>> domainRegistration() {
@@ -106,27 +159,49 @@ public class EtorDomainRegistration implements DomainConnector {
         // Metadata
         ApplicationContext.register(
                 PartnerMetadataOrchestrator.class, PartnerMetadataOrchestrator.getInstance());
+        ApplicationContext.register(
+                IngestionTimeEnrichmentWorker.class, IngestionTimeEnrichmentWorker.getInstance());
+        ApplicationContext.register(DeliveryStatusPoller.class, DeliveryStatusPoller.getInstance());
         ApplicationContext.register(
                 PartnerMetadataConverter.class, HapiPartnerMetadataConverter.getInstance());
         // Validation rules
         ApplicationContext.register(
                 HealthDataExpressionEvaluator.class, HapiFhirImplementation.getInstance());
         ApplicationContext.register(RuleLoader.class, RuleLoader.getInstance());
+        ApplicationContext.register(
+                RuleDefinitionsWatcher.class, RuleDefinitionsWatcher.getInstance());
+        ApplicationContext.register(RuleStatistics.class, RuleStatistics.getInstance());
+        ApplicationContext.register(CodeMapRegistry.class, CodeMapRegistry.getInstance());
         ApplicationContext.register(
                 ValidationRuleEngine.class,
                 ValidationRuleEngine.getInstance("validation_definitions.json"));
+        ApplicationContext.register(ValidationDispatcher.class, ValidationDispatcher.getInstance());
         ApplicationContext.register(
                 TransformationRuleEngine.class,
                 TransformationRuleEngine.getInstance("transformation_definitions.json"));
+        ApplicationContext.register(
+                TransformationShadowRunner.class, TransformationShadowRunner.getInstance());
 
         ApplicationContext.register(SendMessageHelper.class, SendMessageHelper.getInstance());
+        ApplicationContext.register(
+                SendMessageStageGraph.class, SendMessageStageGraph.getInstance());
+        ApplicationContext.register(OutboxSenderWorker.class, OutboxSenderWorker.getInstance());
+        ApplicationContext.register(
+                CachingPartnerMetadataStorage.class, CachingPartnerMetadataStorage.getInstance());
 
         if (ApplicationContext.isPropertyPresent("DB_URL")) {
             ApplicationContext.register(DbDao.class, PostgresDao.getInstance());
             ApplicationContext.register(
-                    PartnerMetadataStorage.class, DatabasePartnerMetadataStorage.getInstance());
+                    DatabasePartnerMetadataStorage.class,
+                    DatabasePartnerMetadataStorage.getInstance());
+            ApplicationContext.register(
+                    PartnerMetadataStorage.class,
+                    CachingPartnerMetadataStorage.getInstance().isEnabled()
+                            ? CachingPartnerMetadataStorage.getInstance()
+                            : DatabasePartnerMetadataStorage.getInstance());
             ApplicationContext.register(
                     MessageLinkStorage.class, DatabaseMessageLinkStorage.getInstance());
+            ApplicationContext.register(MessageOutbox.class, DatabaseMessageOutbox.getInstance());
         } else if (ApplicationContext.getEnvironment().equalsIgnoreCase("local")) {
             ApplicationContext.register(
                     PartnerMetadataStorage.class, FilePartnerMetadataStorage.getInstance());
@@ -134,6 +209,8 @@ public class EtorDomainRegistration implements DomainConnector {
                     MessageLinkStorage.class, FileMessageLinkStorage.getInstance());
         }
 
+        ApplicationContext.register(
+                ReportStreamCircuitBreakers.class, ReportStreamCircuitBreakers.getInstance());
         if (ApplicationContext.isPropertyPresent("REPORT_STREAM_URL_PREFIX")) {
             ApplicationContext.register(
                     RSEndpointClient.class, ReportStreamEndpointClient.getInstance());
@@ -173,15 +250,6 @@ public class EtorDomainRegistration implements DomainConnector {
     }
 
     DomainResponse handleMetadata(DomainRequest request) {
-        // Any new endpoint that will call RS **must** include this check.
-        if (Boolean.parseBoolean(request.getHeaders().get("load-test"))
-                && ApplicationContext.isPropertyPresent("REPORT_STREAM_URL_PREFIX")) {
-            // register the mock RS endpoint for this HTTP request because we don't want to call RS
-            // for real when doing a load test.
-            ApplicationContext.registerForThread(
-                    RSEndpointClient.class, MockRSEndpointClient.getInstance());
-        }
-
         try {
             String metadataId = request.getPathParams().get("id");
             Optional<PartnerMetadata> metadataOptional =
@@ -201,8 +269,24 @@ public class EtorDomainRegistration implements DomainConnector {
                     partnerMetadataConverter.extractPublicMetadataToOperationOutcome(
                             metadata, metadataId, messageIdsToLink);
 
-            return domainResponseHelper.constructOkResponseFromString(
-                    fhir.encodeResourceToJson(responseObject.getUnderlyingOutcome()));
+            DomainResponse response =
+                    domainResponseHelper.constructOkResponseFromString(
+                            fhir.encodeResourceToJson(responseObject.getUnderlyingOutcome()));
+
+            // a pending status is as old as the last time the poller checked it with ReportStream
+            if (metadata.deliveryStatus() == PartnerMetadataStatus.PENDING) {
+                Optional<Instant> checkedAt =
+                        partnerMetadataOrchestrator.getStatusCheckedAt(metadata.inboundReportId());
+                if (checkedAt.isPresent()) {
+                    long ageSeconds = Duration.between(checkedAt.get(), Instant.now()).toSeconds();
+                    // the helper's headers can't be changed, so add to a copy of them
+                    Map<String, String> headers = new HashMap<>(response.getHeaders());
+                    headers.put(STATUS_AGE_HEADER, String.valueOf(Math.max(0, ageSeconds)));
+                    response.setHeaders(headers);
+                }
+            }
+
+            return response;
         } catch (PartnerMetadataException e) {
             String errorMessage = "Unable to retrieve requested metadata";
             logger.logError(errorMessage, e);
@@ -211,20 +295,120 @@ public class EtorDomainRegistration implements DomainConnector {
     }
 
     DomainResponse handleConsolidatedSummary(DomainRequest request) {
+        String senderName = request.getPathParams().get("sender");
+        Map<String, String> queryParams = request.getQueryParams();
 
-        Map<String, Map<String, Object>> metadata;
+        Instant receivedSince;
+        int limit;
         try {
-            String senderName = request.getPathParams().get("sender");
+            String since = queryParams.get("since");
+            receivedSince = since == null ? null : Instant.parse(since);
+            limit =
+                    Integer.parseInt(
+                            queryParams.getOrDefault(
+                                    "limit", String.valueOf(DEFAULT_SUMMARY_PAGE_SIZE)));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            return domainResponseHelper.constructErrorResponse(
+                    400, "since must be an ISO-8601 instant and limit must be a number");
+        }
+        if (limit < 1 || limit > MAX_SUMMARY_PAGE_SIZE) {
+            return domainResponseHelper.constructErrorResponse(
+                    400, "limit must be between 1 and " + MAX_SUMMARY_PAGE_SIZE);
+        }
 
-            metadata = partnerMetadataOrchestrator.getConsolidatedMetadata(senderName);
+        // clients that don't ask for a page get every message, as before the summary was paged
+        boolean paged =
+                queryParams.containsKey("limit")
+                        || queryParams.containsKey(CONTINUATION_TOKEN_PARAMETER);
 
+        Iterator<Map.Entry<String, Map<String, Object>>> entries;
+        String continuationToken = null;
+        try {
+            if (paged) {
+                ConsolidatedMetadataPage page =
+                        partnerMetadataOrchestrator.getConsolidatedMetadata(
+                                senderName,
+                                receivedSince,
+                                queryParams.get(CONTINUATION_TOKEN_PARAMETER),
+                                limit);
+                entries = page.metadata().entrySet().iterator();
+                continuationToken = page.continuationToken();
+            } else {
+                entries =
+                        partnerMetadataOrchestrator.getAllConsolidatedMetadata(
+                                senderName, receivedSince, DEFAULT_SUMMARY_PAGE_SIZE);
+            }
+        } catch (IllegalArgumentException e) {
+            return domainResponseHelper.constructErrorResponse(400, e);
         } catch (Exception e) {
             var errorString = "Unable to retrieve consolidated orders";
             logger.logError(errorString, e);
             return domainResponseHelper.constructErrorResponse(500, errorString);
         }
 
-        return domainResponseHelper.constructOkResponse(metadata);
+        // the entries are written to the client one by one instead of as one big String
+        DomainResponse response =
+                domainResponseHelper.constructStreamingOkResponse(
+                        output -> {
+                            try {
+                                formatter.writeJsonObject(output, entries);
+                            } catch (FormatterProcessingException e) {
+                                throw new IOException(e);
+                            }
+                        });
+
+        if (continuationToken != null) {
+            Map<String, String> headers = new HashMap<>(response.getHeaders());
+            headers.put(CONTINUATION_TOKEN_HEADER, continuationToken);
+            response.setHeaders(headers);
+        }
+
+        return response;
+    }
+
+    DomainResponse handleStatusCounts(DomainRequest request) {
+        String senderName = request.getPathParams().get("sender");
+        Map<String, String> queryParams = request.getQueryParams();
+
+        LocalDate receivedFrom;
+        LocalDate receivedTo;
+        try {
+            String from = queryParams.get("from");
+            String to = queryParams.get("to");
+            receivedFrom = from == null ? null : LocalDate.parse(from);
+            receivedTo = to == null ? null : LocalDate.parse(to);
+        } catch (DateTimeParseException e) {
+            return domainResponseHelper.constructErrorResponse(
+                    400, "from and to must be ISO-8601 dates");
+        }
+        if (receivedFrom != null && receivedTo != null && receivedFrom.isAfter(receivedTo)) {
+            return domainResponseHelper.constructErrorResponse(400, "from must not be after to");
+        }
+
+        try {
+            Map<String, Object> counts =
+                    partnerMetadataOrchestrator.getStatusCounts(
+                            senderName, receivedFrom, receivedTo);
+            return domainResponseHelper.constructOkResponse(counts);
+        } catch (Exception e) {
+            var errorString = "Unable to retrieve the status counts";
+            logger.logError(errorString, e);
+            return domainResponseHelper.constructErrorResponse(500, errorString);
+        }
+    }
+
+    DomainResponse handleMetrics(DomainRequest request) {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("rules", ruleStatistics.getSummary());
+        metrics.put("validation", validationDispatcher.getSummary());
+        metrics.put("shadow", transformationShadowRunner.getSummary());
+        metrics.put("reportStream", reportStreamCircuitBreakers.getSummary());
+        metrics.put("sendStages", sendMessageStageGraph.getSummary());
+        metrics.put("ingestionTime", ingestionTimeEnrichmentWorker.getSummary());
+        metrics.put("outbox", outboxSenderWorker.getSummary());
+        metrics.put("deliveryStatus", deliveryStatusPoller.getSummary());
+        metrics.put("metadataCache", cachingPartnerMetadataStorage.getSummary());
+        return domainResponseHelper.constructOkResponse(metrics);
     }
 
     protected DomainResponse handleMessageRequest(
@@ -236,16 +420,25 @@ public class EtorDomainRegistration implements DomainConnector {
         String errorMessage = "";
 
         // Any new endpoint that will call RS **must** include this check.
-        if (Boolean.parseBoolean(request.getHeaders().get("load-test"))
-                && ApplicationContext.isPropertyPresent("REPORT_STREAM_URL_PREFIX")) {
+        boolean loadTest =
+                Boolean.parseBoolean(request.getHeaders().get("load-test"))
+                        && ApplicationContext.isPropertyPresent("REPORT_STREAM_URL_PREFIX");
+        if (loadTest) {
             // register the mock RS endpoint for this HTTP request because we don't want to call RS
             // for real when doing a load test.
             ApplicationContext.registerForThread(
                     RSEndpointClient.class, MockRSEndpointClient.getInstance());
         }
 
+        // the metadata updates of the request are saved together once it's handled
+        partnerMetadataOrchestrator.openMetadataSession();
+
         try {
-            return requestHandler.handle(inboundReportId);
+            DomainResponse response = requestHandler.handle(inboundReportId);
+            if (loadTest) {
+                refreshMockDeliveryStatus(inboundReportId);
+            }
+            return response;
         } catch (FhirParseException e) {
             errorMessage = "Unable to parse " + messageType + " request";
             logger.logError(errorMessage, e);
@@ -265,6 +458,31 @@ public class EtorDomainRegistration implements DomainConnector {
                     logger.logError("Unable to update metadata status", innerE);
                 }
             }
+
+            try {
+                partnerMetadataOrchestrator.closeMetadataSession();
+            } catch (PartnerMetadataException e) {
+                logger.logError(
+                        "Unable to save the metadata for inboundReportId " + inboundReportId, e);
+            }
+        }
+    }
+
+    // ReportStream doesn't know the report ids the mock client makes up, so the status of a load
+    // test message is taken from the mock client instead of being left to the poller
+    private void refreshMockDeliveryStatus(String inboundReportId) {
+        if (inboundReportId == null) {
+            return;
+        }
+
+        MockRSEndpointClient mockClient = MockRSEndpointClient.getInstance();
+        try {
+            partnerMetadataOrchestrator.refreshDeliveryStatus(
+                    mockClient, mockClient.getRsToken(), inboundReportId);
+        } catch (PartnerMetadataException e) {
+            logger.logError(
+                    "Unable to update the delivery status for inboundReportId " + inboundReportId,
+                    e);
         }
     }
 
@@ -1,6 +1,11 @@
 package gov.hhs.cdc.trustedintermediary.etor;
 
 import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamEndpointClientException;
+import gov.hhs.cdc.trustedintermediary.wrappers.StreamingBody;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The RSEndpointClient interface represents a client for interacting with or mocking ReportStream
@@ -13,9 +18,64 @@ public interface RSEndpointClient {
     String requestWatersEndpoint(String body, String bearerToken)
             throws ReportStreamEndpointClientException;
 
+    /**
+     * Sends a payload that's written while the request is sent, instead of being built in memory
+     * first. Implementations that can't stream the payload write it to memory first.
+     */
+    default String requestWatersEndpoint(StreamingBody body, String bearerToken)
+            throws ReportStreamEndpointClientException {
+        var buffer = new ByteArrayOutputStream();
+        try {
+            body.writeTo(buffer);
+        } catch (IOException e) {
+            throw new ReportStreamEndpointClientException("Unable to write the payload", e);
+        }
+        return requestWatersEndpoint(buffer.toString(StandardCharsets.UTF_8), bearerToken);
+    }
+
     String requestHistoryEndpoint(String outboundReportId, String bearerToken)
             throws ReportStreamEndpointClientException;
 
     String requestDeliveryEndpoint(String inboundReportId, String bearerToken)
             throws ReportStreamEndpointClientException;
+
+    /**
+     * Starts {@link #requestWatersEndpoint} without waiting for the response. The future fails with
+     * a {@link ReportStreamEndpointClientException}.
+     */
+    default CompletableFuture<String> requestWatersEndpointAsync(String body, String bearerToken) {
+        try {
+            return CompletableFuture.completedFuture(requestWatersEndpoint(body, bearerToken));
+        } catch (ReportStreamEndpointClientException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Starts {@link #requestHistoryEndpoint} without waiting for the response. The future fails
+     * with a {@link ReportStreamEndpointClientException}.
+     */
+    default CompletableFuture<String> requestHistoryEndpointAsync(
+            String outboundReportId, String bearerToken) {
+        try {
+            return CompletableFuture.completedFuture(
+                    requestHistoryEndpoint(outboundReportId, bearerToken));
+        } catch (ReportStreamEndpointClientException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Starts {@link #requestDeliveryEndpoint} without waiting for the response. The future fails
+     * with a {@link ReportStreamEndpointClientException}.
+     */
+    default CompletableFuture<String> requestDeliveryEndpointAsync(
+            String inboundReportId, String bearerToken) {
+        try {
+            return CompletableFuture.completedFuture(
+                    requestDeliveryEndpoint(inboundReportId, bearerToken));
+        } catch (ReportStreamEndpointClientException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
@@ -1,10 +1,32 @@
 package gov.hhs.cdc.trustedintermediary.etor.messagelink;
 
 import java.util.Optional;
+import java.util.Set;
 
 /** This interface defines the methods for storing and retrieving message links. */
 public interface MessageLinkStorage {
     Optional<MessageLink> getMessageLink(String messageId) throws MessageLinkException;
 
+    /**
+     * Reads the links of all the given messages at once.
+     *
+     * @param messageIds The ids of the messages to look up.
+     * @return Every link any of the messages is in, each with all of its messages.
+     */
+    Set<MessageLink> getMessageLinks(Set<String> messageIds) throws MessageLinkException;
+
+    /**
+     * Adds all the messages of the link to it in a single write. Messages that are already in the
+     * link are left as they are.
+     */
     void saveMessageLink(MessageLink messageLink) throws MessageLinkException;
+
+    /**
+     * Links the given messages together, in a single step. The messages join the existing link of
+     * any of them, and when they're already in more than one link, those links are merged into the
+     * one with the lowest link ID. Messages that aren't linked yet get a new link.
+     *
+     * @param messageIds The ids of the messages to link.
+     */
+    void linkMessages(Set<String> messageIds) throws MessageLinkException;
 }
@@ -0,0 +1,309 @@
+package gov.hhs.cdc.trustedintermediary.etor.messages;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata;
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxException;
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxSenderWorker;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics.LatencyHistogram;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+
+/**
+ * Runs the steps of sending a message as a graph of stages, so steps that don't depend on each
+ * other overlap:
+ *
+ * <pre>
+ * saveInboundMetadata --+-------------- linkMessages ----+
+ *                       |                                +-- done
+ * transform -- send ----+-- saveOutboundReportId --------+
+ * </pre>
+ *
+ * The metadata branch saves and links the metadata in the database on a small executor while the
+ * request thread transforms and sends the message. It doesn't call ReportStream, because the
+ * ingestion time is looked up afterward by the {@link
+ * gov.hhs.cdc.trustedintermediary.etor.metadata.partner.IngestionTimeEnrichmentWorker}, but the
+ * database round trips still overlap the transform and send. The outbound report id is only saved
+ * once the inbound metadata exists, and the graph always waits for every stage before returning,
+ * including when sending fails, so the failure handling sees the saved metadata. The time each
+ * stage takes is recorded for the metrics endpoint.
+ */
+public class SendMessageStageGraph {
+
+    static final String STAGE_THREADS_PROPERTY = "SEND_STAGE_THREADS";
+    static final String STAGE_QUEUE_SIZE_PROPERTY = "SEND_STAGE_QUEUE_SIZE";
+    static final int DEFAULT_STAGE_THREADS = 8;
+    static final int DEFAULT_STAGE_QUEUE_SIZE = 100;
+
+    static final String SAVE_INBOUND_METADATA_STAGE = "saveInboundMetadata";
+    static final String LINK_MESSAGES_STAGE = "linkMessages";
+    static final String TRANSFORM_STAGE = "transform";
+    static final String SEND_STAGE = "send";
+    static final String SAVE_OUTBOUND_REPORT_ID_STAGE = "saveOutboundReportId";
+    static final String ENCODE_STAGE = "encode";
+    static final String ENQUEUE_STAGE = "enqueue";
+
+    private static final SendMessageStageGraph INSTANCE = new SendMessageStageGraph();
+
+    private final Map<String, Map<String, LatencyHistogram>> stageLatencies =
+            new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executor;
+
+    @Inject SendMessageHelper sendMessageHelper;
+    @Inject OutboxSenderWorker outboxSenderWorker;
+    @Inject Logger logger;
+
+    private SendMessageStageGraph() {}
+
+    public static SendMessageStageGraph getInstance() {
+        return INSTANCE;
+    }
+
+    /** A stage that runs on the request thread and can fail the send. */
+    @FunctionalInterface
+    public interface Stage<T> {
+        T run() throws UnableToSendMessageException;
+    }
+
+    /**
+     * Saves the metadata, transforms and sends the message, links it and saves the outbound report
+     * id, running independent stages concurrently. The stage timings are recorded under the
+     * message type of the metadata.
+     *
+     * @return The outbound report id, or null when ReportStream didn't return one.
+     * @throws UnableToSendMessageException When the transformation or the send fails. The
+     *     metadata stages have finished by then. A failed metadata stage is logged instead of
+     *     thrown, so it can't replace the outcome of the send.
+     */
+    public String run(PartnerMetadata partnerMetadata, Stage<Void> transform, Stage<String> send)
+            throws UnableToSendMessageException {
+        String messageType = String.valueOf(partnerMetadata.messageType());
+        String inboundReportId = partnerMetadata.inboundReportId();
+
+        // the stages are wrapped here because the link stage is submitted from a worker thread
+        Runnable saveInboundMetadata =
+                asyncStage(
+                        messageType,
+                        SAVE_INBOUND_METADATA_STAGE,
+                        () ->
+                                sendMessageHelper.savePartnerMetadataForInboundMessage(
+                                        partnerMetadata));
+        Runnable linkMessages =
+                asyncStage(
+                        messageType,
+                        LINK_MESSAGES_STAGE,
+                        () -> sendMessageHelper.linkMessage(inboundReportId));
+
+        ThreadPoolExecutor stageExecutor = getExecutor();
+        CompletableFuture<Void> inboundMetadataSaved =
+                CompletableFuture.runAsync(saveInboundMetadata, stageExecutor);
+        CompletableFuture<Void> messagesLinked =
+                inboundMetadataSaved.thenRunAsync(linkMessages, stageExecutor);
+
+        String outboundReportId;
+        try {
+            timed(messageType, TRANSFORM_STAGE, transform);
+            outboundReportId = timed(messageType, SEND_STAGE, send);
+        } catch (UnableToSendMessageException | RuntimeException e) {
+            if (awaitStage(inboundMetadataSaved, SAVE_INBOUND_METADATA_STAGE, inboundReportId)) {
+                awaitStage(messagesLinked, LINK_MESSAGES_STAGE, inboundReportId);
+            }
+            throw e;
+        }
+
+        // the message was sent, so its report id is saved even when the inbound stage failed
+        boolean inboundSaved =
+                awaitStage(inboundMetadataSaved, SAVE_INBOUND_METADATA_STAGE, inboundReportId);
+        try {
+            timed(
+                    messageType,
+                    SAVE_OUTBOUND_REPORT_ID_STAGE,
+                    () -> {
+                        sendMessageHelper.saveOutboundReportId(inboundReportId, outboundReportId);
+                        return null;
+                    });
+        } finally {
+            if (inboundSaved) {
+                awaitStage(messagesLinked, LINK_MESSAGES_STAGE, inboundReportId);
+            }
+        }
+
+        return outboundReportId;
+    }
+
+    /**
+     * Transforms and encodes the message, then saves it to the outbox together with its metadata
+     * and links it. The message is delivered by the {@link OutboxSenderWorker}, so ReportStream
+     * isn't called during the request. When the transformation or the encoding fails, the metadata
+     * is saved on its own so the failure handling sees it.
+     *
+     * @throws UnableToSendMessageException When the transformation or the encoding fails, or the
+     *     message can't be saved to the outbox.
+     */
+    public void enqueue(
+            PartnerMetadata partnerMetadata,
+            String fhirResourceId,
+            Stage<Void> transform,
+            Stage<String> encode)
+            throws UnableToSendMessageException {
+        String messageType = String.valueOf(partnerMetadata.messageType());
+        String inboundReportId = partnerMetadata.inboundReportId();
+
+        String payload;
+        try {
+            timed(messageType, TRANSFORM_STAGE, transform);
+            payload = timed(messageType, ENCODE_STAGE, encode);
+        } catch (UnableToSendMessageException | RuntimeException e) {
+            timed(
+                    messageType,
+                    SAVE_INBOUND_METADATA_STAGE,
+                    () -> {
+                        sendMessageHelper.savePartnerMetadataForInboundMessage(partnerMetadata);
+                        return null;
+                    });
+            throw e;
+        }
+
+        timed(
+                messageType,
+                ENQUEUE_STAGE,
+                () -> {
+                    try {
+                        outboxSenderWorker.enqueue(partnerMetadata, fhirResourceId, payload);
+                    } catch (OutboxException e) {
+                        throw new UnableToSendMessageException(
+                                "Unable to save the " + messageType + " to the outbox", e);
+                    }
+                    return null;
+                });
+        timed(
+                messageType,
+                LINK_MESSAGES_STAGE,
+                () -> {
+                    sendMessageHelper.linkMessage(inboundReportId);
+                    return null;
+                });
+    }
+
+    /** Returns the latency of each stage, keyed by message type and stage name. */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new TreeMap<>();
+        stageLatencies.forEach(
+                (messageType, stages) -> {
+                    Map<String, Object> stageSummaries = new TreeMap<>();
+                    stages.forEach(
+                            (stage, histogram) -> stageSummaries.put(stage, histogram.summary()));
+                    summary.put(messageType, stageSummaries);
+                });
+        return summary;
+    }
+
+    /** Stops the executor and clears the timings. */
+    public synchronized void reset() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        stageLatencies.clear();
+    }
+
+    private Runnable asyncStage(String messageType, String stage, Runnable task) {
+        Runnable timedTask =
+                () -> {
+                    long start = System.nanoTime();
+                    try {
+                        task.run();
+                    } finally {
+                        record(messageType, stage, System.nanoTime() - start);
+                    }
+                };
+        // the stages look up the ReportStream client, which can be registered for this request only
+        return ApplicationContext.withThreadRegistrations(timedTask);
+    }
+
+    private <T> T timed(String messageType, String stage, Stage<T> task)
+            throws UnableToSendMessageException {
+        long start = System.nanoTime();
+        try {
+            return task.run();
+        } finally {
+            record(messageType, stage, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Waits for a stage on the executor and logs its failure instead of throwing it. The link stage
+     * doesn't run when the inbound stage failed, so it's only waited for when that one succeeded.
+     *
+     * @return Whether the stage succeeded.
+     */
+    private boolean awaitStage(
+            CompletableFuture<Void> future, String stage, String inboundReportId) {
+        return future.handle(
+                        (ignored, e) -> {
+                            if (e == null) {
+                                return true;
+                            }
+                            logger.logError(
+                                    "The " + stage + " stage failed for message " + inboundReportId,
+                                    e instanceof CompletionException ? e.getCause() : e);
+                            return false;
+                        })
+                .join();
+    }
+
+    private void record(String messageType, String stage, long elapsedNanos) {
+        stageLatencies
+                .computeIfAbsent(messageType, type -> new ConcurrentHashMap<>())
+                .computeIfAbsent(stage, name -> new LatencyHistogram())
+                .record(elapsedNanos);
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = getIntProperty(STAGE_THREADS_PROPERTY, DEFAULT_STAGE_THREADS);
+            int queueSize = getIntProperty(STAGE_QUEUE_SIZE_PROPERTY, DEFAULT_STAGE_QUEUE_SIZE);
+            AtomicInteger threadCount = new AtomicInteger();
+
+            // when the queue is full the request thread runs the stage itself, which is how the
+            // steps ran before they were split into stages
+            executor =
+                    new ThreadPoolExecutor(
+                            threads,
+                            threads,
+                            0,
+                            TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(queueSize),
+                            runnable -> {
+                                Thread thread =
+                                        new Thread(
+                                                runnable,
+                                                "send-stage-worker-"
+                                                        + threadCount.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            },
+                            new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return executor;
+    }
+
+    private int getIntProperty(String property, int defaultValue) {
+        String value = ApplicationContext.getProperty(property, String.valueOf(defaultValue));
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            logger.logWarning(
+                    "Invalid {} value {}, using the default of {}", property, value, defaultValue);
+            return defaultValue;
+        }
+    }
+}
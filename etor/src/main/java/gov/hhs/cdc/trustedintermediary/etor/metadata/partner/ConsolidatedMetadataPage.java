@@ -0,0 +1,12 @@
+package gov.hhs.cdc.trustedintermediary.etor.metadata.partner;
+
+import java.util.Map;
+
+/**
+ * One page of a sender's consolidated metadata.
+ *
+ * @param metadata The status, staleness and failure reason of each message, by inbound report ID.
+ * @param continuationToken The token for the next page, or null when this is the last page.
+ */
+public record ConsolidatedMetadataPage(
+        Map<String, Map<String, Object>> metadata, String continuationToken) {}
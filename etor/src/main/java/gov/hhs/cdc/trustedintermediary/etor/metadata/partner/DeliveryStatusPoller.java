@@ -0,0 +1,199 @@
+package gov.hhs.cdc.trustedintermediary.etor.metadata.partner;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.etor.RSEndpointClient;
+import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamEndpointClientException;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+
+/**
+ * Keeps the delivery status of pending metadata up to date in the background, so reading the
+ * metadata never waits on the RS history API and the calls to ReportStream follow the number of
+ * messages instead of how often partners ask for their status. Every {@value
+ * #POLL_INTERVAL_PROPERTY} milliseconds, or right away after a full batch, the poller claims up to
+ * {@value #BATCH_SIZE_PROPERTY} pending messages that weren't checked in the last {@value
+ * #REFRESH_INTERVAL_PROPERTY} milliseconds and looks up their status, rate limited by {@value
+ * #LOOKUPS_PER_SECOND_PROPERTY}. Claiming a message records it as checked, so concurrent refreshes
+ * of the same message, whether on this node or another one, collapse into a single lookup.
+ */
+public class DeliveryStatusPoller {
+
+    static final String POLL_INTERVAL_PROPERTY = "DELIVERY_STATUS_POLL_INTERVAL_MS";
+    static final String REFRESH_INTERVAL_PROPERTY = "DELIVERY_STATUS_REFRESH_INTERVAL_MS";
+    static final String BATCH_SIZE_PROPERTY = "DELIVERY_STATUS_BATCH_SIZE";
+    static final String LOOKUPS_PER_SECOND_PROPERTY = "DELIVERY_STATUS_LOOKUPS_PER_SECOND";
+    static final int DEFAULT_POLL_INTERVAL_MILLIS = 5_000;
+    static final int DEFAULT_REFRESH_INTERVAL_MILLIS = 60_000;
+    static final int DEFAULT_BATCH_SIZE = 50;
+    static final int DEFAULT_LOOKUPS_PER_SECOND = 10;
+
+    private static final DeliveryStatusPoller INSTANCE = new DeliveryStatusPoller();
+
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder claimErrors = new LongAdder();
+
+    private Thread pollerThread;
+    private volatile Settings settings;
+    private long nextLookupNanos;
+
+    @Inject PartnerMetadataOrchestrator partnerMetadataOrchestrator;
+    @Inject Logger logger;
+
+    private DeliveryStatusPoller() {}
+
+    public static DeliveryStatusPoller getInstance() {
+        return INSTANCE;
+    }
+
+    /** Starts the poller thread. Does nothing when it's already running. */
+    public synchronized void start() {
+        if (pollerThread != null) {
+            return;
+        }
+
+        settings = readSettings();
+        nextLookupNanos = System.nanoTime();
+
+        pollerThread = new Thread(this::poll, "delivery-status-poller");
+        pollerThread.setDaemon(true);
+        pollerThread.start();
+    }
+
+    /** Stops the poller thread and forgets the counters. */
+    public void reset() {
+        Thread thread;
+        synchronized (this) {
+            thread = pollerThread;
+            pollerThread = null;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        refreshed.reset();
+        failed.reset();
+        claimErrors.reset();
+    }
+
+    /** Returns the poller counters for the metrics endpoint. */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("refreshed", refreshed.sum());
+        summary.put("failed", failed.sum());
+        summary.put("claimErrors", claimErrors.sum());
+        return summary;
+    }
+
+    private void poll() {
+        // the poller has no request, so it always uses the application's ReportStream client
+        ApplicationContext.clearThreadRegistrations();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                int claimed = refreshBatch();
+                if (claimed < settings.batchSize()) {
+                    TimeUnit.MILLISECONDS.sleep(settings.pollIntervalMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.logError("Unexpected error while refreshing delivery statuses", e);
+            }
+        }
+    }
+
+    private int refreshBatch() throws InterruptedException {
+        Set<String> inboundReportIds;
+        try {
+            inboundReportIds =
+                    partnerMetadataOrchestrator.claimPendingStatusChecks(
+                            Instant.now().minusMillis(settings.refreshIntervalMillis()),
+                            settings.batchSize());
+        } catch (PartnerMetadataException e) {
+            claimErrors.increment();
+            logger.logError("Unable to claim metadata for delivery status checks", e);
+            return 0;
+        }
+
+        if (inboundReportIds.isEmpty()) {
+            return 0;
+        }
+
+        RSEndpointClient rsclient = ApplicationContext.getImplementation(RSEndpointClient.class);
+        String bearerToken;
+        try {
+            bearerToken = rsclient.getRsToken();
+        } catch (ReportStreamEndpointClientException e) {
+            // the claimed messages are checked again once the refresh interval has passed
+            failed.add(inboundReportIds.size());
+            logger.logError("Unable to get a ReportStream token to refresh delivery statuses", e);
+            return 0;
+        }
+
+        for (String inboundReportId : inboundReportIds) {
+            waitForRateLimit();
+            try {
+                partnerMetadataOrchestrator.refreshDeliveryStatus(
+                        rsclient, bearerToken, inboundReportId);
+                refreshed.increment();
+            } catch (PartnerMetadataException | RuntimeException e) {
+                failed.increment();
+                logger.logWarning(
+                        "Unable to refresh the delivery status for inboundReportId {}: {}",
+                        inboundReportId,
+                        e.getMessage());
+            }
+        }
+
+        return inboundReportIds.size();
+    }
+
+    private void waitForRateLimit() throws InterruptedException {
+        long now = System.nanoTime();
+        if (nextLookupNanos > now) {
+            TimeUnit.NANOSECONDS.sleep(nextLookupNanos - now);
+            now = nextLookupNanos;
+        }
+        nextLookupNanos = now + settings.lookupIntervalNanos();
+    }
+
+    private Settings readSettings() {
+        int lookupsPerSecond =
+                getIntProperty(LOOKUPS_PER_SECOND_PROPERTY, DEFAULT_LOOKUPS_PER_SECOND);
+        return new Settings(
+                getIntProperty(POLL_INTERVAL_PROPERTY, DEFAULT_POLL_INTERVAL_MILLIS),
+                getIntProperty(REFRESH_INTERVAL_PROPERTY, DEFAULT_REFRESH_INTERVAL_MILLIS),
+                getIntProperty(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE),
+                TimeUnit.SECONDS.toNanos(1) / lookupsPerSecond);
+    }
+
+    private int getIntProperty(String property, int defaultValue) {
+        String value = ApplicationContext.getProperty(property, String.valueOf(defaultValue));
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            logger.logWarning(
+                    "Invalid {} value {}, using the default of {}", property, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private record Settings(
+            long pollIntervalMillis,
+            long refreshIntervalMillis,
+            int batchSize,
+            long lookupIntervalNanos) {}
+}
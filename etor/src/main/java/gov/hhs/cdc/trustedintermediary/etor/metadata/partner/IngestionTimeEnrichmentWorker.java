@@ -0,0 +1,376 @@
+package gov.hhs.cdc.trustedintermediary.etor.metadata.partner;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.etor.RSEndpointClient;
+import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamEndpointClientException;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+
+/**
+ * Looks up the time ReportStream received each inbound message in the background, so the call to
+ * the RS delivery API isn't part of handling the message. Lookups are taken from the queue in
+ * batches of up to {@value #BATCH_SIZE_PROPERTY}, share a token per batch, and are rate limited by
+ * {@value #LOOKUPS_PER_SECOND_PROPERTY}. A failed lookup is retried with exponential backoff up to
+ * {@value #MAX_ATTEMPTS_PROPERTY} times. Every {@value #BACKFILL_INTERVAL_PROPERTY} milliseconds,
+ * and once at startup, up to {@value #BACKFILL_LIMIT_PROPERTY} metadata entries that are still
+ * missing their time received are queued again, which also picks up lookups that were dropped
+ * because the queue was full or lost on a restart. The backfill claims the entries in the database,
+ * so each one is looked up by a single node, and an entry isn't claimed again for a backfill
+ * interval. Entries it skips, like the lookups that were given up on, stay claimed too, so they
+ * can't keep it from reaching the rest.
+ */
+public class IngestionTimeEnrichmentWorker {
+
+    static final String BATCH_SIZE_PROPERTY = "INGESTION_TIME_BATCH_SIZE";
+    static final String LOOKUPS_PER_SECOND_PROPERTY = "INGESTION_TIME_LOOKUPS_PER_SECOND";
+    static final String MAX_ATTEMPTS_PROPERTY = "INGESTION_TIME_MAX_ATTEMPTS";
+    static final String RETRY_BACKOFF_PROPERTY = "INGESTION_TIME_RETRY_BACKOFF_MS";
+    static final String BACKFILL_INTERVAL_PROPERTY = "INGESTION_TIME_BACKFILL_INTERVAL_MS";
+    static final String BACKFILL_LIMIT_PROPERTY = "INGESTION_TIME_BACKFILL_LIMIT";
+    static final String QUEUE_SIZE_PROPERTY = "INGESTION_TIME_QUEUE_SIZE";
+    static final int DEFAULT_BATCH_SIZE = 20;
+    static final int DEFAULT_LOOKUPS_PER_SECOND = 10;
+    static final int DEFAULT_MAX_ATTEMPTS = 5;
+    static final int DEFAULT_RETRY_BACKOFF_MILLIS = 2_000;
+    static final int DEFAULT_BACKFILL_INTERVAL_MILLIS = 600_000;
+    static final int DEFAULT_BACKFILL_LIMIT = 500;
+    static final int DEFAULT_QUEUE_SIZE = 10_000;
+    static final long MAX_RETRY_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final IngestionTimeEnrichmentWorker INSTANCE =
+            new IngestionTimeEnrichmentWorker();
+
+    private final DelayQueue<PendingLookup> queue = new DelayQueue<>();
+    // inbound report ids that are queued or being looked up, so an id is never queued twice
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // inbound report ids that ran out of attempts, which the backfill skips until a restart
+    private final Set<String> abandoned = ConcurrentHashMap.newKeySet();
+    private final LongAdder enriched = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder gaveUp = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder backfilled = new LongAdder();
+
+    private Thread workerThread;
+    private volatile Settings settings;
+    private long nextLookupNanos;
+    private long nextBackfillNanos;
+
+    @Inject PartnerMetadataOrchestrator partnerMetadataOrchestrator;
+    @Inject Logger logger;
+
+    private IngestionTimeEnrichmentWorker() {}
+
+    public static IngestionTimeEnrichmentWorker getInstance() {
+        return INSTANCE;
+    }
+
+    /** Queues a lookup of the time ReportStream received the given inbound message. */
+    public void enqueue(String inboundReportId) {
+        if (inboundReportId == null) {
+            return;
+        }
+
+        // can't @Inject because the implementation can be different for this specific thread, and
+        // the lookup runs on the worker thread
+        RSEndpointClient rsclient = ApplicationContext.getImplementation(RSEndpointClient.class);
+
+        start();
+        schedule(new PendingLookup(inboundReportId, rsclient, 1, System.nanoTime()));
+    }
+
+    /** Starts the worker thread, which first queues the backfill. Does nothing when running. */
+    public synchronized void start() {
+        if (workerThread != null) {
+            return;
+        }
+
+        settings = readSettings();
+        nextLookupNanos = System.nanoTime();
+        nextBackfillNanos = System.nanoTime();
+
+        workerThread = new Thread(this::processLookups, "ingestion-time-worker");
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    /** Stops the worker thread and forgets the queued lookups and counters. */
+    public void reset() {
+        Thread thread;
+        synchronized (this) {
+            thread = workerThread;
+            workerThread = null;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        queue.clear();
+        pending.clear();
+        abandoned.clear();
+        enriched.reset();
+        retried.reset();
+        gaveUp.reset();
+        dropped.reset();
+        backfilled.reset();
+    }
+
+    /** Returns the worker counters for the metrics endpoint. */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("queued", queue.size());
+        summary.put("enriched", enriched.sum());
+        summary.put("retried", retried.sum());
+        summary.put("gaveUp", gaveUp.sum());
+        summary.put("dropped", dropped.sum());
+        summary.put("backfilled", backfilled.sum());
+        return summary;
+    }
+
+    private boolean schedule(PendingLookup lookup) {
+        if (!pending.add(lookup.inboundReportId())) {
+            return false;
+        }
+
+        if (queue.size() >= settings.queueSize()) {
+            pending.remove(lookup.inboundReportId());
+            dropped.increment();
+            logger.logWarning(
+                    "Ingestion time queue is full, leaving inboundReportId {} for the backfill",
+                    lookup.inboundReportId());
+            return false;
+        }
+
+        queue.add(lookup);
+        return true;
+    }
+
+    private void processLookups() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                long untilBackfill = nextBackfillNanos - System.nanoTime();
+                if (untilBackfill <= 0) {
+                    backfill();
+                    continue;
+                }
+
+                PendingLookup first = queue.poll(untilBackfill, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<PendingLookup> batch = new ArrayList<>();
+                batch.add(first);
+                queue.drainTo(batch, settings.batchSize() - 1);
+                processBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.logError("Unexpected error while looking up ingestion times", e);
+            }
+        }
+    }
+
+    private void processBatch(List<PendingLookup> batch) throws InterruptedException {
+        // requests can use a different ReportStream client, so get one token per client
+        Map<RSEndpointClient, List<PendingLookup>> lookupsByClient = new IdentityHashMap<>();
+        for (PendingLookup lookup : batch) {
+            lookupsByClient
+                    .computeIfAbsent(lookup.rsclient(), client -> new ArrayList<>())
+                    .add(lookup);
+        }
+
+        for (Map.Entry<RSEndpointClient, List<PendingLookup>> entry : lookupsByClient.entrySet()) {
+            String bearerToken;
+            try {
+                bearerToken = entry.getKey().getRsToken();
+            } catch (ReportStreamEndpointClientException e) {
+                for (PendingLookup lookup : entry.getValue()) {
+                    retryLater(lookup, e);
+                }
+                continue;
+            }
+
+            for (PendingLookup lookup : entry.getValue()) {
+                waitForRateLimit();
+                lookUp(lookup, bearerToken);
+            }
+        }
+    }
+
+    private void lookUp(PendingLookup lookup, String bearerToken) {
+        try {
+            var timeReceived =
+                    partnerMetadataOrchestrator.lookUpTimeReceived(
+                            lookup.rsclient(), bearerToken, lookup.inboundReportId());
+            partnerMetadataOrchestrator.updateTimeReceived(lookup.inboundReportId(), timeReceived);
+            pending.remove(lookup.inboundReportId());
+            enriched.increment();
+        } catch (PartnerMetadataException | RuntimeException e) {
+            retryLater(lookup, e);
+        }
+    }
+
+    private void retryLater(PendingLookup lookup, Exception cause) {
+        if (lookup.attempt() >= settings.maxAttempts()) {
+            pending.remove(lookup.inboundReportId());
+            // keep the set from growing without bound when ReportStream stays unreachable
+            if (abandoned.size() >= settings.queueSize()) {
+                abandoned.clear();
+            }
+            abandoned.add(lookup.inboundReportId());
+            gaveUp.increment();
+            logger.logError(
+                    "Giving up looking up the ingestion time for inboundReportId "
+                            + lookup.inboundReportId()
+                            + " after "
+                            + lookup.attempt()
+                            + " attempts",
+                    cause);
+            return;
+        }
+
+        // the shift is capped so a large attempt count can't overflow
+        long backoffMillis =
+                Math.min(
+                        settings.retryBackoffMillis() << Math.min(lookup.attempt() - 1, 20),
+                        MAX_RETRY_BACKOFF_MILLIS);
+        retried.increment();
+        logger.logWarning(
+                "Unable to look up the ingestion time for inboundReportId {}, retrying in {} ms",
+                lookup.inboundReportId(),
+                backoffMillis);
+        queue.add(
+                new PendingLookup(
+                        lookup.inboundReportId(),
+                        lookup.rsclient(),
+                        lookup.attempt() + 1,
+                        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis)));
+    }
+
+    private void waitForRateLimit() throws InterruptedException {
+        long now = System.nanoTime();
+        if (nextLookupNanos > now) {
+            TimeUnit.NANOSECONDS.sleep(nextLookupNanos - now);
+            now = nextLookupNanos;
+        }
+        nextLookupNanos = now + settings.lookupIntervalNanos();
+    }
+
+    private void backfill() {
+        nextBackfillNanos =
+                System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(settings.backfillIntervalMillis());
+
+        // the worker thread has no request, so this is the application's ReportStream client
+        RSEndpointClient rsclient = ApplicationContext.getImplementation(RSEndpointClient.class);
+        // claims made by any node during the last interval are left to that node
+        Instant claimedBefore = Instant.now().minusMillis(settings.backfillIntervalMillis());
+        int queued = 0;
+        while (queued < settings.backfillLimit()) {
+            // only claims what fits in the queue, so nothing claimed is dropped
+            int claimLimit =
+                    Math.min(
+                            settings.backfillLimit() - queued,
+                            settings.queueSize() - queue.size());
+            if (claimLimit <= 0) {
+                break;
+            }
+
+            Set<String> claimed;
+            try {
+                claimed =
+                        partnerMetadataOrchestrator.claimInboundReportIdsMissingTimeReceived(
+                                claimedBefore, claimLimit);
+            } catch (PartnerMetadataException e) {
+                logger.logError("Unable to claim metadata missing the ingestion time", e);
+                break;
+            }
+
+            for (String inboundReportId : claimed) {
+                if (!abandoned.contains(inboundReportId)
+                        && schedule(
+                                new PendingLookup(
+                                        inboundReportId, rsclient, 1, System.nanoTime()))) {
+                    queued++;
+                }
+            }
+
+            if (claimed.size() < claimLimit) {
+                break;
+            }
+        }
+
+        if (queued > 0) {
+            backfilled.add(queued);
+            logger.logInfo("Queued {} metadata entries missing the ingestion time", queued);
+        }
+    }
+
+    private Settings readSettings() {
+        int lookupsPerSecond =
+                getIntProperty(LOOKUPS_PER_SECOND_PROPERTY, DEFAULT_LOOKUPS_PER_SECOND);
+        return new Settings(
+                getIntProperty(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE),
+                TimeUnit.SECONDS.toNanos(1) / lookupsPerSecond,
+                getIntProperty(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS),
+                getIntProperty(RETRY_BACKOFF_PROPERTY, DEFAULT_RETRY_BACKOFF_MILLIS),
+                getIntProperty(BACKFILL_INTERVAL_PROPERTY, DEFAULT_BACKFILL_INTERVAL_MILLIS),
+                getIntProperty(BACKFILL_LIMIT_PROPERTY, DEFAULT_BACKFILL_LIMIT),
+                getIntProperty(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE));
+    }
+
+    private int getIntProperty(String property, int defaultValue) {
+        String value = ApplicationContext.getProperty(property, String.valueOf(defaultValue));
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            logger.logWarning(
+                    "Invalid {} value {}, using the default of {}", property, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private record Settings(
+            int batchSize,
+            long lookupIntervalNanos,
+            int maxAttempts,
+            long retryBackoffMillis,
+            long backfillIntervalMillis,
+            int backfillLimit,
+            int queueSize) {}
+
+    /** A queued lookup, which becomes available once it's due. */
+    private record PendingLookup(
+            String inboundReportId, RSEndpointClient rsclient, int attempt, long dueNanos)
+            implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueNanos, ((PendingLookup) other).dueNanos);
+        }
+    }
+}
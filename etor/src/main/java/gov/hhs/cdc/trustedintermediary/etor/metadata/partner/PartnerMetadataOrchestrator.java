@@ -2,7 +2,6 @@ package gov.hhs.cdc.trustedintermediary.etor.metadata.partner;
 
 import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
 import gov.hhs.cdc.trustedintermediary.etor.RSEndpointClient;
-import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLink;
 import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLinkException;
 import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLinkStorage;
 import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamEndpointClientException;
@@ -10,15 +9,19 @@ import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
-import java.util.stream.Collectors;
 import javax.inject.Inject;
 
 /**
@@ -34,6 +37,7 @@ public class PartnerMetadataOrchestrator {
     @Inject MessageLinkStorage messageLinkStorage;
     @Inject Formatter formatter;
     @Inject Logger logger;
+    @Inject IngestionTimeEnrichmentWorker ingestionTimeEnrichmentWorker;
 
     public static PartnerMetadataOrchestrator getInstance() {
         return INSTANCE;
@@ -41,22 +45,63 @@ public class PartnerMetadataOrchestrator {
 
     private PartnerMetadataOrchestrator() {}
 
+    /**
+     * Starts a {@link PartnerMetadataSession} for the current request, so the metadata updates of
+     * the request read each message's metadata once and are saved together when the session is
+     * closed.
+     */
+    public void openMetadataSession() {
+        ApplicationContext.registerForThread(
+                PartnerMetadataSession.class, new PartnerMetadataSession(partnerMetadataStorage));
+    }
+
+    /** Saves the changes of the current request's metadata session and ends it. */
+    public void closeMetadataSession() throws PartnerMetadataException {
+        Optional<PartnerMetadataSession> session = currentSession();
+        if (session.isEmpty()) {
+            return;
+        }
+
+        ApplicationContext.clearThreadRegistration(PartnerMetadataSession.class);
+        session.get().flush();
+    }
+
+    /**
+     * Saves the metadata for a message we received. The time ReportStream received the message is
+     * looked up afterward by the {@link IngestionTimeEnrichmentWorker}, so that call to the
+     * ReportStream delivery API doesn't hold up the message.
+     */
     public void updateMetadataForInboundMessage(PartnerMetadata partnerMetadata)
             throws PartnerMetadataException {
 
-        // can't @Inject because the implementation can be different for this specific thread
-        RSEndpointClient rsclient = ApplicationContext.getImplementation(RSEndpointClient.class);
+        Optional<PartnerMetadataSession> session = currentSession();
+        if (session.isPresent()) {
+            // linking and the ingestion time lookup read the metadata from the storage, so the
+            // session is flushed right away
+            session.get().saveMetadata(partnerMetadata);
+            session.get().flush();
+        } else {
+            partnerMetadataStorage.saveMetadata(partnerMetadata);
+        }
+
+        if (partnerMetadata.timeReceived() == null) {
+            ingestionTimeEnrichmentWorker.enqueue(partnerMetadata.inboundReportId());
+        }
+    }
+
+    /**
+     * Looks up the time ReportStream received the given inbound message from the RS delivery API.
+     */
+    Instant lookUpTimeReceived(
+            RSEndpointClient rsclient, String bearerToken, String inboundReportId)
+            throws PartnerMetadataException {
 
         logger.logInfo(
-                "Looking up sender name and timeReceived from RS delivery API for inboundReportId: {}",
-                partnerMetadata.inboundReportId());
+                "Looking up timeReceived from RS delivery API for inboundReportId: {}",
+                inboundReportId);
 
-        Instant timeReceived;
         try {
-            String bearerToken = rsclient.getRsToken();
-            String responseBody =
-                    rsclient.requestDeliveryEndpoint(
-                            partnerMetadata.inboundReportId(), bearerToken);
+            String responseBody = rsclient.requestDeliveryEndpoint(inboundReportId, bearerToken);
             Map<String, Object> responseObject =
                     formatter.convertJsonToObject(responseBody, new TypeReference<>() {});
 
@@ -77,23 +122,27 @@ public class PartnerMetadataOrchestrator {
             // We should only have 1 object in originalIngestion, it is a list to support other RS
             // use cases
             String timestamp = originalIngestion.get(0).get("ingestionTime");
-            timeReceived = Instant.parse(timestamp);
+            return Instant.parse(timestamp);
 
         } catch (Exception e) {
-            // write the inbound report ID so that the rest of the metadata flow works even if
-            // some data is missing
-            logger.logWarning(
-                    "Unable to retrieve metadata from RS delivery API, but writing basic metadata entry anyway for received submission ID {}",
-                    partnerMetadata.inboundReportId());
-            partnerMetadataStorage.saveMetadata(partnerMetadata);
-
             throw new PartnerMetadataException(
                     "Unable to retrieve metadata from RS delivery API", e);
         }
+    }
 
-        logger.logInfo("Updating metadata with timeReceived: {}", timeReceived);
-        PartnerMetadata updatedPartnerMetadata = partnerMetadata.withTimeReceived(timeReceived);
-        partnerMetadataStorage.saveMetadata(updatedPartnerMetadata);
+    void updateTimeReceived(String inboundReportId, Instant timeReceived)
+            throws PartnerMetadataException {
+        logger.logInfo(
+                "Updating metadata for inboundReportId {} with timeReceived: {}",
+                inboundReportId,
+                timeReceived);
+        partnerMetadataStorage.saveTimeReceived(inboundReportId, timeReceived);
+    }
+
+    Set<String> claimInboundReportIdsMissingTimeReceived(Instant claimedBefore, int limit)
+            throws PartnerMetadataException {
+        return partnerMetadataStorage.claimInboundReportIdsMissingTimeReceived(
+                claimedBefore, Instant.now(), limit);
     }
 
     public void updateMetadataForOutboundMessage(String inboundReportId, String outboundReportId)
@@ -104,7 +153,7 @@ public class PartnerMetadataOrchestrator {
         }
 
         Optional<PartnerMetadata> optionalPartnerMetadata =
-                partnerMetadataStorage.readMetadata(inboundReportId);
+                readMetadataForUpdate(inboundReportId);
         if (optionalPartnerMetadata.isEmpty()) {
             logger.logWarning("Metadata not found for inboundReportId: {}", inboundReportId);
             return;
@@ -118,61 +167,92 @@ public class PartnerMetadataOrchestrator {
 
         logger.logInfo("Updating metadata with outboundReportId: {}", outboundReportId);
         partnerMetadata = partnerMetadata.withOutboundReportId(outboundReportId);
-        partnerMetadataStorage.saveMetadata(partnerMetadata);
+        saveMetadataForUpdate(partnerMetadata);
     }
 
+    /**
+     * Returns the stored metadata. The delivery status isn't looked up from ReportStream here, the
+     * {@link DeliveryStatusPoller} keeps it up to date in the background.
+     */
     public Optional<PartnerMetadata> getMetadata(String inboundReportId)
             throws PartnerMetadataException {
         Optional<PartnerMetadata> optionalPartnerMetadata =
                 partnerMetadataStorage.readMetadata(inboundReportId);
         if (optionalPartnerMetadata.isEmpty()) {
             logger.logInfo("Metadata not found for inboundReportId: {}", inboundReportId);
-            return Optional.empty();
         }
 
-        PartnerMetadata partnerMetadata = optionalPartnerMetadata.get();
+        return optionalPartnerMetadata;
+    }
+
+    /** Returns the time the delivery status was last checked with ReportStream, if it has been. */
+    public Optional<Instant> getStatusCheckedAt(String inboundReportId)
+            throws PartnerMetadataException {
+        return partnerMetadataStorage.readStatusCheckedAt(inboundReportId);
+    }
+
+    Set<String> claimPendingStatusChecks(Instant checkedBefore, int limit)
+            throws PartnerMetadataException {
+        return partnerMetadataStorage.claimPendingStatusChecks(checkedBefore, Instant.now(), limit);
+    }
+
+    /**
+     * Looks up the delivery status of the given message from the RS history API and saves it, if
+     * the metadata is stale. Messages sent with the mock client of a load test can't be looked up
+     * in ReportStream, so the sender refreshes their status with the mock client right after the
+     * send.
+     */
+    public void refreshDeliveryStatus(
+            RSEndpointClient rsclient, String bearerToken, String inboundReportId)
+            throws PartnerMetadataException {
+        Optional<PartnerMetadata> optionalPartnerMetadata =
+                readMetadataForUpdate(inboundReportId);
+        if (optionalPartnerMetadata.isEmpty()) {
+            logger.logInfo("Metadata not found for inboundReportId: {}", inboundReportId);
+            return;
+        }
+
+        refreshDeliveryStatus(rsclient, bearerToken, optionalPartnerMetadata.get());
+    }
+
+    private void refreshDeliveryStatus(
+            RSEndpointClient rsclient, String bearerToken, PartnerMetadata partnerMetadata)
+            throws PartnerMetadataException {
         var outboundReportId = partnerMetadata.outboundReportId();
-        if (metadataIsStale(partnerMetadata) && outboundReportId != null) {
-
-            // can't @Inject because the implementation can be different for this specific thread
-            RSEndpointClient rsclient =
-                    ApplicationContext.getImplementation(RSEndpointClient.class);
-
-            logger.logInfo(
-                    "Receiver name not found in metadata or delivery status still pending, looking up {} from RS history API",
-                    outboundReportId);
-
-            String rsStatus;
-            String rsMessage = "";
-            String timeDelivered;
-            try {
-                String bearerToken = rsclient.getRsToken();
-                String responseBody =
-                        rsclient.requestHistoryEndpoint(outboundReportId, bearerToken);
-                var parsedResponseBody = getDataFromReportStream(responseBody);
-                rsStatus = parsedResponseBody[0];
-                rsMessage = parsedResponseBody[1];
-                timeDelivered = parsedResponseBody[2];
-            } catch (ReportStreamEndpointClientException | FormatterProcessingException e) {
-                throw new PartnerMetadataException(
-                        "Unable to retrieve metadata from RS history API", e);
-            }
+        if (!metadataIsStale(partnerMetadata) || outboundReportId == null) {
+            return;
+        }
 
-            var ourStatus = ourStatusFromReportStreamStatus(rsStatus);
+        logger.logInfo(
+                "Receiver name not found in metadata or delivery status still pending, looking up {} from RS history API",
+                outboundReportId);
 
-            logger.logInfo("Updating metadata with status {}", ourStatus);
-            partnerMetadata = partnerMetadata.withDeliveryStatus(ourStatus);
+        String rsStatus;
+        String rsMessage = "";
+        String timeDelivered;
+        try {
+            String responseBody = rsclient.requestHistoryEndpoint(outboundReportId, bearerToken);
+            var parsedResponseBody = getDataFromReportStream(responseBody);
+            rsStatus = parsedResponseBody[0];
+            rsMessage = parsedResponseBody[1];
+            timeDelivered = parsedResponseBody[2];
+        } catch (ReportStreamEndpointClientException | FormatterProcessingException e) {
+            throw new PartnerMetadataException(
+                    "Unable to retrieve metadata from RS history API", e);
+        }
 
-            if (ourStatus == PartnerMetadataStatus.FAILED) {
-                partnerMetadata = partnerMetadata.withFailureMessage(rsMessage);
-            } else if (ourStatus == PartnerMetadataStatus.DELIVERED && timeDelivered != null) {
-                partnerMetadata = partnerMetadata.withTimeDelivered(Instant.parse(timeDelivered));
-            }
+        var ourStatus = ourStatusFromReportStreamStatus(rsStatus);
 
-            partnerMetadataStorage.saveMetadata(partnerMetadata);
+        logger.logInfo("Updating metadata with status {}", ourStatus);
+        partnerMetadata = partnerMetadata.withDeliveryStatus(ourStatus);
+
+        if (ourStatus == PartnerMetadataStatus.FAILED) {
+            partnerMetadata = partnerMetadata.withFailureMessage(rsMessage);
+        } else if (ourStatus == PartnerMetadataStatus.DELIVERED && timeDelivered != null) {
+            partnerMetadata = partnerMetadata.withTimeDelivered(Instant.parse(timeDelivered));
         }
 
-        return Optional.of(partnerMetadata);
+        saveMetadataForUpdate(partnerMetadata);
     }
 
     public void setMetadataStatusToFailed(String inboundReportId, String errorMessage)
@@ -182,7 +262,7 @@ public class PartnerMetadataOrchestrator {
         }
 
         Optional<PartnerMetadata> optionalPartnerMetadata =
-                partnerMetadataStorage.readMetadata(inboundReportId);
+                readMetadataForUpdate(inboundReportId);
         PartnerMetadata partnerMetadata;
         if (optionalPartnerMetadata.isEmpty()) {
             // there wasn't any metadata given the submission ID, so make one with the status
@@ -202,30 +282,121 @@ public class PartnerMetadataOrchestrator {
                 partnerMetadata
                         .withDeliveryStatus(PartnerMetadataStatus.FAILED)
                         .withFailureMessage(errorMessage);
-        partnerMetadataStorage.saveMetadata(partnerMetadata);
+        saveMetadataForUpdate(partnerMetadata);
     }
 
-    public Map<String, Map<String, Object>> getConsolidatedMetadata(String senderName)
+    /**
+     * Returns a page of the status, staleness and failure reason of the given sender's messages,
+     * ordered by inbound report ID. Pass the continuation token of a page to get the page after it.
+     */
+    public ConsolidatedMetadataPage getConsolidatedMetadata(
+            String senderName, Instant receivedSince, String continuationToken, int limit)
             throws PartnerMetadataException {
+        String afterInboundReportId =
+                continuationToken == null ? null : decodeContinuationToken(continuationToken);
+
+        // reading one more than the limit tells us whether there's another page
+        List<PartnerMetadataSummary> summaries =
+                partnerMetadataStorage.readMetadataSummaryForSender(
+                        senderName, receivedSince, afterInboundReportId, limit + 1);
+        boolean hasNextPage = summaries.size() > limit;
+        if (hasNextPage) {
+            summaries = summaries.subList(0, limit);
+        }
 
-        var metadataSet = partnerMetadataStorage.readMetadataForSender(senderName);
+        Map<String, Map<String, Object>> metadata = new LinkedHashMap<>();
+        for (PartnerMetadataSummary summary : summaries) {
+            Map<String, Object> innerMap = new HashMap<>();
+            innerMap.put("status", String.valueOf(summary.deliveryStatus()));
+            innerMap.put(
+                    "stale",
+                    metadataIsStale(
+                            summary.receivingFacilityUniversalId(), summary.deliveryStatus()));
+            innerMap.put("failureReason", summary.failureReason());
+
+            metadata.put(summary.inboundReportId(), innerMap);
+        }
 
-        return metadataSet.stream()
-                .collect(
-                        Collectors.toMap(
-                                PartnerMetadata::inboundReportId,
-                                metadata -> {
-                                    var status = String.valueOf(metadata.deliveryStatus());
-                                    var stale = metadataIsStale(metadata);
-                                    var failureReason = metadata.failureReason();
+        String nextContinuationToken =
+                hasNextPage
+                        ? encodeContinuationToken(summaries.get(limit - 1).inboundReportId())
+                        : null;
+        return new ConsolidatedMetadataPage(metadata, nextContinuationToken);
+    }
 
-                                    Map<String, Object> innerMap = new HashMap<>();
-                                    innerMap.put("status", status);
-                                    innerMap.put("stale", stale);
-                                    innerMap.put("failureReason", failureReason);
+    /**
+     * Returns all of the given sender's consolidated metadata, in the same order as {@link
+     * #getConsolidatedMetadata}. The first page is read right away and the later ones as the
+     * entries are iterated, so the whole summary is never held in memory. A failure to read a later
+     * page is thrown from the iterator as a RuntimeException.
+     */
+    public Iterator<Map.Entry<String, Map<String, Object>>> getAllConsolidatedMetadata(
+            String senderName, Instant receivedSince, int pageSize)
+            throws PartnerMetadataException {
+        ConsolidatedMetadataPage firstPage =
+                getConsolidatedMetadata(senderName, receivedSince, null, pageSize);
+
+        return new Iterator<>() {
+            private ConsolidatedMetadataPage page = firstPage;
+            private Iterator<Map.Entry<String, Map<String, Object>>> entries =
+                    firstPage.metadata().entrySet().iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!entries.hasNext() && page.continuationToken() != null) {
+                    try {
+                        page =
+                                getConsolidatedMetadata(
+                                        senderName,
+                                        receivedSince,
+                                        page.continuationToken(),
+                                        pageSize);
+                    } catch (PartnerMetadataException e) {
+                        throw new RuntimeException(e);
+                    }
+                    entries = page.metadata().entrySet().iterator();
+                }
+                return entries.hasNext();
+            }
 
-                                    return innerMap;
-                                }));
+            @Override
+            public Map.Entry<String, Map<String, Object>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return entries.next();
+            }
+        };
+    }
+
+    /**
+     * Returns how many of the given sender's messages are in each delivery status, in total and
+     * per UTC day received. The totals only include messages that don't have a time received yet
+     * when no days are given.
+     */
+    public Map<String, Object> getStatusCounts(
+            String senderName, LocalDate receivedFrom, LocalDate receivedTo)
+            throws PartnerMetadataException {
+        List<PartnerMetadataStatusCount> statusCounts =
+                partnerMetadataStorage.readStatusCountsForSender(
+                        senderName, receivedFrom, receivedTo);
+
+        Map<String, Long> totals = emptyStatusCounts();
+        Map<String, Map<String, Long>> days = new LinkedHashMap<>();
+        for (PartnerMetadataStatusCount statusCount : statusCounts) {
+            String status = statusCount.deliveryStatus().toString();
+            totals.merge(status, statusCount.count(), Long::sum);
+            if (statusCount.receivedDay() != null) {
+                days.computeIfAbsent(
+                                statusCount.receivedDay().toString(), day -> emptyStatusCounts())
+                        .merge(status, statusCount.count(), Long::sum);
+            }
+        }
+
+        Map<String, Object> counts = new LinkedHashMap<>();
+        counts.put("totals", totals);
+        counts.put("days", days);
+        return counts;
     }
 
     public Set<String> findMessagesIdsToLink(String inboundReportId)
@@ -234,28 +405,13 @@ public class PartnerMetadataOrchestrator {
         return partnerMetadataStorage.readMetadataForMessageLinking(inboundReportId);
     }
 
+    /**
+     * Links the given messages together, merging the links any of them already have, in a single
+     * step of the message link storage.
+     */
     public void linkMessages(Set<String> messageIds) throws MessageLinkException {
-        Optional<MessageLink> existingMessageLink = Optional.empty();
-        for (String messageId : messageIds) {
-            existingMessageLink = messageLinkStorage.getMessageLink(messageId);
-            if (existingMessageLink.isPresent()) {
-                break;
-            }
-        }
-
-        if (existingMessageLink.isEmpty()) {
-            logger.logInfo("Saving new message link for messageIds: {}", messageIds);
-            messageLinkStorage.saveMessageLink(new MessageLink(UUID.randomUUID(), messageIds));
-            return;
-        }
-
-        MessageLink messageLink = existingMessageLink.get();
-        messageLink.addMessageIds(messageIds);
-        logger.logInfo(
-                "Updating existing message link {} with messageIds: {}",
-                messageLink.getLinkId(),
-                messageIds);
-        messageLinkStorage.saveMessageLink(messageLink);
+        logger.logInfo("Linking messageIds: {}", messageIds);
+        messageLinkStorage.linkMessages(messageIds);
     }
 
     String[] getDataFromReportStream(String responseBody) throws FormatterProcessingException {
@@ -326,8 +482,64 @@ public class PartnerMetadataOrchestrator {
         };
     }
 
+    private Optional<PartnerMetadataSession> currentSession() {
+        return ApplicationContext.getThreadImplementation(PartnerMetadataSession.class);
+    }
+
+    // goes through the request's metadata session when there is one, so the metadata is read once
+    private Optional<PartnerMetadata> readMetadataForUpdate(String inboundReportId)
+            throws PartnerMetadataException {
+        Optional<PartnerMetadataSession> session = currentSession();
+        if (session.isPresent()) {
+            return session.get().readMetadata(inboundReportId);
+        }
+        return partnerMetadataStorage.readMetadata(inboundReportId);
+    }
+
+    // the session saves the metadata when it's closed, without a session it's saved right away
+    private void saveMetadataForUpdate(PartnerMetadata partnerMetadata)
+            throws PartnerMetadataException {
+        Optional<PartnerMetadataSession> session = currentSession();
+        if (session.isPresent()) {
+            session.get().saveMetadata(partnerMetadata);
+        } else {
+            partnerMetadataStorage.saveMetadata(partnerMetadata);
+        }
+    }
+
     private boolean metadataIsStale(PartnerMetadata partnerMetadata) {
-        return partnerMetadata.receivingFacilityDetails().universalId() == null
-                || partnerMetadata.deliveryStatus() == PartnerMetadataStatus.PENDING;
+        return metadataIsStale(
+                partnerMetadata.receivingFacilityDetails().universalId(),
+                partnerMetadata.deliveryStatus());
+    }
+
+    private boolean metadataIsStale(
+            String receivingFacilityUniversalId, PartnerMetadataStatus deliveryStatus) {
+        return receivingFacilityUniversalId == null
+                || deliveryStatus == PartnerMetadataStatus.PENDING;
+    }
+
+    private Map<String, Long> emptyStatusCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (PartnerMetadataStatus status : PartnerMetadataStatus.values()) {
+            counts.put(status.toString(), 0L);
+        }
+        return counts;
+    }
+
+    // the token is the last inbound report ID of the page, so the next page starts after it
+    static String encodeContinuationToken(String inboundReportId) {
+        return Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString(inboundReportId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String decodeContinuationToken(String continuationToken) {
+        try {
+            return new String(
+                    Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
     }
 }
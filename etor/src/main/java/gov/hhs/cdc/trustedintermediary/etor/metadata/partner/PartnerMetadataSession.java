@@ -0,0 +1,59 @@
+package gov.hhs.cdc.trustedintermediary.etor.metadata.partner;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The metadata of a single request. Each message's metadata is read from the {@link
+ * PartnerMetadataStorage} at most once, and the changes the request makes to it are kept here
+ * until {@link #flush()} saves the latest version of each message with one write. The session is
+ * registered for the request thread by {@link PartnerMetadataOrchestrator#openMetadataSession()},
+ * and the send stages running on other threads see it through their thread registrations.
+ */
+public class PartnerMetadataSession {
+
+    private final PartnerMetadataStorage partnerMetadataStorage;
+    private final Map<String, Optional<PartnerMetadata>> loaded = new HashMap<>();
+    private final Map<String, PartnerMetadata> changed = new LinkedHashMap<>();
+
+    PartnerMetadataSession(PartnerMetadataStorage partnerMetadataStorage) {
+        this.partnerMetadataStorage = partnerMetadataStorage;
+    }
+
+    /**
+     * Returns the metadata of the message, including changes that weren't flushed yet. Only the
+     * first read of a message goes to the storage.
+     */
+    public synchronized Optional<PartnerMetadata> readMetadata(String inboundReportId)
+            throws PartnerMetadataException {
+        Optional<PartnerMetadata> metadata = loaded.get(inboundReportId);
+        if (metadata == null) {
+            metadata = partnerMetadataStorage.readMetadata(inboundReportId);
+            loaded.put(inboundReportId, metadata);
+        }
+        return metadata;
+    }
+
+    /** Keeps the metadata to be saved by the next flush, replacing earlier unsaved changes. */
+    public synchronized void saveMetadata(PartnerMetadata metadata) {
+        loaded.put(metadata.inboundReportId(), Optional.of(metadata));
+        changed.put(metadata.inboundReportId(), metadata);
+    }
+
+    /**
+     * Saves the changed metadata together with one {@link
+     * PartnerMetadataStorage#saveAllMetadata(List)}. When the save fails the metadata stays
+     * changed, so the next flush tries it again.
+     */
+    public synchronized void flush() throws PartnerMetadataException {
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        partnerMetadataStorage.saveAllMetadata(List.copyOf(changed.values()));
+        changed.clear();
+    }
+}
@@ -0,0 +1,13 @@
+package gov.hhs.cdc.trustedintermediary.etor.metadata.partner;
+
+import java.time.LocalDate;
+
+/**
+ * The number of a sender's messages with a delivery status that were received on a day.
+ *
+ * @param receivedDay The UTC day the messages were received, or null if it isn't known yet.
+ * @param deliveryStatus The status of the messages.
+ * @param count The number of messages.
+ */
+public record PartnerMetadataStatusCount(
+        LocalDate receivedDay, PartnerMetadataStatus deliveryStatus, long count) {}
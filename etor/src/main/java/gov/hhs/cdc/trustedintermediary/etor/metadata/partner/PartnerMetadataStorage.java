@@ -1,5 +1,8 @@
 package gov.hhs.cdc.trustedintermediary.etor.metadata.partner;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -24,13 +27,89 @@ public interface PartnerMetadataStorage {
     void saveMetadata(PartnerMetadata metadata) throws PartnerMetadataException;
 
     /**
-     * This method will return a set of partner metadata for the given sender.
+     * Upserts all of the given metadata together. The database saves it with one batched
+     * statement in a single transaction, so it's either all saved or none of it is.
      *
-     * @param sender the name of the sender to search for
-     * @return a set of {@link PartnerMetadata}s.
+     * @param metadata The metadata to save, at most one per inbound report id.
      */
-    Set<PartnerMetadata> readMetadataForSender(String sender) throws PartnerMetadataException;
+    void saveAllMetadata(List<PartnerMetadata> metadata) throws PartnerMetadataException;
+
+    /**
+     * Returns a page of the summarized metadata for the given sender, ordered by inbound report ID.
+     *
+     * @param sender the universal ID of the sending facility to search for
+     * @param receivedSince only metadata received at or after this time is returned, unless it's
+     *     null
+     * @param afterInboundReportId only metadata with a greater inbound report ID is returned,
+     *     unless it's null
+     * @param limit the most summaries to return
+     * @return a list of {@link PartnerMetadataSummary}s.
+     */
+    List<PartnerMetadataSummary> readMetadataSummaryForSender(
+            String sender, Instant receivedSince, String afterInboundReportId, int limit)
+            throws PartnerMetadataException;
+
+    /**
+     * Returns the number of the given sender's messages in each delivery status, per UTC day
+     * received. Messages without a time received yet are counted with a null day, and only when
+     * no days are given.
+     *
+     * @param sender the universal ID of the sending facility to count for
+     * @param receivedFrom the first day to count, unless it's null
+     * @param receivedTo the last day to count, unless it's null
+     * @return a list of {@link PartnerMetadataStatusCount}s, one per day and status.
+     */
+    List<PartnerMetadataStatusCount> readStatusCountsForSender(
+            String sender, LocalDate receivedFrom, LocalDate receivedTo)
+            throws PartnerMetadataException;
 
     Set<String> readMetadataForMessageLinking(String inboundReportId)
             throws PartnerMetadataException;
+
+    /**
+     * Sets the time ReportStream received the inbound message, without touching the rest of the
+     * metadata. Metadata that already has a time received is left alone.
+     *
+     * @param inboundReportId The inbound report id of the metadata to update.
+     * @param timeReceived The time ReportStream received the message.
+     */
+    void saveTimeReceived(String inboundReportId, Instant timeReceived)
+            throws PartnerMetadataException;
+
+    /**
+     * Claims metadata that doesn't have a time received yet and hasn't been claimed for a lookup
+     * since the given time, marking it as claimed now. Metadata claimed by one caller isn't
+     * returned to another until it's due again, so the backfills of several nodes don't look up
+     * the same message.
+     *
+     * @param claimedBefore Only metadata last claimed before this time, or never, is claimed.
+     * @param claimedAt The time to record as the claim of the returned metadata.
+     * @param limit The maximum number of ids to claim.
+     * @return a set of inbound report ids.
+     */
+    Set<String> claimInboundReportIdsMissingTimeReceived(
+            Instant claimedBefore, Instant claimedAt, int limit) throws PartnerMetadataException;
+
+    /**
+     * Claims metadata whose delivery status is still pending and hasn't been checked with
+     * ReportStream since the given time, marking it as checked now. Metadata claimed by one caller
+     * isn't returned to another until it's due again, so concurrent pollers don't check the same
+     * message twice.
+     *
+     * @param checkedBefore Only metadata last checked before this time, or never, is claimed.
+     * @param checkedAt The time to record as the last check of the claimed metadata.
+     * @param limit The maximum number of ids to claim.
+     * @return a set of inbound report ids.
+     */
+    Set<String> claimPendingStatusChecks(Instant checkedBefore, Instant checkedAt, int limit)
+            throws PartnerMetadataException;
+
+    /**
+     * This method will retrieve the time the delivery status of the metadata was last checked with
+     * ReportStream, if it has been.
+     *
+     * @param inboundReportId The inbound report id of the metadata.
+     * @return The time of the last check, if there was one. Otherwise, an empty Optional.
+     */
+    Optional<Instant> readStatusCheckedAt(String inboundReportId) throws PartnerMetadataException;
 }
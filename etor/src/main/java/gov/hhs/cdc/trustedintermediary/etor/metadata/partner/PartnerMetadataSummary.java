@@ -0,0 +1,16 @@
+package gov.hhs.cdc.trustedintermediary.etor.metadata.partner;
+
+/**
+ * The few columns of the partner metadata that the consolidated summary needs, so it doesn't have
+ * to read and parse the whole metadata of every message.
+ *
+ * @param inboundReportId The inbound report ID.
+ * @param deliveryStatus The status of the message.
+ * @param failureReason Why the message failed, if it did.
+ * @param receivingFacilityUniversalId The universal ID of the receiving facility, if it's known.
+ */
+public record PartnerMetadataSummary(
+        String inboundReportId,
+        PartnerMetadataStatus deliveryStatus,
+        String failureReason,
+        String receivingFacilityUniversalId) {}
@@ -2,8 +2,7 @@ package gov.hhs.cdc.trustedintermediary.etor.orders;
 
 import gov.hhs.cdc.trustedintermediary.domainconnector.DomainRequest;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.EtorMetadataStep;
-import gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation.ValidationRuleEngine;
-import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirResource;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation.ValidationDispatcher;
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiOrder;
 import gov.hhs.cdc.trustedintermediary.wrappers.FhirParseException;
 import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir;
@@ -20,7 +19,7 @@ public class OrderController {
     @Inject HapiFhir fhir;
     @Inject Logger logger;
     @Inject MetricMetadata metadata;
-    @Inject ValidationRuleEngine validationEngine;
+    @Inject ValidationDispatcher validationDispatcher;
 
     private OrderController() {}
 
@@ -31,7 +30,7 @@ public class OrderController {
     public Order<?> parseOrders(DomainRequest request) throws FhirParseException {
         logger.logInfo("Parsing orders");
         var fhirBundle = fhir.parseResource(request.getBody(), Bundle.class);
-        validationEngine.runRules(new HapiFhirResource(fhirBundle));
+        validationDispatcher.validate(fhirBundle);
         metadata.put(fhirBundle.getId(), EtorMetadataStep.RECEIVED_FROM_REPORT_STREAM);
         return new HapiOrder(fhirBundle);
     }
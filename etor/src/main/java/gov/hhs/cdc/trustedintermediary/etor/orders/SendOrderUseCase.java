@@ -1,12 +1,15 @@
 package gov.hhs.cdc.trustedintermediary.etor.orders;
 
-import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageHelper;
+import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageStageGraph;
 import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageUseCase;
 import gov.hhs.cdc.trustedintermediary.etor.messages.UnableToSendMessageException;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType;
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxSenderWorker;
 import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.TransformationRuleEngine;
 import gov.hhs.cdc.trustedintermediary.etor.utils.security.HashHelper;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException;
+import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
 import gov.hhs.cdc.trustedintermediary.wrappers.MetricMetadata;
 import javax.inject.Inject;
@@ -17,7 +20,9 @@ public class SendOrderUseCase implements SendMessageUseCase<Order<?>> {
     @Inject TransformationRuleEngine transformationEngine;
     @Inject OrderSender sender;
     @Inject MetricMetadata metadata;
-    @Inject SendMessageHelper sendMessageHelper;
+    @Inject SendMessageStageGraph stageGraph;
+    @Inject OutboxSenderWorker outboxSenderWorker;
+    @Inject HapiFhir fhir;
     @Inject Logger logger;
     @Inject HashHelper hashHelper;
 
@@ -44,15 +49,34 @@ public class SendOrderUseCase implements SendMessageUseCase<Order<?>> {
                         order.getReceivingFacilityDetails(),
                         order.getPlacerOrderNumber());
 
-        sendMessageHelper.savePartnerMetadataForInboundMessage(partnerMetadata);
+        SendMessageStageGraph.Stage<Void> transform =
+                () -> {
+                    try {
+                        transformationEngine.runRules(order);
+                    } catch (RuleTimeBudgetExceededException e) {
+                        throw new UnableToSendMessageException(
+                                "Transforming the order took longer than its time budget", e);
+                    }
+                    return null;
+                };
 
-        transformationEngine.runRules(order);
+        if (outboxSenderWorker.isEnabled()) {
+            // ReportStream is called by the outbox sender, after the order has been accepted
+            stageGraph.enqueue(
+                    partnerMetadata,
+                    order.getFhirResourceId(),
+                    transform,
+                    () -> fhir.encodeResourceToJson(order.getUnderlyingData()));
+            return;
+        }
 
-        String outboundReportId = sender.send(order).orElse(null);
-        logger.logInfo("Sent order reportId: {}", outboundReportId);
-
-        sendMessageHelper.linkMessage(inboundReportId);
-
-        sendMessageHelper.saveOutboundReportId(inboundReportId, outboundReportId);
+        stageGraph.run(
+                partnerMetadata,
+                transform,
+                () -> {
+                    String outboundReportId = sender.send(order).orElse(null);
+                    logger.logInfo("Sent order reportId: {}", outboundReportId);
+                    return outboundReportId;
+                });
     }
 }
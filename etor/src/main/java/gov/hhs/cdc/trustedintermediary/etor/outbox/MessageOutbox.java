@@ -0,0 +1,36 @@
+package gov.hhs.cdc.trustedintermediary.etor.outbox;
+
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Stores the messages waiting to be delivered to ReportStream, so delivery can happen after the
+ * request that accepted the message and on any node.
+ */
+public interface MessageOutbox {
+
+    /**
+     * Saves the metadata for the message we received and adds the message to the outbox in one
+     * transaction, so neither exists without the other.
+     */
+    void saveWithMetadata(PartnerMetadata metadata, OutboxMessage message) throws OutboxException;
+
+    /**
+     * Claims up to the given number of messages that are due for delivery. A claimed message isn't
+     * handed out again until the lease runs out, which is how a message held by a node that went
+     * away gets delivered by another.
+     */
+    List<OutboxMessage> claim(int limit, Duration lease) throws OutboxException;
+
+    /** Removes a delivered message from the outbox. */
+    void markSent(String inboundReportId) throws OutboxException;
+
+    /** Releases a claimed message so it's delivered again at the given time. */
+    void scheduleRetry(String inboundReportId, Instant nextAttemptAt, String error)
+            throws OutboxException;
+
+    /** Keeps a message that won't be delivered in the outbox for investigation. */
+    void markFailed(String inboundReportId, String error) throws OutboxException;
+}
@@ -0,0 +1,9 @@
+package gov.hhs.cdc.trustedintermediary.etor.outbox;
+
+/** This exception is thrown when the outbox can't be read or updated. */
+public class OutboxException extends Exception {
+
+    public OutboxException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,23 @@
+package gov.hhs.cdc.trustedintermediary.etor.outbox;
+
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType;
+
+/**
+ * A transformed message waiting in the outbox to be delivered to ReportStream.
+ *
+ * @param inboundReportId The id of the message we received, which identifies the outbox row.
+ * @param messageType Whether the message is an order or a result.
+ * @param fhirResourceId The id of the FHIR bundle, used for the metric metadata.
+ * @param payload The encoded FHIR bundle to send.
+ * @param mockDelivery Whether the message is sent to the mock ReportStream client, like it would
+ *     have been for a load test request.
+ * @param attempts The number of times delivery has been attempted, including the current attempt
+ *     once the message is claimed.
+ */
+public record OutboxMessage(
+        String inboundReportId,
+        PartnerMetadataMessageType messageType,
+        String fhirResourceId,
+        String payload,
+        boolean mockDelivery,
+        int attempts) {}
@@ -0,0 +1,359 @@
+package gov.hhs.cdc.trustedintermediary.etor.outbox;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.etor.RSEndpointClient;
+import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageHelper;
+import gov.hhs.cdc.trustedintermediary.etor.messages.UnableToSendMessageException;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.IngestionTimeEnrichmentWorker;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataOrchestrator;
+import gov.hhs.cdc.trustedintermediary.external.localfile.MockRSEndpointClient;
+import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamSenderHelper;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+
+/**
+ * Delivers the messages in the {@link MessageOutbox} to ReportStream. When {@value
+ * #ENABLED_PROPERTY} is set and the metadata is stored in the database, a received message is
+ * saved to the outbox together with its metadata instead of being sent during the request, so a
+ * slow ReportStream never holds up accepting messages. Every node runs {@value
+ * #SENDER_THREADS_PROPERTY} sender threads, which claim batches of up to {@value
+ * #BATCH_SIZE_PROPERTY} messages and poll every {@value #POLL_INTERVAL_PROPERTY} milliseconds
+ * when the outbox is empty, so delivery scales with the number of nodes. A failed delivery is
+ * retried with exponential backoff up to {@value #MAX_ATTEMPTS_PROPERTY} times before the metadata
+ * is marked as failed.
+ */
+public class OutboxSenderWorker {
+
+    static final String ENABLED_PROPERTY = "OUTBOX_ENABLED";
+    static final String SENDER_THREADS_PROPERTY = "OUTBOX_SENDER_THREADS";
+    static final String BATCH_SIZE_PROPERTY = "OUTBOX_BATCH_SIZE";
+    static final String POLL_INTERVAL_PROPERTY = "OUTBOX_POLL_INTERVAL_MS";
+    static final String LEASE_PROPERTY = "OUTBOX_LEASE_MS";
+    static final String MAX_ATTEMPTS_PROPERTY = "OUTBOX_MAX_ATTEMPTS";
+    static final String RETRY_BACKOFF_PROPERTY = "OUTBOX_RETRY_BACKOFF_MS";
+    static final int DEFAULT_SENDER_THREADS = 2;
+    static final int DEFAULT_BATCH_SIZE = 10;
+    static final int DEFAULT_POLL_INTERVAL_MILLIS = 1_000;
+    static final int DEFAULT_LEASE_MILLIS = 300_000;
+    static final int DEFAULT_MAX_ATTEMPTS = 10;
+    static final int DEFAULT_RETRY_BACKOFF_MILLIS = 5_000;
+    static final long MAX_RETRY_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final OutboxSenderWorker INSTANCE = new OutboxSenderWorker();
+
+    // released when a message is added on this node, so an idle sender doesn't wait for the poll
+    private final Semaphore messagesAdded = new Semaphore(0);
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder claimErrors = new LongAdder();
+
+    private final List<Thread> senderThreads = new ArrayList<>();
+    private volatile Settings settings;
+
+    @Inject ReportStreamSenderHelper sender;
+    @Inject SendMessageHelper sendMessageHelper;
+    @Inject PartnerMetadataOrchestrator partnerMetadataOrchestrator;
+    @Inject IngestionTimeEnrichmentWorker ingestionTimeEnrichmentWorker;
+    @Inject Logger logger;
+
+    private OutboxSenderWorker() {}
+
+    public static OutboxSenderWorker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Whether received messages go through the outbox. The outbox is only available when the
+     * metadata is stored in the database, so it's disabled for the file storage.
+     */
+    public boolean isEnabled() {
+        return Boolean.parseBoolean(ApplicationContext.getProperty(ENABLED_PROPERTY, "false"))
+                && ApplicationContext.isPropertyPresent("DB_URL");
+    }
+
+    /**
+     * Saves the metadata and the encoded message to the outbox in one transaction. The message is
+     * delivered afterward by a sender thread on any node.
+     */
+    public void enqueue(PartnerMetadata partnerMetadata, String fhirResourceId, String payload)
+            throws OutboxException {
+        // load test requests register the mock client for the request thread, and the sender
+        // thread has to use the same client
+        boolean mockDelivery =
+                ApplicationContext.getImplementation(RSEndpointClient.class)
+                        instanceof MockRSEndpointClient;
+
+        getOutbox()
+                .saveWithMetadata(
+                        partnerMetadata,
+                        new OutboxMessage(
+                                partnerMetadata.inboundReportId(),
+                                partnerMetadata.messageType(),
+                                fhirResourceId,
+                                payload,
+                                mockDelivery,
+                                0));
+        enqueued.increment();
+
+        if (partnerMetadata.timeReceived() == null) {
+            ingestionTimeEnrichmentWorker.enqueue(partnerMetadata.inboundReportId());
+        }
+
+        messagesAdded.release();
+    }
+
+    /** Starts the sender threads when the outbox is enabled. Does nothing when running. */
+    public synchronized void start() {
+        if (!senderThreads.isEmpty() || !isEnabled()) {
+            return;
+        }
+
+        settings = readSettings();
+        for (int i = 1; i <= settings.senderThreads(); i++) {
+            Thread thread = new Thread(this::deliverMessages, "outbox-sender-" + i);
+            thread.setDaemon(true);
+            senderThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    /** Stops the sender threads and clears the counters. */
+    public void reset() {
+        List<Thread> threads;
+        synchronized (this) {
+            threads = new ArrayList<>(senderThreads);
+            senderThreads.clear();
+        }
+
+        threads.forEach(Thread::interrupt);
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        messagesAdded.drainPermits();
+        enqueued.reset();
+        delivered.reset();
+        retried.reset();
+        failed.reset();
+        claimErrors.reset();
+    }
+
+    /** Returns the worker counters for the metrics endpoint. */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("enabled", isEnabled());
+        summary.put("enqueued", enqueued.sum());
+        summary.put("delivered", delivered.sum());
+        summary.put("retried", retried.sum());
+        summary.put("failed", failed.sum());
+        summary.put("claimErrors", claimErrors.sum());
+        return summary;
+    }
+
+    private void deliverMessages() {
+        // the sender threads don't handle a request, so they use the application's client unless a
+        // message says otherwise
+        ApplicationContext.clearThreadRegistrations();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<OutboxMessage> claimed;
+                try {
+                    claimed =
+                            getOutbox()
+                                    .claim(
+                                            settings.batchSize(),
+                                            Duration.ofMillis(settings.leaseMillis()));
+                } catch (OutboxException e) {
+                    claimErrors.increment();
+                    logger.logError("Unable to claim messages from the outbox", e);
+                    TimeUnit.MILLISECONDS.sleep(settings.pollIntervalMillis());
+                    continue;
+                }
+
+                for (OutboxMessage message : claimed) {
+                    deliver(message);
+                }
+
+                if (claimed.size() < settings.batchSize()) {
+                    // the outbox is drained, so wait for a new message or the next poll
+                    messagesAdded.tryAcquire(settings.pollIntervalMillis(), TimeUnit.MILLISECONDS);
+                    messagesAdded.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.logError("Unexpected error while delivering outbox messages", e);
+            }
+        }
+    }
+
+    private void deliver(OutboxMessage message) {
+        String inboundReportId = message.inboundReportId();
+
+        Optional<String> outboundReportId;
+        try {
+            outboundReportId = send(message);
+        } catch (UnableToSendMessageException | RuntimeException e) {
+            handleFailedDelivery(message, e);
+            return;
+        }
+
+        sendMessageHelper.saveOutboundReportId(inboundReportId, outboundReportId.orElse(null));
+
+        if (message.mockDelivery()) {
+            refreshMockDeliveryStatus(inboundReportId);
+        }
+
+        try {
+            getOutbox().markSent(inboundReportId);
+        } catch (OutboxException e) {
+            logger.logError(
+                    "Unable to remove the sent message for inboundReportId "
+                            + inboundReportId
+                            + " from the outbox, it will be sent again when its lease runs out",
+                    e);
+        }
+        delivered.increment();
+    }
+
+    private Optional<String> send(OutboxMessage message) throws UnableToSendMessageException {
+        if (message.mockDelivery()) {
+            ApplicationContext.registerForThread(
+                    RSEndpointClient.class, MockRSEndpointClient.getInstance());
+        }
+
+        try {
+            if (message.messageType() == PartnerMetadataMessageType.RESULT) {
+                return sender.sendResultToReportStream(
+                        message.payload(), message.fhirResourceId());
+            }
+            return sender.sendOrderToReportStream(message.payload(), message.fhirResourceId());
+        } finally {
+            if (message.mockDelivery()) {
+                ApplicationContext.clearThreadRegistrations();
+            }
+        }
+    }
+
+    // the poller can't look up a mock delivery in ReportStream, so it gets its final status here
+    private void refreshMockDeliveryStatus(String inboundReportId) {
+        MockRSEndpointClient mockClient = MockRSEndpointClient.getInstance();
+        try {
+            partnerMetadataOrchestrator.refreshDeliveryStatus(
+                    mockClient, mockClient.getRsToken(), inboundReportId);
+        } catch (PartnerMetadataException e) {
+            logger.logError(
+                    "Unable to update the delivery status for inboundReportId " + inboundReportId,
+                    e);
+        }
+    }
+
+    private void handleFailedDelivery(OutboxMessage message, Exception cause) {
+        String inboundReportId = message.inboundReportId();
+
+        if (message.attempts() >= settings.maxAttempts()) {
+            logger.logError(
+                    "Giving up delivering inboundReportId "
+                            + inboundReportId
+                            + " after "
+                            + message.attempts()
+                            + " attempts",
+                    cause);
+
+            try {
+                getOutbox().markFailed(inboundReportId, cause.getMessage());
+            } catch (OutboxException e) {
+                logger.logError("Unable to mark the outbox message as failed", e);
+            }
+
+            try {
+                partnerMetadataOrchestrator.setMetadataStatusToFailed(
+                        inboundReportId, "Unable to send " + message.messageType());
+            } catch (PartnerMetadataException e) {
+                logger.logError("Unable to update metadata status", e);
+            }
+            failed.increment();
+            return;
+        }
+
+        // the shift is capped so a large attempt count can't overflow
+        long backoffMillis =
+                Math.min(
+                        settings.retryBackoffMillis() << Math.min(message.attempts() - 1, 20),
+                        MAX_RETRY_BACKOFF_MILLIS);
+        logger.logWarning(
+                "Unable to deliver inboundReportId {}, retrying in {} ms",
+                inboundReportId,
+                backoffMillis);
+
+        try {
+            getOutbox()
+                    .scheduleRetry(
+                            inboundReportId,
+                            Instant.now().plusMillis(backoffMillis),
+                            cause.getMessage());
+        } catch (OutboxException e) {
+            logger.logError(
+                    "Unable to schedule the retry for inboundReportId "
+                            + inboundReportId
+                            + ", it will be retried when its lease runs out",
+                    e);
+        }
+        retried.increment();
+    }
+
+    private MessageOutbox getOutbox() {
+        // can't @Inject because the outbox is only registered when the metadata is stored in the
+        // database
+        return ApplicationContext.getImplementation(MessageOutbox.class);
+    }
+
+    private Settings readSettings() {
+        return new Settings(
+                getIntProperty(SENDER_THREADS_PROPERTY, DEFAULT_SENDER_THREADS),
+                getIntProperty(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE),
+                getIntProperty(POLL_INTERVAL_PROPERTY, DEFAULT_POLL_INTERVAL_MILLIS),
+                getIntProperty(LEASE_PROPERTY, DEFAULT_LEASE_MILLIS),
+                getIntProperty(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS),
+                getIntProperty(RETRY_BACKOFF_PROPERTY, DEFAULT_RETRY_BACKOFF_MILLIS));
+    }
+
+    private int getIntProperty(String property, int defaultValue) {
+        String value = ApplicationContext.getProperty(property, String.valueOf(defaultValue));
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            logger.logWarning(
+                    "Invalid {} value {}, using the default of {}", property, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private record Settings(
+            int senderThreads,
+            int batchSize,
+            long pollIntervalMillis,
+            long leaseMillis,
+            int maxAttempts,
+            long retryBackoffMillis) {}
+}
@@ -1,12 +1,15 @@
 package gov.hhs.cdc.trustedintermediary.etor.results;
 
-import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageHelper;
+import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageStageGraph;
 import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageUseCase;
 import gov.hhs.cdc.trustedintermediary.etor.messages.UnableToSendMessageException;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType;
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxSenderWorker;
 import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.TransformationRuleEngine;
 import gov.hhs.cdc.trustedintermediary.etor.utils.security.HashHelper;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException;
+import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
 import javax.inject.Inject;
 
@@ -17,7 +20,11 @@ public class SendResultUseCase implements SendMessageUseCase<Result<?>> {
     @Inject TransformationRuleEngine transformationEngine;
     @Inject ResultSender sender;
 
-    @Inject SendMessageHelper sendMessageHelper;
+    @Inject SendMessageStageGraph stageGraph;
+
+    @Inject OutboxSenderWorker outboxSenderWorker;
+
+    @Inject HapiFhir fhir;
 
     @Inject Logger logger;
 
@@ -46,15 +53,34 @@ public class SendResultUseCase implements SendMessageUseCase<Result<?>> {
                         result.getReceivingFacilityDetails(),
                         result.getPlacerOrderNumber());
 
-        sendMessageHelper.savePartnerMetadataForInboundMessage(partnerMetadata);
-
-        transformationEngine.runRules(result);
-
-        String outboundReportId = sender.send(result).orElse(null);
-        logger.logInfo("Sent result outboundReportId: {}", outboundReportId);
-
-        sendMessageHelper.linkMessage(inboundReportId);
-
-        sendMessageHelper.saveOutboundReportId(inboundReportId, outboundReportId);
+        SendMessageStageGraph.Stage<Void> transform =
+                () -> {
+                    try {
+                        transformationEngine.runRules(result);
+                    } catch (RuleTimeBudgetExceededException e) {
+                        throw new UnableToSendMessageException(
+                                "Transforming the result took longer than its time budget", e);
+                    }
+                    return null;
+                };
+
+        if (outboxSenderWorker.isEnabled()) {
+            // ReportStream is called by the outbox sender, after the result has been accepted
+            stageGraph.enqueue(
+                    partnerMetadata,
+                    result.getFhirResourceId(),
+                    transform,
+                    () -> fhir.encodeResourceToJson(result.getUnderlyingData()));
+            return;
+        }
+
+        stageGraph.run(
+                partnerMetadata,
+                transform,
+                () -> {
+                    String outboundReportId = sender.send(result).orElse(null);
+                    logger.logInfo("Sent result outboundReportId: {}", outboundReportId);
+                    return outboundReportId;
+                });
     }
 }
@@ -0,0 +1,144 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Runs a {@link PerResourceFhirTransformation} over the matching resources of a bundle. Bundles
+ * with fewer matching resources than the {@value #PARALLEL_THRESHOLD_PROPERTY} property are
+ * processed sequentially on the calling thread. Larger bundles are split across a shared fork-join
+ * pool, sized by the {@value #PARALLELISM_PROPERTY} property. In both cases the resources to remove
+ * are gathered first and removed from the bundle in a single pass at the end.
+ */
+public final class ParallelResourceTransformer {
+
+    static final String PARALLEL_THRESHOLD_PROPERTY = "TRANSFORMATION_PARALLEL_THRESHOLD";
+    static final int DEFAULT_PARALLEL_THRESHOLD = 100;
+    static final String PARALLELISM_PROPERTY = "TRANSFORMATION_PARALLELISM";
+
+    // the number of resources a single fork-join task handles without splitting further
+    static final int BATCH_SIZE = 16;
+
+    private ParallelResourceTransformer() {}
+
+    /**
+     * Applies the transformation to every resource of the given type in the bundle.
+     *
+     * @param transformation Transforms one resource and returns true when it should be removed.
+     */
+    public static <R extends Resource> void transform(
+            Bundle bundle, Class<R> resourceType, Predicate<R> transformation) {
+        List<R> resources = new ArrayList<>();
+        for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            if (resourceType.isInstance(entry.getResource())) {
+                resources.add(resourceType.cast(entry.getResource()));
+            }
+        }
+
+        if (resources.isEmpty()) {
+            return;
+        }
+
+        boolean[] removals = new boolean[resources.size()];
+        if (resources.size() < getParallelThreshold()) {
+            for (int i = 0; i < resources.size(); i++) {
+                removals[i] = transformation.test(resources.get(i));
+            }
+        } else {
+            PoolHolder.POOL.invoke(
+                    new TransformTask<>(resources, transformation, removals, 0, resources.size()));
+        }
+
+        Set<Resource> resourcesToRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < removals.length; i++) {
+            if (removals[i]) {
+                resourcesToRemove.add(resources.get(i));
+            }
+        }
+
+        if (!resourcesToRemove.isEmpty()) {
+            bundle.getEntry().removeIf(entry -> resourcesToRemove.contains(entry.getResource()));
+        }
+    }
+
+    static int getParallelThreshold() {
+        return getIntProperty(PARALLEL_THRESHOLD_PROPERTY, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    private static int getIntProperty(String property, int defaultValue) {
+        try {
+            return Integer.parseInt(
+                    ApplicationContext.getProperty(property, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /** Creates the pool the first time a bundle is large enough to need it. */
+    private static final class PoolHolder {
+        private static final ForkJoinPool POOL =
+                new ForkJoinPool(
+                        Math.max(
+                                1,
+                                getIntProperty(
+                                        PARALLELISM_PROPERTY,
+                                        Runtime.getRuntime().availableProcessors())),
+                        PoolHolder::createWorker,
+                        null,
+                        false);
+
+        private static ForkJoinWorkerThread createWorker(ForkJoinPool pool) {
+            ForkJoinWorkerThread worker =
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("transformation-worker-" + worker.getPoolIndex());
+            worker.setDaemon(true);
+            return worker;
+        }
+    }
+
+    private static final class TransformTask<R extends Resource> extends RecursiveAction {
+        private final List<R> resources;
+        private final Predicate<R> transformation;
+        private final boolean[] removals;
+        private final int start;
+        private final int end;
+
+        private TransformTask(
+                List<R> resources,
+                Predicate<R> transformation,
+                boolean[] removals,
+                int start,
+                int end) {
+            this.resources = resources;
+            this.transformation = transformation;
+            this.removals = removals;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= BATCH_SIZE) {
+                for (int i = start; i < end; i++) {
+                    removals[i] = transformation.test(resources.get(i));
+                }
+                return;
+            }
+
+            int middle = (start + end) >>> 1;
+            invokeAll(
+                    new TransformTask<>(resources, transformation, removals, start, middle),
+                    new TransformTask<>(resources, transformation, removals, middle, end));
+        }
+    }
+}
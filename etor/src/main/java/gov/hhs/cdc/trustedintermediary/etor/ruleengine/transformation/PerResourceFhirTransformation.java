@@ -0,0 +1,51 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation;
+
+import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * A {@link PreparedFhirTransformation} that works on each resource of one type independently of
+ * the others. Because no resource depends on another, {@link ParallelResourceTransformer} can
+ * process the resources of large bundles in parallel. Implementations must only change the
+ * resource they're given, and treat the bundle as read-only. Anything read from the bundle itself
+ * belongs in {@link #prepareBundle}.
+ *
+ * @param <T> The type of the prepared arguments.
+ * @param <R> The type of resource the transformation applies to.
+ */
+public interface PerResourceFhirTransformation<T, R extends Resource>
+        extends PreparedFhirTransformation<T> {
+
+    Class<R> getResourceType();
+
+    /**
+     * Transforms a single resource.
+     *
+     * @return true when the resource should be removed from the bundle. Removals are applied once,
+     *     after every resource has been transformed.
+     */
+    boolean applyToResource(Bundle bundle, R resource, T preparedArgs);
+
+    /**
+     * Reads what the transformation needs from the bundle itself, once per bundle and on the
+     * calling thread, before the resources are transformed. HAPI getters can add missing elements
+     * to the bundle as they read it, so the resources must not read the bundle in parallel.
+     *
+     * @return the arguments passed to {@link #applyToResource} for this bundle. The default
+     *     returns the prepared arguments unchanged.
+     */
+    default T prepareBundle(Bundle bundle, T preparedArgs) {
+        return preparedArgs;
+    }
+
+    @Override
+    default void apply(HealthData<?> resource, T preparedArgs) {
+        var bundle = (Bundle) resource.getUnderlyingData();
+        T bundleArgs = prepareBundle(bundle, preparedArgs);
+        ParallelResourceTransformer.transform(
+                bundle,
+                getResourceType(),
+                bundleResource -> applyToResource(bundle, bundleResource, bundleArgs));
+    }
+}
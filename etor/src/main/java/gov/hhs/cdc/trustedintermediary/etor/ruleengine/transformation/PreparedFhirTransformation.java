@@ -0,0 +1,30 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation;
+
+import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
+import java.util.Map;
+
+/**
+ * A {@link CustomFhirTransformation} whose arguments are validated and converted once, when the
+ * rules are loaded, instead of on every message. {@link #prepare(Map)} turns the raw JSON args
+ * into an immutable object of type {@code T}, and {@link #apply(HealthData, Object)} receives that
+ * object for each message.
+ *
+ * @param <T> The type of the prepared arguments.
+ */
+public interface PreparedFhirTransformation<T> extends CustomFhirTransformation {
+
+    /**
+     * Validates the raw args and converts them into the object passed to {@link
+     * #apply(HealthData, Object)}.
+     *
+     * @throws RuntimeException When the args are missing or malformed.
+     */
+    T prepare(Map<String, Object> args);
+
+    void apply(HealthData<?> resource, T preparedArgs);
+
+    @Override
+    default void transform(HealthData<?> resource, Map<String, Object> args) {
+        apply(resource, prepare(args));
+    }
+}
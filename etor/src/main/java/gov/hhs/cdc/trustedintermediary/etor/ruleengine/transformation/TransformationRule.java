@@ -1,10 +1,16 @@
 package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation;
 
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
 import gov.hhs.cdc.trustedintermediary.ruleengine.Rule;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoaderException;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudget;
 import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * The TransformationRule class extends the {@link Rule Rule} class and represents a transformation
@@ -17,6 +23,11 @@ public class TransformationRule extends Rule<TransformationRuleMethod> {
     private static final Map<String, CustomFhirTransformation> transformationInstanceCache =
             new ConcurrentHashMap<>();
 
+    private final RuleStatistics ruleStatistics =
+            ApplicationContext.getImplementation(RuleStatistics.class);
+
+    private volatile List<PreparedTransformation> preparedTransformations;
+
     /**
      * Do not delete this constructor! It is used for JSON deserialization when loading rules from a
      * file.
@@ -32,6 +43,17 @@ public class TransformationRule extends Rule<TransformationRuleMethod> {
         super(ruleName, ruleDescription, ruleMessage, ruleConditions, ruleActions);
     }
 
+    /**
+     * Resolves the transformation classes and prepares their arguments. This is called once when
+     * the rules are loaded so bad transformation names or arguments are reported up front instead
+     * of on every message.
+     *
+     * @throws RuleLoaderException When a transformation can't be created or its args are invalid.
+     */
+    public void prepareTransformations() throws RuleLoaderException {
+        preparedTransformations = createPreparedTransformations();
+    }
+
     @Override
     public void runRule(HealthData<?>... resource) {
 
@@ -43,7 +65,22 @@ public class TransformationRule extends Rule<TransformationRuleMethod> {
             return;
         }
 
-        for (TransformationRuleMethod transformation : this.getRules()) {
+        List<PreparedTransformation> transformations;
+        try {
+            transformations = getPreparedTransformations();
+        } catch (RuleLoaderException e) {
+            this.logger.logError(e.getMessage(), e);
+            return;
+        }
+
+        for (PreparedTransformation transformation : transformations) {
+            if (RuleTimeBudget.isCurrentExceeded()) {
+                this.logger.logWarning(
+                        "Rule [{}]: time budget exceeded, skipping the remaining transformations",
+                        this.getName());
+                return;
+            }
+
             try {
                 applyTransformation(transformation, resource[0]);
             } catch (RuntimeException e) {
@@ -53,13 +90,60 @@ public class TransformationRule extends Rule<TransformationRuleMethod> {
     }
 
     private void applyTransformation(
-            TransformationRuleMethod transformation, HealthData<?> resource) {
+            PreparedTransformation transformation, HealthData<?> resource) {
         String name = transformation.name();
-        Map<String, Object> args = transformation.args();
         logger.logInfo("Applying transformation: " + name);
 
-        CustomFhirTransformation transformationInstance = getTransformationInstance(name);
-        transformationInstance.transform(resource, args);
+        long start = System.nanoTime();
+        try {
+            transformation.transformation().accept(resource);
+        } finally {
+            ruleStatistics.recordTransformation(name, System.nanoTime() - start);
+        }
+    }
+
+    private List<PreparedTransformation> getPreparedTransformations() throws RuleLoaderException {
+        List<PreparedTransformation> transformations = preparedTransformations;
+        if (transformations == null) {
+            transformations = createPreparedTransformations();
+            preparedTransformations = transformations;
+        }
+        return transformations;
+    }
+
+    private List<PreparedTransformation> createPreparedTransformations()
+            throws RuleLoaderException {
+        List<PreparedTransformation> transformations = new ArrayList<>();
+        for (TransformationRuleMethod method : this.getRules()) {
+            try {
+                CustomFhirTransformation instance = getTransformationInstance(method.name());
+                transformations.add(
+                        new PreparedTransformation(
+                                method.name(), bindArgs(instance, method.args())));
+            } catch (RuntimeException e) {
+                throw new RuleLoaderException(
+                        "Rule ["
+                                + this.getName()
+                                + "]: Unable to prepare transformation "
+                                + method.name(),
+                        e);
+            }
+        }
+        return List.copyOf(transformations);
+    }
+
+    private static Consumer<HealthData<?>> bindArgs(
+            CustomFhirTransformation instance, Map<String, Object> args) {
+        if (instance instanceof PreparedFhirTransformation<?> preparedInstance) {
+            return bindPreparedArgs(preparedInstance, args);
+        }
+        return resource -> instance.transform(resource, args);
+    }
+
+    private static <T> Consumer<HealthData<?>> bindPreparedArgs(
+            PreparedFhirTransformation<T> instance, Map<String, Object> args) {
+        T preparedArgs = instance.prepare(args);
+        return resource -> instance.apply(resource, preparedArgs);
     }
 
     static CustomFhirTransformation getTransformationInstance(String name) throws RuntimeException {
@@ -84,4 +168,7 @@ public class TransformationRule extends Rule<TransformationRuleMethod> {
                 "gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.custom";
         return packageName + "." + className;
     }
+
+    /** A transformation instance bound to its prepared arguments. */
+    private record PreparedTransformation(String name, Consumer<HealthData<?>> transformation) {}
 }
@@ -1,67 +1,139 @@
 package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation;
 
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleDefinitionsWatcher;
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleEngine;
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoader;
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoaderException;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudget;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException;
 import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.inject.Inject;
 
-/** Implements the RuleEngine interface. It represents a rule engine for transformations. */
+/**
+ * Implements the RuleEngine interface. It represents a rule engine for transformations. The loaded
+ * rules are published as an immutable snapshot, so a reload never blocks messages that are being
+ * transformed.
+ */
 public class TransformationRuleEngine implements RuleEngine {
+    static final String ENGINE_NAME = "transformation";
+    static final String SHADOW_ENGINE_NAME = "transformation-shadow";
+
     private String ruleDefinitionsFileName;
-    final List<TransformationRule> rules = new ArrayList<>();
-    volatile boolean rulesLoaded = false;
+    private final String engineName;
+    private final boolean shadowEngine;
+    private final AtomicReference<List<TransformationRule>> rules = new AtomicReference<>();
+    private final Object loadLock = new Object();
+    // kept so the same listener is registered when the rules are loaded again, and can be removed
+    private final Runnable ruleDefinitionsListener = this::onRuleDefinitionsChanged;
+    private Path watchedRuleDefinitions;
     private static final TransformationRuleEngine INSTANCE = new TransformationRuleEngine();
 
     @Inject Logger logger;
     @Inject RuleLoader ruleLoader;
+    @Inject RuleDefinitionsWatcher ruleDefinitionsWatcher;
+    @Inject RuleStatistics ruleStatistics;
+    @Inject TransformationShadowRunner shadowRunner;
 
     public static TransformationRuleEngine getInstance(String ruleDefinitionsFileName) {
         INSTANCE.ruleDefinitionsFileName = ruleDefinitionsFileName;
         return INSTANCE;
     }
 
-    private TransformationRuleEngine() {}
+    /**
+     * Creates a separate engine for the given definitions, which runs in shadow mode next to the
+     * singleton engine. Its statistics are recorded under {@value #SHADOW_ENGINE_NAME}.
+     */
+    static TransformationRuleEngine createShadowInstance(String ruleDefinitionsFileName) {
+        var engine = new TransformationRuleEngine(SHADOW_ENGINE_NAME, true);
+        engine.ruleDefinitionsFileName = ruleDefinitionsFileName;
+        ApplicationContext.injectIntoNonSingleton(engine);
+        return engine;
+    }
+
+    private TransformationRuleEngine() {
+        this(ENGINE_NAME, false);
+    }
+
+    private TransformationRuleEngine(String engineName, boolean shadowEngine) {
+        this.engineName = engineName;
+        this.shadowEngine = shadowEngine;
+    }
+
+    public List<TransformationRule> getRules() {
+        List<TransformationRule> loadedRules = rules.get();
+        return loadedRules == null ? List.of() : loadedRules;
+    }
 
     @Override
     public void unloadRules() {
-        rules.clear();
-        rulesLoaded = false;
+        rules.set(null);
     }
 
     @Override
     public void ensureRulesLoaded() throws RuleLoaderException {
-        if (!rulesLoaded) {
-            synchronized (rules) {
-                if (!rulesLoaded) {
-                    try (InputStream stream =
-                            getClass()
-                                    .getClassLoader()
-                                    .getResourceAsStream(ruleDefinitionsFileName)) {
-                        List<TransformationRule> parsedRules =
-                                ruleLoader.loadRules(stream, new TypeReference<>() {});
-                        rules.addAll(parsedRules);
-                        rulesLoaded = true;
-
-                    } catch (IOException | NullPointerException e) {
-                        throw new RuleLoaderException(
-                                "File not found: " + ruleDefinitionsFileName,
-                                new FileNotFoundException());
-                    }
+        if (rules.get() == null) {
+            synchronized (loadLock) {
+                if (rules.get() == null) {
+                    rules.set(loadRuleDefinitions());
+                    watchRuleDefinitions();
                 }
             }
         }
     }
 
     @Override
-    public void runRules(HealthData<?> resource) {
+    public void reloadRules() throws RuleLoaderException {
+        synchronized (loadLock) {
+            rules.set(loadRuleDefinitions());
+        }
+    }
+
+    @Override
+    public void runRules(HealthData<?> resource) throws RuleTimeBudgetExceededException {
+        TransformationShadowRunner.ShadowRun shadowRun =
+                shadowEngine || shadowRunner == null ? null : shadowRunner.begin(resource);
+        if (shadowRun == null) {
+            runRules(resource, null);
+            return;
+        }
+
+        List<String> trace = new ArrayList<>();
+        long start = System.nanoTime();
+        runRules(resource, trace);
+        shadowRunner.complete(shadowRun, resource, trace, System.nanoTime() - start);
+    }
+
+    /** Stops reloading the rules when their definitions file changes. */
+    void stopWatchingRuleDefinitions() {
+        synchronized (loadLock) {
+            if (watchedRuleDefinitions != null) {
+                ruleDefinitionsWatcher.unwatch(watchedRuleDefinitions, ruleDefinitionsListener);
+                watchedRuleDefinitions = null;
+            }
+        }
+    }
+
+    /** Runs the rules and returns the names of the rules that ran, in order. */
+    List<String> runRulesWithTrace(HealthData<?> resource) throws RuleTimeBudgetExceededException {
+        List<String> trace = new ArrayList<>();
+        runRules(resource, trace);
+        return trace;
+    }
+
+    private void runRules(HealthData<?> resource, List<String> trace)
+            throws RuleTimeBudgetExceededException {
         try {
             ensureRulesLoaded();
         } catch (RuleLoaderException e) {
@@ -69,10 +141,85 @@ public class TransformationRuleEngine implements RuleEngine {
             return;
         }
 
-        for (TransformationRule rule : rules) {
-            if (rule.shouldRun(resource)) {
-                rule.runRule((resource));
+        RuleTimeBudget budget = RuleTimeBudget.startMessage();
+        RuleTimeBudget.setCurrent(budget);
+        try {
+            for (TransformationRule rule : getRules()) {
+                budget.startRule();
+
+                long conditionStart = System.nanoTime();
+                boolean shouldRun = rule.shouldRun(resource);
+                ruleStatistics.recordConditionEvaluation(
+                        engineName, rule.getName(), System.nanoTime() - conditionStart, shouldRun);
+
+                if (shouldRun && !budget.isExceeded()) {
+                    if (trace != null) {
+                        trace.add(rule.getName());
+                    }
+
+                    long runStart = System.nanoTime();
+                    rule.runRule(resource);
+                    ruleStatistics.recordRuleRun(
+                            engineName, rule.getName(), System.nanoTime() - runStart);
+                }
+
+                if (budget.isExceeded()) {
+                    ruleStatistics.recordBudgetOverrun(engineName, rule.getName());
+                    throw budget.exceeded(rule.getName());
+                }
             }
+        } finally {
+            RuleTimeBudget.clearCurrent();
+        }
+    }
+
+    private List<TransformationRule> loadRuleDefinitions() throws RuleLoaderException {
+        List<TransformationRule> parsedRules;
+        try (InputStream stream = openRuleDefinitions()) {
+            parsedRules = List.copyOf(ruleLoader.loadRules(stream, new TypeReference<>() {}));
+        } catch (IOException | NullPointerException e) {
+            throw new RuleLoaderException(
+                    "File not found: " + ruleDefinitionsFileName, new FileNotFoundException());
+        }
+
+        for (TransformationRule rule : parsedRules) {
+            rule.prepareTransformations();
+        }
+        return parsedRules;
+    }
+
+    private InputStream openRuleDefinitions() throws IOException {
+        Path externalDefinitions = getExternalRuleDefinitionsPath();
+        if (externalDefinitions != null && Files.isRegularFile(externalDefinitions)) {
+            return Files.newInputStream(externalDefinitions);
+        }
+        return getClass().getClassLoader().getResourceAsStream(ruleDefinitionsFileName);
+    }
+
+    private Path getExternalRuleDefinitionsPath() {
+        return RuleDefinitionsWatcher.resolveInRuleDefinitionsDirectory(ruleDefinitionsFileName);
+    }
+
+    private void watchRuleDefinitions() {
+        Path externalDefinitions = getExternalRuleDefinitionsPath();
+        if (externalDefinitions == null) {
+            return;
+        }
+
+        try {
+            ruleDefinitionsWatcher.watch(externalDefinitions, ruleDefinitionsListener);
+            watchedRuleDefinitions = externalDefinitions;
+        } catch (IOException e) {
+            logger.logError("Unable to watch rule definitions at " + externalDefinitions, e);
+        }
+    }
+
+    private void onRuleDefinitionsChanged() {
+        try {
+            reloadRules();
+            logger.logInfo("Reloaded {} rules from {}", engineName, ruleDefinitionsFileName);
+        } catch (RuleLoaderException e) {
+            logger.logError("Failed to reload rules definitions, keeping the current rules", e);
         }
     }
 }
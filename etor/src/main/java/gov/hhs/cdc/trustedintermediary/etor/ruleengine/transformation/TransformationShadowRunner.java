@@ -0,0 +1,232 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirResource;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics.LatencyHistogram;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException;
+import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir;
+import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+import org.hl7.fhir.r4.model.Bundle;
+
+/**
+ * Runs an alternate set of transformation rules in shadow mode, so a new engine or rule definitions
+ * can be compared against the live ones before they're rolled out. Shadow mode is on when the
+ * {@value #SHADOW_DEFINITIONS_PROPERTY} property names a definitions file. A {@value
+ * #SHADOW_SAMPLE_RATE_PROPERTY} fraction of messages is copied before the primary engine runs, the
+ * shadow engine transforms the copy on a background thread, and the encoded output of both engines
+ * is compared. Mismatches are logged with the rules each engine ran. The shadow engine never
+ * changes the message that is sent.
+ */
+public class TransformationShadowRunner {
+
+    static final String SHADOW_DEFINITIONS_PROPERTY = "SHADOW_TRANSFORMATION_DEFINITIONS";
+    static final String SHADOW_SAMPLE_RATE_PROPERTY = "SHADOW_SAMPLE_RATE";
+    static final String SHADOW_QUEUE_SIZE_PROPERTY = "SHADOW_QUEUE_SIZE";
+    static final double DEFAULT_SHADOW_SAMPLE_RATE = 0.01;
+    static final int DEFAULT_SHADOW_QUEUE_SIZE = 50;
+
+    private static final TransformationShadowRunner INSTANCE = new TransformationShadowRunner();
+
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile LatencyHistogram primaryLatency = new LatencyHistogram();
+    private volatile LatencyHistogram shadowLatency = new LatencyHistogram();
+    private ThreadPoolExecutor executor;
+    private TransformationRuleEngine shadowEngine;
+    private String shadowDefinitionsFileName;
+
+    @Inject Logger logger;
+    @Inject HapiFhir fhir;
+
+    private TransformationShadowRunner() {}
+
+    public static TransformationShadowRunner getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Decides whether the resource is compared in shadow mode and, if so, copies it before the
+     * primary engine changes it.
+     *
+     * @return The shadow run to pass to {@link #complete}, or null when the resource isn't sampled.
+     */
+    public ShadowRun begin(HealthData<?> resource) {
+        if (!ApplicationContext.isPropertyPresent(SHADOW_DEFINITIONS_PROPERTY)
+                || !(resource.getUnderlyingData() instanceof Bundle bundle)
+                || ThreadLocalRandom.current().nextDouble() >= getSampleRate()) {
+            return null;
+        }
+
+        if (getExecutor().getQueue().remainingCapacity() == 0) {
+            dropped.increment();
+            return null;
+        }
+
+        return new ShadowRun(bundle.copy());
+    }
+
+    /**
+     * Queues the comparison of the primary engine's output with the shadow engine's output for the
+     * same input.
+     */
+    public void complete(
+            ShadowRun shadowRun,
+            HealthData<?> primaryOutput,
+            List<String> primaryTrace,
+            long primaryElapsedNanos) {
+        primaryLatency.record(primaryElapsedNanos);
+
+        // the primary bundle keeps changing on the request thread, so compare a copy of it
+        Bundle primaryBundle = ((Bundle) primaryOutput.getUnderlyingData()).copy();
+        try {
+            getExecutor()
+                    .execute(
+                            () ->
+                                    compare(
+                                            shadowRun.input(),
+                                            primaryBundle,
+                                            List.copyOf(primaryTrace)));
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+        }
+    }
+
+    /** Returns the shadow mode counters and latencies for the metrics endpoint. */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("enabled", ApplicationContext.isPropertyPresent(SHADOW_DEFINITIONS_PROPERTY));
+        summary.put("matches", matches.sum());
+        summary.put("mismatches", mismatches.sum());
+        summary.put("failures", failures.sum());
+        summary.put("dropped", dropped.sum());
+        summary.put("primaryLatency", primaryLatency.summary());
+        summary.put("shadowLatency", shadowLatency.summary());
+        return summary;
+    }
+
+    /** Stops the background executor, drops the shadow engine and clears the counters. */
+    public void reset() {
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+            if (shadowEngine != null) {
+                shadowEngine.stopWatchingRuleDefinitions();
+            }
+            shadowEngine = null;
+            shadowDefinitionsFileName = null;
+        }
+
+        matches.reset();
+        mismatches.reset();
+        failures.reset();
+        dropped.reset();
+        primaryLatency = new LatencyHistogram();
+        shadowLatency = new LatencyHistogram();
+    }
+
+    private void compare(Bundle input, Bundle primaryBundle, List<String> primaryTrace) {
+        String messageId = primaryBundle.getId();
+        List<String> shadowTrace;
+        try {
+            TransformationRuleEngine engine = getShadowEngine();
+            long start = System.nanoTime();
+            shadowTrace = engine.runRulesWithTrace(new HapiFhirResource(input));
+            shadowLatency.record(System.nanoTime() - start);
+        } catch (RuleTimeBudgetExceededException | RuntimeException e) {
+            failures.increment();
+            logger.logError("Shadow transformation failed for message " + messageId, e);
+            return;
+        }
+
+        if (fhir.encodeResourceToJson(primaryBundle).equals(fhir.encodeResourceToJson(input))) {
+            matches.increment();
+            return;
+        }
+
+        mismatches.increment();
+        logger.logWarning(
+                "Shadow transformation output differs for message {}. Primary rules: {}. Shadow"
+                        + " rules: {}",
+                messageId,
+                primaryTrace,
+                shadowTrace);
+    }
+
+    private synchronized TransformationRuleEngine getShadowEngine() {
+        String fileName = ApplicationContext.getProperty(SHADOW_DEFINITIONS_PROPERTY);
+        if (shadowEngine == null || !fileName.equals(shadowDefinitionsFileName)) {
+            // the replaced engine would otherwise keep reloading its definitions on every change
+            if (shadowEngine != null) {
+                shadowEngine.stopWatchingRuleDefinitions();
+            }
+            shadowEngine = TransformationRuleEngine.createShadowInstance(fileName);
+            shadowDefinitionsFileName = fileName;
+        }
+        return shadowEngine;
+    }
+
+    private double getSampleRate() {
+        String sampleRate =
+                ApplicationContext.getProperty(
+                        SHADOW_SAMPLE_RATE_PROPERTY, String.valueOf(DEFAULT_SHADOW_SAMPLE_RATE));
+        try {
+            return Double.parseDouble(sampleRate);
+        } catch (NumberFormatException e) {
+            return DEFAULT_SHADOW_SAMPLE_RATE;
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int queueSize = DEFAULT_SHADOW_QUEUE_SIZE;
+            try {
+                queueSize =
+                        Math.max(
+                                1,
+                                Integer.parseInt(
+                                        ApplicationContext.getProperty(
+                                                SHADOW_QUEUE_SIZE_PROPERTY,
+                                                String.valueOf(DEFAULT_SHADOW_QUEUE_SIZE))));
+            } catch (NumberFormatException e) {
+                logger.logWarning(
+                        "Invalid {} value, using the default of {}",
+                        SHADOW_QUEUE_SIZE_PROPERTY,
+                        DEFAULT_SHADOW_QUEUE_SIZE);
+            }
+
+            // a single thread keeps the shadow engine from competing with the request threads
+            executor =
+                    new ThreadPoolExecutor(
+                            1,
+                            1,
+                            0,
+                            TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(queueSize),
+                            runnable -> {
+                                Thread thread = new Thread(runnable, "transformation-shadow");
+                                thread.setDaemon(true);
+                                return thread;
+                            },
+                            new ThreadPoolExecutor.AbortPolicy());
+        }
+        return executor;
+    }
+
+    /** The copy of a message taken before the primary engine transformed it. */
+    public record ShadowRun(Bundle input) {}
+}
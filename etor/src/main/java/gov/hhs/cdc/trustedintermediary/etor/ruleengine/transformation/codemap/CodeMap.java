@@ -0,0 +1,17 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap;
+
+import gov.hhs.cdc.trustedintermediary.etor.messages.IdentifierCode;
+
+/** A read-only mapping from local codes to the codes they should be mapped to. */
+public interface CodeMap {
+
+    /**
+     * Looks up the mapping for a local code. Implementations must not allocate, since this is
+     * called for every observation.
+     *
+     * @return The mapped code, or null when the local code isn't mapped.
+     */
+    IdentifierCode lookup(String localCode);
+
+    int size();
+}
@@ -0,0 +1,253 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap;
+
+import gov.hhs.cdc.trustedintermediary.etor.messages.IdentifierCode;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleDefinitionsWatcher;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter;
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException;
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.inject.Inject;
+
+/**
+ * Loads code maps from CSV or JSON files and shares them between the rules that reference them.
+ * Locations are resolved against the {@value RuleDefinitionsWatcher#RULE_DEFINITIONS_DIRECTORY}
+ * directory first, then the classpath. Code maps read from the directory are reloaded when their
+ * file changes.
+ *
+ * <p>CSV files have the header {@code localCode,code,display,codingSystem}. JSON files use the same
+ * structure as the inline {@code codingMap} transformation argument.
+ */
+public class CodeMapRegistry {
+
+    static final List<String> CSV_HEADER = List.of("localCode", "code", "display", "codingSystem");
+
+    private static final CodeMapRegistry INSTANCE = new CodeMapRegistry();
+
+    private final Map<String, ReloadableCodeMap> codeMaps = new ConcurrentHashMap<>();
+    // guarded by this
+    private final Map<Path, Runnable> codeMapListeners = new HashMap<>();
+
+    @Inject Logger logger;
+    @Inject Formatter formatter;
+    @Inject RuleDefinitionsWatcher ruleDefinitionsWatcher;
+
+    private CodeMapRegistry() {}
+
+    public static CodeMapRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the code map stored at the given location, loading it the first time it's requested.
+     *
+     * @throws IOException When the file can't be found or read.
+     * @throws IllegalArgumentException When the file content is malformed.
+     */
+    public synchronized CodeMap getCodeMap(String location) throws IOException {
+        ReloadableCodeMap codeMap = codeMaps.get(location);
+        if (codeMap != null) {
+            return codeMap;
+        }
+
+        Path externalFile = RuleDefinitionsWatcher.resolveInRuleDefinitionsDirectory(location);
+        if (externalFile == null || !Files.isRegularFile(externalFile)) {
+            externalFile = null;
+        }
+
+        codeMap = new ReloadableCodeMap(loadCodeMap(location, externalFile));
+        codeMaps.put(location, codeMap);
+
+        if (externalFile != null) {
+            watchCodeMap(location, externalFile, codeMap);
+        }
+
+        return codeMap;
+    }
+
+    /** Drops all loaded code maps so they're read again on next use. */
+    public synchronized void clear() {
+        codeMapListeners.forEach(ruleDefinitionsWatcher::unwatch);
+        codeMapListeners.clear();
+        codeMaps.clear();
+    }
+
+    private void watchCodeMap(String location, Path file, ReloadableCodeMap codeMap) {
+        Runnable listener =
+                () -> {
+                    try {
+                        codeMap.table = loadCodeMap(location, file);
+                        logger.logInfo(
+                                "Reloaded code map {} with {} codes", location, codeMap.size());
+                    } catch (IOException | RuntimeException e) {
+                        logger.logError(
+                                "Failed to reload code map "
+                                        + location
+                                        + ", keeping the current codes",
+                                e);
+                    }
+                };
+
+        try {
+            ruleDefinitionsWatcher.watch(file, listener);
+            codeMapListeners.put(file, listener);
+        } catch (IOException e) {
+            logger.logError("Unable to watch code map at " + file, e);
+        }
+    }
+
+    private CodeMapTable loadCodeMap(String location, Path externalFile) throws IOException {
+        try (InputStream stream = openCodeMap(location, externalFile)) {
+            if (stream == null) {
+                throw new FileNotFoundException("Code map not found: " + location);
+            }
+
+            String lowerCaseLocation = location.toLowerCase(Locale.ROOT);
+            if (lowerCaseLocation.endsWith(".csv")) {
+                return CodeMapTable.from(parseCsv(location, stream));
+            } else if (lowerCaseLocation.endsWith(".json")) {
+                return CodeMapTable.from(parseJson(location, stream));
+            }
+            throw new IllegalArgumentException(
+                    "Unsupported code map format, expected .csv or .json: " + location);
+        }
+    }
+
+    private InputStream openCodeMap(String location, Path externalFile) throws IOException {
+        if (externalFile != null) {
+            return Files.newInputStream(externalFile);
+        }
+        return getClass().getClassLoader().getResourceAsStream(location);
+    }
+
+    private Map<String, IdentifierCode> parseJson(String location, InputStream stream)
+            throws IOException {
+        Map<String, Map<String, String>> jsonCodeMap;
+        try {
+            jsonCodeMap =
+                    formatter.convertJsonToObject(
+                            new String(stream.readAllBytes(), StandardCharsets.UTF_8),
+                            new TypeReference<>() {});
+        } catch (FormatterProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON in code map " + location, e);
+        }
+
+        Map<String, IdentifierCode> mappings = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> entry : jsonCodeMap.entrySet()) {
+            var value = entry.getValue();
+            mappings.put(
+                    entry.getKey(),
+                    new IdentifierCode(
+                            value.get("code"), value.get("display"), value.get("codingSystem")));
+        }
+        return mappings;
+    }
+
+    private Map<String, IdentifierCode> parseCsv(String location, InputStream stream)
+            throws IOException {
+        var reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+
+        String header = reader.readLine();
+        // ignore the byte order mark that spreadsheet tools like to add
+        if (header != null && header.startsWith("\uFEFF")) {
+            header = header.substring(1);
+        }
+        if (header == null || !CSV_HEADER.equals(parseCsvLine(header.strip()))) {
+            throw new IllegalArgumentException(
+                    "Code map " + location + " must start with the header " + CSV_HEADER);
+        }
+
+        Map<String, IdentifierCode> mappings = new HashMap<>();
+        String line;
+        int lineNumber = 1;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            List<String> fields = parseCsvLine(line);
+            if (fields.size() != CSV_HEADER.size()) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Code map %s line %d has %d fields, expected %d",
+                                location, lineNumber, fields.size(), CSV_HEADER.size()));
+            }
+
+            var previous =
+                    mappings.put(
+                            fields.get(0),
+                            new IdentifierCode(fields.get(1), fields.get(2), fields.get(3)));
+            if (previous != null) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Code map %s line %d repeats local code %s",
+                                location, lineNumber, fields.get(0)));
+            }
+        }
+        return mappings;
+    }
+
+    /** Splits a CSV line, honoring double-quoted fields that contain commas or escaped quotes. */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        var field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char character = line.charAt(i);
+            if (quoted) {
+                if (character == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (character == '"') {
+                    quoted = false;
+                } else {
+                    field.append(character);
+                }
+            } else if (character == '"') {
+                quoted = true;
+            } else if (character == ',') {
+                fields.add(field.toString().strip());
+                field.setLength(0);
+            } else {
+                field.append(character);
+            }
+        }
+        fields.add(field.toString().strip());
+
+        return fields;
+    }
+
+    /** A code map whose table is swapped in place when its file is reloaded. */
+    private static final class ReloadableCodeMap implements CodeMap {
+        private volatile CodeMapTable table;
+
+        private ReloadableCodeMap(CodeMapTable table) {
+            this.table = table;
+        }
+
+        @Override
+        public IdentifierCode lookup(String localCode) {
+            return table.lookup(localCode);
+        }
+
+        @Override
+        public int size() {
+            return table.size();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap;
+
+import gov.hhs.cdc.trustedintermediary.etor.messages.IdentifierCode;
+import java.util.Map;
+
+/**
+ * An immutable {@link CodeMap} backed by an open addressing hash table. Keys and values live in two
+ * parallel arrays and all strings are interned, so tables with tens of thousands of codes stay
+ * compact, many tables can share the same code and display strings, and a lookup doesn't allocate.
+ */
+public final class CodeMapTable implements CodeMap {
+
+    private static final CodeMapTable EMPTY =
+            new CodeMapTable(new String[1], new IdentifierCode[1], 0);
+
+    private final String[] keys;
+    private final IdentifierCode[] values;
+    private final int mask;
+    private final int size;
+
+    private CodeMapTable(String[] keys, IdentifierCode[] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.mask = keys.length - 1;
+        this.size = size;
+    }
+
+    public static CodeMapTable empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds a table from the given mappings.
+     *
+     * @throws IllegalArgumentException When a local code or any field of its mapping is blank.
+     */
+    public static CodeMapTable from(Map<String, IdentifierCode> mappings) {
+        if (mappings.isEmpty()) {
+            return EMPTY;
+        }
+
+        // keep the load factor at or below 0.5 so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(2, mappings.size()) * 2 - 1) << 1;
+        var keys = new String[capacity];
+        var values = new IdentifierCode[capacity];
+        int mask = capacity - 1;
+
+        for (Map.Entry<String, IdentifierCode> mapping : mappings.entrySet()) {
+            String localCode = validateField(mapping.getKey(), "local code").intern();
+            IdentifierCode value = intern(mapping.getValue());
+
+            int index = spread(localCode.hashCode()) & mask;
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = localCode;
+            values[index] = value;
+        }
+
+        return new CodeMapTable(keys, values, mappings.size());
+    }
+
+    @Override
+    public IdentifierCode lookup(String localCode) {
+        if (localCode == null) {
+            return null;
+        }
+
+        int index = spread(localCode.hashCode()) & mask;
+        String key;
+        while ((key = keys[index]) != null) {
+            if (key.equals(localCode)) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private static IdentifierCode intern(IdentifierCode identifierCode) {
+        return new IdentifierCode(
+                validateField(identifierCode.code(), "code").intern(),
+                validateField(identifierCode.display(), "display").intern(),
+                validateField(identifierCode.codingSystem(), "codingSystem").intern());
+    }
+
+    private static String validateField(String field, String fieldName) {
+        if (field == null || field.isBlank()) {
+            throw new IllegalArgumentException("missing or empty required field " + fieldName);
+        }
+        return field;
+    }
+
+    private static int spread(int hash) {
+        // mix the high bits into the low bits that select the slot
+        return hash ^ (hash >>> 16);
+    }
+}
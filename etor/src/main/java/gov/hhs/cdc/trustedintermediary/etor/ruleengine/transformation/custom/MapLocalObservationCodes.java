@@ -2,10 +2,14 @@ package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.custom;
 
 import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
 import gov.hhs.cdc.trustedintermediary.etor.messages.IdentifierCode;
-import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.CustomFhirTransformation;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.PerResourceFhirTransformation;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap.CodeMap;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap.CodeMapRegistry;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap.CodeMapTable;
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiHelper;
-import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
 import java.util.Map;
 import org.hl7.fhir.r4.model.Bundle;
@@ -19,27 +23,56 @@ import org.hl7.fhir.r4.model.StringType;
  * added to the observation as an additional observation coding with cwe-coding extension 'coding'.
  * When converted to/from HL7, these codings correspond to OBX-3.4/5/6 for the local code, and
  * OBX-3.1/2/3 for the LOINC/PLT code.
+ *
+ * <p>The mappings come either from the inline {@code codingMap} argument or from a CSV or JSON file
+ * named by the {@code codingMapFile} argument. See {@link CodeMapRegistry} for the file formats.
+ * Each observation is mapped independently, so the observations of large bundles are mapped in
+ * parallel.
  */
-public class MapLocalObservationCodes implements CustomFhirTransformation {
+public class MapLocalObservationCodes
+        implements PerResourceFhirTransformation<MapLocalObservationCodes.CodingMap, Observation> {
+    static final String CODING_MAP_FILE_ARG = "codingMapFile";
+
     protected final Logger logger = ApplicationContext.getImplementation(Logger.class);
 
+    /**
+     * The validated local code to LOINC/PLT code mappings from the rule args, and the sender and
+     * message control id of the bundle being transformed, which are only logged for unmapped codes.
+     */
+    public record CodingMap(CodeMap codes, String msh41Identifier, String messageId) {
+        CodingMap(CodeMap codes) {
+            this(codes, null, null);
+        }
+    }
+
+    @Override
+    public CodingMap prepare(Map<String, Object> args) {
+        if (args.containsKey(CODING_MAP_FILE_ARG)) {
+            return new CodingMap(getCodeMapFromFile(args));
+        }
+        return new CodingMap(CodeMapTable.from(getMapFromArgs(args)));
+    }
+
+    @Override
+    public CodingMap prepareBundle(Bundle bundle, CodingMap preparedArgs) {
+        var msh41Identifier = HapiHelper.getMSH4_1Identifier(bundle);
+        return new CodingMap(
+                preparedArgs.codes(),
+                msh41Identifier != null ? msh41Identifier.getValue() : null,
+                HapiHelper.getMessageControlId(bundle));
+    }
+
     @Override
-    public void transform(HealthData<?> resource, Map<String, Object> args) {
-        var codingMap = getMapFromArgs(args);
-
-        var bundle = (Bundle) resource.getUnderlyingData();
-        var msh41Identifier =
-                HapiHelper.getMSH4_1Identifier(bundle) != null
-                        ? HapiHelper.getMSH4_1Identifier(bundle).getValue()
-                        : null;
-        var messageId = HapiHelper.getMessageControlId(bundle);
-        var observations = HapiHelper.resourcesInBundle(bundle, Observation.class);
-
-        observations
-                .filter(this::hasValidCoding)
-                .forEach(
-                        observation ->
-                                processCoding(observation, codingMap, msh41Identifier, messageId));
+    public Class<Observation> getResourceType() {
+        return Observation.class;
+    }
+
+    @Override
+    public boolean applyToResource(Bundle bundle, Observation observation, CodingMap preparedArgs) {
+        if (hasValidCoding(observation)) {
+            processCoding(observation, preparedArgs);
+        }
+        return false;
     }
 
     private boolean hasValidCoding(Observation observation) {
@@ -52,20 +85,16 @@ public class MapLocalObservationCodes implements CustomFhirTransformation {
                 coding, HapiHelper.EXTENSION_ALT_CODING, HapiHelper.LOCAL_CODE);
     }
 
-    private void processCoding(
-            Observation observation,
-            Map<String, IdentifierCode> codingMap,
-            String msh41Identifier,
-            String messageId) {
+    private void processCoding(Observation observation, CodingMap codingMap) {
         var originalCoding = observation.getCode().getCoding().get(0);
-        IdentifierCode identifier = codingMap.get(originalCoding.getCode());
+        IdentifierCode identifier = codingMap.codes().lookup(originalCoding.getCode());
 
         if (identifier == null) {
             logger.logWarning(
                     "Unmapped local code detected: '{}', from sender: '{}', message Id: '{}'",
                     originalCoding.getCode(),
-                    msh41Identifier,
-                    messageId);
+                    codingMap.msh41Identifier(),
+                    codingMap.messageId());
             return;
         }
 
@@ -94,6 +123,22 @@ public class MapLocalObservationCodes implements CustomFhirTransformation {
         return mappedCoding;
     }
 
+    private CodeMap getCodeMapFromFile(Map<String, Object> args) {
+        if (args.containsKey("codingMap")) {
+            throw new IllegalArgumentException(
+                    "codingMap and " + CODING_MAP_FILE_ARG + " can't be used together");
+        }
+
+        // Let it fail if it is not a String
+        var location = (String) args.get(CODING_MAP_FILE_ARG);
+        try {
+            return ApplicationContext.getImplementation(CodeMapRegistry.class)
+                    .getCodeMap(validateField(location, CODING_MAP_FILE_ARG));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to load code map " + location, e);
+        }
+    }
+
     private Map<String, IdentifierCode> getMapFromArgs(Map<String, Object> args) {
         var codingMap = new HashMap<String, IdentifierCode>();
 
@@ -1,41 +1,42 @@
 package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.custom;
 
-import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.CustomFhirTransformation;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.PerResourceFhirTransformation;
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiHelper;
-import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Observation;
-import org.hl7.fhir.r4.model.Resource;
 
-public class RemoveObservationByCode implements CustomFhirTransformation {
+public class RemoveObservationByCode
+        implements PerResourceFhirTransformation<
+                RemoveObservationByCode.MatchingCoding, Observation> {
     public static final String CODE_NAME = "code";
     public static final String CODING_SYSTEM_NAME = "codingSystemExtension";
     public static final String CODING_NAME = "codingExtension";
 
-    @Override
-    public void transform(HealthData<?> resource, Map<String, Object> args) {
-        var bundle = (Bundle) resource.getUnderlyingData();
-        Set<Resource> resourcesToRemove = new HashSet<>();
-
-        for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
-            Resource resourceEntry = entry.getResource();
+    /** The coding an observation must have to be removed. */
+    public record MatchingCoding(
+            String code, String codingExtension, String codingSystemExtension) {}
 
-            if (!(resourceEntry instanceof Observation observation)) {
-                continue;
-            }
+    @Override
+    public MatchingCoding prepare(Map<String, Object> args) {
+        return new MatchingCoding(
+                args.get(CODE_NAME).toString(),
+                args.get(CODING_NAME).toString(),
+                args.get(CODING_SYSTEM_NAME).toString());
+    }
 
-            if (HapiHelper.hasMatchingCoding(
-                    observation,
-                    args.get(CODE_NAME).toString(),
-                    args.get(CODING_NAME).toString(),
-                    args.get(CODING_SYSTEM_NAME).toString())) {
-                resourcesToRemove.add(resourceEntry);
-            }
-        }
+    @Override
+    public Class<Observation> getResourceType() {
+        return Observation.class;
+    }
 
-        bundle.getEntry().removeIf(entry -> resourcesToRemove.contains(entry.getResource()));
+    @Override
+    public boolean applyToResource(
+            Bundle bundle, Observation observation, MatchingCoding preparedArgs) {
+        return HapiHelper.hasMatchingCoding(
+                observation,
+                preparedArgs.code(),
+                preparedArgs.codingExtension(),
+                preparedArgs.codingSystemExtension());
     }
 }
@@ -1,6 +1,6 @@
 package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.custom;
 
-import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.CustomFhirTransformation;
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.PreparedFhirTransformation;
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiHelper;
 import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
 import java.util.ArrayList;
@@ -19,13 +19,17 @@ import org.hl7.fhir.r4.model.ServiceRequest;
  * This transformation removes all OBRs from an ORU message except for the OBR with a given value in
  * OBR-4.1. All OBXs are attached to the sole remaining OBR
  */
-public class RemoveObservationRequests implements CustomFhirTransformation {
+public class RemoveObservationRequests implements PreparedFhirTransformation<String> {
 
     @Override
-    public void transform(HealthData<?> resource, Map<String, Object> args) {
-        Bundle bundle = (Bundle) resource.getUnderlyingData();
+    public String prepare(Map<String, Object> args) {
         // Let it fail if it is not a String
-        String universalServiceIdentifier = (String) args.get("universalServiceIdentifier");
+        return (String) args.get("universalServiceIdentifier");
+    }
+
+    @Override
+    public void apply(HealthData<?> resource, String universalServiceIdentifier) {
+        Bundle bundle = (Bundle) resource.getUnderlyingData();
 
         Set<Resource> resourcesToRemove = new HashSet<>();
         List<Reference> observationReferences = new ArrayList<>();
@@ -0,0 +1,193 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirResource;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+import org.hl7.fhir.r4.model.Bundle;
+
+/**
+ * Decides how the validation rules run for an incoming message. By default they run synchronously
+ * on the request thread. When the {@value #VALIDATION_MODE_PROPERTY} property is {@code async},
+ * the bundle is copied and validated on a small bounded executor instead, so validation doesn't add
+ * latency to the send path. Only a {@value #VALIDATION_SAMPLE_RATE_PROPERTY} fraction of messages
+ * is validated in that mode, and messages are dropped when the executor's queue is full. Validation
+ * results are only ever logged, so skipping a message never changes how it's processed.
+ */
+public class ValidationDispatcher {
+
+    static final String VALIDATION_MODE_PROPERTY = "VALIDATION_MODE";
+    static final String ASYNC_MODE = "async";
+    static final String VALIDATION_SAMPLE_RATE_PROPERTY = "VALIDATION_SAMPLE_RATE";
+    static final String VALIDATION_THREADS_PROPERTY = "VALIDATION_THREADS";
+    static final String VALIDATION_QUEUE_SIZE_PROPERTY = "VALIDATION_QUEUE_SIZE";
+    static final int DEFAULT_VALIDATION_THREADS = 2;
+    static final int DEFAULT_VALIDATION_QUEUE_SIZE = 100;
+
+    private static final ValidationDispatcher INSTANCE = new ValidationDispatcher();
+
+    private final LongAdder validated = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private ThreadPoolExecutor executor;
+
+    @Inject ValidationRuleEngine validationEngine;
+    @Inject Logger logger;
+
+    private ValidationDispatcher() {}
+
+    public static ValidationDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /** Runs the validation rules against the bundle, either inline or in the background. */
+    public void validate(Bundle bundle) {
+        if (!isAsync()) {
+            runValidation(bundle);
+            return;
+        }
+
+        if (ThreadLocalRandom.current().nextDouble() >= getSampleRate()) {
+            sampledOut.increment();
+            return;
+        }
+
+        ThreadPoolExecutor validationExecutor = getExecutor();
+        // check before copying so an overloaded executor doesn't cost a copy of every bundle
+        if (validationExecutor.getQueue().remainingCapacity() == 0) {
+            drop(bundle);
+            return;
+        }
+
+        // the request thread keeps transforming the original bundle, so validate a copy of it
+        Bundle bundleCopy = bundle.copy();
+        try {
+            validationExecutor.execute(() -> runValidation(bundleCopy));
+        } catch (RejectedExecutionException e) {
+            drop(bundle);
+        }
+    }
+
+    /** Returns the validation counters for the metrics endpoint. */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("mode", isAsync() ? ASYNC_MODE : "sync");
+        summary.put("validated", validated.sum());
+        summary.put("failed", failed.sum());
+        summary.put("sampledOut", sampledOut.sum());
+        summary.put("dropped", dropped.sum());
+
+        ThreadPoolExecutor validationExecutor;
+        synchronized (this) {
+            validationExecutor = executor;
+        }
+        summary.put(
+                "queued", validationExecutor == null ? 0 : validationExecutor.getQueue().size());
+        return summary;
+    }
+
+    /**
+     * Stops the background executor and clears the counters. A new executor is created, with the
+     * current settings, the next time a message is validated in the background.
+     */
+    public void reset() {
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+
+        validated.reset();
+        failed.reset();
+        sampledOut.reset();
+        dropped.reset();
+    }
+
+    private void runValidation(Bundle bundle) {
+        try {
+            validationEngine.runRules(new HapiFhirResource(bundle));
+            validated.increment();
+        } catch (RuleTimeBudgetExceededException e) {
+            failed.increment();
+            logger.logWarning("Stopped validating message {}: {}", bundle.getId(), e.getMessage());
+        } catch (RuntimeException e) {
+            failed.increment();
+            logger.logError("Failed to run the validation rules", e);
+        }
+    }
+
+    private void drop(Bundle bundle) {
+        dropped.increment();
+        logger.logWarning(
+                "Validation queue is full, skipping validation of message {}", bundle.getId());
+    }
+
+    private boolean isAsync() {
+        return ASYNC_MODE.equalsIgnoreCase(
+                ApplicationContext.getProperty(VALIDATION_MODE_PROPERTY));
+    }
+
+    private double getSampleRate() {
+        String sampleRate = ApplicationContext.getProperty(VALIDATION_SAMPLE_RATE_PROPERTY, "1.0");
+        try {
+            return Double.parseDouble(sampleRate);
+        } catch (NumberFormatException e) {
+            logger.logWarning(
+                    "Invalid {} value {}, validating every message",
+                    VALIDATION_SAMPLE_RATE_PROPERTY,
+                    sampleRate);
+            return 1.0;
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = getIntProperty(VALIDATION_THREADS_PROPERTY, DEFAULT_VALIDATION_THREADS);
+            int queueSize =
+                    getIntProperty(VALIDATION_QUEUE_SIZE_PROPERTY, DEFAULT_VALIDATION_QUEUE_SIZE);
+            AtomicInteger threadCount = new AtomicInteger();
+
+            executor =
+                    new ThreadPoolExecutor(
+                            threads,
+                            threads,
+                            0,
+                            TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(queueSize),
+                            runnable -> {
+                                Thread thread =
+                                        new Thread(
+                                                runnable,
+                                                "validation-worker-"
+                                                        + threadCount.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            },
+                            new ThreadPoolExecutor.AbortPolicy());
+        }
+        return executor;
+    }
+
+    private int getIntProperty(String property, int defaultValue) {
+        String value = ApplicationContext.getProperty(property, String.valueOf(defaultValue));
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            logger.logWarning(
+                    "Invalid {} value {}, using the default of {}", property, value, defaultValue);
+            return defaultValue;
+        }
+    }
+}
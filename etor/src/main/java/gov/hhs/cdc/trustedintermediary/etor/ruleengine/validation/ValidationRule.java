@@ -1,6 +1,7 @@
 package gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation;
 
 import gov.hhs.cdc.trustedintermediary.ruleengine.Rule;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudget;
 import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
 import java.util.List;
 
@@ -38,6 +39,13 @@ public class ValidationRule extends Rule<String> {
         }
 
         for (String validation : this.getRules()) {
+            if (RuleTimeBudget.isCurrentExceeded()) {
+                this.logger.logWarning(
+                        "Rule [{}]: time budget exceeded, skipping the remaining validations",
+                        this.getName());
+                return;
+            }
+
             try {
                 boolean isValid = this.evaluator.evaluateExpression(validation, resource[0]);
                 if (!isValid) {
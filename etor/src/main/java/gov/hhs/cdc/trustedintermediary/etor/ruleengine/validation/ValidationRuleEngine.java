@@ -1,27 +1,43 @@
 package gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation;
 
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleDefinitionsWatcher;
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleEngine;
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoader;
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoaderException;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudget;
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException;
 import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.inject.Inject;
 
-/** Implements the RuleEngine interface. It represents a rule engine for validations. */
+/**
+ * Implements the RuleEngine interface. It represents a rule engine for validations. The loaded
+ * rules are published as an immutable snapshot, so a reload never blocks messages that are being
+ * validated.
+ */
 public class ValidationRuleEngine implements RuleEngine {
+    static final String ENGINE_NAME = "validation";
+
     private String ruleDefinitionsFileName;
-    final List<ValidationRule> rules = new ArrayList<>();
-    volatile boolean rulesLoaded = false;
+    private final AtomicReference<List<ValidationRule>> rules = new AtomicReference<>();
+    private final Object loadLock = new Object();
+    // kept so the same listener is registered when the rules are loaded again
+    private final Runnable ruleDefinitionsListener = this::onRuleDefinitionsChanged;
     private static final ValidationRuleEngine INSTANCE = new ValidationRuleEngine();
 
     @Inject Logger logger;
     @Inject RuleLoader ruleLoader;
+    @Inject RuleDefinitionsWatcher ruleDefinitionsWatcher;
+    @Inject RuleStatistics ruleStatistics;
 
     public static ValidationRuleEngine getInstance(String ruleDefinitionsFileName) {
         INSTANCE.ruleDefinitionsFileName = ruleDefinitionsFileName;
@@ -30,48 +46,114 @@ public class ValidationRuleEngine implements RuleEngine {
 
     private ValidationRuleEngine() {}
 
+    public List<ValidationRule> getRules() {
+        List<ValidationRule> loadedRules = rules.get();
+        return loadedRules == null ? List.of() : loadedRules;
+    }
+
     @Override
     public void unloadRules() {
-        rules.clear();
-        rulesLoaded = false;
+        rules.set(null);
     }
 
     @Override
     public void ensureRulesLoaded() throws RuleLoaderException {
-        if (!rulesLoaded) {
-            synchronized (rules) {
-                if (!rulesLoaded) {
-                    try (InputStream stream =
-                            getClass()
-                                    .getClassLoader()
-                                    .getResourceAsStream(ruleDefinitionsFileName)) {
-                        List<ValidationRule> parsedRules =
-                                ruleLoader.loadRules(stream, new TypeReference<>() {});
-                        rules.addAll(parsedRules);
-                        rulesLoaded = true;
-
-                    } catch (IOException | NullPointerException e) {
-                        throw new RuleLoaderException(
-                                "File not found: " + ruleDefinitionsFileName,
-                                new FileNotFoundException());
-                    }
+        if (rules.get() == null) {
+            synchronized (loadLock) {
+                if (rules.get() == null) {
+                    rules.set(loadRuleDefinitions());
+                    watchRuleDefinitions();
                 }
             }
         }
     }
 
     @Override
-    public void runRules(HealthData<?> resource) {
+    public void reloadRules() throws RuleLoaderException {
+        synchronized (loadLock) {
+            rules.set(loadRuleDefinitions());
+        }
+    }
+
+    @Override
+    public void runRules(HealthData<?> resource) throws RuleTimeBudgetExceededException {
         try {
             ensureRulesLoaded();
         } catch (RuleLoaderException e) {
             logger.logError("Failed to load rules definitions", e);
             return;
         }
-        for (ValidationRule rule : rules) {
-            if (rule.shouldRun(resource)) {
-                rule.runRule(resource);
+
+        RuleTimeBudget budget = RuleTimeBudget.startMessage();
+        RuleTimeBudget.setCurrent(budget);
+        try {
+            for (ValidationRule rule : getRules()) {
+                budget.startRule();
+
+                long conditionStart = System.nanoTime();
+                boolean shouldRun = rule.shouldRun(resource);
+                ruleStatistics.recordConditionEvaluation(
+                        ENGINE_NAME, rule.getName(), System.nanoTime() - conditionStart, shouldRun);
+
+                if (shouldRun && !budget.isExceeded()) {
+                    long runStart = System.nanoTime();
+                    rule.runRule(resource);
+                    ruleStatistics.recordRuleRun(
+                            ENGINE_NAME, rule.getName(), System.nanoTime() - runStart);
+                }
+
+                if (budget.isExceeded()) {
+                    ruleStatistics.recordBudgetOverrun(ENGINE_NAME, rule.getName());
+                    throw budget.exceeded(rule.getName());
+                }
             }
+        } finally {
+            RuleTimeBudget.clearCurrent();
+        }
+    }
+
+    private List<ValidationRule> loadRuleDefinitions() throws RuleLoaderException {
+        try (InputStream stream = openRuleDefinitions()) {
+            List<ValidationRule> parsedRules =
+                    ruleLoader.loadRules(stream, new TypeReference<>() {});
+            return List.copyOf(parsedRules);
+        } catch (IOException | NullPointerException e) {
+            throw new RuleLoaderException(
+                    "File not found: " + ruleDefinitionsFileName, new FileNotFoundException());
+        }
+    }
+
+    private InputStream openRuleDefinitions() throws IOException {
+        Path externalDefinitions = getExternalRuleDefinitionsPath();
+        if (externalDefinitions != null && Files.isRegularFile(externalDefinitions)) {
+            return Files.newInputStream(externalDefinitions);
+        }
+        return getClass().getClassLoader().getResourceAsStream(ruleDefinitionsFileName);
+    }
+
+    private Path getExternalRuleDefinitionsPath() {
+        return RuleDefinitionsWatcher.resolveInRuleDefinitionsDirectory(ruleDefinitionsFileName);
+    }
+
+    private void watchRuleDefinitions() {
+        Path externalDefinitions = getExternalRuleDefinitionsPath();
+        if (externalDefinitions == null) {
+            return;
+        }
+
+        try {
+            ruleDefinitionsWatcher.watch(externalDefinitions, ruleDefinitionsListener);
+        } catch (IOException e) {
+            logger.logError("Unable to watch rule definitions at " + externalDefinitions, e);
+        }
+    }
+
+    private void onRuleDefinitionsChanged() {
+        try {
+            reloadRules();
+            logger.logInfo("Reloaded validation rules from {}", ruleDefinitionsFileName);
+        } catch (RuleLoaderException e) {
+            logger.logError("Failed to reload rules definitions, keeping the current rules", e);
         }
     }
 }
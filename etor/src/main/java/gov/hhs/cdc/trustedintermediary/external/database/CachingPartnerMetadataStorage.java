@@ -0,0 +1,342 @@
+package gov.hhs.cdc.trustedintermediary.external.database;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatusCount;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStorage;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataSummary;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import gov.hhs.cdc.trustedintermediary.wrappers.database.DatabaseNotificationChannel;
+import gov.hhs.cdc.trustedintermediary.wrappers.database.DatabaseNotificationListener;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+
+/**
+ * Keeps up to {@value #MAX_ENTRIES_PROPERTY} recently read metadata in memory in front of the
+ * {@link DatabasePartnerMetadataStorage}, so partners polling for a status and repeated lookups of
+ * the same message don't each go to the database. A trigger on the metadata table notifies the
+ * {@value #CHANNEL} channel with the report IDs of every changed row, whichever node changed it,
+ * and a listener thread removes them from the cache. The cache is only used while the listener is
+ * connected, and it's cleared whenever the listener connects, because notifications sent in the
+ * meantime are lost. Entries also expire after {@value #TTL_PROPERTY} milliseconds. Disable it
+ * with {@value #ENABLED_PROPERTY}.
+ */
+public class CachingPartnerMetadataStorage implements PartnerMetadataStorage {
+
+    static final String ENABLED_PROPERTY = "METADATA_CACHE_ENABLED";
+    static final String MAX_ENTRIES_PROPERTY = "METADATA_CACHE_MAX_ENTRIES";
+    static final String TTL_PROPERTY = "METADATA_CACHE_TTL_MS";
+    static final int DEFAULT_MAX_ENTRIES = 10_000;
+    static final int DEFAULT_TTL_MILLIS = 300_000;
+    static final String CHANNEL = "metadata_changed";
+    static final int NOTIFICATION_WAIT_MILLIS = 1_000;
+    static final long RECONNECT_DELAY_MILLIS = 5_000;
+
+    private static final CachingPartnerMetadataStorage INSTANCE =
+            new CachingPartnerMetadataStorage();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder listenerErrors = new LongAdder();
+
+    // the entries, the listening flag and the generation are guarded by this. Iteration follows
+    // the access order, so the least recently read entry is evicted first.
+    private final LinkedHashMap<String, CachedMetadata> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private boolean listening;
+    // changes with every invalidation, so a read that overlapped one isn't cached
+    private long generation;
+
+    private Thread listenerThread;
+    private volatile Settings settings = new Settings(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+
+    @Inject Logger logger;
+
+    private CachingPartnerMetadataStorage() {}
+
+    public static CachingPartnerMetadataStorage getInstance() {
+        return INSTANCE;
+    }
+
+    /** Whether the metadata is cached. The cache is only available for the database storage. */
+    public boolean isEnabled() {
+        return Boolean.parseBoolean(ApplicationContext.getProperty(ENABLED_PROPERTY, "true"))
+                && ApplicationContext.isPropertyPresent("DB_URL");
+    }
+
+    /** Starts the listener thread when the cache is enabled. Does nothing when it's running. */
+    public synchronized void start() {
+        if (listenerThread != null || !isEnabled()) {
+            return;
+        }
+
+        settings = readSettings();
+
+        listenerThread = new Thread(this::listen, "metadata-cache-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    /** Stops the listener thread, empties the cache and clears the counters. */
+    public void reset() {
+        Thread thread;
+        synchronized (this) {
+            thread = listenerThread;
+            listenerThread = null;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        stoppedListening();
+        hits.reset();
+        misses.reset();
+        bypassed.reset();
+        invalidated.reset();
+        evicted.reset();
+        listenerErrors.reset();
+    }
+
+    /** Returns the cache counters for the metrics endpoint. */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("enabled", isEnabled());
+        synchronized (this) {
+            summary.put("listening", listening);
+            summary.put("size", entries.size());
+        }
+        summary.put("hits", hits.sum());
+        summary.put("misses", misses.sum());
+        summary.put("bypassed", bypassed.sum());
+        summary.put("invalidated", invalidated.sum());
+        summary.put("evicted", evicted.sum());
+        summary.put("listenerErrors", listenerErrors.sum());
+        return summary;
+    }
+
+    @Override
+    public Optional<PartnerMetadata> readMetadata(String inboundReportId)
+            throws PartnerMetadataException {
+        long readGeneration;
+        synchronized (this) {
+            if (listening) {
+                CachedMetadata cached = entries.get(inboundReportId);
+                if (cached != null && cached.expiresAtNanos() - System.nanoTime() > 0) {
+                    hits.increment();
+                    return cached.metadata();
+                }
+                misses.increment();
+            } else {
+                bypassed.increment();
+            }
+            readGeneration = generation;
+        }
+
+        Optional<PartnerMetadata> metadata = getStorage().readMetadata(inboundReportId);
+
+        synchronized (this) {
+            if (listening && generation == readGeneration) {
+                entries.put(
+                        inboundReportId,
+                        new CachedMetadata(
+                                metadata,
+                                System.nanoTime()
+                                        + TimeUnit.MILLISECONDS.toNanos(settings.ttlMillis())));
+                evictLeastRecentlyRead();
+            }
+        }
+        return metadata;
+    }
+
+    @Override
+    public void saveMetadata(PartnerMetadata metadata) throws PartnerMetadataException {
+        // also invalidated here, because the notification takes a moment to arrive and this
+        // node's own reads should see the change right away
+        try {
+            getStorage().saveMetadata(metadata);
+        } finally {
+            invalidate(metadata.inboundReportId());
+            if (metadata.outboundReportId() != null) {
+                invalidate(metadata.outboundReportId());
+            }
+        }
+    }
+
+    @Override
+    public void saveAllMetadata(List<PartnerMetadata> metadata) throws PartnerMetadataException {
+        try {
+            getStorage().saveAllMetadata(metadata);
+        } finally {
+            for (PartnerMetadata partnerMetadata : metadata) {
+                invalidate(partnerMetadata.inboundReportId());
+                if (partnerMetadata.outboundReportId() != null) {
+                    invalidate(partnerMetadata.outboundReportId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<PartnerMetadataSummary> readMetadataSummaryForSender(
+            String sender, Instant receivedSince, String afterInboundReportId, int limit)
+            throws PartnerMetadataException {
+        return getStorage()
+                .readMetadataSummaryForSender(sender, receivedSince, afterInboundReportId, limit);
+    }
+
+    @Override
+    public List<PartnerMetadataStatusCount> readStatusCountsForSender(
+            String sender, LocalDate receivedFrom, LocalDate receivedTo)
+            throws PartnerMetadataException {
+        return getStorage().readStatusCountsForSender(sender, receivedFrom, receivedTo);
+    }
+
+    @Override
+    public Set<String> readMetadataForMessageLinking(String inboundReportId)
+            throws PartnerMetadataException {
+        return getStorage().readMetadataForMessageLinking(inboundReportId);
+    }
+
+    @Override
+    public void saveTimeReceived(String inboundReportId, Instant timeReceived)
+            throws PartnerMetadataException {
+        try {
+            getStorage().saveTimeReceived(inboundReportId, timeReceived);
+        } finally {
+            invalidate(inboundReportId);
+        }
+    }
+
+    @Override
+    public Set<String> claimInboundReportIdsMissingTimeReceived(
+            Instant claimedBefore, Instant claimedAt, int limit) throws PartnerMetadataException {
+        // only records the claim, which isn't part of the cached metadata
+        return getStorage()
+                .claimInboundReportIdsMissingTimeReceived(claimedBefore, claimedAt, limit);
+    }
+
+    @Override
+    public Set<String> claimPendingStatusChecks(Instant checkedBefore, Instant checkedAt, int limit)
+            throws PartnerMetadataException {
+        // only records when the status was checked, which isn't part of the cached metadata
+        return getStorage().claimPendingStatusChecks(checkedBefore, checkedAt, limit);
+    }
+
+    @Override
+    public Optional<Instant> readStatusCheckedAt(String inboundReportId)
+            throws PartnerMetadataException {
+        return getStorage().readStatusCheckedAt(inboundReportId);
+    }
+
+    /** Removes the metadata read by the given report ID from the cache. */
+    synchronized void invalidate(String reportId) {
+        generation++;
+        if (entries.remove(reportId) != null) {
+            invalidated.increment();
+        }
+    }
+
+    /** Starts using the cache. Called once the listener receives the notifications. */
+    synchronized void startedListening() {
+        // changes made while nobody was listening weren't notified, so nothing cached is trusted
+        entries.clear();
+        generation++;
+        listening = true;
+    }
+
+    /** Stops using the cache. Called when the listener can't receive the notifications. */
+    synchronized void stoppedListening() {
+        listening = false;
+        entries.clear();
+        generation++;
+    }
+
+    private void listen() {
+        // the listener has no request, so it doesn't use anything registered for one
+        ApplicationContext.clearThreadRegistrations();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try (DatabaseNotificationChannel channel = getNotificationListener().listen(CHANNEL)) {
+                startedListening();
+                while (!Thread.currentThread().isInterrupted()) {
+                    for (String reportId : channel.awaitNotifications(NOTIFICATION_WAIT_MILLIS)) {
+                        invalidate(reportId);
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                listenerErrors.increment();
+                logger.logError(
+                        "Unable to listen for metadata changes, reading the metadata from the"
+                                + " database until the listener reconnects",
+                        e);
+            } finally {
+                stoppedListening();
+            }
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void evictLeastRecentlyRead() {
+        Iterator<CachedMetadata> leastRecentlyRead = entries.values().iterator();
+        while (entries.size() > settings.maxEntries()) {
+            leastRecentlyRead.next();
+            leastRecentlyRead.remove();
+            evicted.increment();
+        }
+    }
+
+    private PartnerMetadataStorage getStorage() {
+        // can't @Inject because the database storage is only registered when there is a database
+        return ApplicationContext.getImplementation(DatabasePartnerMetadataStorage.class);
+    }
+
+    private DatabaseNotificationListener getNotificationListener() {
+        return ApplicationContext.getImplementation(DatabaseNotificationListener.class);
+    }
+
+    private Settings readSettings() {
+        return new Settings(
+                getIntProperty(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES),
+                getIntProperty(TTL_PROPERTY, DEFAULT_TTL_MILLIS));
+    }
+
+    private int getIntProperty(String property, int defaultValue) {
+        String value = ApplicationContext.getProperty(property, String.valueOf(defaultValue));
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            logger.logWarning(
+                    "Invalid {} value {}, using the default of {}", property, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private record CachedMetadata(Optional<PartnerMetadata> metadata, long expiresAtNanos) {}
+
+    private record Settings(int maxEntries, long ttlMillis) {}
+}
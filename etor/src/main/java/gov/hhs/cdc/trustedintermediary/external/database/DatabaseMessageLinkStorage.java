@@ -8,8 +8,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -34,6 +34,11 @@ public class DatabaseMessageLinkStorage implements MessageLinkStorage {
 
     @Override
     public Optional<MessageLink> getMessageLink(String messageId) throws MessageLinkException {
+        return getMessageLinks(Set.of(messageId)).stream().findFirst();
+    }
+
+    @Override
+    public Set<MessageLink> getMessageLinks(Set<String> messageIds) throws MessageLinkException {
 
         try {
             Set<Map<UUID, String>> partialMessageLinks =
@@ -43,11 +48,18 @@ public class DatabaseMessageLinkStorage implements MessageLinkStorage {
                                     PreparedStatement statement =
                                             connection.prepareStatement(
                                                     """
-                                    SELECT *
+                                    SELECT link_id, message_id
                                     FROM message_link
-                                    WHERE message_id = ?;
+                                    WHERE link_id IN (
+                                        SELECT link_id
+                                        FROM message_link
+                                        WHERE message_id = ANY(?::varchar[])
+                                    );
                                     """);
-                                    statement.setString(1, messageId);
+                                    statement.setArray(
+                                            1,
+                                            connection.createArrayOf(
+                                                    "varchar", messageIds.toArray()));
                                     return statement;
                                 } catch (SQLException e) {
                                     throw new RuntimeException(e);
@@ -56,9 +68,7 @@ public class DatabaseMessageLinkStorage implements MessageLinkStorage {
                             this::partialMessageLinkFromResultSet,
                             Collectors.toSet());
 
-            final MessageLink messageLink = buildMessageLinkFromPartials(partialMessageLinks);
-
-            return Optional.ofNullable(messageLink);
+            return buildMessageLinksFromPartials(partialMessageLinks);
         } catch (SQLException e) {
             throw new MessageLinkException("Error retrieving message links", e);
         }
@@ -68,23 +78,82 @@ public class DatabaseMessageLinkStorage implements MessageLinkStorage {
     public void saveMessageLink(MessageLink messageLink) throws MessageLinkException {
         logger.logInfo("Saving message links");
         try {
-            UUID linkId = messageLink.getLinkId();
-            List<DbColumn> columns;
-            for (String messageId : messageLink.getMessageIds()) {
-                columns =
-                        List.of(
-                                new DbColumn("link_id", linkId, false, Types.OTHER),
-                                new DbColumn("message_id", messageId, false, Types.VARCHAR));
-                dao.upsertData(
-                        "message_link",
-                        columns,
-                        "ON CONSTRAINT message_link_link_id_message_id_key");
-            }
+            dao.updateData(
+                    connection -> {
+                        try {
+                            // a single multi-row insert, so saving the link is one round trip and
+                            // one transaction however many messages it has
+                            PreparedStatement statement =
+                                    connection.prepareStatement(
+                                            """
+                            INSERT INTO message_link (link_id, message_id)
+                            SELECT ?, unnest(?::varchar[])
+                            ON CONFLICT ON CONSTRAINT message_link_link_id_message_id_key DO NOTHING
+                            """);
+                            statement.setObject(1, messageLink.getLinkId(), Types.OTHER);
+                            statement.setArray(
+                                    2,
+                                    connection.createArrayOf(
+                                            "varchar", messageLink.getMessageIds().toArray()));
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
         } catch (SQLException e) {
             throw new MessageLinkException("Error saving message links", e);
         }
     }
 
+    @Override
+    public void linkMessages(Set<String> messageIds) throws MessageLinkException {
+        logger.logInfo("Linking messages");
+        try {
+            dao.updateData(
+                    connection -> {
+                        try {
+                            // one statement finds the links the messages are already in and
+                            // replaces them with a single link holding all of their messages.
+                            // The previous linking could leave a message in more than one link,
+                            // so the messages are re-added instead of moved. The rows found are
+                            // locked, so concurrent merges of the same links wait for each other.
+                            PreparedStatement statement =
+                                    connection.prepareStatement(
+                                            """
+                            WITH ids AS (
+                                SELECT unnest(?::varchar[]) AS message_id
+                            ), existing AS (
+                                SELECT link_id
+                                FROM message_link
+                                WHERE message_id IN (SELECT message_id FROM ids)
+                                FOR UPDATE
+                            ), target AS (
+                                SELECT coalesce(min(link_id::text)::uuid, ?::uuid) AS link_id
+                                FROM existing
+                            ), merged AS (
+                                DELETE FROM message_link
+                                WHERE link_id IN (SELECT link_id FROM existing)
+                                    AND link_id <> (SELECT link_id FROM target)
+                                RETURNING message_id
+                            )
+                            INSERT INTO message_link (link_id, message_id)
+                            SELECT (SELECT link_id FROM target), message_id
+                            FROM (SELECT message_id FROM ids UNION SELECT message_id FROM merged) AS linked
+                            ON CONFLICT ON CONSTRAINT message_link_link_id_message_id_key DO NOTHING
+                            """);
+                            statement.setArray(
+                                    1, connection.createArrayOf("varchar", messageIds.toArray()));
+                            statement.setObject(2, UUID.randomUUID(), Types.OTHER);
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new MessageLinkException("Error linking messages", e);
+        }
+    }
+
     Map<UUID, String> partialMessageLinkFromResultSet(ResultSet resultSet) {
         try {
             UUID linkId = UUID.fromString(resultSet.getString("link_id"));
@@ -95,24 +164,22 @@ public class DatabaseMessageLinkStorage implements MessageLinkStorage {
         }
     }
 
-    MessageLink buildMessageLinkFromPartials(final Set<Map<UUID, String>> partialMessageLinks) {
-        UUID linkId = null;
-        Set<String> messageIds = new HashSet<>();
+    Set<MessageLink> buildMessageLinksFromPartials(
+            final Set<Map<UUID, String>> partialMessageLinks) {
+        Map<UUID, Set<String>> messageIdsByLinkId = new HashMap<>();
 
         for (Map<UUID, String> partialMessageLink : partialMessageLinks) {
             for (Map.Entry<UUID, String> entry : partialMessageLink.entrySet()) {
-                if (linkId == null) {
-                    linkId = entry.getKey();
-                }
-                messageIds.add(entry.getValue());
+                messageIdsByLinkId
+                        .computeIfAbsent(entry.getKey(), linkId -> new HashSet<>())
+                        .add(entry.getValue());
             }
         }
 
-        MessageLink messageLink = null;
-        if (linkId != null) {
-            messageLink = new MessageLink(linkId, messageIds);
-        }
+        Set<MessageLink> messageLinks = new HashSet<>();
+        messageIdsByLinkId.forEach(
+                (linkId, messageIds) -> messageLinks.add(new MessageLink(linkId, messageIds)));
 
-        return messageLink;
+        return messageLinks;
     }
 }
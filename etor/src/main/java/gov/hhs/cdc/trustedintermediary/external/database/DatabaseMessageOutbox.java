@@ -0,0 +1,230 @@
+package gov.hhs.cdc.trustedintermediary.external.database;
+
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType;
+import gov.hhs.cdc.trustedintermediary.etor.outbox.MessageOutbox;
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxException;
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxMessage;
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter;
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+
+/**
+ * Implements the {@link MessageOutbox} using a database. Messages are claimed with {@code FOR
+ * UPDATE SKIP LOCKED}, so every node can poll the same table without handing a message to two
+ * nodes or waiting on each other's locks.
+ */
+public class DatabaseMessageOutbox implements MessageOutbox {
+
+    static final int MAX_ERROR_LENGTH = 1000;
+
+    private static final DatabaseMessageOutbox INSTANCE = new DatabaseMessageOutbox();
+
+    @Inject DbDao dao;
+
+    @Inject Formatter formatter;
+
+    @Inject CachingPartnerMetadataStorage cachingPartnerMetadataStorage;
+
+    private DatabaseMessageOutbox() {}
+
+    public static DatabaseMessageOutbox getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void saveWithMetadata(PartnerMetadata metadata, OutboxMessage message)
+            throws OutboxException {
+        List<DbColumn> metadataColumns;
+        try {
+            metadataColumns =
+                    DatabasePartnerMetadataStorage.createDbColumnsFromMetadata(metadata, formatter);
+        } catch (FormatterProcessingException e) {
+            throw new OutboxException("Error parsing metadata", e);
+        }
+
+        try {
+            dao.runInTransaction(
+                    connection -> {
+                        dao.upsertData(
+                                connection, "metadata", metadataColumns, "(received_message_id)");
+                        saveMessage(connection, message);
+                    });
+        } catch (SQLException e) {
+            throw new OutboxException("Error saving the message to the outbox", e);
+        } finally {
+            // the metadata is written around the cache, so this node's cached copy is dropped here
+            // instead of waiting for the change notification
+            cachingPartnerMetadataStorage.invalidate(metadata.inboundReportId());
+            if (metadata.outboundReportId() != null) {
+                cachingPartnerMetadataStorage.invalidate(metadata.outboundReportId());
+            }
+        }
+    }
+
+    @Override
+    public List<OutboxMessage> claim(int limit, Duration lease) throws OutboxException {
+        try {
+            return dao.fetchManyData(
+                    connection -> {
+                        try {
+                            PreparedStatement statement =
+                                    connection.prepareStatement(
+                                            """
+                            UPDATE outbox
+                            SET claimed_until = now() + ? * interval '1 millisecond',
+                                attempts = attempts + 1
+                            WHERE received_message_id IN (
+                                SELECT received_message_id
+                                FROM outbox
+                                WHERE status = 'PENDING'
+                                    AND next_attempt_at <= now()
+                                    AND (claimed_until IS NULL OR claimed_until < now())
+                                ORDER BY next_attempt_at
+                                LIMIT ?
+                                FOR UPDATE SKIP LOCKED)
+                            RETURNING received_message_id, message_type, fhir_resource_id, payload,
+                                mock_delivery, attempts
+                            """);
+                            statement.setLong(1, lease.toMillis());
+                            statement.setInt(2, limit);
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    },
+                    this::outboxMessageFromResultSet,
+                    Collectors.toList());
+        } catch (SQLException e) {
+            throw new OutboxException("Error claiming messages from the outbox", e);
+        }
+    }
+
+    @Override
+    public void markSent(String inboundReportId) throws OutboxException {
+        try {
+            dao.updateData(
+                    connection -> {
+                        try {
+                            PreparedStatement statement =
+                                    connection.prepareStatement(
+                                            "DELETE FROM outbox WHERE received_message_id = ?");
+                            statement.setString(1, inboundReportId);
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new OutboxException("Error removing a sent message from the outbox", e);
+        }
+    }
+
+    @Override
+    public void scheduleRetry(String inboundReportId, Instant nextAttemptAt, String error)
+            throws OutboxException {
+        try {
+            dao.updateData(
+                    connection -> {
+                        try {
+                            PreparedStatement statement =
+                                    connection.prepareStatement(
+                                            "UPDATE outbox SET next_attempt_at = ?, claimed_until = NULL, last_error = ? WHERE received_message_id = ?");
+                            statement.setTimestamp(1, Timestamp.from(nextAttemptAt));
+                            statement.setString(2, truncateError(error));
+                            statement.setString(3, inboundReportId);
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new OutboxException("Error scheduling the retry of an outbox message", e);
+        }
+    }
+
+    @Override
+    public void markFailed(String inboundReportId, String error) throws OutboxException {
+        try {
+            dao.updateData(
+                    connection -> {
+                        try {
+                            PreparedStatement statement =
+                                    connection.prepareStatement(
+                                            "UPDATE outbox SET status = 'FAILED', claimed_until = NULL, last_error = ? WHERE received_message_id = ?");
+                            statement.setString(1, truncateError(error));
+                            statement.setString(2, inboundReportId);
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new OutboxException("Error marking an outbox message as failed", e);
+        }
+    }
+
+    OutboxMessage outboxMessageFromResultSet(ResultSet resultSet) {
+        try {
+            return new OutboxMessage(
+                    resultSet.getString("received_message_id"),
+                    PartnerMetadataMessageType.valueOf(resultSet.getString("message_type")),
+                    resultSet.getString("fhir_resource_id"),
+                    resultSet.getString("payload"),
+                    resultSet.getBoolean("mock_delivery"),
+                    resultSet.getInt("attempts"));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void saveMessage(Connection connection, OutboxMessage message) throws SQLException {
+        // a message that is received again replaces the one waiting in the outbox, but not one a
+        // node is delivering under a lease that hasn't run out, or one that was given up on
+        try (PreparedStatement statement =
+                connection.prepareStatement(
+                        """
+                        INSERT INTO outbox (received_message_id, message_type, fhir_resource_id,
+                            payload, mock_delivery, status, attempts, next_attempt_at,
+                            claimed_until, last_error)
+                        VALUES (?, ?, ?, ?, ?, 'PENDING', ?, now(), NULL, NULL)
+                        ON CONFLICT (received_message_id) DO UPDATE SET
+                            message_type = EXCLUDED.message_type,
+                            fhir_resource_id = EXCLUDED.fhir_resource_id,
+                            payload = EXCLUDED.payload,
+                            mock_delivery = EXCLUDED.mock_delivery,
+                            status = EXCLUDED.status,
+                            attempts = EXCLUDED.attempts,
+                            next_attempt_at = EXCLUDED.next_attempt_at,
+                            claimed_until = NULL,
+                            last_error = NULL
+                        WHERE outbox.status = 'PENDING'
+                            AND (outbox.claimed_until IS NULL OR outbox.claimed_until < now())
+                        """)) {
+            statement.setString(1, message.inboundReportId());
+            statement.setObject(2, message.messageType().toString(), Types.OTHER);
+            statement.setString(3, message.fhirResourceId());
+            statement.setString(4, message.payload());
+            statement.setBoolean(5, message.mockDelivery());
+            statement.setInt(6, message.attempts());
+            statement.executeUpdate();
+        }
+    }
+
+    private String truncateError(String error) {
+        if (error == null || error.length() <= MAX_ERROR_LENGTH) {
+            return error;
+        }
+        return error.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -4,17 +4,22 @@ import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatus;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatusCount;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStorage;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataSummary;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -47,9 +52,17 @@ public class DatabasePartnerMetadataStorage implements PartnerMetadataStorage {
                     dao.fetchFirstData(
                             connection -> {
                                 try {
+                                    // each branch has its own index, where the OR would scan
+                                    // the table, and the second branch only runs if the first
+                                    // one doesn't find the metadata
                                     PreparedStatement statement =
                                             connection.prepareStatement(
-                                                    "SELECT * FROM metadata where received_message_id = ? OR sent_message_id = ?");
+                                                    """
+                                    (SELECT * FROM metadata WHERE received_message_id = ?)
+                                    UNION ALL
+                                    (SELECT * FROM metadata WHERE sent_message_id = ?)
+                                    LIMIT 1
+                                    """);
                                     statement.setString(1, uniqueId);
                                     statement.setString(2, uniqueId);
                                     return statement;
@@ -70,7 +83,7 @@ public class DatabasePartnerMetadataStorage implements PartnerMetadataStorage {
         logger.logInfo("saving the metadata");
 
         try {
-            List<DbColumn> columns = createDbColumnsFromMetadata(metadata);
+            List<DbColumn> columns = createDbColumnsFromMetadata(metadata, formatter);
             dao.upsertData("metadata", columns, "(received_message_id)");
         } catch (SQLException e) {
             throw new PartnerMetadataException("Error saving metadata", e);
@@ -80,33 +93,118 @@ public class DatabasePartnerMetadataStorage implements PartnerMetadataStorage {
     }
 
     @Override
-    public Set<PartnerMetadata> readMetadataForSender(String sender)
+    public void saveAllMetadata(final List<PartnerMetadata> metadata)
             throws PartnerMetadataException {
-        Set<PartnerMetadata> consolidatedMetadata;
+        logger.logInfo("saving {} metadata", metadata.size());
+
         try {
-            consolidatedMetadata =
-                    dao.fetchManyData(
-                            connection -> {
-                                try {
-                                    PreparedStatement statement =
-                                            connection.prepareStatement(
-                                                    "SELECT * FROM metadata WHERE sending_facility_details->> 'universalId' = ?");
-                                    statement.setString(1, sender);
-                                    return statement;
-                                } catch (SQLException e) {
-                                    throw new RuntimeException(e);
-                                }
-                            },
-                            this::partnerMetadataFromResultSet,
-                            Collectors.toSet());
+            List<List<DbColumn>> rows = new ArrayList<>();
+            for (PartnerMetadata partnerMetadata : metadata) {
+                rows.add(createDbColumnsFromMetadata(partnerMetadata, formatter));
+            }
+            dao.upsertBatch("metadata", rows, "(received_message_id)");
+        } catch (SQLException e) {
+            throw new PartnerMetadataException("Error saving metadata", e);
+        } catch (FormatterProcessingException e) {
+            throw new PartnerMetadataException("Error parsing metadata", e);
+        }
+    }
 
-            return consolidatedMetadata;
+    @Override
+    public List<PartnerMetadataSummary> readMetadataSummaryForSender(
+            String sender, Instant receivedSince, String afterInboundReportId, int limit)
+            throws PartnerMetadataException {
+        // only the columns the summary needs, so the jsonb details aren't read and parsed
+        StringBuilder sql =
+                new StringBuilder(
+                        """
+                        SELECT received_message_id, delivery_status, failure_reason,
+                            receiving_facility_details->>'universalId' AS receiving_facility_universal_id
+                        FROM metadata
+                        WHERE sending_facility_details->>'universalId' = ?
+                        """);
+        if (receivedSince != null) {
+            sql.append(" AND time_received >= ?");
+        }
+        if (afterInboundReportId != null) {
+            sql.append(" AND received_message_id > ?");
+        }
+        sql.append(" ORDER BY received_message_id LIMIT ?");
 
+        try {
+            return dao.fetchManyData(
+                    connection -> {
+                        try {
+                            PreparedStatement statement =
+                                    connection.prepareStatement(sql.toString());
+                            int index = 1;
+                            statement.setString(index++, sender);
+                            if (receivedSince != null) {
+                                statement.setTimestamp(index++, Timestamp.from(receivedSince));
+                            }
+                            if (afterInboundReportId != null) {
+                                statement.setString(index++, afterInboundReportId);
+                            }
+                            statement.setInt(index, limit);
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    },
+                    this::partnerMetadataSummaryFromResultSet,
+                    Collectors.toList());
         } catch (SQLException e) {
             throw new PartnerMetadataException("Error retrieving consolidated metadata", e);
         }
     }
 
+    @Override
+    public List<PartnerMetadataStatusCount> readStatusCountsForSender(
+            String sender, LocalDate receivedFrom, LocalDate receivedTo)
+            throws PartnerMetadataException {
+        // the counts are kept up to date by a trigger on the metadata table, so this doesn't have
+        // to scan the sender's metadata
+        StringBuilder sql =
+                new StringBuilder(
+                        """
+                        SELECT received_day, delivery_status, message_count
+                        FROM metadata_status_counts
+                        WHERE sender = ? AND message_count > 0
+                        """);
+        if (receivedFrom != null) {
+            sql.append(" AND received_day >= ?");
+        }
+        if (receivedTo != null) {
+            sql.append(" AND received_day <= ?");
+        }
+        sql.append(" ORDER BY received_day NULLS FIRST, delivery_status");
+
+        try {
+            return dao.fetchManyData(
+                    connection -> {
+                        try {
+                            PreparedStatement statement =
+                                    connection.prepareStatement(sql.toString());
+                            int index = 1;
+                            statement.setString(index++, sender);
+                            if (receivedFrom != null) {
+                                statement.setDate(index++, Date.valueOf(receivedFrom));
+                            }
+                            if (receivedTo != null) {
+                                statement.setDate(index, Date.valueOf(receivedTo));
+                            }
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    },
+                    this::partnerMetadataStatusCountFromResultSet,
+                    Collectors.toList());
+        } catch (SQLException e) {
+            throw new PartnerMetadataException("Error retrieving the metadata status counts", e);
+        }
+    }
+
     @Override
     public Set<String> readMetadataForMessageLinking(String inboundReportId)
             throws PartnerMetadataException {
@@ -122,16 +220,22 @@ public class DatabasePartnerMetadataStorage implements PartnerMetadataStorage {
                                                     """
                                     SELECT m2.received_message_id
                                     FROM metadata m1
-                                    JOIN metadata m2
-                                        ON m1.placer_order_number = m2.placer_order_number
-                                            AND (m1.sending_facility_details = m2.sending_facility_details
-                                                OR m1.sending_facility_details = m2.receiving_facility_details)
-                                            AND m1.received_message_id <> m2.received_message_id
-                                    WHERE m1.received_message_id = ?;
+                                    JOIN metadata m2 ON m2.sender_link_key = m1.sender_link_key
+                                    WHERE m1.received_message_id = ?
+                                        AND m2.received_message_id <> m1.received_message_id
+                                    UNION ALL
+                                    SELECT m2.received_message_id
+                                    FROM metadata m1
+                                    JOIN metadata m2 ON m2.receiver_link_key = m1.sender_link_key
+                                    WHERE m1.received_message_id = ?
+                                        AND m2.received_message_id <> m1.received_message_id
                                     """);
-                                    // -- LIMIT 50 This is a potential fix for load test failures
-                                    // since they link all the ids together;
+                                    // the link keys are generated columns combining the placer
+                                    // order number and the normalized facility, so each half is
+                                    // an index lookup that only reads the linked messages. A
+                                    // message found by both halves is collected once.
                                     statement.setString(1, inboundReportId);
+                                    statement.setString(2, inboundReportId);
                                     return statement;
                                 } catch (SQLException e) {
                                     throw new RuntimeException(e);
@@ -146,6 +250,136 @@ public class DatabasePartnerMetadataStorage implements PartnerMetadataStorage {
         }
     }
 
+    @Override
+    public void saveTimeReceived(String inboundReportId, Instant timeReceived)
+            throws PartnerMetadataException {
+        try {
+            dao.updateData(
+                    connection -> {
+                        try {
+                            PreparedStatement statement =
+                                    connection.prepareStatement(
+                                            "UPDATE metadata SET time_received = ? WHERE received_message_id = ? AND time_received IS NULL");
+                            statement.setTimestamp(1, Timestamp.from(timeReceived));
+                            statement.setString(2, inboundReportId);
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new PartnerMetadataException("Error saving the time received", e);
+        }
+    }
+
+    @Override
+    public Set<String> claimInboundReportIdsMissingTimeReceived(
+            Instant claimedBefore, Instant claimedAt, int limit) throws PartnerMetadataException {
+        try {
+            return dao.fetchManyData(
+                    connection -> {
+                        try {
+                            PreparedStatement statement =
+                                    connection.prepareStatement(
+                                            """
+                            UPDATE metadata
+                            SET time_received_claimed_at = ?
+                            WHERE received_message_id IN (
+                                SELECT received_message_id
+                                FROM metadata
+                                WHERE time_received IS NULL
+                                    AND (time_received_claimed_at IS NULL
+                                        OR time_received_claimed_at < ?)
+                                ORDER BY time_received_claimed_at NULLS FIRST
+                                LIMIT ?
+                                FOR UPDATE SKIP LOCKED)
+                            RETURNING received_message_id
+                            """);
+                            statement.setTimestamp(1, Timestamp.from(claimedAt));
+                            statement.setTimestamp(2, Timestamp.from(claimedBefore));
+                            statement.setInt(3, limit);
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    },
+                    this::idsFromResult,
+                    Collectors.toSet());
+        } catch (SQLException e) {
+            throw new PartnerMetadataException(
+                    "Error claiming metadata missing the time received", e);
+        }
+    }
+
+    @Override
+    public Set<String> claimPendingStatusChecks(
+            Instant checkedBefore, Instant checkedAt, int limit) throws PartnerMetadataException {
+        try {
+            return dao.fetchManyData(
+                    connection -> {
+                        try {
+                            PreparedStatement statement =
+                                    connection.prepareStatement(
+                                            """
+                            UPDATE metadata
+                            SET status_checked_at = ?
+                            WHERE received_message_id IN (
+                                SELECT received_message_id
+                                FROM metadata
+                                WHERE delivery_status = 'PENDING'
+                                    AND sent_message_id IS NOT NULL
+                                    AND (status_checked_at IS NULL OR status_checked_at < ?)
+                                ORDER BY status_checked_at NULLS FIRST
+                                LIMIT ?
+                                FOR UPDATE SKIP LOCKED)
+                            RETURNING received_message_id
+                            """);
+                            statement.setTimestamp(1, Timestamp.from(checkedAt));
+                            statement.setTimestamp(2, Timestamp.from(checkedBefore));
+                            statement.setInt(3, limit);
+                            return statement;
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e);
+                        }
+                    },
+                    this::idsFromResult,
+                    Collectors.toSet());
+        } catch (SQLException e) {
+            throw new PartnerMetadataException("Error claiming metadata for status checks", e);
+        }
+    }
+
+    @Override
+    public Optional<Instant> readStatusCheckedAt(String inboundReportId)
+            throws PartnerMetadataException {
+        try {
+            Timestamp checkedAt =
+                    dao.fetchFirstData(
+                            connection -> {
+                                try {
+                                    PreparedStatement statement =
+                                            connection.prepareStatement(
+                                                    "SELECT status_checked_at FROM metadata WHERE received_message_id = ?");
+                                    statement.setString(1, inboundReportId);
+                                    return statement;
+                                } catch (SQLException e) {
+                                    throw new RuntimeException(e);
+                                }
+                            },
+                            resultSet -> {
+                                try {
+                                    return resultSet.getTimestamp("status_checked_at");
+                                } catch (SQLException e) {
+                                    throw new RuntimeException(e);
+                                }
+                            });
+
+            return Optional.ofNullable(checkedAt).map(Timestamp::toInstant);
+        } catch (SQLException e) {
+            throw new PartnerMetadataException("Error retrieving the status check time", e);
+        }
+    }
+
     PartnerMetadata partnerMetadataFromResultSet(ResultSet resultSet) {
         try {
             Instant timeReceived = null;
@@ -187,6 +421,30 @@ public class DatabasePartnerMetadataStorage implements PartnerMetadataStorage {
         }
     }
 
+    PartnerMetadataSummary partnerMetadataSummaryFromResultSet(ResultSet resultSet) {
+        try {
+            return new PartnerMetadataSummary(
+                    resultSet.getString("received_message_id"),
+                    PartnerMetadataStatus.valueOf(resultSet.getString("delivery_status")),
+                    resultSet.getString("failure_reason"),
+                    resultSet.getString("receiving_facility_universal_id"));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    PartnerMetadataStatusCount partnerMetadataStatusCountFromResultSet(ResultSet resultSet) {
+        try {
+            Date receivedDay = resultSet.getDate("received_day");
+            return new PartnerMetadataStatusCount(
+                    receivedDay != null ? receivedDay.toLocalDate() : null,
+                    PartnerMetadataStatus.valueOf(resultSet.getString("delivery_status")),
+                    resultSet.getLong("message_count"));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     String idsFromResult(ResultSet resultSet) {
 
         try {
@@ -196,8 +454,9 @@ public class DatabasePartnerMetadataStorage implements PartnerMetadataStorage {
         }
     }
 
-    private List<DbColumn> createDbColumnsFromMetadata(PartnerMetadata metadata)
-            throws FormatterProcessingException {
+    /** Shared with {@link DatabaseMessageOutbox}, which saves the metadata with the outbox row. */
+    static List<DbColumn> createDbColumnsFromMetadata(
+            PartnerMetadata metadata, Formatter formatter) throws FormatterProcessingException {
         return List.of(
                 new DbColumn(
                         "received_message_id", metadata.inboundReportId(), false, Types.VARCHAR),
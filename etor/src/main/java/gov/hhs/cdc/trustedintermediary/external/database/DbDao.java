@@ -13,6 +13,18 @@ public interface DbDao {
     void upsertData(String tableName, List<DbColumn> values, String conflictTarget)
             throws SQLException;
 
+    /** Upserts using the given connection, so the statement can be part of a transaction. */
+    void upsertData(
+            Connection connection, String tableName, List<DbColumn> values, String conflictTarget)
+            throws SQLException;
+
+    /**
+     * Upserts many rows with a single prepared statement, sent to the database in batches inside one
+     * transaction. Every row must have the same columns in the same order.
+     */
+    void upsertBatch(String tableName, List<List<DbColumn>> rows, String conflictTarget)
+            throws SQLException;
+
     <T> T fetchFirstData(
             Function<Connection, PreparedStatement> sqlGenerator, Function<ResultSet, T> converter)
             throws SQLException;
@@ -22,4 +34,23 @@ public interface DbDao {
             Function<ResultSet, T> converter,
             Collector<? super T, ?, S> collector)
             throws SQLException;
+
+    /**
+     * Runs an INSERT, UPDATE or DELETE statement.
+     *
+     * @return The number of rows the statement changed.
+     */
+    int updateData(Function<Connection, PreparedStatement> sqlGenerator) throws SQLException;
+
+    /**
+     * Runs the given statements in a single transaction, which is committed when they all succeed
+     * and rolled back otherwise.
+     */
+    void runInTransaction(DbTransaction transaction) throws SQLException;
+
+    /** Statements that run on one connection inside a transaction. */
+    @FunctionalInterface
+    interface DbTransaction {
+        void run(Connection connection) throws SQLException;
+    }
 }
@@ -7,8 +7,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collector;
 import java.util.stream.Stream;
@@ -20,6 +22,9 @@ public class PostgresDao implements DbDao {
 
     private static final PostgresDao INSTANCE = new PostgresDao();
 
+    // the tables and columns come from the code, not from the data, so this stays small
+    private final Map<UpsertSqlKey, String> upsertSqlCache = new ConcurrentHashMap<>();
+
     @Inject ConnectionPool connectionPool;
 
     @Inject Formatter formatter;
@@ -33,66 +38,49 @@ public class PostgresDao implements DbDao {
     @Override
     public void upsertData(String tableName, List<DbColumn> values, String conflictTarget)
             throws SQLException {
-        // example SQL statement generated here:
-        // INSERT INTO metadata_table (column_one, column_three, column_two, column_four)
-        // VALUES (?, ?, ?, ?)
-        // ON CONFLICT (column_one) DO UPDATE SET column_three = EXCLUDED.column_three, column_two =
-        // EXCLUDED.column_two
-
-        StringBuilder sqlStatementBuilder =
-                new StringBuilder("INSERT INTO ").append(tableName).append(" (");
-
-        values.forEach(dbColumn -> sqlStatementBuilder.append(dbColumn.name()).append(", "));
-        removeLastTwoCharacters(sqlStatementBuilder); // remove the last unused ", "
-
-        sqlStatementBuilder.append(") VALUES (");
-
-        sqlStatementBuilder.append("?, ".repeat(values.size()));
-        removeLastTwoCharacters(sqlStatementBuilder); // remove the last unused ", "
-        sqlStatementBuilder.append(")");
-
-        if (conflictTarget != null) {
-            sqlStatementBuilder.append(" ON CONFLICT ").append(conflictTarget);
-
-            boolean overwriteOnConflict = values.stream().anyMatch(DbColumn::upsertOverwrite);
-            if (overwriteOnConflict) {
-                sqlStatementBuilder.append(" DO UPDATE SET ");
+        try (Connection conn = connectionPool.getConnection()) {
+            upsertData(conn, tableName, values, conflictTarget);
+        }
+    }
 
-                for (DbColumn column : values) {
-                    if (!column.upsertOverwrite()) {
-                        continue;
-                    }
+    @Override
+    public void upsertData(
+            Connection connection, String tableName, List<DbColumn> values, String conflictTarget)
+            throws SQLException {
+        try (PreparedStatement statement =
+                connection.prepareStatement(upsertSql(tableName, values, conflictTarget))) {
+            setValues(statement, values);
+            statement.executeUpdate();
+        }
+    }
 
-                    sqlStatementBuilder.append(column.name()).append(" = EXCLUDED.");
-                    sqlStatementBuilder.append(column.name());
-                    sqlStatementBuilder.append(", ");
-                }
+    @Override
+    public void upsertBatch(String tableName, List<List<DbColumn>> rows, String conflictTarget)
+            throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
 
-                removeLastTwoCharacters(sqlStatementBuilder); // remove the last unused ", "
-            } else {
-                sqlStatementBuilder.append(" DO NOTHING");
+        UpsertSqlKey key = UpsertSqlKey.of(tableName, rows.get(0), conflictTarget);
+        for (List<DbColumn> row : rows) {
+            if (!key.equals(UpsertSqlKey.of(tableName, row, conflictTarget))) {
+                throw new IllegalArgumentException(
+                        "Every row of a batch upsert must have the same columns");
             }
         }
 
-        String sqlStatement = sqlStatementBuilder.toString();
-
-        try (Connection conn = connectionPool.getConnection();
-                PreparedStatement statement = conn.prepareStatement(sqlStatement)) {
-
-            for (int i = 0; i < values.size(); i++) {
-                DbColumn column = values.get(i);
-                Object value = column.value();
-                int type = column.type();
+        String sqlStatement = upsertSqlCache.computeIfAbsent(key, this::buildUpsertSql);
+        runInTransaction(
+                connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(sqlStatement)) {
+                        for (List<DbColumn> row : rows) {
+                            setValues(statement, row);
+                            statement.addBatch();
+                        }
 
-                if (value != null) {
-                    statement.setObject(i + 1, value, type);
-                } else {
-                    statement.setNull(i + 1, type);
-                }
-            }
-
-            statement.executeUpdate();
-        }
+                        statement.executeBatch();
+                    }
+                });
     }
 
     @Override
@@ -131,6 +119,37 @@ public class PostgresDao implements DbDao {
         }
     }
 
+    @Override
+    public int updateData(Function<Connection, PreparedStatement> sqlGenerator)
+            throws SQLException {
+
+        try (Connection conn = connectionPool.getConnection();
+                PreparedStatement statement = sqlGenerator.apply(conn)) {
+
+            return statement.executeUpdate();
+        } catch (Exception e) {
+            throw new SQLException(
+                    "Some exception occurred while updating data in the database", e);
+        }
+    }
+
+    @Override
+    public void runInTransaction(DbTransaction transaction) throws SQLException {
+        try (Connection conn = connectionPool.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                transaction.run(conn);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
     private <T> Stream<T> dataStreamFromResultSet(
             final ResultSet topLevelResultSet, final Function<ResultSet, T> converter) {
 
@@ -144,7 +163,83 @@ public class PostgresDao implements DbDao {
         return stream.map(converter);
     }
 
+    private String upsertSql(String tableName, List<DbColumn> values, String conflictTarget) {
+        return upsertSqlCache.computeIfAbsent(
+                UpsertSqlKey.of(tableName, values, conflictTarget), this::buildUpsertSql);
+    }
+
+    private String buildUpsertSql(UpsertSqlKey key) {
+        // example SQL statement generated here:
+        // INSERT INTO metadata_table (column_one, column_three, column_two, column_four)
+        // VALUES (?, ?, ?, ?)
+        // ON CONFLICT (column_one) DO UPDATE SET column_three = EXCLUDED.column_three, column_two =
+        // EXCLUDED.column_two
+
+        StringBuilder sqlStatementBuilder =
+                new StringBuilder("INSERT INTO ").append(key.tableName()).append(" (");
+
+        key.columnNames().forEach(name -> sqlStatementBuilder.append(name).append(", "));
+        removeLastTwoCharacters(sqlStatementBuilder); // remove the last unused ", "
+
+        sqlStatementBuilder.append(") VALUES (");
+
+        sqlStatementBuilder.append("?, ".repeat(key.columnNames().size()));
+        removeLastTwoCharacters(sqlStatementBuilder); // remove the last unused ", "
+        sqlStatementBuilder.append(")");
+
+        if (key.conflictTarget() != null) {
+            sqlStatementBuilder.append(" ON CONFLICT ").append(key.conflictTarget());
+
+            if (!key.overwriteColumnNames().isEmpty()) {
+                sqlStatementBuilder.append(" DO UPDATE SET ");
+
+                for (String name : key.overwriteColumnNames()) {
+                    sqlStatementBuilder.append(name).append(" = EXCLUDED.");
+                    sqlStatementBuilder.append(name);
+                    sqlStatementBuilder.append(", ");
+                }
+
+                removeLastTwoCharacters(sqlStatementBuilder); // remove the last unused ", "
+            } else {
+                sqlStatementBuilder.append(" DO NOTHING");
+            }
+        }
+
+        return sqlStatementBuilder.toString();
+    }
+
+    private void setValues(PreparedStatement statement, List<DbColumn> values)
+            throws SQLException {
+        for (int i = 0; i < values.size(); i++) {
+            DbColumn column = values.get(i);
+            Object value = column.value();
+            int type = column.type();
+
+            if (value != null) {
+                statement.setObject(i + 1, value, type);
+            } else {
+                statement.setNull(i + 1, type);
+            }
+        }
+    }
+
     private void removeLastTwoCharacters(StringBuilder stringBuilder) {
         stringBuilder.delete(stringBuilder.length() - 2, stringBuilder.length());
     }
+
+    /** Everything the generated upsert SQL depends on, so it's only built once. */
+    record UpsertSqlKey(
+            String tableName,
+            List<String> columnNames,
+            List<String> overwriteColumnNames,
+            String conflictTarget) {
+
+        static UpsertSqlKey of(String tableName, List<DbColumn> values, String conflictTarget) {
+            return new UpsertSqlKey(
+                    tableName,
+                    values.stream().map(DbColumn::name).toList(),
+                    values.stream().filter(DbColumn::upsertOverwrite).map(DbColumn::name).toList(),
+                    conflictTarget);
+        }
+    }
 }
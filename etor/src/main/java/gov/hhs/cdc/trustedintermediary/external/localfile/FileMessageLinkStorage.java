@@ -12,11 +12,14 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
 
 /** Implements the {@link MessageLinkStorage} using local files. */
@@ -69,6 +72,18 @@ public class FileMessageLinkStorage implements MessageLinkStorage {
         }
     }
 
+    @Override
+    public synchronized Set<MessageLink> getMessageLinks(Set<String> messageIds)
+            throws MessageLinkException {
+        try {
+            return readMessageLinks().stream()
+                    .filter(link -> link.getMessageIds().stream().anyMatch(messageIds::contains))
+                    .collect(Collectors.toSet());
+        } catch (IOException | FormatterProcessingException e) {
+            throw new MessageLinkException("Error retrieving message links", e);
+        }
+    }
+
     @Override
     public synchronized void saveMessageLink(MessageLink messageLink) throws MessageLinkException {
         try {
@@ -92,6 +107,35 @@ public class FileMessageLinkStorage implements MessageLinkStorage {
         }
     }
 
+    @Override
+    public synchronized void linkMessages(Set<String> messageIds) throws MessageLinkException {
+        try {
+            Set<MessageLink> messageLinks = readMessageLinks();
+            List<MessageLink> existingLinks =
+                    messageLinks.stream()
+                            .filter(
+                                    link ->
+                                            link.getMessageIds().stream()
+                                                    .anyMatch(messageIds::contains))
+                            .toList();
+
+            // the same as the database, the links are merged into the one with the lowest id
+            UUID linkId =
+                    existingLinks.stream()
+                            .map(MessageLink::getLinkId)
+                            .min(Comparator.comparing(UUID::toString))
+                            .orElseGet(UUID::randomUUID);
+            MessageLink mergedLink = new MessageLink(linkId, messageIds);
+            existingLinks.forEach(link -> mergedLink.addMessageIds(link.getMessageIds()));
+
+            messageLinks.removeAll(existingLinks);
+            messageLinks.add(mergedLink);
+            writeMessageLinks(messageLinks);
+        } catch (IOException | FormatterProcessingException e) {
+            throw new MessageLinkException("Error linking messages", e);
+        }
+    }
+
     private Set<MessageLink> readMessageLinks() throws IOException, FormatterProcessingException {
         String messageLinkContent = Files.readString(MESSAGE_LINK_FILE_PATH);
         Set<MessageLink> messageLinks =
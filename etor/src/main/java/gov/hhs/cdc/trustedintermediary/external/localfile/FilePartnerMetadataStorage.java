@@ -1,9 +1,13 @@
 package gov.hhs.cdc.trustedintermediary.external.localfile;
 
 import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.etor.messages.MessageHdDataType;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatus;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatusCount;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStorage;
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataSummary;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException;
@@ -11,8 +15,20 @@ import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.inject.Inject;
@@ -22,6 +38,11 @@ public class FilePartnerMetadataStorage implements PartnerMetadataStorage {
 
     private static final FilePartnerMetadataStorage INSTANCE = new FilePartnerMetadataStorage();
 
+    // the local files are only used by a single node, so the status checks and the ingestion time
+    // claims are kept in memory
+    private final Map<String, Instant> statusCheckedAt = new ConcurrentHashMap<>();
+    private final Map<String, Instant> timeReceivedClaimedAt = new ConcurrentHashMap<>();
+
     @Inject Formatter formatter;
     @Inject Logger logger;
 
@@ -88,7 +109,19 @@ public class FilePartnerMetadataStorage implements PartnerMetadataStorage {
     }
 
     @Override
-    public Set<PartnerMetadata> readMetadataForSender(String senderUniversalId)
+    public void saveAllMetadata(final List<PartnerMetadata> metadata)
+            throws PartnerMetadataException {
+        for (PartnerMetadata partnerMetadata : metadata) {
+            saveMetadata(partnerMetadata);
+        }
+    }
+
+    @Override
+    public List<PartnerMetadataSummary> readMetadataSummaryForSender(
+            String senderUniversalId,
+            Instant receivedSince,
+            String afterInboundReportId,
+            int limit)
             throws PartnerMetadataException {
         try {
             return getPartnerMetadata().stream()
@@ -97,13 +130,85 @@ public class FilePartnerMetadataStorage implements PartnerMetadataStorage {
                                     metadata.sendingFacilityDetails()
                                             .universalId()
                                             .equals(senderUniversalId))
-                    .collect(Collectors.toSet());
+                    .filter(
+                            metadata ->
+                                    receivedSince == null
+                                            || (metadata.timeReceived() != null
+                                                    && !metadata.timeReceived()
+                                                            .isBefore(receivedSince)))
+                    .filter(
+                            metadata ->
+                                    afterInboundReportId == null
+                                            || metadata.inboundReportId()
+                                                            .compareTo(afterInboundReportId)
+                                                    > 0)
+                    .sorted(Comparator.comparing(PartnerMetadata::inboundReportId))
+                    .limit(limit)
+                    .map(
+                            metadata ->
+                                    new PartnerMetadataSummary(
+                                            metadata.inboundReportId(),
+                                            metadata.deliveryStatus(),
+                                            metadata.failureReason(),
+                                            metadata.receivingFacilityDetails().universalId()))
+                    .toList();
         } catch (Exception e) {
             throw new PartnerMetadataException(
                     "Failed reading metadata for sender: " + senderUniversalId, e);
         }
     }
 
+    @Override
+    public List<PartnerMetadataStatusCount> readStatusCountsForSender(
+            String senderUniversalId, LocalDate receivedFrom, LocalDate receivedTo)
+            throws PartnerMetadataException {
+        Set<PartnerMetadata> existingMetadata;
+        try {
+            existingMetadata = getPartnerMetadata();
+        } catch (Exception e) {
+            throw new PartnerMetadataException(
+                    "Failed counting metadata for sender: " + senderUniversalId, e);
+        }
+
+        // the local files aren't rolled up as they change, so they're counted on every read. The
+        // days are in a HashMap because messages without a time received have a null day.
+        Map<LocalDate, Map<PartnerMetadataStatus, Long>> counts = new HashMap<>();
+        for (PartnerMetadata metadata : existingMetadata) {
+            if (!Objects.equals(
+                    metadata.sendingFacilityDetails().universalId(), senderUniversalId)) {
+                continue;
+            }
+
+            LocalDate receivedDay =
+                    metadata.timeReceived() != null
+                            ? LocalDate.ofInstant(metadata.timeReceived(), ZoneOffset.UTC)
+                            : null;
+            boolean noRange = receivedFrom == null && receivedTo == null;
+            boolean inRange =
+                    receivedDay != null
+                            && (receivedFrom == null || !receivedDay.isBefore(receivedFrom))
+                            && (receivedTo == null || !receivedDay.isAfter(receivedTo));
+            if (noRange || inRange) {
+                counts.computeIfAbsent(
+                                receivedDay, day -> new EnumMap<>(PartnerMetadataStatus.class))
+                        .merge(metadata.deliveryStatus(), 1L, Long::sum);
+            }
+        }
+
+        List<LocalDate> days = new ArrayList<>(counts.keySet());
+        days.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+
+        List<PartnerMetadataStatusCount> statusCounts = new ArrayList<>();
+        for (LocalDate day : days) {
+            counts.get(day)
+                    .forEach(
+                            (status, count) ->
+                                    statusCounts.add(
+                                            new PartnerMetadataStatusCount(day, status, count)));
+        }
+        return statusCounts;
+    }
+
     @Override
     public Set<String> readMetadataForMessageLinking(String inboundReportId)
             throws PartnerMetadataException {
@@ -121,16 +226,18 @@ public class FilePartnerMetadataStorage implements PartnerMetadataStorage {
                 return Set.of();
             }
 
+            // messages from the same sender, or to the sender of the given message
+            String matchLinkKey = senderLinkKey(match);
+            if (matchLinkKey == null) {
+                return Set.of();
+            }
+
             return existingMetadata.stream()
                     .filter(
                             metadata ->
-                                    metadata.placerOrderNumber().equals(match.placerOrderNumber())
-                                            && (metadata.sendingFacilityDetails()
-                                                            .equals(match.sendingFacilityDetails())
-                                                    || metadata.sendingFacilityDetails()
-                                                            .equals(
-                                                                    match
-                                                                            .receivingFacilityDetails()))
+                                    (matchLinkKey.equals(senderLinkKey(metadata))
+                                                    || matchLinkKey.equals(
+                                                            receiverLinkKey(metadata)))
                                             && !metadata.inboundReportId().equals(inboundReportId))
                     .map(PartnerMetadata::inboundReportId)
                     .collect(Collectors.toSet());
@@ -140,6 +247,112 @@ public class FilePartnerMetadataStorage implements PartnerMetadataStorage {
         }
     }
 
+    private static String senderLinkKey(PartnerMetadata metadata) {
+        return linkKey(metadata.placerOrderNumber(), metadata.sendingFacilityDetails());
+    }
+
+    private static String receiverLinkKey(PartnerMetadata metadata) {
+        return linkKey(metadata.placerOrderNumber(), metadata.receivingFacilityDetails());
+    }
+
+    // the same key as the generated link key columns of the metadata table
+    private static String linkKey(String placerOrderNumber, MessageHdDataType facilityDetails) {
+        if (placerOrderNumber == null) {
+            return null;
+        }
+
+        String facility = "";
+        if (facilityDetails != null && facilityDetails.universalId() != null) {
+            facility = facilityDetails.universalId();
+        } else if (facilityDetails != null && facilityDetails.namespace() != null) {
+            facility = facilityDetails.namespace();
+        }
+
+        return placerOrderNumber + "^" + facility.strip().toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public synchronized void saveTimeReceived(String inboundReportId, Instant timeReceived)
+            throws PartnerMetadataException {
+        Optional<PartnerMetadata> metadata = readMetadata(inboundReportId);
+        if (metadata.isEmpty() || metadata.get().timeReceived() != null) {
+            return;
+        }
+
+        saveMetadata(metadata.get().withTimeReceived(timeReceived));
+    }
+
+    @Override
+    public synchronized Set<String> claimInboundReportIdsMissingTimeReceived(
+            Instant claimedBefore, Instant claimedAt, int limit) throws PartnerMetadataException {
+        Set<String> claimed;
+        try {
+            claimed =
+                    getPartnerMetadata().stream()
+                            .filter(metadata -> metadata.timeReceived() == null)
+                            .map(PartnerMetadata::inboundReportId)
+                            .filter(
+                                    inboundReportId -> {
+                                        Instant lastClaimed =
+                                                timeReceivedClaimedAt.get(inboundReportId);
+                                        return lastClaimed == null
+                                                || lastClaimed.isBefore(claimedBefore);
+                                    })
+                            .sorted(
+                                    Comparator.comparing(
+                                            inboundReportId ->
+                                                    timeReceivedClaimedAt.getOrDefault(
+                                                            inboundReportId, Instant.MIN)))
+                            .limit(limit)
+                            .collect(Collectors.toSet());
+        } catch (Exception e) {
+            throw new PartnerMetadataException(
+                    "Failed reading metadata missing the time received", e);
+        }
+
+        claimed.forEach(inboundReportId -> timeReceivedClaimedAt.put(inboundReportId, claimedAt));
+        return claimed;
+    }
+
+    @Override
+    public synchronized Set<String> claimPendingStatusChecks(
+            Instant checkedBefore, Instant checkedAt, int limit) throws PartnerMetadataException {
+        Set<String> claimed;
+        try {
+            claimed =
+                    getPartnerMetadata().stream()
+                            .filter(
+                                    metadata ->
+                                            metadata.deliveryStatus()
+                                                            == PartnerMetadataStatus.PENDING
+                                                    && metadata.outboundReportId() != null)
+                            .map(PartnerMetadata::inboundReportId)
+                            .filter(
+                                    inboundReportId -> {
+                                        Instant lastChecked = statusCheckedAt.get(inboundReportId);
+                                        return lastChecked == null
+                                                || lastChecked.isBefore(checkedBefore);
+                                    })
+                            .sorted(
+                                    Comparator.comparing(
+                                            inboundReportId ->
+                                                    statusCheckedAt.getOrDefault(
+                                                            inboundReportId, Instant.MIN)))
+                            .limit(limit)
+                            .collect(Collectors.toSet());
+        } catch (Exception e) {
+            throw new PartnerMetadataException("Failed reading metadata for status checks", e);
+        }
+
+        claimed.forEach(inboundReportId -> statusCheckedAt.put(inboundReportId, checkedAt));
+        return claimed;
+    }
+
+    @Override
+    public Optional<Instant> readStatusCheckedAt(String inboundReportId) {
+        return Optional.ofNullable(statusCheckedAt.get(inboundReportId));
+    }
+
     private Set<PartnerMetadata> getPartnerMetadata() throws IOException {
         try (Stream<Path> fileList = Files.list(METADATA_DIRECTORY)) {
             return fileList.map(
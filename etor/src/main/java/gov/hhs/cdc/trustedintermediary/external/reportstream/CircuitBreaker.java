@@ -0,0 +1,256 @@
+package gov.hhs.cdc.trustedintermediary.external.reportstream;
+
+import gov.hhs.cdc.trustedintermediary.wrappers.HttpClientException;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Guards calls to one ReportStream endpoint. After a number of consecutive failures the circuit
+ * opens and calls are rejected straight away instead of waiting on an endpoint that's down. Once
+ * the open period has passed, a single probe call is let through: if it succeeds the circuit
+ * closes, otherwise it opens again. Only errors that say the endpoint is unhealthy count as
+ * failures, not a request the endpoint rejected. Independently of the circuit state, the number of
+ * concurrent calls is capped so a slow endpoint can't tie up every request thread.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /** A call to ReportStream that may fail with a checked exception. */
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    static final int TOO_MANY_REQUESTS = 429;
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final int maxConcurrentCalls;
+    private final long permitWaitMillis;
+    private final Semaphore permits;
+    private final Logger logger;
+
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejectedWhileOpen = new LongAdder();
+    private final LongAdder rejectedWhileFull = new LongAdder();
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean probeInFlight;
+
+    CircuitBreaker(
+            String name,
+            int failureThreshold,
+            long openMillis,
+            int maxConcurrentCalls,
+            long permitWaitMillis,
+            Logger logger) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.permitWaitMillis = permitWaitMillis;
+        this.permits = new Semaphore(maxConcurrentCalls);
+        this.logger = logger;
+    }
+
+    /**
+     * Runs the call if the circuit allows it and records whether it succeeded. See {@link
+     * #isFailure} for the exceptions that count as failures.
+     */
+    public <T, E extends Exception> T call(Call<T, E> call)
+            throws E, ReportStreamCallRejectedException {
+        boolean probe = acquire();
+        Throwable exception = null;
+        try {
+            return call.run();
+        } catch (Throwable e) {
+            exception = e;
+            throw e;
+        } finally {
+            release(probe, exception == null || !isFailure(exception));
+        }
+    }
+
+    /**
+     * Starts the call if the circuit allows it and records whether its future succeeded. A
+     * rejected call returns a future failed with a {@link ReportStreamCallRejectedException}. See
+     * {@link #isFailure} for the exceptions that count as failures.
+     */
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call) {
+        boolean probe;
+        try {
+            probe = acquire();
+        } catch (ReportStreamCallRejectedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            release(probe, !isFailure(e));
+            throw e;
+        }
+        return future.whenComplete(
+                (result, exception) ->
+                        release(probe, exception == null || !isFailure(exception)));
+    }
+
+    /**
+     * Whether an exception from a call says the endpoint is unhealthy: an error status of 5xx or
+     * 429, or no response at all, because the request timed out or the connection failed. Any
+     * other error status is a problem with the request, so the endpoint counts as healthy even
+     * though the exception still goes to the caller.
+     */
+    static boolean isFailure(Throwable exception) {
+        Throwable cause = exception;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+
+        if (cause instanceof HttpClientException httpClientException) {
+            OptionalInt statusCode = httpClientException.getStatusCode();
+            return statusCode.isEmpty()
+                    || statusCode.getAsInt() >= 500
+                    || statusCode.getAsInt() == TOO_MANY_REQUESTS;
+        }
+        return cause instanceof IOException || cause instanceof TimeoutException;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("state", state.name());
+        summary.put("consecutiveFailures", consecutiveFailures);
+        summary.put("inFlight", maxConcurrentCalls - permits.availablePermits());
+        summary.put("maxConcurrentCalls", maxConcurrentCalls);
+        summary.put("successes", successes.sum());
+        summary.put("failures", failures.sum());
+        summary.put("rejectedWhileOpen", rejectedWhileOpen.sum());
+        summary.put("rejectedWhileFull", rejectedWhileFull.sum());
+        return summary;
+    }
+
+    /**
+     * Takes a permit for a call.
+     *
+     * @return Whether the call is the probe of a half-open circuit.
+     */
+    private boolean acquire() throws ReportStreamCallRejectedException {
+        boolean probe = false;
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAtNanos < openNanos) {
+                    rejectedWhileOpen.increment();
+                    throw new ReportStreamCallRejectedException(
+                            "The circuit breaker for the ReportStream "
+                                    + name
+                                    + " endpoint is open");
+                }
+                transitionTo(State.HALF_OPEN);
+            }
+
+            if (state == State.HALF_OPEN) {
+                if (probeInFlight) {
+                    rejectedWhileOpen.increment();
+                    throw new ReportStreamCallRejectedException(
+                            "The circuit breaker for the ReportStream "
+                                    + name
+                                    + " endpoint is waiting on its probe call");
+                }
+                probeInFlight = true;
+                probe = true;
+            }
+        }
+
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(permitWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            if (probe) {
+                synchronized (this) {
+                    probeInFlight = false;
+                }
+            }
+            rejectedWhileFull.increment();
+            throw new ReportStreamCallRejectedException(
+                    "Too many concurrent calls to the ReportStream " + name + " endpoint");
+        }
+        return probe;
+    }
+
+    private void release(boolean probe, boolean succeeded) {
+        permits.release();
+
+        if (succeeded) {
+            successes.increment();
+        } else {
+            failures.increment();
+        }
+
+        synchronized (this) {
+            if (probe) {
+                probeInFlight = false;
+            }
+
+            if (succeeded) {
+                consecutiveFailures = 0;
+                if (state != State.CLOSED) {
+                    transitionTo(State.CLOSED);
+                }
+                return;
+            }
+
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN
+                    || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                openedAtNanos = System.nanoTime();
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    private void transitionTo(State newState) {
+        State oldState = state;
+        state = newState;
+        if (newState == State.OPEN) {
+            logger.logWarning(
+                    "ReportStream {} circuit breaker opened after {} consecutive failures",
+                    name,
+                    consecutiveFailures);
+        } else {
+            logger.logInfo(
+                    "ReportStream {} circuit breaker went from {} to {}", name, oldState, newState);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package gov.hhs.cdc.trustedintermediary.external.reportstream;
+
+/**
+ * Thrown instead of calling ReportStream when the endpoint's circuit breaker is open or too many
+ * calls to it are already in flight.
+ */
+public class ReportStreamCallRejectedException extends ReportStreamEndpointClientException {
+    public ReportStreamCallRejectedException(String message) {
+        super(message, null);
+    }
+}
@@ -0,0 +1,91 @@
+package gov.hhs.cdc.trustedintermediary.external.reportstream;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.inject.Inject;
+
+/**
+ * Holds a {@link CircuitBreaker} for each ReportStream endpoint, so an outage of one endpoint
+ * doesn't stop calls to the others. The breakers are configured with the {@value
+ * #FAILURE_THRESHOLD_PROPERTY}, {@value #OPEN_MILLIS_PROPERTY}, {@value
+ * #MAX_CONCURRENT_CALLS_PROPERTY} and {@value #PERMIT_WAIT_MILLIS_PROPERTY} properties.
+ */
+public class ReportStreamCircuitBreakers {
+
+    static final String FAILURE_THRESHOLD_PROPERTY = "RS_CIRCUIT_BREAKER_FAILURE_THRESHOLD";
+    static final String OPEN_MILLIS_PROPERTY = "RS_CIRCUIT_BREAKER_OPEN_MS";
+    static final String MAX_CONCURRENT_CALLS_PROPERTY = "RS_MAX_CONCURRENT_CALLS";
+    static final String PERMIT_WAIT_MILLIS_PROPERTY = "RS_CALL_PERMIT_WAIT_MS";
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_OPEN_MILLIS = 30_000;
+    static final int DEFAULT_MAX_CONCURRENT_CALLS = 20;
+    static final long DEFAULT_PERMIT_WAIT_MILLIS = 500;
+
+    public enum Endpoint {
+        TOKEN,
+        WATERS,
+        HISTORY,
+        DELIVERY
+    }
+
+    private static final ReportStreamCircuitBreakers INSTANCE = new ReportStreamCircuitBreakers();
+
+    private final Map<Endpoint, CircuitBreaker> circuitBreakers = new EnumMap<>(Endpoint.class);
+
+    @Inject Logger logger;
+
+    private ReportStreamCircuitBreakers() {}
+
+    public static ReportStreamCircuitBreakers getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized CircuitBreaker get(Endpoint endpoint) {
+        return circuitBreakers.computeIfAbsent(endpoint, this::createCircuitBreaker);
+    }
+
+    /** Returns the state and counters of every endpoint's circuit breaker. */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        for (Endpoint endpoint : Endpoint.values()) {
+            summary.put(endpoint.name().toLowerCase(Locale.ROOT), get(endpoint).getSummary());
+        }
+        return summary;
+    }
+
+    /** Drops the circuit breakers so they start closed, with the current properties. */
+    public synchronized void reset() {
+        circuitBreakers.clear();
+    }
+
+    private CircuitBreaker createCircuitBreaker(Endpoint endpoint) {
+        return new CircuitBreaker(
+                endpoint.name().toLowerCase(Locale.ROOT),
+                (int) getPositiveProperty(FAILURE_THRESHOLD_PROPERTY, DEFAULT_FAILURE_THRESHOLD),
+                getPositiveProperty(OPEN_MILLIS_PROPERTY, DEFAULT_OPEN_MILLIS),
+                (int)
+                        getPositiveProperty(
+                                MAX_CONCURRENT_CALLS_PROPERTY, DEFAULT_MAX_CONCURRENT_CALLS),
+                getPositiveProperty(PERMIT_WAIT_MILLIS_PROPERTY, DEFAULT_PERMIT_WAIT_MILLIS),
+                logger);
+    }
+
+    private long getPositiveProperty(String property, long defaultValue) {
+        String value = ApplicationContext.getProperty(property, String.valueOf(defaultValue));
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the warning below
+        }
+        logger.logWarning("Invalid {} value, using the default of {}", property, defaultValue);
+        return defaultValue;
+    }
+}
@@ -2,6 +2,7 @@ package gov.hhs.cdc.trustedintermediary.external.reportstream;
 
 import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
 import gov.hhs.cdc.trustedintermediary.etor.RSEndpointClient;
+import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamCircuitBreakers.Endpoint;
 import gov.hhs.cdc.trustedintermediary.wrappers.AuthEngine;
 import gov.hhs.cdc.trustedintermediary.wrappers.Cache;
 import gov.hhs.cdc.trustedintermediary.wrappers.HttpClient;
@@ -9,6 +10,7 @@ import gov.hhs.cdc.trustedintermediary.wrappers.HttpClientException;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
 import gov.hhs.cdc.trustedintermediary.wrappers.SecretRetrievalException;
 import gov.hhs.cdc.trustedintermediary.wrappers.Secrets;
+import gov.hhs.cdc.trustedintermediary.wrappers.StreamingBody;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference;
@@ -16,6 +18,8 @@ import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import javax.inject.Inject;
 
 /** Implementation of the RSEndpointClient interface for interacting with ReportStream endpoints */
@@ -46,6 +50,7 @@ public class ReportStreamEndpointClient implements RSEndpointClient {
     @Inject private Logger logger;
     @Inject private Secrets secrets;
     @Inject private Cache cache;
+    @Inject private ReportStreamCircuitBreakers circuitBreakers;
 
     private static final ReportStreamEndpointClient INSTANCE = new ReportStreamEndpointClient();
 
@@ -70,7 +75,12 @@ public class ReportStreamEndpointClient implements RSEndpointClient {
                             300,
                             ourPrivateKey);
             String body = composeAuthRequestBody(senderToken);
-            response = client.post(RS_AUTH_API_URL, RS_AUTH_API_HEADERS, body);
+            response =
+                    circuitBreakers
+                            .get(Endpoint.TOKEN)
+                            .call(() -> client.post(RS_AUTH_API_URL, RS_AUTH_API_HEADERS, body));
+        } catch (ReportStreamCallRejectedException e) {
+            throw e;
         } catch (Exception e) {
             throw new ReportStreamEndpointClientException(
                     "Error getting the API token from ReportStream", e);
@@ -86,17 +96,12 @@ public class ReportStreamEndpointClient implements RSEndpointClient {
             throws ReportStreamEndpointClientException {
         logger.logInfo("Sending payload to ReportStream");
 
-        Map<String, String> headers =
-                Map.of(
-                        "Authorization",
-                        "Bearer " + bearerToken,
-                        "client",
-                        CLIENT_NAME,
-                        "Content-Type",
-                        "application/fhir+ndjson");
+        Map<String, String> headers = watersHeaders(bearerToken);
 
         try {
-            return client.post(RS_WATERS_API_URL, headers, body);
+            return circuitBreakers
+                    .get(Endpoint.WATERS)
+                    .call(() -> client.post(RS_WATERS_API_URL, headers, body));
         } catch (HttpClientException e) {
             throw new ReportStreamEndpointClientException(
                     "Error POSTing the payload to ReportStream", e);
@@ -112,7 +117,7 @@ public class ReportStreamEndpointClient implements RSEndpointClient {
 
         try {
             String url = RS_HISTORY_API_URL.replace("{id}", outboundReportId);
-            return client.get(url, headers);
+            return circuitBreakers.get(Endpoint.HISTORY).call(() -> client.get(url, headers));
         } catch (HttpClientException e) {
             throw new ReportStreamEndpointClientException(
                     "Error GETting the history from ReportStream", e);
@@ -128,13 +133,99 @@ public class ReportStreamEndpointClient implements RSEndpointClient {
 
         try {
             String url = RS_DELIVERY_API_URL.replace("{id}", inboundReportId);
-            return client.get(url, headers);
+            return circuitBreakers.get(Endpoint.DELIVERY).call(() -> client.get(url, headers));
         } catch (HttpClientException e) {
             throw new ReportStreamEndpointClientException(
                     "Error GETting deliveries from ReportStream", e);
         }
     }
 
+    @Override
+    public String requestWatersEndpoint(StreamingBody body, String bearerToken)
+            throws ReportStreamEndpointClientException {
+        logger.logInfo("Streaming payload to ReportStream");
+
+        Map<String, String> headers = watersHeaders(bearerToken);
+
+        try {
+            return circuitBreakers
+                    .get(Endpoint.WATERS)
+                    .call(() -> client.post(RS_WATERS_API_URL, headers, body));
+        } catch (HttpClientException e) {
+            throw new ReportStreamEndpointClientException(
+                    "Error POSTing the payload to ReportStream", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> requestWatersEndpointAsync(String body, String bearerToken) {
+        logger.logInfo("Sending payload to ReportStream");
+
+        Map<String, String> headers = watersHeaders(bearerToken);
+
+        return failWithEndpointException(
+                circuitBreakers
+                        .get(Endpoint.WATERS)
+                        .callAsync(() -> client.postAsync(RS_WATERS_API_URL, headers, body)),
+                "Error POSTing the payload to ReportStream");
+    }
+
+    @Override
+    public CompletableFuture<String> requestHistoryEndpointAsync(
+            String outboundReportId, String bearerToken) {
+        logger.logInfo("Requesting history API from ReportStream");
+
+        Map<String, String> headers = Map.of("Authorization", "Bearer " + bearerToken);
+        String url = RS_HISTORY_API_URL.replace("{id}", outboundReportId);
+
+        return failWithEndpointException(
+                circuitBreakers
+                        .get(Endpoint.HISTORY)
+                        .callAsync(() -> client.getAsync(url, headers)),
+                "Error GETting the history from ReportStream");
+    }
+
+    @Override
+    public CompletableFuture<String> requestDeliveryEndpointAsync(
+            String inboundReportId, String bearerToken) {
+        logger.logInfo("Requesting delivery API from ReportStream");
+
+        Map<String, String> headers = Map.of("Authorization", "Bearer " + bearerToken);
+        String url = RS_DELIVERY_API_URL.replace("{id}", inboundReportId);
+
+        return failWithEndpointException(
+                circuitBreakers
+                        .get(Endpoint.DELIVERY)
+                        .callAsync(() -> client.getAsync(url, headers)),
+                "Error GETting deliveries from ReportStream");
+    }
+
+    private Map<String, String> watersHeaders(String bearerToken) {
+        return Map.of(
+                "Authorization",
+                "Bearer " + bearerToken,
+                "client",
+                CLIENT_NAME,
+                "Content-Type",
+                "application/fhir+ndjson");
+    }
+
+    private CompletableFuture<String> failWithEndpointException(
+            CompletableFuture<String> response, String message) {
+        return response.exceptionallyCompose(
+                e -> {
+                    Throwable cause =
+                            e instanceof CompletionException && e.getCause() != null
+                                    ? e.getCause()
+                                    : e;
+                    if (cause instanceof ReportStreamCallRejectedException) {
+                        return CompletableFuture.failedFuture(cause);
+                    }
+                    return CompletableFuture.failedFuture(
+                            new ReportStreamEndpointClientException(message, cause));
+                });
+    }
+
     protected String requestToken() throws ReportStreamEndpointClientException {
         logger.logInfo("Requesting token from ReportStream");
 
@@ -29,7 +29,8 @@ public class ReportStreamResultSender implements ResultSender {
     @Override
     public Optional<String> send(Result<?> result) throws UnableToSendMessageException {
         logger.logInfo("Sending results to ReportStream");
-        String json = fhir.encodeResourceToJson(result.getUnderlyingData());
-        return sender.sendResultToReportStream(json, result.getFhirResourceId());
+        return sender.sendResultToReportStream(
+                outputStream -> fhir.encodeResourceToJson(result.getUnderlyingData(), outputStream),
+                result.getFhirResourceId());
     }
 }
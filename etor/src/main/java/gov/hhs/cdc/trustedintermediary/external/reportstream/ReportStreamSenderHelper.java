@@ -7,6 +7,7 @@ import gov.hhs.cdc.trustedintermediary.etor.metadata.EtorMetadataStep;
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
 import gov.hhs.cdc.trustedintermediary.wrappers.MetricMetadata;
+import gov.hhs.cdc.trustedintermediary.wrappers.StreamingBody;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference;
@@ -33,14 +34,45 @@ public class ReportStreamSenderHelper {
         return sendToReportStream(body, fhirResourceId, PartnerMetadataMessageType.ORDER);
     }
 
+    public Optional<String> sendOrderToReportStream(StreamingBody body, String fhirResourceId)
+            throws UnableToSendMessageException {
+        return sendToReportStream(body, fhirResourceId, PartnerMetadataMessageType.ORDER);
+    }
+
     public Optional<String> sendResultToReportStream(String body, String fhirResourceId)
             throws UnableToSendMessageException {
         return sendToReportStream(body, fhirResourceId, PartnerMetadataMessageType.RESULT);
     }
 
+    public Optional<String> sendResultToReportStream(StreamingBody body, String fhirResourceId)
+            throws UnableToSendMessageException {
+        return sendToReportStream(body, fhirResourceId, PartnerMetadataMessageType.RESULT);
+    }
+
     protected Optional<String> sendToReportStream(
             String body, String fhirResourceId, PartnerMetadataMessageType messageType)
             throws UnableToSendMessageException {
+        return sendToReportStream(
+                (rsclient, bearerToken) -> rsclient.requestWatersEndpoint(body, bearerToken),
+                fhirResourceId,
+                messageType);
+    }
+
+    /** Streams the payload to ReportStream, so it's never held in memory as a whole. */
+    protected Optional<String> sendToReportStream(
+            StreamingBody body, String fhirResourceId, PartnerMetadataMessageType messageType)
+            throws UnableToSendMessageException {
+        return sendToReportStream(
+                (rsclient, bearerToken) -> rsclient.requestWatersEndpoint(body, bearerToken),
+                fhirResourceId,
+                messageType);
+    }
+
+    private Optional<String> sendToReportStream(
+            WatersRequest watersRequest,
+            String fhirResourceId,
+            PartnerMetadataMessageType messageType)
+            throws UnableToSendMessageException {
 
         // can't @Inject because the implementation can be different for this specific thread
         RSEndpointClient rsclient = ApplicationContext.getImplementation(RSEndpointClient.class);
@@ -50,7 +82,7 @@ public class ReportStreamSenderHelper {
 
         try {
             bearerToken = rsclient.getRsToken();
-            rsResponseBody = rsclient.requestWatersEndpoint(body, bearerToken);
+            rsResponseBody = watersRequest.send(rsclient, bearerToken);
         } catch (ReportStreamEndpointClientException e) {
             throw new UnableToSendMessageException(
                     "Unable to send " + messageType + " to ReportStream", e);
@@ -83,4 +115,10 @@ public class ReportStreamSenderHelper {
 
         return Optional.empty();
     }
+
+    @FunctionalInterface
+    private interface WatersRequest {
+        String send(RSEndpointClient rsclient, String bearerToken)
+                throws ReportStreamEndpointClientException;
+    }
 }
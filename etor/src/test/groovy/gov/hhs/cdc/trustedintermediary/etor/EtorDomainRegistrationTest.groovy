@@ -10,24 +10,41 @@ import gov.hhs.cdc.trustedintermediary.domainconnector.DomainResponseHelper
 import gov.hhs.cdc.trustedintermediary.domainconnector.HttpEndpoint
 import gov.hhs.cdc.trustedintermediary.etor.messages.MessageHdDataType
 import gov.hhs.cdc.trustedintermediary.etor.messages.MessageRequestHandler
+import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageStageGraph
 import gov.hhs.cdc.trustedintermediary.etor.messages.UnableToSendMessageException
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.ConsolidatedMetadataPage
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.DeliveryStatusPoller
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataConverter
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.IngestionTimeEnrichmentWorker
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataOrchestrator
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStorage
 import gov.hhs.cdc.trustedintermediary.etor.operationoutcomes.FhirMetadata
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxSenderWorker
 import gov.hhs.cdc.trustedintermediary.etor.orders.OrderController
 import gov.hhs.cdc.trustedintermediary.etor.orders.OrderResponse
 import gov.hhs.cdc.trustedintermediary.etor.orders.SendOrderUseCase
 import gov.hhs.cdc.trustedintermediary.etor.results.ResultController
 import gov.hhs.cdc.trustedintermediary.etor.results.ResultResponse
 import gov.hhs.cdc.trustedintermediary.etor.results.SendResultUseCase
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.TransformationShadowRunner
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation.ValidationDispatcher
+import gov.hhs.cdc.trustedintermediary.external.database.CachingPartnerMetadataStorage
+import gov.hhs.cdc.trustedintermediary.external.database.DatabasePartnerMetadataStorage
+import gov.hhs.cdc.trustedintermediary.external.jackson.Jackson
 import gov.hhs.cdc.trustedintermediary.external.localfile.MockRSEndpointClient
+import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamCircuitBreakers
 import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamEndpointClient
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics
 import gov.hhs.cdc.trustedintermediary.wrappers.FhirParseException
 import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference
+import java.time.Instant
+import java.time.LocalDate
 import spock.lang.Specification
 
 class EtorDomainRegistrationTest extends Specification {
@@ -40,15 +57,22 @@ class EtorDomainRegistrationTest extends Specification {
     def setup() {
         TestApplicationContext.reset()
         TestApplicationContext.init()
+        TestApplicationContext.register(PartnerMetadataOrchestrator, Mock(PartnerMetadataOrchestrator))
         TestApplicationContext.injectRegisteredImplementations()
     }
 
+    def cleanup() {
+        ApplicationContext.clearThreadRegistrations()
+    }
+
     def "domain registration has endpoints"() {
         given:
         def domainRegistration = new EtorDomainRegistration()
         def ordersEndpoint = new HttpEndpoint("POST", EtorDomainRegistration.ORDERS_API_ENDPOINT, true)
         def metadataEndpoint = new HttpEndpoint("GET", EtorDomainRegistration.METADATA_API_ENDPOINT, true)
         def consolidatedOrdersEndpoint = new HttpEndpoint("GET", EtorDomainRegistration.CONSOLIDATED_SUMMARY_API_ENDPOINT, true)
+        def statusCountsEndpoint = new HttpEndpoint("GET", EtorDomainRegistration.STATUS_COUNTS_API_ENDPOINT, true)
+        def metricsEndpoint = new HttpEndpoint("GET", EtorDomainRegistration.METRICS_API_ENDPOINT, true)
 
         when:
         def endpoints = domainRegistration.domainRegistration()
@@ -58,6 +82,8 @@ class EtorDomainRegistrationTest extends Specification {
         endpoints.get(ordersEndpoint) != null
         endpoints.get(metadataEndpoint) != null
         endpoints.get(consolidatedOrdersEndpoint) != null
+        endpoints.get(statusCountsEndpoint) != null
+        endpoints.get(metricsEndpoint) != null
     }
 
     def "domain registration has endpoints when DB_URL is not found"() {
@@ -78,6 +104,26 @@ class EtorDomainRegistrationTest extends Specification {
         endpoints.get(consolidatedOrdersEndpoint) != null
     }
 
+    def "the metadata is cached in front of the database unless the cache is disabled"() {
+        given:
+        def domainRegistration = new EtorDomainRegistration()
+        TestApplicationContext.addEnvironmentVariable("DB_URL", "localhost")
+
+        when:
+        domainRegistration.domainRegistration()
+
+        then:
+        ApplicationContext.getImplementation(PartnerMetadataStorage) == CachingPartnerMetadataStorage.getInstance()
+        ApplicationContext.getImplementation(DatabasePartnerMetadataStorage) == DatabasePartnerMetadataStorage.getInstance()
+
+        when:
+        TestApplicationContext.addEnvironmentVariable("METADATA_CACHE_ENABLED", "false")
+        domainRegistration.domainRegistration()
+
+        then:
+        ApplicationContext.getImplementation(PartnerMetadataStorage) == DatabasePartnerMetadataStorage.getInstance()
+    }
+
     def "RSEndpointClient uses the right implementation depending if REPORT_STREAM_URL_PREFIX is present or not"() {
         given:
         def domainRegistration = new EtorDomainRegistration()
@@ -182,6 +228,7 @@ class EtorDomainRegistrationTest extends Specification {
         request.setPathParams(["id": inboundReportId])
 
         def mockPartnerMetadataOrchestrator = Mock(PartnerMetadataOrchestrator)
+        mockPartnerMetadataOrchestrator.getStatusCheckedAt(_ as String) >> Optional.empty()
         TestApplicationContext.register(PartnerMetadataOrchestrator, mockPartnerMetadataOrchestrator)
 
         def mockResponseHelper = Mock(DomainResponseHelper)
@@ -223,6 +270,7 @@ class EtorDomainRegistrationTest extends Specification {
         request.setPathParams(["id": outboundReportId])
 
         def mockPartnerMetadataOrchestrator = Mock(PartnerMetadataOrchestrator)
+        mockPartnerMetadataOrchestrator.getStatusCheckedAt(_ as String) >> Optional.empty()
         TestApplicationContext.register(PartnerMetadataOrchestrator, mockPartnerMetadataOrchestrator)
 
         def mockResponseHelper = Mock(DomainResponseHelper)
@@ -249,6 +297,48 @@ class EtorDomainRegistrationTest extends Specification {
         1 * mockResponseHelper.constructOkResponseFromString(_ as String) >> new DomainResponse(expectedStatusCode)
     }
 
+    def "metadata endpoint returns the age of a pending status"() {
+        given:
+        def inboundReportId = "inboundReportId"
+        def metadata = new PartnerMetadata(inboundReportId, "hash", PartnerMetadataMessageType.ORDER, sendingApp, sendingFacility, receivingApp, receivingFacility, "placer_order_number")
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        def request = new DomainRequest()
+        request.setPathParams(["id": inboundReportId])
+
+        def mockPartnerMetadataOrchestrator = Mock(PartnerMetadataOrchestrator)
+        mockPartnerMetadataOrchestrator.getMetadata(inboundReportId) >> Optional.of(metadata)
+        mockPartnerMetadataOrchestrator.findMessagesIdsToLink(inboundReportId) >> Set.of()
+        mockPartnerMetadataOrchestrator.getStatusCheckedAt(inboundReportId) >> Optional.of(Instant.now().minusSeconds(30))
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockPartnerMetadataOrchestrator)
+
+        def mockResponseHelper = Mock(DomainResponseHelper)
+        def okResponse = new DomainResponse(200)
+        okResponse.setHeaders(Map.of("Content-Type", "application/json"))
+        mockResponseHelper.constructOkResponseFromString(_ as String) >> okResponse
+        TestApplicationContext.register(DomainResponseHelper, mockResponseHelper)
+
+        def mockPartnerMetadataConverter = Mock(PartnerMetadataConverter)
+        mockPartnerMetadataConverter.extractPublicMetadataToOperationOutcome(_ as PartnerMetadata, _ as String, _ as Set) >> Mock(FhirMetadata)
+        TestApplicationContext.register(PartnerMetadataConverter, mockPartnerMetadataConverter)
+
+        def mockFhir = Mock(HapiFhir)
+        mockFhir.encodeResourceToJson(_) >> ""
+        TestApplicationContext.register(HapiFhir, mockFhir)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def res = connector.handleMetadata(request)
+
+        then:
+        res.statusCode == 200
+        res.headers.get(EtorDomainRegistration.STATUS_AGE_HEADER).toInteger() in 30..35
+        res.headers.get("Content-Type") == "application/json"
+    }
+
     def "metadata endpoint returns a 404 response when metadata id is not found"() {
         given:
         def expectedStatusCode = 404
@@ -318,23 +408,115 @@ class EtorDomainRegistrationTest extends Specification {
         def connector = new EtorDomainRegistration()
         TestApplicationContext.register(EtorDomainRegistration, connector)
 
+        TestApplicationContext.register(DomainResponseHelper, DomainResponseHelper.getInstance())
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+
+        def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def res = connector.handleConsolidatedSummary(request)
+        def output = new ByteArrayOutputStream()
+        res.bodyWriter.writeTo(output)
+
+        then:
+        res.statusCode == expectedStatusCode
+        1 * mockOrchestrator.getAllConsolidatedMetadata("testSender", null, EtorDomainRegistration.DEFAULT_SUMMARY_PAGE_SIZE) >> expectedResultMap.entrySet().iterator()
+        0 * mockOrchestrator.getConsolidatedMetadata(_, _, _, _)
+        Jackson.getInstance().convertJsonToObject(output.toString(), new TypeReference<Map<String, Map<String, Object>>>() {}) == expectedResultMap
+        !res.headers.containsKey(EtorDomainRegistration.CONTINUATION_TOKEN_HEADER)
+    }
+
+    def "Consolidated metadata endpoint passes the page parameters and returns the continuation token"() {
+        given:
+        def request = new DomainRequest()
+        request.setPathParams(["sender": "testSender"])
+        request.setQueryParams(["since": "2024-01-01T00:00:00Z", "limit": "2", "continuationToken": "token"])
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        TestApplicationContext.register(DomainResponseHelper, DomainResponseHelper.getInstance())
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+
+        def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def res = connector.handleConsolidatedSummary(request)
+
+        then:
+        res.statusCode == 200
+        1 * mockOrchestrator.getConsolidatedMetadata("testSender", Instant.parse("2024-01-01T00:00:00Z"), "token", 2) >> new ConsolidatedMetadataPage([:], "nextToken")
+        res.headers.get(EtorDomainRegistration.CONTINUATION_TOKEN_HEADER) == "nextToken"
+        res.headers.get("Content-Type") == "application/json"
+    }
+
+    def "Consolidated metadata endpoint returns one page when only a limit is given"() {
+        given:
+        def request = new DomainRequest()
+        request.setPathParams(["sender": "testSender"])
+        request.setQueryParams(["limit": "2"])
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        TestApplicationContext.register(DomainResponseHelper, DomainResponseHelper.getInstance())
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+
+        def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def res = connector.handleConsolidatedSummary(request)
+
+        then:
+        res.statusCode == 200
+        1 * mockOrchestrator.getConsolidatedMetadata("testSender", null, null, 2) >> new ConsolidatedMetadataPage([:], "nextToken")
+        0 * mockOrchestrator.getAllConsolidatedMetadata(_, _, _)
+        res.headers.get(EtorDomainRegistration.CONTINUATION_TOKEN_HEADER) == "nextToken"
+    }
+
+    def "Consolidated metadata endpoint returns a 400 for invalid page parameters"() {
+        given:
+        def request = new DomainRequest()
+        request.setPathParams(["sender": "testSender"])
+        request.setQueryParams(queryParams)
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
 
         def mockResponseHelper = Mock(DomainResponseHelper)
         TestApplicationContext.register(DomainResponseHelper, mockResponseHelper)
 
         def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
-        mockOrchestrator.getConsolidatedMetadata(_ as String) >> expectedResultMap
+        mockOrchestrator.getConsolidatedMetadata(_ as String, _, _, _ as Integer) >> { throw new IllegalArgumentException("Invalid continuation token") }
         TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
 
         TestApplicationContext.injectRegisteredImplementations()
 
         when:
-        def res = connector.handleConsolidatedSummary(request)
-        def actualStatusCode = res.statusCode
+        def response = connector.handleConsolidatedSummary(request)
 
         then:
-        actualStatusCode == expectedStatusCode
-        1 * mockResponseHelper.constructOkResponse(expectedResultMap) >> new DomainResponse(expectedStatusCode)
+        response.statusCode == 400
+        (0..1) * mockResponseHelper.constructErrorResponse(400, _ as String) >> new DomainResponse(400)
+        (0..1) * mockResponseHelper.constructErrorResponse(400, _ as Exception) >> new DomainResponse(400)
+
+        where:
+        queryParams << [
+            ["since": "yesterday"],
+            ["limit": "DogCow"],
+            ["limit": "0"],
+            ["limit": String.valueOf(EtorDomainRegistration.MAX_SUMMARY_PAGE_SIZE + 1)],
+            ["continuationToken": "not base64!"]
+        ]
     }
 
     def "Consolidated metadata endpoint fails with a 500"() {
@@ -343,6 +525,7 @@ class EtorDomainRegistrationTest extends Specification {
 
         def request = new DomainRequest()
         request.setPathParams(["sender": "testSender"])
+        request.setQueryParams(queryParams)
 
         def connector = new EtorDomainRegistration()
         TestApplicationContext.register(EtorDomainRegistration, connector)
@@ -351,7 +534,8 @@ class EtorDomainRegistrationTest extends Specification {
         TestApplicationContext.register(DomainResponseHelper, mockResponseHelper)
 
         def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
-        mockOrchestrator.getConsolidatedMetadata(_ as String) >> { throw new PartnerMetadataException("woops") }
+        mockOrchestrator.getConsolidatedMetadata(_ as String, _, _, _ as Integer) >> { throw new PartnerMetadataException("woops") }
+        mockOrchestrator.getAllConsolidatedMetadata(_ as String, _, _ as Integer) >> { throw new PartnerMetadataException("woops") }
         TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
 
         TestApplicationContext.injectRegisteredImplementations()
@@ -362,6 +546,187 @@ class EtorDomainRegistrationTest extends Specification {
         then:
         response.statusCode == 500
         1 * mockResponseHelper.constructErrorResponse(expectedStatusCode, _ as String) >> new DomainResponse(expectedStatusCode)
+
+        where:
+        queryParams << [[:], ["limit": "10"]]
+    }
+
+    def "status counts endpoint returns the counts for the given days"() {
+        given:
+        def expectedCounts = ["totals": ["PENDING": 1L, "DELIVERED": 0L, "FAILED": 0L], "days": ["2024-01-01": ["PENDING": 1L, "DELIVERED": 0L, "FAILED": 0L]]]
+
+        def request = new DomainRequest()
+        request.setPathParams(["sender": "testSender"])
+        request.setQueryParams(["from": "2024-01-01", "to": "2024-01-31"])
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        def mockResponseHelper = Mock(DomainResponseHelper)
+        TestApplicationContext.register(DomainResponseHelper, mockResponseHelper)
+
+        def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def res = connector.handleStatusCounts(request)
+
+        then:
+        res.statusCode == 200
+        1 * mockOrchestrator.getStatusCounts("testSender", LocalDate.parse("2024-01-01"), LocalDate.parse("2024-01-31")) >> expectedCounts
+        1 * mockResponseHelper.constructOkResponse(expectedCounts) >> new DomainResponse(200)
+    }
+
+    def "status counts endpoint counts every day when none are given"() {
+        given:
+        def request = new DomainRequest()
+        request.setPathParams(["sender": "testSender"])
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        def mockResponseHelper = Mock(DomainResponseHelper)
+        mockResponseHelper.constructOkResponse(_) >> new DomainResponse(200)
+        TestApplicationContext.register(DomainResponseHelper, mockResponseHelper)
+
+        def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def res = connector.handleStatusCounts(request)
+
+        then:
+        res.statusCode == 200
+        1 * mockOrchestrator.getStatusCounts("testSender", null, null) >> [:]
+    }
+
+    def "status counts endpoint returns a 400 for invalid days"() {
+        given:
+        def request = new DomainRequest()
+        request.setPathParams(["sender": "testSender"])
+        request.setQueryParams(queryParams)
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        def mockResponseHelper = Mock(DomainResponseHelper)
+        TestApplicationContext.register(DomainResponseHelper, mockResponseHelper)
+
+        def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def response = connector.handleStatusCounts(request)
+
+        then:
+        response.statusCode == 400
+        1 * mockResponseHelper.constructErrorResponse(400, _ as String) >> new DomainResponse(400)
+        0 * mockOrchestrator.getStatusCounts(_, _, _)
+
+        where:
+        queryParams << [
+            ["from": "yesterday"],
+            ["to": "2024-01-01T00:00:00Z"],
+            ["from": "2024-02-01", "to": "2024-01-01"]
+        ]
+    }
+
+    def "status counts endpoint fails with a 500"() {
+        given:
+        def expectedStatusCode = 500
+
+        def request = new DomainRequest()
+        request.setPathParams(["sender": "testSender"])
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        def mockResponseHelper = Mock(DomainResponseHelper)
+        TestApplicationContext.register(DomainResponseHelper, mockResponseHelper)
+
+        def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
+        mockOrchestrator.getStatusCounts(_ as String, _, _) >> { throw new PartnerMetadataException("woops") }
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def response = connector.handleStatusCounts(request)
+
+        then:
+        response.statusCode == 500
+        1 * mockResponseHelper.constructErrorResponse(expectedStatusCode, _ as String) >> new DomainResponse(expectedStatusCode)
+    }
+
+    def "metrics endpoint returns the rule, validation, shadow mode and ReportStream statistics"() {
+        given:
+        def expectedStatusCode = 200
+        def ruleSummary = ["engines": [:], "transformations": [:]]
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        def mockResponseHelper = Mock(DomainResponseHelper)
+        TestApplicationContext.register(DomainResponseHelper, mockResponseHelper)
+
+        def mockRuleStatistics = Mock(RuleStatistics)
+        mockRuleStatistics.getSummary() >> ruleSummary
+        TestApplicationContext.register(RuleStatistics, mockRuleStatistics)
+
+        def validationSummary = ["mode": "sync"]
+        def mockValidationDispatcher = Mock(ValidationDispatcher)
+        mockValidationDispatcher.getSummary() >> validationSummary
+        TestApplicationContext.register(ValidationDispatcher, mockValidationDispatcher)
+
+        def shadowSummary = ["enabled": false]
+        def mockShadowRunner = Mock(TransformationShadowRunner)
+        mockShadowRunner.getSummary() >> shadowSummary
+        TestApplicationContext.register(TransformationShadowRunner, mockShadowRunner)
+
+        def reportStreamSummary = ["waters": ["state": "CLOSED"]]
+        def mockCircuitBreakers = Mock(ReportStreamCircuitBreakers)
+        mockCircuitBreakers.getSummary() >> reportStreamSummary
+        TestApplicationContext.register(ReportStreamCircuitBreakers, mockCircuitBreakers)
+
+        def sendStagesSummary = ["ORDER": ["send": ["count": 1]]]
+        def mockStageGraph = Mock(SendMessageStageGraph)
+        mockStageGraph.getSummary() >> sendStagesSummary
+        TestApplicationContext.register(SendMessageStageGraph, mockStageGraph)
+
+        def ingestionTimeSummary = ["queued": 0]
+        def mockIngestionTimeWorker = Mock(IngestionTimeEnrichmentWorker)
+        mockIngestionTimeWorker.getSummary() >> ingestionTimeSummary
+        TestApplicationContext.register(IngestionTimeEnrichmentWorker, mockIngestionTimeWorker)
+
+        def outboxSummary = ["enqueued": 0]
+        def mockOutboxSenderWorker = Mock(OutboxSenderWorker)
+        mockOutboxSenderWorker.getSummary() >> outboxSummary
+        TestApplicationContext.register(OutboxSenderWorker, mockOutboxSenderWorker)
+
+        def deliveryStatusSummary = ["refreshed": 0]
+        def mockDeliveryStatusPoller = Mock(DeliveryStatusPoller)
+        mockDeliveryStatusPoller.getSummary() >> deliveryStatusSummary
+        TestApplicationContext.register(DeliveryStatusPoller, mockDeliveryStatusPoller)
+
+        def metadataCacheSummary = ["hits": 0]
+        def mockMetadataCache = Mock(CachingPartnerMetadataStorage)
+        mockMetadataCache.getSummary() >> metadataCacheSummary
+        TestApplicationContext.register(CachingPartnerMetadataStorage, mockMetadataCache)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def response = connector.handleMetrics(new DomainRequest())
+
+        then:
+        response.statusCode == expectedStatusCode
+        1 * mockResponseHelper.constructOkResponse({ it.rules == ruleSummary && it.validation == validationSummary && it.shadow == shadowSummary && it.reportStream == reportStreamSummary && it.sendStages == sendStagesSummary && it.ingestionTime == ingestionTimeSummary && it.outbox == outboxSummary && it.deliveryStatus == deliveryStatusSummary && it.metadataCache == metadataCacheSummary }) >> new DomainResponse(expectedStatusCode)
     }
 
     def "handleMessageRequest happy path"() {
@@ -385,6 +750,57 @@ class EtorDomainRegistrationTest extends Specification {
         1 * requestHandler.handle(_ as String) >> new DomainResponse(expectedStatusCode)
     }
 
+    def "handleMessageRequest takes the status of a load test message from the mock client"() {
+        given:
+        def request = new DomainRequest(headers: ["recordid": "recordId", "load-test": "true"])
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        def requestHandler = Mock(MessageRequestHandler)
+
+        def mockPartnerMetadataOrchestrator = Mock(PartnerMetadataOrchestrator)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockPartnerMetadataOrchestrator)
+
+        TestApplicationContext.addEnvironmentVariable("REPORT_STREAM_URL_PREFIX", "http://localhost")
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        connector.handleMessageRequest(request, requestHandler, "order")
+
+        then:
+        1 * requestHandler.handle("recordId") >> new DomainResponse(200)
+
+        then:
+        1 * mockPartnerMetadataOrchestrator.refreshDeliveryStatus(MockRSEndpointClient.getInstance(), MockRSEndpointClient.getInstance().getRsToken(), "recordId")
+
+        then:
+        1 * mockPartnerMetadataOrchestrator.closeMetadataSession()
+    }
+
+    def "handleMessageRequest leaves the status to the poller without the load test header"() {
+        given:
+        def request = new DomainRequest(headers: ["recordid": "recordId"])
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        def requestHandler = Mock(MessageRequestHandler)
+        requestHandler.handle(_ as String) >> new DomainResponse(200)
+
+        def mockPartnerMetadataOrchestrator = Mock(PartnerMetadataOrchestrator)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockPartnerMetadataOrchestrator)
+
+        TestApplicationContext.addEnvironmentVariable("REPORT_STREAM_URL_PREFIX", "http://localhost")
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        connector.handleMessageRequest(request, requestHandler, "order")
+
+        then:
+        0 * mockPartnerMetadataOrchestrator.refreshDeliveryStatus(_, _, _)
+    }
+
     def "handleMessageRequest tries to set metadata status as failed when there is an error and always update metadata"() {
         given:
         def expectedStatusCode = 400
@@ -490,4 +906,62 @@ class EtorDomainRegistrationTest extends Specification {
         1 * mockLogger.logError(_ as String, _ as Exception)
         1 * mockPartnerMetadataOrchestrator.setMetadataStatusToFailed(_ as String, _ as String)
     }
+
+    def "handleMessageRequest saves the metadata session after the failure is recorded"() {
+        given:
+        def request = new DomainRequest(headers: ["recordid": "recordId"])
+
+        def requestHandler = Mock(MessageRequestHandler)
+        requestHandler.handle(_ as String) >> { throw new UnableToSendMessageException("DogCow", new NullPointerException()) }
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        TestApplicationContext.register(DomainResponseHelper, Mock(DomainResponseHelper))
+
+        def mockPartnerMetadataOrchestrator = Mock(PartnerMetadataOrchestrator)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockPartnerMetadataOrchestrator)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        connector.handleMessageRequest(request, requestHandler, "order")
+
+        then:
+        1 * mockPartnerMetadataOrchestrator.openMetadataSession()
+
+        then:
+        1 * mockPartnerMetadataOrchestrator.setMetadataStatusToFailed("recordId", _ as String)
+
+        then:
+        1 * mockPartnerMetadataOrchestrator.closeMetadataSession()
+    }
+
+    def "handleMessageRequest logs an error when the metadata session can't be saved"() {
+        given:
+        def expectedStatusCode = 200
+        def request = new DomainRequest(headers: ["recordid": "recordId"])
+
+        def requestHandler = Mock(MessageRequestHandler)
+        requestHandler.handle(_ as String) >> new DomainResponse(expectedStatusCode)
+
+        def connector = new EtorDomainRegistration()
+        TestApplicationContext.register(EtorDomainRegistration, connector)
+
+        def mockPartnerMetadataOrchestrator = Mock(PartnerMetadataOrchestrator)
+        mockPartnerMetadataOrchestrator.closeMetadataSession() >> { throw new PartnerMetadataException("DogCow") }
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockPartnerMetadataOrchestrator)
+
+        def mockLogger = Mock(Logger)
+        TestApplicationContext.register(Logger, mockLogger)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def response = connector.handleMessageRequest(request, requestHandler, "order")
+
+        then:
+        response.statusCode == expectedStatusCode
+        1 * mockLogger.logError(_ as String, _ as PartnerMetadataException)
+    }
 }
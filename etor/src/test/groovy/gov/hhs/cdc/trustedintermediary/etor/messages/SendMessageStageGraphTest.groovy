@@ -0,0 +1,264 @@
+package gov.hhs.cdc.trustedintermediary.etor.messages
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxException
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxSenderWorker
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class SendMessageStageGraphTest extends Specification {
+
+    def mockHelper = Mock(SendMessageHelper)
+    def mockLogger = Mock(Logger)
+    def mockOutboxSenderWorker = Mock(OutboxSenderWorker)
+    def graph = SendMessageStageGraph.getInstance()
+    def partnerMetadata = new PartnerMetadata("inboundReportId", "hash", PartnerMetadataMessageType.ORDER, null, null, null, null, null)
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(SendMessageHelper, mockHelper)
+        TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(OutboxSenderWorker, mockOutboxSenderWorker)
+        TestApplicationContext.register(SendMessageStageGraph, graph)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        graph.reset()
+    }
+
+    def cleanup() {
+        graph.reset()
+    }
+
+    def "run saves the inbound metadata while the message is transformed and sent"() {
+        given:
+        def saveStarted = new CountDownLatch(1)
+        mockHelper.savePartnerMetadataForInboundMessage(partnerMetadata) >> { saveStarted.countDown() }
+
+        when:
+        def outboundReportId = graph.run(
+                partnerMetadata,
+                { ->
+                    // the save runs on another thread, so it can start while this stage waits
+                    assert saveStarted.await(5, TimeUnit.SECONDS)
+                    null
+                },
+                { -> "outboundReportId" })
+
+        then:
+        outboundReportId == "outboundReportId"
+        1 * mockHelper.linkMessage("inboundReportId")
+        1 * mockHelper.saveOutboundReportId("inboundReportId", "outboundReportId")
+    }
+
+    def "run saves the outbound report id only after the inbound metadata is saved"() {
+        given:
+        def events = Collections.synchronizedList([])
+        mockHelper.savePartnerMetadataForInboundMessage(_) >> {
+            Thread.sleep(100)
+            events.add("saveInbound")
+        }
+        mockHelper.saveOutboundReportId(_, _) >> { events.add("saveOutbound") }
+
+        when:
+        graph.run(partnerMetadata, { -> null }, { -> "outboundReportId" })
+
+        then:
+        events == ["saveInbound", "saveOutbound"]
+    }
+
+    def "run waits for the metadata stages before rethrowing a failed send"() {
+        given:
+        def linked = false
+        mockHelper.savePartnerMetadataForInboundMessage(_) >> { Thread.sleep(50) }
+        mockHelper.linkMessage(_) >> { linked = true }
+
+        when:
+        graph.run(partnerMetadata, { -> null }, { -> throw new UnableToSendMessageException("DogCow", null) })
+
+        then:
+        thrown(UnableToSendMessageException)
+        linked
+        0 * mockHelper.saveOutboundReportId(_, _)
+    }
+
+    def "run doesn't send when the transform fails"() {
+        given:
+        def sent = false
+
+        when:
+        graph.run(partnerMetadata, { -> throw new UnableToSendMessageException("DogCow", null) }, { -> sent = true; null })
+
+        then:
+        thrown(UnableToSendMessageException)
+        !sent
+        1 * mockHelper.savePartnerMetadataForInboundMessage(partnerMetadata)
+    }
+
+    def "run logs a failed metadata stage and still returns the outbound report id"() {
+        given:
+        def failure = new IllegalStateException("DogCow")
+        mockHelper.linkMessage(_) >> { throw failure }
+
+        when:
+        def outboundReportId = graph.run(partnerMetadata, { -> null }, { -> "outboundReportId" })
+
+        then:
+        outboundReportId == "outboundReportId"
+        1 * mockHelper.saveOutboundReportId("inboundReportId", "outboundReportId")
+        1 * mockLogger.logError({ it.contains(SendMessageStageGraph.LINK_MESSAGES_STAGE) }, failure)
+    }
+
+    def "run saves the outbound report id when the inbound metadata stage fails"() {
+        given:
+        def failure = new IllegalStateException("DogCow")
+        mockHelper.savePartnerMetadataForInboundMessage(_) >> { throw failure }
+
+        when:
+        def outboundReportId = graph.run(partnerMetadata, { -> null }, { -> "outboundReportId" })
+
+        then:
+        outboundReportId == "outboundReportId"
+        1 * mockHelper.saveOutboundReportId("inboundReportId", "outboundReportId")
+        0 * mockHelper.linkMessage(_)
+        1 * mockLogger.logError({ it.contains(SendMessageStageGraph.SAVE_INBOUND_METADATA_STAGE) }, failure)
+    }
+
+    def "a failed metadata stage doesn't replace the failure of the send"() {
+        given:
+        def sendFailure = new UnableToSendMessageException("DogCow", null)
+        def stageFailure = new IllegalStateException("moof")
+        mockHelper.linkMessage(_) >> { throw stageFailure }
+
+        when:
+        graph.run(partnerMetadata, { -> null }, { -> throw sendFailure })
+
+        then:
+        def exception = thrown(UnableToSendMessageException)
+        exception == sendFailure
+        1 * mockLogger.logError(_ as String, stageFailure)
+    }
+
+    def "the metadata stages see the caller's thread registrations"() {
+        given:
+        // a single worker, started before the registration so it can't inherit it
+        TestApplicationContext.addEnvironmentVariable(SendMessageStageGraph.STAGE_THREADS_PROPERTY, "1")
+        graph.run(partnerMetadata, { -> null }, { -> "outboundReportId" })
+
+        def threadHelper = Mock(SendMessageHelper)
+        def registrations = []
+        threadHelper.savePartnerMetadataForInboundMessage(_) >> {
+            registrations.add(ApplicationContext.getImplementation(Logger))
+        }
+        threadHelper.linkMessage(_) >> {
+            registrations.add(ApplicationContext.getImplementation(Logger))
+        }
+        graph.sendMessageHelper = threadHelper
+        def threadLogger = Mock(Logger)
+
+        when:
+        ApplicationContext.registerForThread(Logger, threadLogger)
+        graph.run(partnerMetadata, { -> null }, { -> "outboundReportId" })
+
+        then:
+        registrations == [threadLogger, threadLogger]
+
+        cleanup:
+        ApplicationContext.clearThreadRegistrations()
+    }
+
+    def "enqueue saves the encoded message to the outbox and links it"() {
+        given:
+        def events = []
+        mockOutboxSenderWorker.enqueue(partnerMetadata, "fhirResourceId", "payload") >> { events.add("enqueue") }
+        mockHelper.linkMessage("inboundReportId") >> { events.add("link") }
+
+        when:
+        graph.enqueue(partnerMetadata, "fhirResourceId", { ->
+            events.add("transform")
+            null
+        }, { -> "payload" })
+
+        then:
+        events == ["transform", "enqueue", "link"]
+        0 * mockHelper.savePartnerMetadataForInboundMessage(_)
+        0 * mockHelper.saveOutboundReportId(_, _)
+        graph.getSummary().ORDER.keySet() == [
+            SendMessageStageGraph.TRANSFORM_STAGE,
+            SendMessageStageGraph.ENCODE_STAGE,
+            SendMessageStageGraph.ENQUEUE_STAGE,
+            SendMessageStageGraph.LINK_MESSAGES_STAGE
+        ] as Set
+    }
+
+    def "enqueue saves the metadata on its own when the transform fails"() {
+        given:
+        def exception = new UnableToSendMessageException("DogCow", null)
+
+        when:
+        graph.enqueue(partnerMetadata, "fhirResourceId", { -> throw exception }, { -> "payload" })
+
+        then:
+        def thrownException = thrown(UnableToSendMessageException)
+        thrownException == exception
+        1 * mockHelper.savePartnerMetadataForInboundMessage(partnerMetadata)
+        0 * mockOutboxSenderWorker.enqueue(_, _, _)
+    }
+
+    def "enqueue throws an UnableToSendMessageException when the outbox can't be saved"() {
+        given:
+        mockOutboxSenderWorker.enqueue(_, _, _) >> { throw new OutboxException("DogCow", new Exception()) }
+
+        when:
+        graph.enqueue(partnerMetadata, "fhirResourceId", { -> null }, { -> "payload" })
+
+        then:
+        def exception = thrown(UnableToSendMessageException)
+        exception.cause instanceof OutboxException
+        0 * mockHelper.linkMessage(_)
+    }
+
+    def "getSummary reports the latency of every stage by message type"() {
+        when:
+        graph.run(partnerMetadata, { -> null }, { -> "outboundReportId" })
+        def summary = graph.getSummary()
+
+        then:
+        summary.ORDER.keySet() == [
+            SendMessageStageGraph.LINK_MESSAGES_STAGE,
+            SendMessageStageGraph.SAVE_INBOUND_METADATA_STAGE,
+            SendMessageStageGraph.SAVE_OUTBOUND_REPORT_ID_STAGE,
+            SendMessageStageGraph.SEND_STAGE,
+            SendMessageStageGraph.TRANSFORM_STAGE
+        ] as Set
+        summary.ORDER.send.count == 1
+    }
+
+    def "reset clears the stage timings"() {
+        given:
+        graph.run(partnerMetadata, { -> null }, { -> "outboundReportId" })
+
+        when:
+        graph.reset()
+
+        then:
+        graph.getSummary().isEmpty()
+    }
+
+    def "an invalid thread count falls back to the default"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(SendMessageStageGraph.STAGE_THREADS_PROPERTY, "lots")
+
+        when:
+        graph.run(partnerMetadata, { -> null }, { -> "outboundReportId" })
+
+        then:
+        1 * mockLogger.logWarning(_ as String, SendMessageStageGraph.STAGE_THREADS_PROPERTY, "lots", SendMessageStageGraph.DEFAULT_STAGE_THREADS)
+    }
+}
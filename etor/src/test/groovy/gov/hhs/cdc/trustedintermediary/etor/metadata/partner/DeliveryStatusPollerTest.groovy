@@ -0,0 +1,184 @@
+package gov.hhs.cdc.trustedintermediary.etor.metadata.partner
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.etor.RSEndpointClient
+import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamEndpointClientException
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.time.Instant
+
+class DeliveryStatusPollerTest extends Specification {
+
+    def poller = DeliveryStatusPoller.getInstance()
+    def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
+    def mockClient = Mock(RSEndpointClient)
+    def mockLogger = Mock(Logger)
+    def conditions = new PollingConditions(timeout: 5)
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
+        TestApplicationContext.register(RSEndpointClient, mockClient)
+        TestApplicationContext.register(DeliveryStatusPoller, poller)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        TestApplicationContext.addEnvironmentVariable(DeliveryStatusPoller.POLL_INTERVAL_PROPERTY, "10")
+        TestApplicationContext.addEnvironmentVariable(DeliveryStatusPoller.LOOKUPS_PER_SECOND_PROPERTY, "1000")
+
+        poller.reset()
+    }
+
+    def cleanup() {
+        poller.reset()
+        ApplicationContext.clearThreadRegistrations()
+    }
+
+    def "start refreshes the claimed metadata in the background"() {
+        given:
+        def claims = Collections.synchronizedList([])
+        def refreshes = Collections.synchronizedList([])
+        def refreshThread = null
+        mockOrchestrator.claimPendingStatusChecks(_ as Instant, _ as Integer) >> { Instant checkedBefore, int limit ->
+            claims.add([checkedBefore, limit])
+            claims.size() == 1 ? Set.of("first", "second") : Set.of()
+        }
+        mockClient.getRsToken() >> "token"
+        mockOrchestrator.refreshDeliveryStatus(mockClient, "token", _ as String) >> { RSEndpointClient client, String token, String id ->
+            refreshThread = Thread.currentThread()
+            refreshes.add(id)
+        }
+
+        when:
+        poller.start()
+
+        then:
+        conditions.eventually {
+            assert poller.getSummary().refreshed == 2
+        }
+        refreshThread != Thread.currentThread()
+        refreshes as Set == ["first", "second"] as Set
+        claims[0][1] == DeliveryStatusPoller.DEFAULT_BATCH_SIZE
+        claims[0][0].isBefore(Instant.now().minusMillis(DeliveryStatusPoller.DEFAULT_REFRESH_INTERVAL_MILLIS - 5_000))
+    }
+
+    def "a full batch is followed by another claim without waiting for the poll interval"() {
+        given:
+        def claims = Collections.synchronizedList([])
+        TestApplicationContext.addEnvironmentVariable(DeliveryStatusPoller.POLL_INTERVAL_PROPERTY, "60000")
+        TestApplicationContext.addEnvironmentVariable(DeliveryStatusPoller.BATCH_SIZE_PROPERTY, "1")
+        mockOrchestrator.claimPendingStatusChecks(_ as Instant, 1) >> {
+            claims.add(it)
+            claims.size() <= 2 ? Set.of("inboundReportId" + claims.size()) : Set.of()
+        }
+        mockClient.getRsToken() >> "token"
+
+        when:
+        poller.start()
+
+        then:
+        conditions.eventually {
+            assert poller.getSummary().refreshed == 2
+        }
+    }
+
+    def "a failed refresh is counted and doesn't stop the rest of the batch"() {
+        given:
+        def claimCount = 0
+        mockOrchestrator.claimPendingStatusChecks(_ as Instant, _ as Integer) >> {
+            claimCount++ == 0 ? new LinkedHashSet(["bad", "good"]) : Set.of()
+        }
+        mockClient.getRsToken() >> "token"
+        mockOrchestrator.refreshDeliveryStatus(_, _, "bad") >> { throw new PartnerMetadataException("DogCow") }
+
+        when:
+        poller.start()
+
+        then:
+        conditions.eventually {
+            assert poller.getSummary().refreshed == 1
+            assert poller.getSummary().failed == 1
+        }
+    }
+
+    def "the whole batch fails when there's no token"() {
+        given:
+        def claimCount = 0
+        mockOrchestrator.claimPendingStatusChecks(_ as Instant, _ as Integer) >> {
+            claimCount++ == 0 ? Set.of("first", "second") : Set.of()
+        }
+        mockClient.getRsToken() >> { throw new ReportStreamEndpointClientException("DogCow", new Exception()) }
+
+        when:
+        poller.start()
+
+        then:
+        conditions.eventually {
+            assert poller.getSummary().failed == 2
+        }
+        poller.getSummary().refreshed == 0
+    }
+
+    def "claim errors are counted and the poller keeps going"() {
+        given:
+        def claimCount = 0
+        mockOrchestrator.claimPendingStatusChecks(_ as Instant, _ as Integer) >> {
+            if (claimCount++ == 0) {
+                throw new PartnerMetadataException("DogCow")
+            }
+            claimCount == 2 ? Set.of("inboundReportId") : Set.of()
+        }
+        mockClient.getRsToken() >> "token"
+
+        when:
+        poller.start()
+
+        then:
+        conditions.eventually {
+            assert poller.getSummary().refreshed == 1
+        }
+        poller.getSummary().claimErrors == 1
+    }
+
+    def "an invalid setting falls back to its default"() {
+        given:
+        def limits = Collections.synchronizedList([])
+        TestApplicationContext.addEnvironmentVariable(DeliveryStatusPoller.BATCH_SIZE_PROPERTY, "DogCow")
+        mockOrchestrator.claimPendingStatusChecks(_ as Instant, _ as Integer) >> { Instant checkedBefore, int limit ->
+            limits.add(limit)
+            Set.of()
+        }
+
+        when:
+        poller.start()
+
+        then:
+        conditions.eventually {
+            assert !limits.isEmpty()
+        }
+        limits[0] == DeliveryStatusPoller.DEFAULT_BATCH_SIZE
+    }
+
+    def "reset stops the poller and clears the counters"() {
+        given:
+        def claimCount = 0
+        mockOrchestrator.claimPendingStatusChecks(_ as Instant, _ as Integer) >> {
+            claimCount++ == 0 ? Set.of("inboundReportId") : Set.of()
+        }
+        mockClient.getRsToken() >> "token"
+        poller.start()
+        conditions.eventually {
+            assert poller.getSummary().refreshed == 1
+        }
+
+        when:
+        poller.reset()
+
+        then:
+        poller.getSummary() == [refreshed: 0L, failed: 0L, claimErrors: 0L]
+    }
+}
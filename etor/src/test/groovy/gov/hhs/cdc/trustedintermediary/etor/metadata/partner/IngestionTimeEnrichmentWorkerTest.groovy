@@ -0,0 +1,356 @@
+package gov.hhs.cdc.trustedintermediary.etor.metadata.partner
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.etor.RSEndpointClient
+import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamEndpointClientException
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.time.Instant
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class IngestionTimeEnrichmentWorkerTest extends Specification {
+
+    def worker = IngestionTimeEnrichmentWorker.getInstance()
+    def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
+    def mockClient = Mock(RSEndpointClient)
+    def mockLogger = Mock(Logger)
+    def conditions = new PollingConditions(timeout: 5)
+    def timeReceived = Instant.parse("2024-04-09T18:18:00.553Z")
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
+        TestApplicationContext.register(RSEndpointClient, mockClient)
+        TestApplicationContext.register(IngestionTimeEnrichmentWorker, worker)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.LOOKUPS_PER_SECOND_PROPERTY, "1000")
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.RETRY_BACKOFF_PROPERTY, "10")
+
+        worker.reset()
+    }
+
+    def cleanup() {
+        worker.reset()
+        ApplicationContext.clearThreadRegistrations()
+    }
+
+    def "enqueue looks up the time received in the background and saves it"() {
+        given:
+        def lookupThread = null
+        def updates = Collections.synchronizedList([])
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> Set.of()
+        mockClient.getRsToken() >> "token"
+        mockOrchestrator.lookUpTimeReceived(mockClient, "token", "inboundReportId") >> {
+            lookupThread = Thread.currentThread()
+            timeReceived
+        }
+        mockOrchestrator.updateTimeReceived(_, _) >> { String id, Instant time -> updates.add([id, time]) }
+
+        when:
+        worker.enqueue("inboundReportId")
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().enriched == 1
+        }
+        lookupThread != Thread.currentThread()
+        updates == [["inboundReportId", timeReceived]]
+    }
+
+    def "lookups in the same batch share a token"() {
+        given:
+        def tokenRequests = 0
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> Set.of()
+        mockClient.getRsToken() >> {
+            tokenRequests++
+            "token"
+        }
+        mockOrchestrator.lookUpTimeReceived(_, _, "first") >> {
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+            timeReceived
+        }
+        mockOrchestrator.lookUpTimeReceived(_, _, _) >> timeReceived
+
+        worker.enqueue("first")
+        assert started.await(5, TimeUnit.SECONDS)
+
+        when:
+        // these queue up while the worker is busy, so they're taken as one batch
+        worker.enqueue("second")
+        worker.enqueue("third")
+        worker.enqueue("fourth")
+        release.countDown()
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().enriched == 4
+        }
+        // one token for the first batch and one for the rest
+        tokenRequests == 2
+    }
+
+    def "a failed lookup is retried until it succeeds"() {
+        given:
+        def attempts = 0
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> Set.of()
+        mockClient.getRsToken() >> "token"
+        mockOrchestrator.lookUpTimeReceived(_, _, "inboundReportId") >> {
+            attempts++
+            if (attempts < 3) {
+                throw new PartnerMetadataException("DogCow")
+            }
+            timeReceived
+        }
+
+        when:
+        worker.enqueue("inboundReportId")
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().enriched == 1
+        }
+        worker.getSummary().retried == 2
+        attempts == 3
+    }
+
+    def "a lookup is retried when the token can't be retrieved"() {
+        given:
+        def tokenAttempts = 0
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> Set.of()
+        mockClient.getRsToken() >> {
+            tokenAttempts++
+            if (tokenAttempts == 1) {
+                throw new ReportStreamEndpointClientException("DogCow", new Exception())
+            }
+            "token"
+        }
+        mockOrchestrator.lookUpTimeReceived(_, _, _) >> timeReceived
+
+        when:
+        worker.enqueue("inboundReportId")
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().enriched == 1
+        }
+        worker.getSummary().retried == 1
+    }
+
+    def "the worker gives up after the maximum number of attempts"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.MAX_ATTEMPTS_PROPERTY, "2")
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> Set.of()
+        mockClient.getRsToken() >> "token"
+        mockOrchestrator.lookUpTimeReceived(_, _, _) >> { throw new PartnerMetadataException("DogCow") }
+
+        when:
+        worker.enqueue("inboundReportId")
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().gaveUp == 1
+        }
+        worker.getSummary().retried == 1
+        worker.getSummary().queued == 0
+        0 * mockOrchestrator.updateTimeReceived(_, _)
+    }
+
+    def "start queues the metadata that is missing the time received"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.BACKFILL_LIMIT_PROPERTY, "50")
+        def updates = Collections.synchronizedList([])
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_ as Instant, 50) >> Set.of("inboundReportId1", "inboundReportId2")
+        mockClient.getRsToken() >> "token"
+        mockOrchestrator.lookUpTimeReceived(mockClient, "token", _) >> timeReceived
+        mockOrchestrator.updateTimeReceived(_, _) >> { String id, Instant time -> updates.add([id, time]) }
+
+        when:
+        worker.start()
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().enriched == 2
+        }
+        worker.getSummary().backfilled == 2
+        updates as Set == [["inboundReportId1", timeReceived], ["inboundReportId2", timeReceived]] as Set
+    }
+
+    def "the backfill continues past metadata whose lookup was given up on"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.MAX_ATTEMPTS_PROPERTY, "1")
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.BACKFILL_LIMIT_PROPERTY, "1")
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.BACKFILL_INTERVAL_PROPERTY, "20")
+        // the storage doesn't return a claimed entry again, so the next backfill gets the next one
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_ as Instant, 1) >>> [
+            Set.of("stuckReportId"),
+            Set.of("nextReportId"),
+            Set.of()
+        ]
+        mockClient.getRsToken() >> "token"
+        mockOrchestrator.lookUpTimeReceived(mockClient, "token", "stuckReportId") >> { throw new PartnerMetadataException("DogCow") }
+        mockOrchestrator.lookUpTimeReceived(mockClient, "token", "nextReportId") >> timeReceived
+        def updated = new CountDownLatch(1)
+        mockOrchestrator.updateTimeReceived("nextReportId", timeReceived) >> { updated.countDown() }
+
+        when:
+        worker.start()
+
+        then:
+        updated.await(5, TimeUnit.SECONDS)
+        worker.getSummary().gaveUp >= 1
+    }
+
+    def "the backfill leaves metadata claimed during the last backfill interval to the node that claimed it"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.BACKFILL_INTERVAL_PROPERTY, "60000")
+        def claims = Collections.synchronizedList([])
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> { Instant claimedBefore, int limit ->
+            claims.add(claimedBefore)
+            Set.of()
+        }
+        def startedAt = Instant.now()
+
+        when:
+        worker.start()
+
+        then:
+        conditions.eventually {
+            assert claims.size() == 1
+        }
+        !claims[0].isBefore(startedAt.minusMillis(60000))
+        !claims[0].isAfter(Instant.now().minusMillis(60000))
+    }
+
+    def "the backfill only claims as many entries as fit in the queue"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.QUEUE_SIZE_PROPERTY, "3")
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.BACKFILL_LIMIT_PROPERTY, "50")
+        def limits = Collections.synchronizedList([])
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> { Instant claimedBefore, int limit ->
+            limits.add(limit)
+            Set.of()
+        }
+
+        when:
+        worker.start()
+
+        then:
+        conditions.eventually {
+            assert limits == [3]
+        }
+    }
+
+    def "the lookup uses the ReportStream client registered for the enqueuing thread"() {
+        given:
+        def threadClient = Mock(RSEndpointClient)
+        threadClient.getRsToken() >> "thread token"
+        def lookups = Collections.synchronizedList([])
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> Set.of()
+        mockOrchestrator.lookUpTimeReceived(_, _, _) >> { RSEndpointClient client, String token, String id ->
+            lookups.add([client, token, id])
+            timeReceived
+        }
+        // started first so the worker thread can't inherit the registration
+        worker.start()
+        ApplicationContext.registerForThread(RSEndpointClient, threadClient)
+
+        when:
+        worker.enqueue("inboundReportId")
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().enriched == 1
+        }
+        lookups == [[threadClient, "thread token", "inboundReportId"]]
+        0 * mockClient.getRsToken()
+    }
+
+    def "enqueue drops lookups when the queue is full"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.QUEUE_SIZE_PROPERTY, "1")
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> Set.of()
+        mockClient.getRsToken() >> "token"
+        mockOrchestrator.lookUpTimeReceived(_, _, "first") >> {
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+            timeReceived
+        }
+        mockOrchestrator.lookUpTimeReceived(_, _, _) >> timeReceived
+
+        worker.enqueue("first")
+        assert started.await(5, TimeUnit.SECONDS)
+
+        when:
+        worker.enqueue("second")
+        worker.enqueue("third")
+        release.countDown()
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().enriched == 2
+        }
+        worker.getSummary().dropped == 1
+        1 * mockLogger.logWarning(_ as String, "third")
+    }
+
+    def "enqueue ignores an id that is already queued"() {
+        given:
+        def release = new CountDownLatch(1)
+        def lookups = Collections.synchronizedList([])
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> Set.of()
+        mockClient.getRsToken() >> "token"
+        mockOrchestrator.lookUpTimeReceived(_, _, _) >> { RSEndpointClient client, String token, String id ->
+            lookups.add(id)
+            if (id == "first") {
+                release.await(5, TimeUnit.SECONDS)
+            }
+            timeReceived
+        }
+
+        when:
+        // the first lookup holds up the worker until the duplicates are enqueued
+        worker.enqueue("first")
+        worker.enqueue("inboundReportId")
+        worker.enqueue("inboundReportId")
+        release.countDown()
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().enriched == 2
+        }
+        lookups == ["first", "inboundReportId"]
+    }
+
+    def "enqueue ignores a null inbound report id"() {
+        when:
+        worker.enqueue(null)
+
+        then:
+        worker.getSummary().queued == 0
+        0 * mockOrchestrator._
+    }
+
+    def "an invalid setting falls back to the default"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(IngestionTimeEnrichmentWorker.BATCH_SIZE_PROPERTY, "lots")
+        mockOrchestrator.claimInboundReportIdsMissingTimeReceived(_, _) >> Set.of()
+
+        when:
+        worker.start()
+
+        then:
+        1 * mockLogger.logWarning(_ as String, IngestionTimeEnrichmentWorker.BATCH_SIZE_PROPERTY, "lots", IngestionTimeEnrichmentWorker.DEFAULT_BATCH_SIZE)
+    }
+}
@@ -1,16 +1,19 @@
 package gov.hhs.cdc.trustedintermediary.etor.metadata.partner
 
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext
 import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
 import gov.hhs.cdc.trustedintermediary.etor.RSEndpointClient
-import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLink
+import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLinkException
 import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLinkStorage
 import gov.hhs.cdc.trustedintermediary.etor.messages.MessageHdDataType
 import gov.hhs.cdc.trustedintermediary.external.jackson.Jackson
+import gov.hhs.cdc.trustedintermediary.external.localfile.MockRSEndpointClient
 import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamEndpointClientException
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference
 import java.time.Instant
+import java.time.LocalDate
 import spock.lang.Specification
 
 class PartnerMetadataOrchestratorTest extends Specification {
@@ -19,6 +22,7 @@ class PartnerMetadataOrchestratorTest extends Specification {
     def mockMessageLinkStorage
     def mockClient
     def mockFormatter
+    def mockWorker
     def inboundReportId = "inboundReportId"
     def outboundReportId = "outboundReportId"
     def hashCode = "hash"
@@ -42,6 +46,7 @@ class PartnerMetadataOrchestratorTest extends Specification {
         mockMessageLinkStorage = Mock(MessageLinkStorage)
         mockFormatter = Mock(Formatter)
         mockClient = Mock(RSEndpointClient)
+        mockWorker = Mock(IngestionTimeEnrichmentWorker)
 
         sendingApp = new MessageHdDataType("sending_app_name", "sending_app_id", "sending_app_type")
         sendingFacility = new MessageHdDataType("sending_facility_name", "sending_facility_id", "sending_facility_type")
@@ -69,11 +74,72 @@ class PartnerMetadataOrchestratorTest extends Specification {
 
         TestApplicationContext.register(RSEndpointClient, mockClient)
         TestApplicationContext.register(Formatter, mockFormatter)
+        TestApplicationContext.register(IngestionTimeEnrichmentWorker, mockWorker)
 
         TestApplicationContext.injectRegisteredImplementations()
+        ApplicationContext.clearThreadRegistrations()
     }
 
-    def "updateMetadataForInboundMessage updates metadata successfully"() {
+    def cleanup() {
+        ApplicationContext.clearThreadRegistrations()
+    }
+
+    def "updateMetadataForInboundMessage saves the metadata and queues the ingestion time lookup"() {
+        given:
+        def metadataWithoutTimeReceived = new PartnerMetadata(inboundReportId, hashCode, messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
+
+        when:
+        PartnerMetadataOrchestrator.getInstance().updateMetadataForInboundMessage(metadataWithoutTimeReceived)
+
+        then:
+        1 * mockPartnerMetadataStorage.saveMetadata(metadataWithoutTimeReceived)
+        1 * mockWorker.enqueue(inboundReportId)
+        0 * mockClient._
+    }
+
+    def "updateMetadataForInboundMessage doesn't queue a lookup when the time received is known"() {
+        when:
+        PartnerMetadataOrchestrator.getInstance().updateMetadataForInboundMessage(testMetadata)
+
+        then:
+        1 * mockPartnerMetadataStorage.saveMetadata(testMetadata)
+        0 * mockWorker.enqueue(_)
+    }
+
+    def "updateMetadataForInboundMessage throws PartnerMetadataException when saving fails"() {
+        given:
+        def metadataWithoutTimeReceived = new PartnerMetadata(inboundReportId, hashCode, messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
+        mockPartnerMetadataStorage.saveMetadata(_) >> { throw new PartnerMetadataException("DogCow") }
+
+        when:
+        PartnerMetadataOrchestrator.getInstance().updateMetadataForInboundMessage(metadataWithoutTimeReceived)
+
+        then:
+        thrown(PartnerMetadataException)
+        0 * mockWorker.enqueue(_)
+    }
+
+    def "updateTimeReceived saves the time received"() {
+        when:
+        PartnerMetadataOrchestrator.getInstance().updateTimeReceived(inboundReportId, timeReceived)
+
+        then:
+        1 * mockPartnerMetadataStorage.saveTimeReceived(inboundReportId, timeReceived)
+    }
+
+    def "claimInboundReportIdsMissingTimeReceived claims from storage with the current time"() {
+        given:
+        def claimedBefore = Instant.parse("2024-05-01T12:00:00Z")
+
+        when:
+        def result = PartnerMetadataOrchestrator.getInstance().claimInboundReportIdsMissingTimeReceived(claimedBefore, 10)
+
+        then:
+        1 * mockPartnerMetadataStorage.claimInboundReportIdsMissingTimeReceived(claimedBefore, { it.isAfter(claimedBefore) }, 10) >> Set.of(inboundReportId)
+        result == Set.of(inboundReportId)
+    }
+
+    def "lookUpTimeReceived returns the ingestion time from the RS delivery API"() {
         given:
 
         TestApplicationContext.register(Formatter, Jackson.getInstance())
@@ -108,29 +174,13 @@ class PartnerMetadataOrchestratorTest extends Specification {
             }
         """
 
-        def expectedMetadata = new PartnerMetadata(
-                inboundReportId,
-                outboundReportId,
-                Instant.parse(timestamp),
-                timeDelivered,
-                hashCode,
-                deliveryStatus,
-                failureReason,
-                messageType,
-                sendingApp,
-                sendingFacility,
-                receivingApp,
-                receivingFacility,
-                placerOrderNumber
-                )
-
         when:
-        PartnerMetadataOrchestrator.getInstance().updateMetadataForInboundMessage(testMetadata)
+        def actual = PartnerMetadataOrchestrator.getInstance().lookUpTimeReceived(mockClient, bearerToken, inboundReportId)
 
         then:
-        1 * mockClient.getRsToken() >> bearerToken
+        actual == Instant.parse(timestamp)
         1 * mockClient.requestDeliveryEndpoint(inboundReportId, bearerToken) >> rsDeliveryApiResponse
-        1 * mockPartnerMetadataStorage.saveMetadata(expectedMetadata)
+        0 * mockPartnerMetadataStorage.saveMetadata(_)
     }
 
     def "updateMetadataForOutboundMessage test case when outboundReportId is null"() {
@@ -178,91 +228,82 @@ class PartnerMetadataOrchestratorTest extends Specification {
         1 * mockPartnerMetadataStorage.readMetadata(inboundReportId) >> mockMetadata
     }
 
-    def "updateMetadataForInboundMessage throws PartnerMetadataException on client error"() {
+    def "lookUpTimeReceived throws PartnerMetadataException on client error"() {
         given:
-        mockClient.getRsToken() >> "token"
         mockClient.requestDeliveryEndpoint(_ as String, _ as String) >> { throw new ReportStreamEndpointClientException("Client error", new Exception()) }
 
         when:
-        PartnerMetadataOrchestrator.getInstance().updateMetadataForInboundMessage(testMetadata)
+        PartnerMetadataOrchestrator.getInstance().lookUpTimeReceived(mockClient, bearerToken, inboundReportId)
 
         then:
-        1 * mockPartnerMetadataStorage.saveMetadata(_ as PartnerMetadata) >> { PartnerMetadata metadata ->
-            assert metadata.inboundReportId() == inboundReportId
-        }
         thrown(PartnerMetadataException)
     }
 
-    def "updateMetadataForInboundMessage throws PartnerMetadataException on formatter error"() {
+    def "lookUpTimeReceived throws PartnerMetadataException on formatter error"() {
         given:
         def rsDeliveryApiResponse = "{ASDF}"
 
-        mockClient.getRsToken() >> "token"
         mockClient.requestDeliveryEndpoint(_ as String, _ as String) >> rsDeliveryApiResponse
         mockFormatter.convertJsonToObject(rsDeliveryApiResponse, _ as TypeReference) >> { throw new FormatterProcessingException("Formatter error", new Exception()) }
 
         when:
-        PartnerMetadataOrchestrator.getInstance().updateMetadataForInboundMessage(testMetadata)
+        PartnerMetadataOrchestrator.getInstance().lookUpTimeReceived(mockClient, bearerToken, inboundReportId)
 
         then:
         thrown(PartnerMetadataException)
     }
 
-    def "updateMetadataForInboundMessage throws PartnerMetadataException on formatter error due to unexpected response format"() {
+    def "lookUpTimeReceived throws PartnerMetadataException on formatter error due to unexpected response format"() {
         given:
         def wrongFormatResponse = "{\"someotherkey\": \"value\"}"
 
-        mockClient.getRsToken() >> "token"
         mockClient.requestDeliveryEndpoint(_ as String, _ as String) >> wrongFormatResponse
         mockFormatter.convertJsonToObject(wrongFormatResponse, _ as TypeReference) >> [someotherkey: "value"]
 
         when:
-        PartnerMetadataOrchestrator.getInstance().updateMetadataForInboundMessage(testMetadata)
+        PartnerMetadataOrchestrator.getInstance().lookUpTimeReceived(mockClient, bearerToken, inboundReportId)
 
         then:
         thrown(PartnerMetadataException)
     }
 
-    def "updateMetadataForInboundMessage throws PartnerMetadataException due to 0 originalIngestions"() {
+    def "lookUpTimeReceived throws PartnerMetadataException due to 0 originalIngestions"() {
         given:
         def wrongFormatResponse = "{\"originalIngestion\": []}"
 
-        mockClient.getRsToken() >> "token"
         mockClient.requestDeliveryEndpoint(_ as String, _ as String) >> wrongFormatResponse
         mockFormatter.convertJsonToObject(wrongFormatResponse, _ as TypeReference) >> [originalIngestion: []]
 
         when:
-        PartnerMetadataOrchestrator.getInstance().updateMetadataForInboundMessage(testMetadata)
+        PartnerMetadataOrchestrator.getInstance().lookUpTimeReceived(mockClient, bearerToken, inboundReportId)
 
         then:
         thrown(PartnerMetadataException)
     }
 
-    def "updateMetadataForInboundMessage throws PartnerMetadataException due to null originalIngestion"() {
+    def "lookUpTimeReceived throws PartnerMetadataException due to null originalIngestion"() {
         given:
         def wrongFormatResponse = "{\"someOtherKey\": {}}"
 
-        mockClient.getRsToken() >> "token"
         mockClient.requestDeliveryEndpoint(_ as String, _ as String) >> wrongFormatResponse
         mockFormatter.convertJsonToObject(wrongFormatResponse, _ as TypeReference) >> [someOtherKey:{}]
 
         when:
-        PartnerMetadataOrchestrator.getInstance().updateMetadataForInboundMessage(testMetadata)
+        PartnerMetadataOrchestrator.getInstance().lookUpTimeReceived(mockClient, bearerToken, inboundReportId)
 
         then:
         thrown(PartnerMetadataException)
     }
 
-    def "updateMetadataForInboundMessage throws PartnerMetadataException due to empty originalIngestion"() {
+    def "lookUpTimeReceived throws PartnerMetadataException due to empty originalIngestion"() {
         given:
         def wrongFormatResponse = "{\"originalIngestion\": {}}"
 
-        mockClient.getRsToken() >> "token"
         mockClient.requestDeliveryEndpoint(_ as String, _ as String) >> wrongFormatResponse
         mockFormatter.convertJsonToObject(wrongFormatResponse, _ as TypeReference) >> [originalIngestion:[]]
 
         when:
-        PartnerMetadataOrchestrator.getInstance().updateMetadataForInboundMessage(testMetadata)
+        PartnerMetadataOrchestrator.getInstance().lookUpTimeReceived(mockClient, bearerToken, inboundReportId)
 
         then:
         thrown(PartnerMetadataException)
@@ -281,33 +322,104 @@ class PartnerMetadataOrchestratorTest extends Specification {
         1 * mockPartnerMetadataStorage.saveMetadata(updatedPartnerMetadata)
     }
 
-    def "getMetadata throws PartnerMetadataException on client error"() {
+    def "updateMetadataForOutboundMessage doesn't look up the status with the mock client"() {
+        given:
+        def partnerMetadata = new PartnerMetadata(inboundReportId, "hash", PartnerMetadataMessageType.ORDER, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
+        def updatedPartnerMetadata = partnerMetadata.withOutboundReportId(outboundReportId)
+
+        TestApplicationContext.register(RSEndpointClient, MockRSEndpointClient.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(partnerMetadata)
+
+        when:
+        PartnerMetadataOrchestrator.getInstance().updateMetadataForOutboundMessage(inboundReportId, outboundReportId)
+
+        then:
+        1 * mockPartnerMetadataStorage.saveMetadata(updatedPartnerMetadata)
+        0 * mockFormatter.convertJsonToObject(_, _)
+    }
+
+    def "updateMetadataForOutboundMessage leaves the status to the poller with the ReportStream client"() {
+        given:
+        def partnerMetadata = new PartnerMetadata(inboundReportId, "hash", PartnerMetadataMessageType.ORDER, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
+
+        mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(partnerMetadata)
+
+        when:
+        PartnerMetadataOrchestrator.getInstance().updateMetadataForOutboundMessage(inboundReportId, outboundReportId)
+
+        then:
+        1 * mockPartnerMetadataStorage.saveMetadata(_ as PartnerMetadata)
+        0 * mockClient.getRsToken()
+        0 * mockClient.requestHistoryEndpoint(_, _)
+    }
+
+    def "getStatusCheckedAt returns the time from storage"() {
+        given:
+        def checkedAt = Instant.parse("2024-05-01T12:00:00Z")
+        mockPartnerMetadataStorage.readStatusCheckedAt(inboundReportId) >> Optional.of(checkedAt)
+
+        when:
+        def result = PartnerMetadataOrchestrator.getInstance().getStatusCheckedAt(inboundReportId)
+
+        then:
+        result == Optional.of(checkedAt)
+    }
+
+    def "claimPendingStatusChecks claims from storage with the current time"() {
+        given:
+        def checkedBefore = Instant.parse("2024-05-01T12:00:00Z")
+        def claimedIds = ["1", "2"] as Set
+
+        when:
+        def result = PartnerMetadataOrchestrator.getInstance().claimPendingStatusChecks(checkedBefore, 10)
+
+        then:
+        1 * mockPartnerMetadataStorage.claimPendingStatusChecks(checkedBefore, { it.isAfter(checkedBefore) }, 10) >> claimedIds
+        result == claimedIds
+    }
+
+    def "getMetadata doesn't call the RS history API for pending metadata"() {
+        given:
+        def metadata = new PartnerMetadata(inboundReportId, outboundReportId, Instant.now(), null, "hash", PartnerMetadataStatus.PENDING, null, PartnerMetadataMessageType.RESULT, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
+        mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(metadata)
+
+        when:
+        def result = PartnerMetadataOrchestrator.getInstance().getMetadata(inboundReportId)
+
+        then:
+        result == Optional.of(metadata)
+        0 * mockClient.getRsToken()
+        0 * mockClient.requestHistoryEndpoint(_, _)
+        0 * mockPartnerMetadataStorage.saveMetadata(_)
+    }
+
+    def "refreshDeliveryStatus throws PartnerMetadataException on client error"() {
         given:
         def partnerMetadata = new PartnerMetadata(inboundReportId, "outboundReportId", Instant.now(), null, "hash", PartnerMetadataStatus.PENDING, "failureReason", PartnerMetadataMessageType.RESULT, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
 
         mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(partnerMetadata)
-        mockClient.getRsToken() >> "token"
-        mockClient.requestDeliveryEndpoint(_ as String, _ as String) >> { throw new ReportStreamEndpointClientException("Client error", new Exception()) }
+        mockClient.requestHistoryEndpoint(_ as String, _ as String) >> { throw new ReportStreamEndpointClientException("Client error", new Exception()) }
 
         when:
-        PartnerMetadataOrchestrator.getInstance().getMetadata(inboundReportId)
+        PartnerMetadataOrchestrator.getInstance().refreshDeliveryStatus(mockClient, bearerToken, inboundReportId)
 
         then:
         thrown(PartnerMetadataException)
     }
 
-    def "getMetadata throws PartnerMetadataException on formatter error"() {
+    def "refreshDeliveryStatus throws PartnerMetadataException on formatter error"() {
         given:
         def rsHistoryApiResponse = "{\"destinations\": [{\"organization_id\": \"org\", \"service\": \"service\"}]}"
         def partnerMetadata = new PartnerMetadata(inboundReportId, "outboundReportId", Instant.now(), null, "hash", PartnerMetadataStatus.PENDING, "failureReason", PartnerMetadataMessageType.RESULT, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
 
         mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(partnerMetadata)
-        mockClient.getRsToken() >> "token"
         mockClient.requestHistoryEndpoint(_ as String, _ as String) >> rsHistoryApiResponse
         mockFormatter.convertJsonToObject(rsHistoryApiResponse, _ as TypeReference) >> { throw new FormatterProcessingException("Formatter error", new Exception()) }
 
         when:
-        PartnerMetadataOrchestrator.getInstance().getMetadata(inboundReportId)
+        PartnerMetadataOrchestrator.getInstance().refreshDeliveryStatus(mockClient, bearerToken, inboundReportId)
 
         then:
         thrown(PartnerMetadataException)
@@ -322,21 +434,21 @@ class PartnerMetadataOrchestratorTest extends Specification {
 
         then:
         result.isPresent()
-        result.get() == metadata
         1 * mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(metadata)
         0 * mockClient.requestHistoryEndpoint(_, _)
     }
 
-    def "getMetadata skips lookup with stale metadata and missing outboundReportId"() {
+    def "refreshDeliveryStatus skips lookup with stale metadata and missing outboundReportId"() {
         given:
         def metadata = new PartnerMetadata(inboundReportId, null, Instant.now(), null, "hash", PartnerMetadataStatus.PENDING, null, PartnerMetadataMessageType.RESULT, sendingApp, sendingFacility, receivingApp, receivingFacility, "placer_order_number")
 
         when:
-        PartnerMetadataOrchestrator.getInstance().getMetadata(inboundReportId)
+        PartnerMetadataOrchestrator.getInstance().refreshDeliveryStatus(mockClient, bearerToken, inboundReportId)
 
         then:
         1 * mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(metadata)
         0 * mockClient.requestHistoryEndpoint(_, _)
+        0 * mockPartnerMetadataStorage.saveMetadata(_)
         notThrown(PartnerMetadataException)
     }
 
@@ -349,11 +461,10 @@ class PartnerMetadataOrchestratorTest extends Specification {
 
         then:
         result.isPresent()
-        result.get() == metadata
         1 * mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(metadata)
     }
 
-    def "getMetadata gets receiver if missing from metadata"() {
+    def "refreshDeliveryStatus gets receiver if missing from metadata"() {
         given:
         def timeDelivered = Instant.now()
         def rsHistoryApiResponse = "{\"actualCompletionAt\": \"2023-10-24T19:48:26.921Z\",\"destinations\": [{\"organization_id\": \"org\", \"service\": \"service\"}]}"
@@ -361,7 +472,6 @@ class PartnerMetadataOrchestratorTest extends Specification {
         def missingReceiverMetadata = new PartnerMetadata(inboundReportId, outboundReportId, timeReceived, timeDelivered, hashCode, PartnerMetadataStatus.DELIVERED, "", messageType, sendingApp, sendingFacility, receivingApp, receivingFacilityWithMissingUniversalId, placerOrderNumber)
         def expectedMetadata = new PartnerMetadata(inboundReportId, outboundReportId, timeReceived, timeDelivered, hashCode, PartnerMetadataStatus.DELIVERED, "", messageType, sendingApp, sendingFacility, receivingApp, receivingFacilityWithMissingUniversalId, placerOrderNumber)
 
-        mockClient.getRsToken() >> bearerToken
         mockClient.requestHistoryEndpoint(outboundReportId, bearerToken) >> rsHistoryApiResponse
         mockFormatter.convertJsonToObject(rsHistoryApiResponse, _ as TypeReference) >> [
             overallStatus: "Delivered",
@@ -373,22 +483,19 @@ class PartnerMetadataOrchestratorTest extends Specification {
         ]
 
         when:
-        Optional<PartnerMetadata> result = PartnerMetadataOrchestrator.getInstance().getMetadata(inboundReportId)
+        PartnerMetadataOrchestrator.getInstance().refreshDeliveryStatus(mockClient, bearerToken, inboundReportId)
 
         then:
-        result.isPresent()
-        result.get() == expectedMetadata
         1 * mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(missingReceiverMetadata)
         1 * mockPartnerMetadataStorage.saveMetadata(expectedMetadata)
     }
 
-    def "getMetadata gets status if still pending in metadata"() {
+    def "refreshDeliveryStatus gets status if still pending in metadata"() {
         given:
         def rsHistoryApiResponse = "{\"destinations\": [{\"organization_id\": \"org\", \"service\": \"service\"}]}"
         def missingReceiverMetadata = new PartnerMetadata(inboundReportId, outboundReportId, timeReceived, null, hashCode, PartnerMetadataStatus.PENDING, null, messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
         def expectedMetadata = new PartnerMetadata(inboundReportId, outboundReportId, timeReceived, null, hashCode, PartnerMetadataStatus.FAILED, "", messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
 
-        mockClient.getRsToken() >> bearerToken
         mockClient.requestHistoryEndpoint(outboundReportId, bearerToken) >> rsHistoryApiResponse
         mockFormatter.convertJsonToObject(rsHistoryApiResponse, _ as TypeReference) >> [
             overallStatus: "Not Delivering",
@@ -399,23 +506,20 @@ class PartnerMetadataOrchestratorTest extends Specification {
         ]
 
         when:
-        Optional<PartnerMetadata> result = PartnerMetadataOrchestrator.getInstance().getMetadata(inboundReportId)
+        PartnerMetadataOrchestrator.getInstance().refreshDeliveryStatus(mockClient, bearerToken, inboundReportId)
 
         then:
-        result.isPresent()
-        result.get() == expectedMetadata
         1 * mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(missingReceiverMetadata)
         1 * mockPartnerMetadataStorage.saveMetadata(expectedMetadata)
     }
 
-    def "getMetadata doesn't update the error messages if the status isn't FAILED when calling the RS history API"() {
+    def "refreshDeliveryStatus doesn't update the error messages if the status isn't FAILED when calling the RS history API"() {
         given:
         def timeDelivered = Instant.now()
         def rsHistoryApiResponse = "whatever"
         def missingReceiverMetadata = new PartnerMetadata(inboundReportId, outboundReportId, timeReceived, timeDelivered, hashCode, PartnerMetadataStatus.PENDING, null, messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
         def expectedMetadata = new PartnerMetadata(inboundReportId, outboundReportId, timeReceived, timeDelivered, hashCode, PartnerMetadataStatus.DELIVERED, null, messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
 
-        mockClient.getRsToken() >> bearerToken
         mockClient.requestHistoryEndpoint(outboundReportId, bearerToken) >> rsHistoryApiResponse
         mockFormatter.convertJsonToObject(rsHistoryApiResponse, _ as TypeReference) >> [
             overallStatus: "Delivered",
@@ -431,21 +535,18 @@ class PartnerMetadataOrchestratorTest extends Specification {
         ]
 
         when:
-        Optional<PartnerMetadata> result = PartnerMetadataOrchestrator.getInstance().getMetadata(inboundReportId)
+        PartnerMetadataOrchestrator.getInstance().refreshDeliveryStatus(mockClient, bearerToken, inboundReportId)
 
         then:
-        result.isPresent()
-        result.get() == expectedMetadata
         1 * mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(missingReceiverMetadata)
         1 * mockPartnerMetadataStorage.saveMetadata(expectedMetadata)
     }
 
-    def "getMetadata saves pending without delivery time if nobody has delivery times"() {
+    def "refreshDeliveryStatus saves pending without delivery time if nobody has delivery times"() {
         given:
         def rsHistoryApiResponse = "whatever"
         def missingReceiverMetadata = new PartnerMetadata(inboundReportId, outboundReportId, timeReceived, null, hashCode, PartnerMetadataStatus.PENDING, null, messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
 
-        mockClient.getRsToken() >> bearerToken
         mockClient.requestHistoryEndpoint(outboundReportId, bearerToken) >> rsHistoryApiResponse
         mockFormatter.convertJsonToObject(rsHistoryApiResponse, _ as TypeReference) >> [
             overallStatus: "Pending",
@@ -461,22 +562,19 @@ class PartnerMetadataOrchestratorTest extends Specification {
         ]
 
         when:
-        Optional<PartnerMetadata> result = PartnerMetadataOrchestrator.getInstance().getMetadata(inboundReportId)
+        PartnerMetadataOrchestrator.getInstance().refreshDeliveryStatus(mockClient, bearerToken, inboundReportId)
 
         then:
-        result.isPresent()
-        result.get() == missingReceiverMetadata
         1 * mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(missingReceiverMetadata)
         1 * mockPartnerMetadataStorage.saveMetadata(missingReceiverMetadata)
     }
 
-    def "getMetadata saves loaded delivered metadata if found"() {
+    def "refreshDeliveryStatus saves loaded delivered metadata if found"() {
         given:
         def rsHistoryApiResponse = "whatever"
         def missingReceiverMetadata = new PartnerMetadata(inboundReportId, outboundReportId, timeReceived, null, hashCode, PartnerMetadataStatus.PENDING, null, messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
         def expectedMetadata = new PartnerMetadata(inboundReportId, outboundReportId, timeReceived, null, hashCode, PartnerMetadataStatus.DELIVERED, null, messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
 
-        mockClient.getRsToken() >> bearerToken
         mockClient.requestHistoryEndpoint(outboundReportId, bearerToken) >> rsHistoryApiResponse
         mockFormatter.convertJsonToObject(rsHistoryApiResponse, _ as TypeReference) >> [
             overallStatus: "Delivered",
@@ -492,11 +590,9 @@ class PartnerMetadataOrchestratorTest extends Specification {
         ]
 
         when:
-        Optional<PartnerMetadata> result = PartnerMetadataOrchestrator.getInstance().getMetadata(inboundReportId)
+        PartnerMetadataOrchestrator.getInstance().refreshDeliveryStatus(mockClient, bearerToken, inboundReportId)
 
         then:
-        result.isPresent()
-        result.get() == expectedMetadata
         1 * mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(missingReceiverMetadata)
         1 * mockPartnerMetadataStorage.saveMetadata(expectedMetadata)
     }
@@ -682,33 +778,151 @@ class PartnerMetadataOrchestratorTest extends Specification {
         given:
         def failure = "This thing is bonked"
         def status = PartnerMetadataStatus.PENDING
-        def mockMetadata = [
-            new PartnerMetadata(
-            "123456789",
-            null,
-            Instant.now(),
-            null,
-            null,
-            status,
-            failure,
-            PartnerMetadataMessageType.RESULT,
-            sendingApp,
-            sendingFacility,
-            receivingApp,
-            receivingFacility,
-            placerOrderNumber
-            )
+        def receivedSince = Instant.parse("2024-01-01T00:00:00Z")
+        def summaries = [
+            new PartnerMetadataSummary("123456789", status, failure, receivingFacility.universalId())
+        ]
+        mockPartnerMetadataStorage.readMetadataSummaryForSender("sender", receivedSince, null, 11) >> summaries
+
+        when:
+        def result = PartnerMetadataOrchestrator.getInstance().getConsolidatedMetadata("sender", receivedSince, null, 10)
+
+        then:
+        result.metadata()["123456789"]["status"] == status.toString()
+        result.metadata()["123456789"]["stale"] == true
+        result.metadata()["123456789"]["failureReason"] == failure
+        result.continuationToken() == null
+    }
+
+    def "getConsolidatedMetadata marks metadata stale when the receiver is missing"() {
+        given:
+        def summaries = [
+            new PartnerMetadataSummary("delivered", PartnerMetadataStatus.DELIVERED, null, "receiver"),
+            new PartnerMetadataSummary("missingReceiver", PartnerMetadataStatus.DELIVERED, null, null)
+        ]
+        mockPartnerMetadataStorage.readMetadataSummaryForSender(_ as String, _, _, _ as Integer) >> summaries
+
+        when:
+        def result = PartnerMetadataOrchestrator.getInstance().getConsolidatedMetadata("sender", null, null, 10)
+
+        then:
+        result.metadata()["delivered"]["stale"] == false
+        result.metadata()["missingReceiver"]["stale"] == true
+    }
+
+    def "getConsolidatedMetadata returns a continuation token that starts the next page after the last one"() {
+        given:
+        def firstPage = ["1", "2", "3"].collect { new PartnerMetadataSummary(it, PartnerMetadataStatus.DELIVERED, null, "receiver") }
+        def secondPage = [
+            new PartnerMetadataSummary("3", PartnerMetadataStatus.DELIVERED, null, "receiver")
+        ]
+        mockPartnerMetadataStorage.readMetadataSummaryForSender("sender", null, null, 3) >> firstPage
+        mockPartnerMetadataStorage.readMetadataSummaryForSender("sender", null, "2", 3) >> secondPage
+
+        when:
+        def first = PartnerMetadataOrchestrator.getInstance().getConsolidatedMetadata("sender", null, null, 2)
+        def second = PartnerMetadataOrchestrator.getInstance().getConsolidatedMetadata("sender", null, first.continuationToken(), 2)
+
+        then:
+        first.metadata().keySet() as List == ["1", "2"]
+        first.continuationToken() != null
+        second.metadata().keySet() as List == ["3"]
+        second.continuationToken() == null
+    }
+
+    def "getAllConsolidatedMetadata reads the next page once the entries of the last one run out"() {
+        given:
+        def firstPage = ["1", "2", "3"].collect { new PartnerMetadataSummary(it, PartnerMetadataStatus.DELIVERED, null, "receiver") }
+        def secondPage = [
+            new PartnerMetadataSummary("3", PartnerMetadataStatus.DELIVERED, null, "receiver")
         ]
-        mockPartnerMetadataStorage.readMetadataForSender(_ as String) >> mockMetadata
 
         when:
-        def result = PartnerMetadataOrchestrator.getInstance().getConsolidatedMetadata("sender")
+        def entries = PartnerMetadataOrchestrator.getInstance().getAllConsolidatedMetadata("sender", null, 2)
+
+        then:
+        1 * mockPartnerMetadataStorage.readMetadataSummaryForSender("sender", null, null, 3) >> firstPage
+        0 * mockPartnerMetadataStorage.readMetadataSummaryForSender("sender", null, "2", 3)
+
+        when:
+        def inboundReportIds = entries.collect { it.key }
+
+        then:
+        1 * mockPartnerMetadataStorage.readMetadataSummaryForSender("sender", null, "2", 3) >> secondPage
+        inboundReportIds == ["1", "2", "3"]
+    }
+
+    def "getAllConsolidatedMetadata throws the failure to read the first page right away"() {
+        given:
+        mockPartnerMetadataStorage.readMetadataSummaryForSender(_ as String, _, _, _ as Integer) >> { throw new PartnerMetadataException("DogCow") }
+
+        when:
+        PartnerMetadataOrchestrator.getInstance().getAllConsolidatedMetadata("sender", null, 2)
+
+        then:
+        thrown(PartnerMetadataException)
+    }
+
+    def "getAllConsolidatedMetadata throws the failure to read a later page from the iterator"() {
+        given:
+        def firstPage = ["1", "2", "3"].collect { new PartnerMetadataSummary(it, PartnerMetadataStatus.DELIVERED, null, "receiver") }
+        mockPartnerMetadataStorage.readMetadataSummaryForSender("sender", null, null, 3) >> firstPage
+        mockPartnerMetadataStorage.readMetadataSummaryForSender("sender", null, "2", 3) >> { throw new PartnerMetadataException("DogCow") }
+
+        def entries = PartnerMetadataOrchestrator.getInstance().getAllConsolidatedMetadata("sender", null, 2)
+        entries.next()
+        entries.next()
+
+        when:
+        entries.hasNext()
+
+        then:
+        def exception = thrown(RuntimeException)
+        exception.cause instanceof PartnerMetadataException
+    }
+
+    def "getConsolidatedMetadata throws IllegalArgumentException for an invalid continuation token"() {
+        when:
+        PartnerMetadataOrchestrator.getInstance().getConsolidatedMetadata("sender", null, "not base64!", 10)
 
         then:
-        !result.isEmpty()
-        result["123456789"]["status"] == status.toString()
-        result["123456789"]["stale"] == true
-        result["123456789"]["failureReason"] == failure
+        thrown(IllegalArgumentException)
+        0 * mockPartnerMetadataStorage.readMetadataSummaryForSender(_, _, _, _)
+    }
+
+    def "getStatusCounts adds up the totals and groups the counts by day"() {
+        given:
+        def receivedFrom = LocalDate.parse("2024-01-01")
+        def receivedTo = LocalDate.parse("2024-01-02")
+        mockPartnerMetadataStorage.readStatusCountsForSender("sender", receivedFrom, receivedTo) >> [
+            new PartnerMetadataStatusCount(LocalDate.parse("2024-01-01"), PartnerMetadataStatus.PENDING, 2),
+            new PartnerMetadataStatusCount(LocalDate.parse("2024-01-01"), PartnerMetadataStatus.FAILED, 1),
+            new PartnerMetadataStatusCount(LocalDate.parse("2024-01-02"), PartnerMetadataStatus.DELIVERED, 5)
+        ]
+
+        when:
+        def counts = PartnerMetadataOrchestrator.getInstance().getStatusCounts("sender", receivedFrom, receivedTo)
+
+        then:
+        counts.totals == [PENDING: 2L, DELIVERED: 5L, FAILED: 1L]
+        counts.days == [
+            "2024-01-01": [PENDING: 2L, DELIVERED: 0L, FAILED: 1L],
+            "2024-01-02": [PENDING: 0L, DELIVERED: 5L, FAILED: 0L]
+        ]
+    }
+
+    def "getStatusCounts only counts messages without a time received in the totals"() {
+        given:
+        mockPartnerMetadataStorage.readStatusCountsForSender("sender", null, null) >> [
+            new PartnerMetadataStatusCount(null, PartnerMetadataStatus.PENDING, 3)
+        ]
+
+        when:
+        def counts = PartnerMetadataOrchestrator.getInstance().getStatusCounts("sender", null, null)
+
+        then:
+        counts.totals == [PENDING: 3L, DELIVERED: 0L, FAILED: 0L]
+        counts.days == [:]
     }
 
     def "findMessagesIdsToLink returns a list of message ids"() {
@@ -732,59 +946,119 @@ class PartnerMetadataOrchestratorTest extends Specification {
         result == Set.of(inboundReportId1, inboundReportId2)
     }
 
-    def "linkMessages links messages successfully"() {
+    def "linkMessages links the messages in the message link storage"() {
         given:
-        def matchingMessageId = "matchingMessageId"
-        def additionalMessageId = "additionalMessageId"
-        def newMessageId = "newMessageId"
-        def messageIdsToLink = Set.of(matchingMessageId, newMessageId)
-        def existingLinkId = UUID.randomUUID()
-        def existingMessageLink = new MessageLink(existingLinkId, Set.of(matchingMessageId, additionalMessageId))
-        mockMessageLinkStorage.getMessageLink(newMessageId) >> Optional.empty()
+        def messageIdsToLink = Set.of("messageId1", "messageId2")
 
         when:
         PartnerMetadataOrchestrator.getInstance().linkMessages(messageIdsToLink)
 
         then:
-        1 * mockMessageLinkStorage.getMessageLink(matchingMessageId) >> Optional.of(existingMessageLink)
-        existingMessageLink.addMessageId(newMessageId)
-        1 * mockMessageLinkStorage.saveMessageLink(existingMessageLink)
+        1 * mockMessageLinkStorage.linkMessages(messageIdsToLink)
+        0 * mockMessageLinkStorage.getMessageLink(_)
+        0 * mockMessageLinkStorage.saveMessageLink(_)
     }
 
-    def "linkMessages creates new message link there is no existing link"() {
+    def "linkMessages passes along a MessageLinkException"() {
         given:
-        def messageId1 = "messageId1"
-        def messageId2 = "messageId2"
-        def messageIdsToLink = Set.of(messageId1, messageId2)
-        mockMessageLinkStorage.getMessageLink(messageId1) >> Optional.empty()
-        mockMessageLinkStorage.getMessageLink(messageId2) >> Optional.empty()
+        mockMessageLinkStorage.linkMessages(_ as Set) >> { throw new MessageLinkException("DogCow", new Exception()) }
 
         when:
-        PartnerMetadataOrchestrator.getInstance().linkMessages(messageIdsToLink)
+        PartnerMetadataOrchestrator.getInstance().linkMessages(Set.of("messageId"))
 
         then:
-        1 * mockMessageLinkStorage.saveMessageLink({ MessageLink ml ->
-            ml.getLinkId() != null && ml.getMessageIds() == messageIdsToLink
-        })
+        thrown(MessageLinkException)
     }
 
-    def "linkMessages uses existing link if one exists"() {
+    def "a metadata session reads the metadata once and saves the later updates together"() {
         given:
-        def existingLinkId = UUID.randomUUID()
-        def matchingMessageId = "messageId"
-        def additionalMessageId = "additionalMessageId"
-        def newMessageId = "newMessageId"
-        def messageIdsToLink = Set.of(matchingMessageId, newMessageId)
-        def existingMessageLink = new MessageLink(existingLinkId, Set.of(matchingMessageId, additionalMessageId))
-        mockMessageLinkStorage.getMessageLink(matchingMessageId) >> Optional.of(existingMessageLink)
-        mockMessageLinkStorage.getMessageLink(newMessageId) >> Optional.empty()
+        def inboundMetadata = new PartnerMetadata(inboundReportId, hashCode, messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
+        def orchestrator = PartnerMetadataOrchestrator.getInstance()
 
         when:
-        PartnerMetadataOrchestrator.getInstance().linkMessages(messageIdsToLink)
+        orchestrator.openMetadataSession()
+        orchestrator.updateMetadataForInboundMessage(inboundMetadata)
+
+        then:
+        1 * mockPartnerMetadataStorage.saveAllMetadata([inboundMetadata])
+
+        when:
+        orchestrator.updateMetadataForOutboundMessage(inboundReportId, outboundReportId)
+        orchestrator.setMetadataStatusToFailed(inboundReportId, "DogCow")
+
+        then:
+        0 * mockPartnerMetadataStorage.readMetadata(_)
+        0 * mockPartnerMetadataStorage.saveMetadata(_)
+        0 * mockPartnerMetadataStorage.saveAllMetadata(_)
+
+        when:
+        orchestrator.closeMetadataSession()
+
+        then:
+        1 * mockPartnerMetadataStorage.saveAllMetadata([
+            inboundMetadata
+            .withOutboundReportId(outboundReportId)
+            .withDeliveryStatus(PartnerMetadataStatus.FAILED)
+            .withFailureMessage("DogCow")
+        ])
+        ApplicationContext.getThreadImplementation(PartnerMetadataSession) == Optional.empty()
+    }
+
+    def "a metadata session reads metadata it didn't save from storage"() {
+        given:
+        def orchestrator = PartnerMetadataOrchestrator.getInstance()
+        orchestrator.openMetadataSession()
+
+        when:
+        orchestrator.setMetadataStatusToFailed(inboundReportId, "DogCow")
+        orchestrator.setMetadataStatusToFailed(inboundReportId, "DogCow")
+
+        then:
+        1 * mockPartnerMetadataStorage.readMetadata(inboundReportId) >> Optional.of(testMetadata)
+        0 * mockPartnerMetadataStorage.saveMetadata(_)
+        0 * mockPartnerMetadataStorage.saveAllMetadata(_)
+
+        when:
+        orchestrator.closeMetadataSession()
+
+        then:
+        1 * mockPartnerMetadataStorage.saveAllMetadata({ it.size() == 1 && it[0].deliveryStatus() == PartnerMetadataStatus.FAILED })
+    }
+
+    def "refreshDeliveryStatus goes through the metadata session"() {
+        given:
+        def inboundMetadata = new PartnerMetadata(inboundReportId, hashCode, messageType, sendingApp, sendingFacility, receivingApp, receivingFacility, placerOrderNumber)
+        def rsHistoryApiResponse = "{\"destinations\": [{\"organization_id\": \"org\", \"service\": \"service\"}]}"
+        def orchestrator = PartnerMetadataOrchestrator.getInstance()
+
+        mockClient.requestHistoryEndpoint(outboundReportId, bearerToken) >> rsHistoryApiResponse
+        mockFormatter.convertJsonToObject(rsHistoryApiResponse, _ as TypeReference) >> [
+            overallStatus: "Not Delivering",
+            destinations: [
+                [organization_id: "org", service: "service"],
+            ],
+            errors: [],
+        ]
+
+        orchestrator.openMetadataSession()
+        orchestrator.updateMetadataForInboundMessage(inboundMetadata)
+        orchestrator.updateMetadataForOutboundMessage(inboundReportId, outboundReportId)
+
+        when:
+        orchestrator.refreshDeliveryStatus(mockClient, bearerToken, inboundReportId)
+        orchestrator.closeMetadataSession()
+
+        then:
+        0 * mockPartnerMetadataStorage.readMetadata(_)
+        1 * mockPartnerMetadataStorage.saveAllMetadata({ it.size() == 1 && it[0].outboundReportId() == outboundReportId && it[0].deliveryStatus() == PartnerMetadataStatus.FAILED })
+    }
+
+    def "closeMetadataSession does nothing without a session"() {
+        when:
+        PartnerMetadataOrchestrator.getInstance().closeMetadataSession()
 
         then:
-        1 * mockMessageLinkStorage.saveMessageLink({ MessageLink ml ->
-            ml.getLinkId() == existingLinkId && ml.getMessageIds() == Set.of(matchingMessageId, additionalMessageId, newMessageId)
-        })
+        noExceptionThrown()
+        0 * mockPartnerMetadataStorage._
     }
 }
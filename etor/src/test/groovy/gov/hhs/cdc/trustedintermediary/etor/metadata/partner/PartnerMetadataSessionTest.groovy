@@ -0,0 +1,84 @@
+package gov.hhs.cdc.trustedintermediary.etor.metadata.partner
+
+import spock.lang.Specification
+
+class PartnerMetadataSessionTest extends Specification {
+
+    def mockStorage = Mock(PartnerMetadataStorage)
+    def session = new PartnerMetadataSession(mockStorage)
+    def metadata = new PartnerMetadata("inboundReportId", PartnerMetadataStatus.PENDING)
+
+    def "readMetadata only reads each message from storage once"() {
+        when:
+        def first = session.readMetadata("inboundReportId")
+        def second = session.readMetadata("inboundReportId")
+        def missing = session.readMetadata("missingReportId")
+        def missingAgain = session.readMetadata("missingReportId")
+
+        then:
+        1 * mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+        1 * mockStorage.readMetadata("missingReportId") >> Optional.empty()
+        first == Optional.of(metadata)
+        second == Optional.of(metadata)
+        missing == Optional.empty()
+        missingAgain == Optional.empty()
+    }
+
+    def "readMetadata returns the saved metadata without reading storage"() {
+        given:
+        def updated = metadata.withDeliveryStatus(PartnerMetadataStatus.DELIVERED)
+
+        when:
+        session.saveMetadata(metadata)
+        session.saveMetadata(updated)
+        def actual = session.readMetadata("inboundReportId")
+
+        then:
+        actual == Optional.of(updated)
+        0 * mockStorage._
+    }
+
+    def "flush saves the latest version of each changed message together once"() {
+        given:
+        def updated = metadata.withDeliveryStatus(PartnerMetadataStatus.DELIVERED)
+        def other = new PartnerMetadata("otherReportId", PartnerMetadataStatus.FAILED)
+        session.saveMetadata(metadata)
+        session.saveMetadata(other)
+        session.saveMetadata(updated)
+
+        when:
+        session.flush()
+        session.flush()
+
+        then:
+        1 * mockStorage.saveAllMetadata([updated, other])
+        0 * mockStorage.saveAllMetadata(_)
+        0 * mockStorage.saveMetadata(_)
+    }
+
+    def "flush doesn't save anything when nothing changed"() {
+        when:
+        session.flush()
+
+        then:
+        0 * mockStorage._
+    }
+
+    def "flush keeps metadata it couldn't save for the next flush"() {
+        given:
+        session.saveMetadata(metadata)
+
+        when:
+        session.flush()
+
+        then:
+        1 * mockStorage.saveAllMetadata([metadata]) >> { throw new PartnerMetadataException("DogCow") }
+        thrown(PartnerMetadataException)
+
+        when:
+        session.flush()
+
+        then:
+        1 * mockStorage.saveAllMetadata([metadata])
+    }
+}
@@ -3,6 +3,7 @@ package gov.hhs.cdc.trustedintermediary.etor.orders
 import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
 import gov.hhs.cdc.trustedintermediary.domainconnector.DomainRequest
 import gov.hhs.cdc.trustedintermediary.etor.metadata.EtorMetadataStep
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation.ValidationDispatcher
 import gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation.ValidationRuleEngine
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiMessageHelper
 import gov.hhs.cdc.trustedintermediary.wrappers.FhirParseException
@@ -20,6 +21,7 @@ class OrderControllerTest extends Specification {
         TestApplicationContext.register(OrderController, OrderController.getInstance())
         TestApplicationContext.register(MetricMetadata, Mock(MetricMetadata))
         TestApplicationContext.register(ValidationRuleEngine, ruleEngine)
+        TestApplicationContext.register(ValidationDispatcher, ValidationDispatcher.getInstance())
         TestApplicationContext.register(HapiMessageHelper, HapiMessageHelper.getInstance())
     }
 
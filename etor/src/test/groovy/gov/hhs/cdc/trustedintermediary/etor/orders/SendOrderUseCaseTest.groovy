@@ -3,13 +3,18 @@ package gov.hhs.cdc.trustedintermediary.etor.orders
 import gov.hhs.cdc.trustedintermediary.OrderMock
 import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
 import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageHelper
+import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageStageGraph
 import gov.hhs.cdc.trustedintermediary.etor.messages.UnableToSendMessageException
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataOrchestrator
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxException
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxSenderWorker
 
 import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.TransformationRuleEngine
 import gov.hhs.cdc.trustedintermediary.etor.utils.security.HashHelper
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException
+import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger
 import gov.hhs.cdc.trustedintermediary.wrappers.MetricMetadata
 import spock.lang.Specification
@@ -28,10 +33,14 @@ class SendOrderUseCaseTest extends Specification {
         TestApplicationContext.register(MetricMetadata, Mock(MetricMetadata))
         TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
         TestApplicationContext.register(SendMessageHelper, SendMessageHelper.getInstance())
+        TestApplicationContext.register(SendMessageStageGraph, SendMessageStageGraph.getInstance())
+        TestApplicationContext.register(OutboxSenderWorker, OutboxSenderWorker.getInstance())
         TestApplicationContext.register(TransformationRuleEngine, mockEngine)
         TestApplicationContext.register(OrderSender, mockSender)
         TestApplicationContext.register(HashHelper, HashHelper.getInstance())
         TestApplicationContext.register(Logger, mockLogger)
+
+        SendMessageStageGraph.getInstance().reset()
     }
 
     def "send sends successfully"() {
@@ -130,4 +139,77 @@ class SendOrderUseCaseTest extends Specification {
         1 * mockOrchestrator.findMessagesIdsToLink(_ as String) >> Set.of()
         0 * mockOrchestrator.updateMetadataForOutboundMessage(_ as String, _ as String)
     }
+
+    def "convertAndSend throws an UnableToSendMessageException and doesn't send when the transformations run out of time"() {
+        given:
+        def order = Mock(Order)
+        TestApplicationContext.injectRegisteredImplementations()
+        mockEngine.runRules(order) >> { throw new RuleTimeBudgetExceededException("Rule [slow] ran for 3000 ms") }
+
+        when:
+        SendOrderUseCase.getInstance().convertAndSend(order, "inboundReportId")
+
+        then:
+        def exception = thrown(UnableToSendMessageException)
+        exception.cause instanceof RuleTimeBudgetExceededException
+        0 * mockSender.send(_)
+    }
+
+    def "convertAndSend finishes saving and linking the metadata before reporting a failed send"() {
+        given:
+        def order = Mock(Order)
+        mockSender.send(order) >> { throw new UnableToSendMessageException("DogCow", new NullPointerException()) }
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        SendOrderUseCase.getInstance().convertAndSend(order, "inboundReportId")
+
+        then:
+        thrown(UnableToSendMessageException)
+        1 * mockOrchestrator.updateMetadataForInboundMessage(_ as PartnerMetadata)
+        1 * mockOrchestrator.findMessagesIdsToLink("inboundReportId") >> Set.of()
+        0 * mockOrchestrator.updateMetadataForOutboundMessage(_, _)
+    }
+
+    def "convertAndSend saves the order to the outbox instead of sending it when the outbox is enabled"() {
+        given:
+        def order = Mock(Order)
+        order.getFhirResourceId() >> "fhirResourceId"
+        order.getUnderlyingData() >> "underlying data"
+        def mockFhir = Mock(HapiFhir)
+        mockFhir.encodeResourceToJson("underlying data") >> "payload"
+        def mockOutboxSenderWorker = Mock(OutboxSenderWorker)
+        mockOutboxSenderWorker.isEnabled() >> true
+        TestApplicationContext.register(HapiFhir, mockFhir)
+        TestApplicationContext.register(OutboxSenderWorker, mockOutboxSenderWorker)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        SendOrderUseCase.getInstance().convertAndSend(order, "inboundReportId")
+
+        then:
+        1 * mockEngine.runRules(order)
+        1 * mockOutboxSenderWorker.enqueue({ it.inboundReportId() == "inboundReportId" }, "fhirResourceId", "payload")
+        1 * mockOrchestrator.findMessagesIdsToLink("inboundReportId") >> Set.of()
+        0 * mockSender.send(_)
+        0 * mockOrchestrator.updateMetadataForInboundMessage(_)
+    }
+
+    def "convertAndSend throws an UnableToSendMessageException when the order can't be saved to the outbox"() {
+        given:
+        def mockOutboxSenderWorker = Mock(OutboxSenderWorker)
+        mockOutboxSenderWorker.isEnabled() >> true
+        mockOutboxSenderWorker.enqueue(_, _, _) >> { throw new OutboxException("DogCow", new Exception()) }
+        TestApplicationContext.register(HapiFhir, Mock(HapiFhir))
+        TestApplicationContext.register(OutboxSenderWorker, mockOutboxSenderWorker)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        SendOrderUseCase.getInstance().convertAndSend(Mock(Order), "inboundReportId")
+
+        then:
+        def exception = thrown(UnableToSendMessageException)
+        exception.cause instanceof OutboxException
+        0 * mockSender.send(_)
+    }
 }
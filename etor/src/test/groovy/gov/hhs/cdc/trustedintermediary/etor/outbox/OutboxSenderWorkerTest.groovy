@@ -0,0 +1,299 @@
+package gov.hhs.cdc.trustedintermediary.etor.outbox
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.etor.RSEndpointClient
+import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageHelper
+import gov.hhs.cdc.trustedintermediary.etor.messages.UnableToSendMessageException
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.IngestionTimeEnrichmentWorker
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataOrchestrator
+import gov.hhs.cdc.trustedintermediary.external.localfile.MockRSEndpointClient
+import gov.hhs.cdc.trustedintermediary.external.reportstream.ReportStreamSenderHelper
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.time.Instant
+
+class OutboxSenderWorkerTest extends Specification {
+
+    def worker = OutboxSenderWorker.getInstance()
+    def mockOutbox = Mock(MessageOutbox)
+    def mockSender = Mock(ReportStreamSenderHelper)
+    def mockSendMessageHelper = Mock(SendMessageHelper)
+    def mockOrchestrator = Mock(PartnerMetadataOrchestrator)
+    def mockIngestionTimeWorker = Mock(IngestionTimeEnrichmentWorker)
+    def mockClient = Mock(RSEndpointClient)
+    def mockLogger = Mock(Logger)
+    def conditions = new PollingConditions(timeout: 5)
+    def partnerMetadata = new PartnerMetadata("inboundReportId", "hash", PartnerMetadataMessageType.ORDER, null, null, null, null, null)
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(MessageOutbox, mockOutbox)
+        TestApplicationContext.register(ReportStreamSenderHelper, mockSender)
+        TestApplicationContext.register(SendMessageHelper, mockSendMessageHelper)
+        TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
+        TestApplicationContext.register(IngestionTimeEnrichmentWorker, mockIngestionTimeWorker)
+        TestApplicationContext.register(RSEndpointClient, mockClient)
+        TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(OutboxSenderWorker, worker)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        TestApplicationContext.addEnvironmentVariable(OutboxSenderWorker.ENABLED_PROPERTY, "true")
+        TestApplicationContext.addEnvironmentVariable("DB_URL", "jdbc:postgresql://localhost/intermediary")
+        TestApplicationContext.addEnvironmentVariable(OutboxSenderWorker.SENDER_THREADS_PROPERTY, "1")
+        TestApplicationContext.addEnvironmentVariable(OutboxSenderWorker.POLL_INTERVAL_PROPERTY, "10")
+
+        worker.reset()
+    }
+
+    def cleanup() {
+        worker.reset()
+        ApplicationContext.clearThreadRegistrations()
+    }
+
+    def "the outbox is only enabled when it's turned on and the metadata is in the database"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(OutboxSenderWorker.ENABLED_PROPERTY, enabled)
+        TestApplicationContext.addEnvironmentVariable("DB_URL", dbUrl)
+
+        expect:
+        worker.isEnabled() == expected
+
+        where:
+        enabled | dbUrl                 || expected
+        "true"  | "jdbc:postgresql://"  || true
+        "false" | "jdbc:postgresql://"  || false
+        "true"  | ""                    || false
+    }
+
+    def "enqueue saves the message with its metadata and wakes up the senders"() {
+        when:
+        worker.enqueue(partnerMetadata, "fhirResourceId", "payload")
+
+        then:
+        1 * mockOutbox.saveWithMetadata(partnerMetadata, new OutboxMessage("inboundReportId", PartnerMetadataMessageType.ORDER, "fhirResourceId", "payload", false, 0))
+        1 * mockIngestionTimeWorker.enqueue("inboundReportId")
+        worker.getSummary().enqueued == 1
+    }
+
+    def "enqueue marks the message for mock delivery when the request uses the mock client"() {
+        given:
+        ApplicationContext.registerForThread(RSEndpointClient, MockRSEndpointClient.getInstance())
+
+        when:
+        worker.enqueue(partnerMetadata, "fhirResourceId", "payload")
+
+        then:
+        1 * mockOutbox.saveWithMetadata(partnerMetadata, { it.mockDelivery() })
+    }
+
+    def "enqueue doesn't queue the ingestion time lookup when the outbox can't be saved"() {
+        given:
+        mockOutbox.saveWithMetadata(_, _) >> { throw new OutboxException("DogCow", new Exception()) }
+
+        when:
+        worker.enqueue(partnerMetadata, "fhirResourceId", "payload")
+
+        then:
+        thrown(OutboxException)
+        0 * mockIngestionTimeWorker.enqueue(_)
+        worker.getSummary().enqueued == 0
+    }
+
+    def "the sender delivers claimed messages and removes them from the outbox"() {
+        given:
+        def order = new OutboxMessage("inboundOrderId", PartnerMetadataMessageType.ORDER, "orderResourceId", "order payload", false, 1)
+        def result = new OutboxMessage("inboundResultId", PartnerMetadataMessageType.RESULT, "resultResourceId", "result payload", false, 1)
+        claimsInOrder([order, result])
+        mockSender.sendOrderToReportStream("order payload", "orderResourceId") >> Optional.of("outboundOrderId")
+        mockSender.sendResultToReportStream("result payload", "resultResourceId") >> Optional.of("outboundResultId")
+        def savedIds = Collections.synchronizedList([])
+        def sentIds = Collections.synchronizedList([])
+        mockSendMessageHelper.saveOutboundReportId(_, _) >> { String inboundId, String outboundId -> savedIds.add([inboundId, outboundId]) }
+        mockOutbox.markSent(_) >> { String inboundId -> sentIds.add(inboundId) }
+
+        when:
+        worker.start()
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().delivered == 2
+        }
+        savedIds == [["inboundOrderId", "outboundOrderId"], ["inboundResultId", "outboundResultId"]]
+        sentIds == ["inboundOrderId", "inboundResultId"]
+    }
+
+    def "a failed delivery is scheduled for a retry with backoff"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(OutboxSenderWorker.RETRY_BACKOFF_PROPERTY, "1000")
+        claimsInOrder([
+            new OutboxMessage("inboundReportId", PartnerMetadataMessageType.ORDER, "fhirResourceId", "payload", false, 2)
+        ])
+        mockSender.sendOrderToReportStream(_ as String, _) >> { throw new UnableToSendMessageException("DogCow", new Exception()) }
+        def nextAttemptAt = null
+        mockOutbox.scheduleRetry("inboundReportId", _, "DogCow") >> { String id, Instant next, String error -> nextAttemptAt = next }
+        def before = Instant.now()
+
+        when:
+        worker.start()
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().retried == 1
+        }
+        // the second attempt waits twice the backoff
+        !nextAttemptAt.isBefore(before.plusMillis(2000))
+        !nextAttemptAt.isAfter(Instant.now().plusMillis(2000))
+        0 * mockOutbox.markSent(_)
+        0 * mockOrchestrator.setMetadataStatusToFailed(_, _)
+    }
+
+    def "the sender gives up after the maximum number of attempts"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(OutboxSenderWorker.MAX_ATTEMPTS_PROPERTY, "3")
+        claimsInOrder([
+            new OutboxMessage("inboundReportId", PartnerMetadataMessageType.RESULT, "fhirResourceId", "payload", false, 3)
+        ])
+        mockSender.sendResultToReportStream(_ as String, _) >> { throw new UnableToSendMessageException("DogCow", new Exception()) }
+        def failedIds = Collections.synchronizedList([])
+        mockOutbox.markFailed(_, _) >> { String inboundId, String error -> failedIds.add([inboundId, error]) }
+        mockOrchestrator.setMetadataStatusToFailed(_, _) >> { String inboundId, String reason -> failedIds.add(inboundId) }
+
+        when:
+        worker.start()
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().failed == 1
+        }
+        failedIds == [["inboundReportId", "DogCow"], "inboundReportId"]
+        0 * mockOutbox.scheduleRetry(_, _, _)
+    }
+
+    def "a message marked for mock delivery is sent with the mock client"() {
+        given:
+        claimsInOrder([
+            new OutboxMessage("mockId", PartnerMetadataMessageType.ORDER, "fhirResourceId", "payload", true, 1),
+            new OutboxMessage("realId", PartnerMetadataMessageType.ORDER, "fhirResourceId", "payload", false, 1)
+        ])
+        def clients = [:]
+        mockSender.sendOrderToReportStream(_ as String, _) >> {
+            clients.put(clients.isEmpty() ? "mockId" : "realId", ApplicationContext.getImplementation(RSEndpointClient))
+            Optional.of("outboundReportId")
+        }
+
+        when:
+        worker.start()
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().delivered == 2
+        }
+        clients.mockId == MockRSEndpointClient.getInstance()
+        clients.realId == mockClient
+    }
+
+    def "a mock delivery gets its status from the mock client once it's sent"() {
+        given:
+        claimsInOrder([
+            new OutboxMessage("mockId", PartnerMetadataMessageType.ORDER, "fhirResourceId", "payload", true, 1),
+            new OutboxMessage("realId", PartnerMetadataMessageType.ORDER, "fhirResourceId", "payload", false, 1)
+        ])
+        mockSender.sendOrderToReportStream(_ as String, _) >> Optional.of("outboundReportId")
+        def refreshes = Collections.synchronizedList([])
+        mockOrchestrator.refreshDeliveryStatus(_, _, _) >> { RSEndpointClient client, String token, String inboundReportId ->
+            refreshes.add([client, token, inboundReportId])
+        }
+
+        when:
+        worker.start()
+
+        then:
+        conditions.eventually {
+            assert worker.getSummary().delivered == 2
+        }
+        refreshes == [[MockRSEndpointClient.getInstance(), MockRSEndpointClient.getInstance().getRsToken(), "mockId"]]
+    }
+
+    def "a mock delivery is still marked sent when its status can't be updated"() {
+        given:
+        claimsInOrder([
+            new OutboxMessage("mockId", PartnerMetadataMessageType.ORDER, "fhirResourceId", "payload", true, 1)
+        ])
+        mockSender.sendOrderToReportStream(_ as String, _) >> Optional.of("outboundReportId")
+        mockOrchestrator.refreshDeliveryStatus(_, _, _) >> { throw new PartnerMetadataException("DogCow") }
+        def sent = Collections.synchronizedList([])
+        mockOutbox.markSent(_ as String) >> { String inboundReportId -> sent.add(inboundReportId) }
+
+        when:
+        worker.start()
+
+        then:
+        conditions.eventually {
+            assert sent == ["mockId"]
+        }
+    }
+
+    def "a claim error is counted and the sender keeps polling"() {
+        given:
+        def claims = 0
+        mockOutbox.claim(_, _) >> {
+            claims++
+            if (claims == 1) {
+                throw new OutboxException("DogCow", new Exception())
+            }
+            []
+        }
+
+        when:
+        worker.start()
+
+        then:
+        conditions.eventually {
+            assert claims > 1
+        }
+        worker.getSummary().claimErrors == 1
+    }
+
+    def "start doesn't start the senders when the outbox is disabled"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(OutboxSenderWorker.ENABLED_PROPERTY, "false")
+
+        when:
+        worker.start()
+        Thread.sleep(50)
+
+        then:
+        0 * mockOutbox.claim(_, _)
+        !worker.getSummary().enabled
+    }
+
+    def "an invalid setting falls back to the default"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(OutboxSenderWorker.BATCH_SIZE_PROPERTY, "lots")
+        mockOutbox.claim(_, _) >> []
+
+        when:
+        worker.start()
+
+        then:
+        1 * mockLogger.logWarning(_ as String, OutboxSenderWorker.BATCH_SIZE_PROPERTY, "lots", OutboxSenderWorker.DEFAULT_BATCH_SIZE)
+    }
+
+    private void claimsInOrder(List<OutboxMessage> messages) {
+        def claimed = false
+        mockOutbox.claim(_, _) >> {
+            if (claimed) {
+                return []
+            }
+            claimed = true
+            messages
+        }
+    }
+}
@@ -3,13 +3,18 @@ package gov.hhs.cdc.trustedintermediary.etor.results
 import gov.hhs.cdc.trustedintermediary.ResultMock
 import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
 import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageHelper
+import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageStageGraph
 import gov.hhs.cdc.trustedintermediary.etor.messages.SendMessageUseCase
 import gov.hhs.cdc.trustedintermediary.etor.messages.UnableToSendMessageException
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataOrchestrator
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxException
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxSenderWorker
 import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.TransformationRuleEngine
 import gov.hhs.cdc.trustedintermediary.etor.utils.security.HashHelper
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException
+import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger
 import gov.hhs.cdc.trustedintermediary.wrappers.MetricMetadata
 import spock.lang.Specification
@@ -28,11 +33,15 @@ class SendResultUseCaseTest extends Specification {
         TestApplicationContext.register(MetricMetadata, Mock(MetricMetadata))
         TestApplicationContext.register(PartnerMetadataOrchestrator, mockOrchestrator)
         TestApplicationContext.register(SendMessageHelper, SendMessageHelper.getInstance())
+        TestApplicationContext.register(SendMessageStageGraph, SendMessageStageGraph.getInstance())
+        TestApplicationContext.register(OutboxSenderWorker, OutboxSenderWorker.getInstance())
         TestApplicationContext.register(TransformationRuleEngine, mockEngine)
         TestApplicationContext.register(ResultSender, mockSender)
         TestApplicationContext.register(Logger, mockLogger)
         TestApplicationContext.register(HashHelper, HashHelper.getInstance())
         TestApplicationContext.injectRegisteredImplementations()
+
+        SendMessageStageGraph.getInstance().reset()
     }
 
     def "convertAndSend works"() {
@@ -91,4 +100,60 @@ class SendResultUseCaseTest extends Specification {
         1 * mockSender.send(result) >> Optional.of("outboundReportId")
         1 * mockLogger.logError(_, _)
     }
+
+    def "convertAndSend throws an UnableToSendMessageException and doesn't send when the transformations run out of time"() {
+        given:
+        def result = Mock(Result)
+        mockEngine.runRules(result) >> { throw new RuleTimeBudgetExceededException("Rule [slow] ran for 3000 ms") }
+
+        when:
+        SendResultUseCase.getInstance().convertAndSend(result, "inboundReportId")
+
+        then:
+        def exception = thrown(UnableToSendMessageException)
+        exception.cause instanceof RuleTimeBudgetExceededException
+        0 * mockSender.send(_)
+    }
+
+    def "convertAndSend saves the result to the outbox instead of sending it when the outbox is enabled"() {
+        given:
+        def result = Mock(Result)
+        result.getFhirResourceId() >> "fhirResourceId"
+        result.getUnderlyingData() >> "underlying data"
+        def mockFhir = Mock(HapiFhir)
+        mockFhir.encodeResourceToJson("underlying data") >> "payload"
+        def mockOutboxSenderWorker = Mock(OutboxSenderWorker)
+        mockOutboxSenderWorker.isEnabled() >> true
+        TestApplicationContext.register(HapiFhir, mockFhir)
+        TestApplicationContext.register(OutboxSenderWorker, mockOutboxSenderWorker)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        SendResultUseCase.getInstance().convertAndSend(result, "inboundReportId")
+
+        then:
+        1 * mockEngine.runRules(result)
+        1 * mockOutboxSenderWorker.enqueue({ it.inboundReportId() == "inboundReportId" }, "fhirResourceId", "payload")
+        1 * mockOrchestrator.findMessagesIdsToLink("inboundReportId") >> Set.of()
+        0 * mockSender.send(_)
+        0 * mockOrchestrator.updateMetadataForInboundMessage(_)
+    }
+
+    def "convertAndSend throws an UnableToSendMessageException when the result can't be saved to the outbox"() {
+        given:
+        def mockOutboxSenderWorker = Mock(OutboxSenderWorker)
+        mockOutboxSenderWorker.isEnabled() >> true
+        mockOutboxSenderWorker.enqueue(_, _, _) >> { throw new OutboxException("DogCow", new Exception()) }
+        TestApplicationContext.register(HapiFhir, Mock(HapiFhir))
+        TestApplicationContext.register(OutboxSenderWorker, mockOutboxSenderWorker)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        SendResultUseCase.getInstance().convertAndSend(Mock(Result), "inboundReportId")
+
+        then:
+        def exception = thrown(UnableToSendMessageException)
+        exception.cause instanceof OutboxException
+        0 * mockSender.send(_)
+    }
 }
@@ -0,0 +1,126 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import org.hl7.fhir.r4.model.Bundle
+import org.hl7.fhir.r4.model.Observation
+import org.hl7.fhir.r4.model.Patient
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+
+class ParallelResourceTransformerTest extends Specification {
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.injectRegisteredImplementations()
+    }
+
+    def "small bundles are transformed sequentially on the calling thread"() {
+        given:
+        def bundle = createBundle(5)
+        def threads = ConcurrentHashMap.newKeySet()
+
+        when:
+        ParallelResourceTransformer.transform(bundle, Observation) { observation ->
+            threads.add(Thread.currentThread())
+            return false
+        }
+
+        then:
+        threads == [Thread.currentThread()] as Set
+    }
+
+    def "large bundles are transformed on the fork-join pool"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ParallelResourceTransformer.PARALLEL_THRESHOLD_PROPERTY, "10")
+        def bundle = createBundle(200)
+        def transformed = ConcurrentHashMap.newKeySet()
+        def threadNames = ConcurrentHashMap.newKeySet()
+
+        when:
+        ParallelResourceTransformer.transform(bundle, Observation) { observation ->
+            transformed.add(observation.id)
+            threadNames.add(Thread.currentThread().name)
+            return false
+        }
+
+        then:
+        transformed.size() == 200
+        threadNames.every { it.startsWith("transformation-worker-") }
+    }
+
+    def "only resources of the requested type are transformed"() {
+        given:
+        def bundle = createBundle(3)
+        bundle.addEntry(new Bundle.BundleEntryComponent().setResource(new Patient()))
+        def transformed = []
+
+        when:
+        ParallelResourceTransformer.transform(bundle, Observation) { observation ->
+            transformed.add(observation)
+            return false
+        }
+
+        then:
+        transformed.size() == 3
+        bundle.entry.size() == 4
+    }
+
+    def "resources are removed once at the end and the remaining entries keep their order"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ParallelResourceTransformer.PARALLEL_THRESHOLD_PROPERTY, threshold)
+        def bundle = createBundle(150)
+
+        when:
+        ParallelResourceTransformer.transform(bundle, Observation) { observation ->
+            return Integer.parseInt(observation.id) % 3 == 0
+        }
+
+        then:
+        bundle.entry*.resource*.id == (0..<150).findAll { it % 3 != 0 }*.toString()
+
+        where:
+        threshold << ["1", "1000"]
+    }
+
+    def "an exception thrown by the transformation is propagated and nothing is removed"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ParallelResourceTransformer.PARALLEL_THRESHOLD_PROPERTY, threshold)
+        def bundle = createBundle(50)
+
+        when:
+        ParallelResourceTransformer.transform(bundle, Observation) { observation ->
+            if (observation.id == "42") {
+                throw new IllegalStateException("bad observation")
+            }
+            return true
+        }
+
+        then:
+        def exception = thrown(IllegalStateException)
+        exception.message.contains("bad observation")
+        bundle.entry.size() == 50
+
+        where:
+        threshold << ["1", "1000"]
+    }
+
+    def "an invalid threshold falls back to the default"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ParallelResourceTransformer.PARALLEL_THRESHOLD_PROPERTY, "many")
+
+        expect:
+        ParallelResourceTransformer.getParallelThreshold() == ParallelResourceTransformer.DEFAULT_PARALLEL_THRESHOLD
+    }
+
+    Bundle createBundle(int observationCount) {
+        def bundle = new Bundle()
+        (0..<observationCount).each {
+            def observation = new Observation()
+            observation.id = it.toString()
+            bundle.addEntry(new Bundle.BundleEntryComponent().setResource(observation))
+        }
+        return bundle
+    }
+}
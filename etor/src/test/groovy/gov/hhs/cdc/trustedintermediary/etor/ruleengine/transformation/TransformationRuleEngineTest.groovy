@@ -1,14 +1,21 @@
 package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation
 
 import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleDefinitionsWatcher
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleEngine
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoader
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoaderException
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudget
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException
 import gov.hhs.cdc.trustedintermediary.wrappers.HealthData
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference
+import org.hl7.fhir.r4.model.Bundle
 import spock.lang.Specification
 
+import java.nio.file.Files
+
 class TransformationRuleEngineTest extends Specification {
     def ruleEngine = TransformationRuleEngine.getInstance("transformation_definitions.json")
     def mockRuleLoader = Mock(RuleLoader)
@@ -22,6 +29,7 @@ class TransformationRuleEngineTest extends Specification {
         TestApplicationContext.init()
         TestApplicationContext.register(RuleLoader, mockRuleLoader)
         TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(RuleStatistics, RuleStatistics.getInstance())
         TestApplicationContext.register(RuleEngine, ruleEngine)
 
         TestApplicationContext.injectRegisteredImplementations()
@@ -134,6 +142,78 @@ class TransformationRuleEngineTest extends Specification {
         0 * mockLogger.logInfo(applyingTransformationMessage)
     }
 
+    def "runRules stops and throws when a rule runs out of its time budget"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(RuleTimeBudget.TransformationRule_TIME_BUDGET_PROPERTY, "1")
+        def fhirBundle = Mock(HealthData)
+        def slowRule = Mock(TransformationRule)
+        def nextRule = Mock(TransformationRule)
+        slowRule.getName() >> "slowRule"
+        slowRule.shouldRun(fhirBundle) >> {
+            Thread.sleep(10)
+            return true
+        }
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [slowRule, nextRule]
+
+        when:
+        ruleEngine.runRules(fhirBundle)
+
+        then:
+        def exception = thrown(RuleTimeBudgetExceededException)
+        exception.message.contains("slowRule")
+        0 * slowRule.runRule(_)
+        0 * nextRule.shouldRun(_)
+        RuleStatistics.getInstance().getSummary().engines.transformation.slowRule.budgetOverruns >= 1
+    }
+
+    def "runRules stops and throws when the rules run out of the message time budget"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(RuleTimeBudget.MESSAGE_TIME_BUDGET_PROPERTY, "5")
+        def fhirBundle = Mock(HealthData)
+        def firstRule = Mock(TransformationRule)
+        def secondRule = Mock(TransformationRule)
+        def thirdRule = Mock(TransformationRule)
+        firstRule.shouldRun(fhirBundle) >> true
+        firstRule.runRule(fhirBundle) >> { Thread.sleep(3) }
+        secondRule.getName() >> "secondRule"
+        secondRule.shouldRun(fhirBundle) >> true
+        secondRule.runRule(fhirBundle) >> { Thread.sleep(3) }
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [firstRule, secondRule, thirdRule]
+
+        when:
+        ruleEngine.runRules(fhirBundle)
+
+        then:
+        def exception = thrown(RuleTimeBudgetExceededException)
+        exception.message.contains("message budget")
+        0 * thirdRule.shouldRun(_)
+    }
+
+    def "runRules hands sampled messages and the rules that ran to the shadow runner"() {
+        given:
+        def mockShadowRunner = Mock(TransformationShadowRunner)
+        TestApplicationContext.register(TransformationShadowRunner, mockShadowRunner)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        def fhirBundle = Mock(HealthData)
+        def shadowRun = new TransformationShadowRunner.ShadowRun(new Bundle())
+        def skippedRule = Mock(TransformationRule)
+        mockRule.getName() >> "ruleA"
+        mockRule.shouldRun(fhirBundle) >> true
+        skippedRule.shouldRun(fhirBundle) >> false
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [mockRule, skippedRule]
+
+        when:
+        ruleEngine.runRules(fhirBundle)
+
+        then:
+        1 * mockShadowRunner.begin(fhirBundle) >> shadowRun
+        1 * mockShadowRunner.complete(shadowRun, fhirBundle, ["ruleA"], _ as Long)
+
+        cleanup:
+        ruleEngine.shadowRunner = null
+    }
+
     def "runRules logs an error and doesn't run any rules when there's a RuleLoaderException"() {
         given:
         def exception = new RuleLoaderException("Error loading rules", new Exception())
@@ -145,4 +225,98 @@ class TransformationRuleEngineTest extends Specification {
         then:
         1 * mockLogger.logError(_ as String, exception)
     }
+
+    def "ensureRulesLoaded prepares the transformations of each rule"() {
+        given:
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [mockRule]
+
+        when:
+        ruleEngine.ensureRulesLoaded()
+
+        then:
+        1 * mockRule.prepareTransformations()
+        ruleEngine.getRules() == [mockRule]
+    }
+
+    def "ensureRulesLoaded throws and doesn't load the rules when a rule has invalid transformation args"() {
+        given:
+        def exception = new RuleLoaderException("Rule [bad]: Unable to prepare transformation", new Exception())
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [mockRule]
+        mockRule.prepareTransformations() >> { throw exception }
+
+        when:
+        ruleEngine.ensureRulesLoaded()
+
+        then:
+        def thrownException = thrown(RuleLoaderException)
+        thrownException == exception
+        ruleEngine.getRules().isEmpty()
+    }
+
+    def "reloadRules swaps in the new rules"() {
+        given:
+        def newRule = Mock(TransformationRule)
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >>> [[mockRule], [newRule]]
+
+        when:
+        ruleEngine.ensureRulesLoaded()
+        def rulesBeforeReload = ruleEngine.getRules()
+        ruleEngine.reloadRules()
+
+        then:
+        rulesBeforeReload == [mockRule]
+        ruleEngine.getRules() == [newRule]
+    }
+
+    def "reloadRules keeps the current rules when the new definitions fail to load"() {
+        given:
+        def exception = new RuleLoaderException("Error loading rules", new Exception())
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [mockRule] >> { throw exception }
+
+        when:
+        ruleEngine.ensureRulesLoaded()
+        ruleEngine.reloadRules()
+
+        then:
+        thrown(RuleLoaderException)
+        ruleEngine.getRules() == [mockRule]
+    }
+
+    def "getRules returns an immutable snapshot"() {
+        given:
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [mockRule]
+        ruleEngine.ensureRulesLoaded()
+
+        when:
+        ruleEngine.getRules().add(Mock(TransformationRule))
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "ensureRulesLoaded prefers the definitions in the external rule definitions directory"() {
+        given:
+        def directory = Files.createTempDirectory("rule_definitions")
+        Files.writeString(directory.resolve("transformation_definitions.json"), """{ "definitions": [] }""")
+        TestApplicationContext.addEnvironmentVariable("RULE_DEFINITIONS_DIRECTORY", directory.toString())
+        def mockWatcher = Mock(RuleDefinitionsWatcher)
+        TestApplicationContext.register(RuleDefinitionsWatcher, mockWatcher)
+        TestApplicationContext.injectRegisteredImplementations()
+        String loadedDefinitions = null
+
+        when:
+        ruleEngine.ensureRulesLoaded()
+
+        then:
+        1 * mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> { InputStream stream, TypeReference type ->
+            loadedDefinitions = new String(stream.readAllBytes())
+            return [mockRule]
+        }
+        1 * mockWatcher.watch(directory.resolve("transformation_definitions.json"), _ as Runnable)
+        loadedDefinitions == """{ "definitions": [] }"""
+        ruleEngine.getRules() == [mockRule]
+
+        cleanup:
+        directory.toFile().deleteDir()
+    }
 }
@@ -11,6 +11,10 @@ import gov.hhs.cdc.trustedintermediary.wrappers.HealthDataExpressionEvaluator
 import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirImplementation
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.custom.PreparedCustomTransformationMockClass
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoaderException
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudget
 import org.hl7.fhir.r4.model.Bundle
 import org.hl7.fhir.r4.model.MessageHeader
 import spock.lang.Specification
@@ -22,6 +26,7 @@ class TransformationRuleTest extends Specification {
         TestApplicationContext.reset()
         TestApplicationContext.init()
         TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(RuleStatistics, RuleStatistics.getInstance())
         TestApplicationContext.register(HealthDataExpressionEvaluator, HapiFhirImplementation.getInstance())
         TestApplicationContext.injectRegisteredImplementations()
     }
@@ -72,6 +77,30 @@ class TransformationRuleTest extends Specification {
         messageHeader.getEventCoding().getCode() == "mock_code"
     }
 
+    def "runRule skips the remaining transformations when the time budget bound to the thread is exceeded"() {
+        given:
+        def ruleActions = [
+            new TransformationRuleMethod("HappyPathCustomTransformationMockClass", null)
+        ]
+        def rule = new TransformationRule("Rule name", "Rule Description", "Rule Warning Message", [], ruleActions)
+        def fhirResource = new HealthDataMock(HapiFhirHelper.createMessageBundle(new HashMap()))
+        def exceededBudget = new RuleTimeBudget(1, 0)
+        Thread.sleep(1)
+
+        when:
+        RuleTimeBudget.setCurrent(exceededBudget)
+        try {
+            rule.runRule(fhirResource)
+        } finally {
+            RuleTimeBudget.clearCurrent()
+        }
+
+        then:
+        1 * mockLogger.logWarning(_ as String, "Rule name")
+        def messageHeader = HapiHelper.resourceInBundle(fhirResource.getUnderlyingData() as Bundle, MessageHeader.class) as MessageHeader
+        messageHeader.getEventCoding().getCode() != "mock_code"
+    }
+
     def "runRule logs an error and continues when an invalid class is given as input"() {
         given:
         def ruleName = "Rule name"
@@ -170,4 +199,54 @@ class TransformationRuleTest extends Specification {
         then:
         1 * mockLogger.logError(_ as String)
     }
+
+    def "prepareTransformations throws a RuleLoaderException naming the rule when the args are invalid"() {
+        given:
+        def rule = new TransformationRule("Bad args rule", null, null, ["condition"], [
+            new TransformationRuleMethod("RemoveObservationRequests", ["universalServiceIdentifier": ["not", "a", "string"]])
+        ])
+
+        when:
+        rule.prepareTransformations()
+
+        then:
+        def exception = thrown(RuleLoaderException)
+        exception.message.contains("Bad args rule")
+        exception.message.contains("RemoveObservationRequests")
+        exception.cause instanceof ClassCastException
+    }
+
+    def "prepareTransformations throws a RuleLoaderException when the transformation doesn't exist"() {
+        given:
+        def rule = new TransformationRule("Missing class rule", null, null, ["condition"], [
+            new TransformationRuleMethod("DoesNotCompute", null)
+        ])
+
+        when:
+        rule.prepareTransformations()
+
+        then:
+        def exception = thrown(RuleLoaderException)
+        exception.message.contains("Missing class rule")
+    }
+
+    def "runRule prepares the args once and reuses them for each message"() {
+        given:
+        def rule = new TransformationRule("Prepared rule", null, null, ["condition"], [
+            new TransformationRuleMethod("PreparedCustomTransformationMockClass", ["value": "prepared"])
+        ])
+        PreparedCustomTransformationMockClass.prepareCount.set(0)
+        rule.prepareTransformations()
+        def firstResource = new HealthDataMock(HapiFhirHelper.createMessageBundle(new HashMap()))
+        def secondResource = new HealthDataMock(HapiFhirHelper.createMessageBundle(new HashMap()))
+
+        when:
+        rule.runRule(firstResource)
+        rule.runRule(secondResource)
+
+        then:
+        PreparedCustomTransformationMockClass.prepareCount.get() == 1
+        (firstResource.getUnderlyingData() as Bundle).getId() == "prepared"
+        (secondResource.getUnderlyingData() as Bundle).getId() == "prepared"
+    }
 }
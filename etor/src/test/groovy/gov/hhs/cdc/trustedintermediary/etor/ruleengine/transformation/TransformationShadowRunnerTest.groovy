@@ -0,0 +1,182 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.custom.HappyPathCustomTransformationMockClass
+import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirHelper
+import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirImplementation
+import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirResource
+import gov.hhs.cdc.trustedintermediary.external.jackson.Jackson
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleDefinitionsWatcher
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoader
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics
+import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir
+import gov.hhs.cdc.trustedintermediary.wrappers.HealthDataExpressionEvaluator
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import gov.hhs.cdc.trustedintermediary.wrappers.MetricMetadata
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class TransformationShadowRunnerTest extends Specification {
+
+    def shadowRunner = TransformationShadowRunner.getInstance()
+    def mockLogger = Mock(Logger)
+    def mockWatcher = Mock(RuleDefinitionsWatcher)
+    Path directory
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.register(HapiFhir, HapiFhirImplementation.getInstance())
+        TestApplicationContext.register(HealthDataExpressionEvaluator, HapiFhirImplementation.getInstance())
+        TestApplicationContext.register(RuleLoader, RuleLoader.getInstance())
+        TestApplicationContext.register(RuleStatistics, RuleStatistics.getInstance())
+        TestApplicationContext.register(RuleDefinitionsWatcher, mockWatcher)
+        TestApplicationContext.register(TransformationShadowRunner, shadowRunner)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        directory = Files.createTempDirectory("shadow_definitions")
+        Files.writeString(directory.resolve("shadow_definitions.json"), """{
+            "definitions": [
+                {
+                    "name": "setMessageType",
+                    "description": "Sets the message type",
+                    "message": "",
+                    "conditions": [],
+                    "rules": [ { "name": "HappyPathCustomTransformationMockClass", "args": {} } ]
+                }
+            ]
+        }""")
+        TestApplicationContext.addEnvironmentVariable(RuleDefinitionsWatcher.RULE_DEFINITIONS_DIRECTORY, directory.toString())
+        TestApplicationContext.addEnvironmentVariable(TransformationShadowRunner.SHADOW_DEFINITIONS_PROPERTY, "shadow_definitions.json")
+        TestApplicationContext.addEnvironmentVariable(TransformationShadowRunner.SHADOW_SAMPLE_RATE_PROPERTY, "1")
+
+        shadowRunner.reset()
+    }
+
+    def cleanup() {
+        shadowRunner.reset()
+        directory.toFile().deleteDir()
+    }
+
+    def "begin doesn't sample messages when shadow mode is off"() {
+        given:
+        TestApplicationContext.reset()
+        TestApplicationContext.addEnvironmentVariable(TransformationShadowRunner.SHADOW_SAMPLE_RATE_PROPERTY, "1")
+
+        expect:
+        shadowRunner.begin(new HapiFhirResource(HapiFhirHelper.createMessageBundle([:]))) == null
+        !shadowRunner.getSummary().enabled
+    }
+
+    def "begin doesn't sample messages outside of the sample rate"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(TransformationShadowRunner.SHADOW_SAMPLE_RATE_PROPERTY, "0")
+
+        expect:
+        shadowRunner.begin(new HapiFhirResource(HapiFhirHelper.createMessageBundle([:]))) == null
+    }
+
+    def "begin copies the bundle before the primary engine runs"() {
+        given:
+        def bundle = HapiFhirHelper.createMessageBundle([:])
+
+        when:
+        def shadowRun = shadowRunner.begin(new HapiFhirResource(bundle))
+
+        then:
+        shadowRun != null
+        !shadowRun.input().is(bundle)
+        shadowRun.input().equalsDeep(bundle)
+    }
+
+    def "complete counts a match when both engines produce the same bundle"() {
+        given:
+        def resource = new HapiFhirResource(HapiFhirHelper.createMessageBundle([:]))
+        def shadowRun = shadowRunner.begin(resource)
+        new HappyPathCustomTransformationMockClass().transform(resource, [:])
+
+        when:
+        shadowRunner.complete(shadowRun, resource, ["setMessageType"], 1_000)
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            assert shadowRunner.getSummary().matches == 1
+        }
+        shadowRunner.getSummary().mismatches == 0
+        shadowRunner.getSummary().primaryLatency.count == 1
+        shadowRunner.getSummary().shadowLatency.count == 1
+    }
+
+    def "complete logs the rule traces when the engines produce different bundles"() {
+        given:
+        def resource = new HapiFhirResource(HapiFhirHelper.createMessageBundle([:]))
+        def shadowRun = shadowRunner.begin(resource)
+        def warnings = [].asSynchronized()
+        mockLogger.logWarning(_ as String, _, _, _) >> { String message, Object[] params -> warnings.add(params.toList()) }
+
+        when:
+        shadowRunner.complete(shadowRun, resource, [], 1_000)
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            assert shadowRunner.getSummary().mismatches == 1
+            assert warnings.any { it[1] == [] && it[2] == ["setMessageType"] }
+        }
+    }
+
+    def "the primary engine runs the shadow engine for sampled messages"() {
+        given:
+        def primaryEngine = TransformationRuleEngine.getInstance("transformation_definitions.json")
+        TestApplicationContext.register(TransformationRuleEngine, primaryEngine)
+        TestApplicationContext.register(MetricMetadata, Mock(MetricMetadata))
+        TestApplicationContext.injectRegisteredImplementations()
+        primaryEngine.unloadRules()
+
+        when:
+        primaryEngine.runRules(new HapiFhirResource(HapiFhirHelper.createMessageBundle(messageTypeCode: 'ORM_O01')))
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            def summary = shadowRunner.getSummary()
+            assert summary.matches + summary.mismatches == 1
+        }
+        shadowRunner.getSummary().primaryLatency.count == 1
+        RuleStatistics.getInstance().getSummary().engines[TransformationRuleEngine.SHADOW_ENGINE_NAME].setMessageType.evaluations >= 1
+    }
+
+    def "changing the shadow definitions stops watching the replaced engine's definitions"() {
+        given:
+        Files.copy(directory.resolve("shadow_definitions.json"), directory.resolve("other_shadow_definitions.json"))
+        def watched = [].asSynchronized()
+        def unwatched = [].asSynchronized()
+        mockWatcher.watch(_ as Path, _ as Runnable) >> { Path file, Runnable listener -> watched.add([file.fileName.toString(), listener]) }
+        mockWatcher.unwatch(_ as Path, _ as Runnable) >> { Path file, Runnable listener -> unwatched.add([file.fileName.toString(), listener]) }
+        def resource = new HapiFhirResource(HapiFhirHelper.createMessageBundle([:]))
+        shadowRunner.complete(shadowRunner.begin(resource), resource, [], 1_000)
+        new PollingConditions(timeout: 10).eventually {
+            def summary = shadowRunner.getSummary()
+            assert summary.matches + summary.mismatches == 1
+        }
+
+        when:
+        TestApplicationContext.addEnvironmentVariable(TransformationShadowRunner.SHADOW_DEFINITIONS_PROPERTY, "other_shadow_definitions.json")
+        shadowRunner.complete(shadowRunner.begin(resource), resource, [], 1_000)
+
+        then:
+        new PollingConditions(timeout: 10).eventually {
+            def summary = shadowRunner.getSummary()
+            assert summary.matches + summary.mismatches == 2
+        }
+        watched*.get(0) == [
+            "shadow_definitions.json",
+            "other_shadow_definitions.json"
+        ]
+        unwatched == [watched[0]]
+    }
+}
@@ -0,0 +1,180 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.external.jackson.Jackson
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleDefinitionsWatcher
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class CodeMapRegistryTest extends Specification {
+
+    def registry = CodeMapRegistry.getInstance()
+    def mockWatcher = Mock(RuleDefinitionsWatcher)
+    Path directory
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, Mock(Logger))
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.register(RuleDefinitionsWatcher, mockWatcher)
+        TestApplicationContext.register(CodeMapRegistry, registry)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        directory = Files.createTempDirectory("code_maps")
+        TestApplicationContext.addEnvironmentVariable(RuleDefinitionsWatcher.RULE_DEFINITIONS_DIRECTORY, directory.toString())
+
+        registry.clear()
+    }
+
+    def cleanup() {
+        registry.clear()
+        directory.toFile().deleteDir()
+    }
+
+    def "getCodeMap loads a CSV code map"() {
+        given:
+        Files.writeString(directory.resolve("lab.csv"), """localCode,code,display,codingSystem
+99717-32,85269-9,"X-linked Adrenoleukodystrophy (X- ALD) newborn screen, interpretation",LN
+
+99717-34,PLT325,"ABCD1 gene ""mutation"" found",PLT
+""")
+
+        when:
+        def codeMap = registry.getCodeMap("lab.csv")
+
+        then:
+        codeMap.size() == 2
+        codeMap.lookup("99717-32").display() == "X-linked Adrenoleukodystrophy (X- ALD) newborn screen, interpretation"
+        codeMap.lookup("99717-34").display() == 'ABCD1 gene "mutation" found'
+        codeMap.lookup("99717-34").codingSystem() == "PLT"
+    }
+
+    def "getCodeMap loads a JSON code map"() {
+        given:
+        Files.writeString(directory.resolve("lab.json"), """{
+            "99717-32": { "code": "85269-9", "display": "X-linked Adrenoleukodystrophy", "codingSystem": "LN" }
+        }""")
+
+        when:
+        def codeMap = registry.getCodeMap("lab.json")
+
+        then:
+        codeMap.size() == 1
+        codeMap.lookup("99717-32").code() == "85269-9"
+    }
+
+    def "getCodeMap shares the code map between callers and watches its file"() {
+        given:
+        Files.writeString(directory.resolve("lab.csv"), "localCode,code,display,codingSystem\n1,2,three,LN\n")
+
+        when:
+        def first = registry.getCodeMap("lab.csv")
+        def second = registry.getCodeMap("lab.csv")
+
+        then:
+        first.is(second)
+        1 * mockWatcher.watch(directory.resolve("lab.csv"), _ as Runnable)
+    }
+
+    def "clear stops watching the files of the loaded code maps"() {
+        given:
+        Files.writeString(directory.resolve("lab.csv"), "localCode,code,display,codingSystem\n1,2,three,LN\n")
+        Runnable listener = null
+        mockWatcher.watch(directory.resolve("lab.csv"), _ as Runnable) >> { Path file, Runnable onChange -> listener = onChange }
+        registry.getCodeMap("lab.csv")
+
+        when:
+        registry.clear()
+
+        then:
+        1 * mockWatcher.unwatch(directory.resolve("lab.csv"), { it.is(listener) })
+    }
+
+    def "a changed file is reloaded in place and a broken file keeps the current codes"() {
+        given:
+        def file = directory.resolve("lab.csv")
+        Files.writeString(file, "localCode,code,display,codingSystem\n1,2,three,LN\n")
+        Runnable onChange = null
+        mockWatcher.watch(_ as Path, _ as Runnable) >> { Path path, Runnable listener -> onChange = listener }
+        def codeMap = registry.getCodeMap("lab.csv")
+
+        when:
+        Files.writeString(file, "localCode,code,display,codingSystem\n1,4,five,PLT\n6,7,eight,LN\n")
+        onChange.run()
+
+        then:
+        codeMap.size() == 2
+        codeMap.lookup("1").code() == "4"
+
+        when:
+        Files.writeString(file, "not,the,right,header\n")
+        onChange.run()
+
+        then:
+        codeMap.size() == 2
+        codeMap.lookup("6").code() == "7"
+    }
+
+    def "getCodeMap rejects malformed CSV files"() {
+        given:
+        Files.writeString(directory.resolve("lab.csv"), content)
+
+        when:
+        registry.getCodeMap("lab.csv")
+
+        then:
+        def exception = thrown(IllegalArgumentException)
+        exception.message.contains(message)
+
+        where:
+        content                                                            | message
+        "code,display\n1,2\n"                                              | "header"
+        "localCode,code,display,codingSystem\n1,2,3\n"                      | "has 3 fields"
+        "localCode,code,display,codingSystem\n1,2,3,LN\n1,4,5,LN\n"         | "repeats local code 1"
+        "localCode,code,display,codingSystem\n1,2,,LN\n"                    | "display"
+    }
+
+    def "getCodeMap accepts a CSV header with a byte order mark"() {
+        given:
+        Files.writeString(directory.resolve("lab.csv"), "\uFEFFlocalCode,code,display,codingSystem\n1,2,three,LN\n")
+
+        expect:
+        registry.getCodeMap("lab.csv").size() == 1
+    }
+
+    def "getCodeMap throws a FileNotFoundException when the code map doesn't exist"() {
+        when:
+        registry.getCodeMap("missing.csv")
+
+        then:
+        thrown(FileNotFoundException)
+    }
+
+    def "getCodeMap rejects unsupported file formats"() {
+        given:
+        Files.writeString(directory.resolve("lab.txt"), "1,2,3,LN")
+
+        when:
+        registry.getCodeMap("lab.txt")
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "parseCsvLine splits quoted and unquoted fields"() {
+        expect:
+        CodeMapRegistry.parseCsvLine(line) == fields
+
+        where:
+        line                      | fields
+        "a,b,c"                   | ["a", "b", "c"]
+        '"a,b",c'                 | ["a,b", "c"]
+        '"say ""hi""",x'          | ['say "hi"', "x"]
+        " a , b ,"                | ["a", "b", ""]
+    }
+}
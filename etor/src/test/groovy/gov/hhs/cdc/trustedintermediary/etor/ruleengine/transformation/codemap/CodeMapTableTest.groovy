@@ -0,0 +1,68 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap
+
+import gov.hhs.cdc.trustedintermediary.etor.messages.IdentifierCode
+import spock.lang.Specification
+
+class CodeMapTableTest extends Specification {
+
+    def "lookup returns the mapped code for every local code"() {
+        given:
+        def mappings = (1..20_000).collectEntries { index ->
+            ["local-" + index, new IdentifierCode("code-" + index, "display " + index, index % 2 == 0 ? "LN" : "PLT")]
+        }
+
+        when:
+        def table = CodeMapTable.from(mappings)
+
+        then:
+        table.size() == 20_000
+        mappings.every { localCode, identifierCode -> table.lookup(localCode) == identifierCode }
+    }
+
+    def "lookup returns null for unmapped or null codes"() {
+        given:
+        def table = CodeMapTable.from(["99717-32": new IdentifierCode("85269-9", "display", "LN")])
+
+        expect:
+        table.lookup("99717-33") == null
+        table.lookup(null) == null
+    }
+
+    def "lookup handles local codes whose hashes collide"() {
+        given:
+        // "Aa" and "BB" have the same String hash code
+        def table = CodeMapTable.from([
+            "Aa": new IdentifierCode("1", "first", "LN"),
+            "BB": new IdentifierCode("2", "second", "LN")
+        ])
+
+        expect:
+        table.lookup("Aa").code() == "1"
+        table.lookup("BB").code() == "2"
+    }
+
+    def "from interns the strings so tables share them"() {
+        given:
+        def first = CodeMapTable.from(["a": new IdentifierCode(new String("85269-9"), new String("display"), new String("LN"))])
+        def second = CodeMapTable.from(["b": new IdentifierCode(new String("85269-9"), new String("display"), new String("LN"))])
+
+        expect:
+        first.lookup("a").code().is(second.lookup("b").code())
+        first.lookup("a").codingSystem().is(second.lookup("b").codingSystem())
+    }
+
+    def "from throws an IllegalArgumentException when a field is missing"() {
+        when:
+        CodeMapTable.from(["99717-32": new IdentifierCode("85269-9", null, "LN")])
+
+        then:
+        def exception = thrown(IllegalArgumentException)
+        exception.message.contains("display")
+    }
+
+    def "empty table has no codes"() {
+        expect:
+        CodeMapTable.from([:]).size() == 0
+        CodeMapTable.empty().lookup("anything") == null
+    }
+}
@@ -2,6 +2,10 @@ package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.custom
 
 import gov.hhs.cdc.trustedintermediary.ExamplesHelper
 import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.etor.messages.IdentifierCode
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.ParallelResourceTransformer
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap.CodeMapRegistry
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.codemap.CodeMapTable
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirHelper
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirResource
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiHelper
@@ -9,6 +13,7 @@ import gov.hhs.cdc.trustedintermediary.wrappers.Logger
 import org.hl7.fhir.r4.model.Bundle
 import org.hl7.fhir.r4.model.Coding
 import org.hl7.fhir.r4.model.Extension
+import org.hl7.fhir.r4.model.Identifier
 import org.hl7.fhir.r4.model.Observation
 import org.hl7.fhir.r4.model.StringType
 import spock.lang.Specification
@@ -352,6 +357,102 @@ class MapLocalObservationCodesTest extends Specification {
         exception.message.contains(exceptionMessage)
     }
 
+    def "prepare validates the codingMap once and builds a lookup table"() {
+        when:
+        def codingMap = transformClass.prepare(getArgs())
+
+        then:
+        codingMap.codes().size() == 4
+        codingMap.codes().lookup("99717-34").code() == "PLT325"
+        codingMap.codes().lookup("99717-34").codingSystem() == "PLT"
+        codingMap.codes().lookup("not-mapped") == null
+    }
+
+    def "prepare loads the codingMapFile from the code map registry"() {
+        given:
+        def mockRegistry = Mock(CodeMapRegistry)
+        def codeMap = CodeMapTable.from(["99717-32": new IdentifierCode("85269-9", "X-linked Adrenoleukodystrophy", "LN")])
+        TestApplicationContext.register(CodeMapRegistry, mockRegistry)
+
+        when:
+        def codingMap = transformClass.prepare(["codingMapFile": "code_maps/lab.csv"])
+
+        then:
+        1 * mockRegistry.getCodeMap("code_maps/lab.csv") >> codeMap
+        codingMap.codes() == codeMap
+    }
+
+    def "prepare throws an IllegalArgumentException when both codingMap and codingMapFile are given"() {
+        when:
+        transformClass.prepare(getArgs() + ["codingMapFile": "code_maps/lab.csv"])
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "prepare throws an UncheckedIOException when the codingMapFile can't be read"() {
+        given:
+        def mockRegistry = Mock(CodeMapRegistry)
+        mockRegistry.getCodeMap(_ as String) >> { throw new FileNotFoundException("missing") }
+        TestApplicationContext.register(CodeMapRegistry, mockRegistry)
+
+        when:
+        transformClass.prepare(["codingMapFile": "code_maps/missing.csv"])
+
+        then:
+        thrown(UncheckedIOException)
+    }
+
+    def "apply uses the prepared codingMap for each message"() {
+        given:
+        def codingMap = transformClass.prepare(getArgs())
+        def firstBundle = createBundleWithObservation("99717-32", "Adrenoleukodystrophy deficiency newborn screening interpretation", true)
+        def secondBundle = createBundleWithObservation("99717-34", "ABCD1 gene mutation found", true)
+
+        when:
+        transformClass.apply(new HapiFhirResource(firstBundle), codingMap)
+        transformClass.apply(new HapiFhirResource(secondBundle), codingMap)
+
+        then:
+        HapiHelper.resourceInBundle(firstBundle, Observation).getCode().getCoding()[0].code == "85269-9"
+        HapiHelper.resourceInBundle(secondBundle, Observation).getCode().getCoding()[0].code == "PLT325"
+    }
+
+    def "prepareBundle reads the message id for the bundle and keeps the prepared codingMap"() {
+        given:
+        def codingMap = transformClass.prepare(getArgs())
+        def bundle = createBundleWithObservation("UNMAPPED", "An unmapped local code", true)
+        bundle.setIdentifier(new Identifier().setValue("messageId"))
+
+        when:
+        def bundleCodingMap = transformClass.prepareBundle(bundle, codingMap)
+
+        then:
+        bundleCodingMap.codes() == codingMap.codes()
+        bundleCodingMap.messageId() == "messageId"
+        bundleCodingMap.msh41Identifier() == null
+    }
+
+    def "apply logs the message id read before the observations are mapped in parallel"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ParallelResourceTransformer.PARALLEL_THRESHOLD_PROPERTY, "1")
+        def bundle = createBundleWithObservation("UNMAPPED", "An unmapped local code", true)
+        bundle.setIdentifier(new Identifier().setValue("messageId"))
+        39.times {
+            def observation = new Observation()
+            observation.code.addCoding(createCoding("UNMAPPED", "An unmapped local code", true, "alt-coding"))
+            bundle.addEntry(new Bundle.BundleEntryComponent().setResource(observation))
+        }
+        def entriesBefore = bundle.getEntry().size()
+
+        when:
+        transformClass.apply(new HapiFhirResource(bundle), transformClass.prepare(getArgs()))
+
+        then:
+        40 * mockLogger.logWarning(_ as String, "UNMAPPED", null, "messageId")
+        bundle.getEntry().size() == entriesBefore
+    }
+
     Observation getObservationByCode(List<Observation> observationList, String code) {
         return observationList.find {observation -> observation.code?.coding?.find { coding -> coding.code == code}}
     }
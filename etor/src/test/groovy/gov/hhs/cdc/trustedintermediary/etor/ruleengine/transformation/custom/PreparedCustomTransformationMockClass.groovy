@@ -0,0 +1,24 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.custom
+
+import gov.hhs.cdc.trustedintermediary.etor.ruleengine.transformation.PreparedFhirTransformation
+import gov.hhs.cdc.trustedintermediary.wrappers.HealthData
+import org.hl7.fhir.r4.model.Bundle
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class PreparedCustomTransformationMockClass implements PreparedFhirTransformation<String> {
+
+    static final AtomicInteger prepareCount = new AtomicInteger()
+
+    @Override
+    String prepare(final Map<String, Object> args) {
+        prepareCount.incrementAndGet()
+        return args.get("value") as String
+    }
+
+    @Override
+    void apply(final HealthData<?> data, final String preparedArgs) {
+        Bundle bundle = (Bundle) data.getUnderlyingData()
+        bundle.setId(preparedArgs)
+    }
+}
@@ -175,6 +175,26 @@ class RemoveObservationByCodeTest extends Specification {
         HapiHelper.resourcesInBundle(bundle, Observation.class).count() == 113
     }
 
+    def "removes the same observations and keeps the entry order whether run sequentially or in parallel"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable("TRANSFORMATION_PARALLEL_THRESHOLD", threshold)
+
+        final String FHIR_ORU_PATH = "../CA/020_CA_ORU_R01_CDPH_OBX_to_LOINC_1_hl7_translation.fhir"
+        def bundle = ExamplesHelper.getExampleFhirResource(FHIR_ORU_PATH).getUnderlyingData() as Bundle
+        def expectedEntries = bundle.entry.findAll {
+            !(it.resource instanceof Observation && HapiHelper.hasMatchingCoding(it.resource as Observation, "99717-5", "alt-coding", "L"))
+        }*.resource
+
+        when:
+        transformClass.transform(new HapiFhirResource(bundle), getArgs("99717-5", "L", "alt-coding"))
+
+        then:
+        bundle.entry*.resource == expectedEntries
+
+        where:
+        threshold << ["1", "100000"]
+    }
+
     void addCodingToObservation(Observation observation, String code, String codingSystemExtension, String codingExtension) {
         def coding = new Coding()
 
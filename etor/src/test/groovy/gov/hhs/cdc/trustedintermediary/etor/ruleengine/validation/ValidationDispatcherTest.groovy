@@ -0,0 +1,153 @@
+package gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import org.hl7.fhir.r4.model.Bundle
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class ValidationDispatcherTest extends Specification {
+
+    def dispatcher = ValidationDispatcher.getInstance()
+    def mockEngine = Mock(ValidationRuleEngine)
+    def mockLogger = Mock(Logger)
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(ValidationRuleEngine, mockEngine)
+        TestApplicationContext.register(ValidationDispatcher, dispatcher)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        dispatcher.reset()
+    }
+
+    def cleanup() {
+        dispatcher.reset()
+    }
+
+    def "validate runs the rules on the request thread against the bundle by default"() {
+        given:
+        def bundle = new Bundle()
+        def validatingThread = null
+
+        when:
+        dispatcher.validate(bundle)
+
+        then:
+        1 * mockEngine.runRules({ it.getUnderlyingData().is(bundle) }) >> { validatingThread = Thread.currentThread() }
+        validatingThread == Thread.currentThread()
+        dispatcher.getSummary().mode == "sync"
+        dispatcher.getSummary().validated == 1
+    }
+
+    def "validate runs the rules in the background against a copy of the bundle in async mode"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ValidationDispatcher.VALIDATION_MODE_PROPERTY, "async")
+        def bundle = new Bundle()
+        bundle.setId("bundle-id")
+        def validatedBundle = null
+        def validatingThread = null
+        mockEngine.runRules(_) >> { args ->
+            validatingThread = Thread.currentThread()
+            validatedBundle = args[0].getUnderlyingData()
+        }
+
+        when:
+        dispatcher.validate(bundle)
+
+        then:
+        new PollingConditions(timeout: 5).eventually {
+            assert dispatcher.getSummary().validated == 1
+        }
+        !validatedBundle.is(bundle)
+        validatedBundle.getId() == bundle.getId()
+        validatingThread.getName().startsWith("validation-worker-")
+        dispatcher.getSummary().mode == "async"
+    }
+
+    def "validate skips messages that aren't sampled in async mode"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ValidationDispatcher.VALIDATION_MODE_PROPERTY, "async")
+        TestApplicationContext.addEnvironmentVariable(ValidationDispatcher.VALIDATION_SAMPLE_RATE_PROPERTY, "0")
+
+        when:
+        3.times { dispatcher.validate(new Bundle()) }
+
+        then:
+        0 * mockEngine.runRules(_)
+        dispatcher.getSummary().sampledOut == 3
+    }
+
+    def "validate drops messages when the queue is full"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ValidationDispatcher.VALIDATION_MODE_PROPERTY, "async")
+        TestApplicationContext.addEnvironmentVariable(ValidationDispatcher.VALIDATION_THREADS_PROPERTY, "1")
+        TestApplicationContext.addEnvironmentVariable(ValidationDispatcher.VALIDATION_QUEUE_SIZE_PROPERTY, "1")
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        mockEngine.runRules(_) >> {
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+        }
+
+        when:
+        dispatcher.validate(new Bundle())
+        started.await(5, TimeUnit.SECONDS)
+        dispatcher.validate(new Bundle())
+        dispatcher.validate(new Bundle())
+        dispatcher.validate(new Bundle())
+        release.countDown()
+
+        then:
+        dispatcher.getSummary().dropped == 2
+        2 * mockLogger.logWarning(_ as String, _)
+        new PollingConditions(timeout: 5).eventually {
+            assert dispatcher.getSummary().validated == 2
+        }
+    }
+
+    def "validate counts and logs failures of the rule engine"() {
+        given:
+        mockEngine.runRules(_) >> { throw new IllegalStateException("broken rule") }
+
+        when:
+        dispatcher.validate(new Bundle())
+
+        then:
+        dispatcher.getSummary().failed == 1
+        1 * mockLogger.logError(_ as String, _ as IllegalStateException)
+    }
+
+    def "validate counts and logs validations that run out of time"() {
+        given:
+        mockEngine.runRules(_) >> { throw new RuleTimeBudgetExceededException("Rule [slow] ran for 3000 ms") }
+
+        when:
+        dispatcher.validate(new Bundle())
+
+        then:
+        dispatcher.getSummary().failed == 1
+        1 * mockLogger.logWarning(_ as String, _, "Rule [slow] ran for 3000 ms")
+    }
+
+    def "an invalid sample rate validates every message"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ValidationDispatcher.VALIDATION_MODE_PROPERTY, "async")
+        TestApplicationContext.addEnvironmentVariable(ValidationDispatcher.VALIDATION_SAMPLE_RATE_PROPERTY, "sometimes")
+
+        when:
+        dispatcher.validate(new Bundle())
+
+        then:
+        dispatcher.getSummary().sampledOut == 0
+        new PollingConditions(timeout: 5).eventually {
+            assert dispatcher.getSummary().validated == 1
+        }
+    }
+}
@@ -4,6 +4,7 @@ import gov.hhs.cdc.trustedintermediary.ExamplesHelper
 
 import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoader
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirHelper
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirImplementation
 import gov.hhs.cdc.trustedintermediary.external.hapi.HapiFhirResource
@@ -31,6 +32,7 @@ class ValidationRuleEngineIntegrationTest extends Specification {
         TestApplicationContext.register(RuleLoader, RuleLoader.getInstance())
         TestApplicationContext.register(HealthDataExpressionEvaluator, HapiFhirImplementation.getInstance())
         TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(RuleStatistics, RuleStatistics.getInstance())
 
         TestApplicationContext.injectRegisteredImplementations()
     }
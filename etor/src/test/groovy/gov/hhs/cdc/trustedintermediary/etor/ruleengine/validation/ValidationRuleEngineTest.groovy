@@ -1,14 +1,20 @@
 package gov.hhs.cdc.trustedintermediary.etor.ruleengine.validation
 
 import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleDefinitionsWatcher
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleEngine
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoader
 import gov.hhs.cdc.trustedintermediary.ruleengine.RuleLoaderException
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleStatistics
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudget
+import gov.hhs.cdc.trustedintermediary.ruleengine.RuleTimeBudgetExceededException
 import gov.hhs.cdc.trustedintermediary.wrappers.HealthData
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference
 import spock.lang.Specification
 
+import java.nio.file.Files
+
 class ValidationRuleEngineTest extends Specification {
     def ruleEngine = ValidationRuleEngine.getInstance("validation_definitions.json")
     def mockRuleLoader = Mock(RuleLoader)
@@ -22,6 +28,7 @@ class ValidationRuleEngineTest extends Specification {
         TestApplicationContext.init()
         TestApplicationContext.register(RuleLoader, mockRuleLoader)
         TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(RuleStatistics, RuleStatistics.getInstance())
         TestApplicationContext.register(RuleEngine, ruleEngine)
 
         TestApplicationContext.injectRegisteredImplementations()
@@ -135,6 +142,53 @@ class ValidationRuleEngineTest extends Specification {
         0 * mockLogger.logWarning(fullFailedValidationMessage)
     }
 
+    def "runRules stops and throws when a rule runs out of its time budget"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(RuleTimeBudget.ValidationRule_TIME_BUDGET_PROPERTY, "1")
+        def fhirBundle = Mock(HealthData)
+        def slowRule = Mock(ValidationRule)
+        def nextRule = Mock(ValidationRule)
+        slowRule.getName() >> "slowRule"
+        slowRule.shouldRun(fhirBundle) >> {
+            Thread.sleep(10)
+            return true
+        }
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [slowRule, nextRule]
+
+        when:
+        ruleEngine.runRules(fhirBundle)
+
+        then:
+        def exception = thrown(RuleTimeBudgetExceededException)
+        exception.message.contains("slowRule")
+        0 * slowRule.runRule(_)
+        0 * nextRule.shouldRun(_)
+        RuleStatistics.getInstance().getSummary().engines.validation.slowRule.budgetOverruns >= 1
+    }
+
+    def "runRules stops and throws when the rules run out of the message time budget"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(RuleTimeBudget.MESSAGE_TIME_BUDGET_PROPERTY, "5")
+        def fhirBundle = Mock(HealthData)
+        def firstRule = Mock(ValidationRule)
+        def secondRule = Mock(ValidationRule)
+        def thirdRule = Mock(ValidationRule)
+        firstRule.shouldRun(fhirBundle) >> true
+        firstRule.runRule(fhirBundle) >> { Thread.sleep(3) }
+        secondRule.getName() >> "secondRule"
+        secondRule.shouldRun(fhirBundle) >> true
+        secondRule.runRule(fhirBundle) >> { Thread.sleep(3) }
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [firstRule, secondRule, thirdRule]
+
+        when:
+        ruleEngine.runRules(fhirBundle)
+
+        then:
+        def exception = thrown(RuleTimeBudgetExceededException)
+        exception.message.contains("message budget")
+        0 * thirdRule.shouldRun(_)
+    }
+
     def "runRules logs an error and doesn't run any rules when there's a RuleLoaderException"() {
         given:
         def exception = new RuleLoaderException("Error loading rules", new Exception())
@@ -146,4 +200,71 @@ class ValidationRuleEngineTest extends Specification {
         then:
         1 * mockLogger.logError(_ as String, exception)
     }
+
+    def "reloadRules swaps in the new rules"() {
+        given:
+        def newRule = Mock(ValidationRule)
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >>> [[mockRule], [newRule]]
+
+        when:
+        ruleEngine.ensureRulesLoaded()
+        def rulesBeforeReload = ruleEngine.getRules()
+        ruleEngine.reloadRules()
+
+        then:
+        rulesBeforeReload == [mockRule]
+        ruleEngine.getRules() == [newRule]
+    }
+
+    def "reloadRules keeps the current rules when the new definitions fail to load"() {
+        given:
+        def exception = new RuleLoaderException("Error loading rules", new Exception())
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [mockRule] >> { throw exception }
+
+        when:
+        ruleEngine.ensureRulesLoaded()
+        ruleEngine.reloadRules()
+
+        then:
+        thrown(RuleLoaderException)
+        ruleEngine.getRules() == [mockRule]
+    }
+
+    def "getRules returns an immutable snapshot"() {
+        given:
+        mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> [mockRule]
+        ruleEngine.ensureRulesLoaded()
+
+        when:
+        ruleEngine.getRules().add(Mock(ValidationRule))
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "ensureRulesLoaded prefers the definitions in the external rule definitions directory"() {
+        given:
+        def directory = Files.createTempDirectory("rule_definitions")
+        Files.writeString(directory.resolve("validation_definitions.json"), """{ "definitions": [] }""")
+        TestApplicationContext.addEnvironmentVariable("RULE_DEFINITIONS_DIRECTORY", directory.toString())
+        def mockWatcher = Mock(RuleDefinitionsWatcher)
+        TestApplicationContext.register(RuleDefinitionsWatcher, mockWatcher)
+        TestApplicationContext.injectRegisteredImplementations()
+        String loadedDefinitions = null
+
+        when:
+        ruleEngine.ensureRulesLoaded()
+
+        then:
+        1 * mockRuleLoader.loadRules(_ as InputStream, _ as TypeReference) >> { InputStream stream, TypeReference type ->
+            loadedDefinitions = new String(stream.readAllBytes())
+            return [mockRule]
+        }
+        1 * mockWatcher.watch(directory.resolve("validation_definitions.json"), _ as Runnable)
+        loadedDefinitions == """{ "definitions": [] }"""
+        ruleEngine.getRules() == [mockRule]
+
+        cleanup:
+        directory.toFile().deleteDir()
+    }
 }
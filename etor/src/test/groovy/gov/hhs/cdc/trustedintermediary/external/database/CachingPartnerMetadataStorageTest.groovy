@@ -0,0 +1,352 @@
+package gov.hhs.cdc.trustedintermediary.external.database
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatus
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import gov.hhs.cdc.trustedintermediary.wrappers.database.DatabaseNotificationChannel
+import gov.hhs.cdc.trustedintermediary.wrappers.database.DatabaseNotificationListener
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.sql.SQLException
+import java.time.Instant
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class CachingPartnerMetadataStorageTest extends Specification {
+
+    def cache = CachingPartnerMetadataStorage.getInstance()
+    def mockStorage = Mock(DatabasePartnerMetadataStorage)
+    def mockListener = Mock(DatabaseNotificationListener)
+    def mockLogger = Mock(Logger)
+    def notifications = new LinkedBlockingQueue<String>()
+    def conditions = new PollingConditions(timeout: 5)
+    def metadata = new PartnerMetadata("inboundReportId", PartnerMetadataStatus.PENDING)
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(DatabasePartnerMetadataStorage, mockStorage)
+        TestApplicationContext.register(DatabaseNotificationListener, mockListener)
+        TestApplicationContext.register(CachingPartnerMetadataStorage, cache)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        TestApplicationContext.addEnvironmentVariable("DB_URL", "localhost")
+
+        cache.reset()
+    }
+
+    def cleanup() {
+        cache.reset()
+    }
+
+    def "readMetadata reads from the database every time while the listener isn't connected"() {
+        when:
+        cache.readMetadata("inboundReportId")
+        cache.readMetadata("inboundReportId")
+
+        then:
+        2 * mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+        cache.getSummary().bypassed == 2
+        cache.getSummary().size == 0
+    }
+
+    def "readMetadata only reads the metadata from the database once while listening"() {
+        given:
+        cache.startedListening()
+
+        when:
+        def first = cache.readMetadata("inboundReportId")
+        def second = cache.readMetadata("inboundReportId")
+        def missing = cache.readMetadata("missingReportId")
+        def missingAgain = cache.readMetadata("missingReportId")
+
+        then:
+        1 * mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+        1 * mockStorage.readMetadata("missingReportId") >> Optional.empty()
+        first == Optional.of(metadata)
+        second == Optional.of(metadata)
+        missing == Optional.empty()
+        missingAgain == Optional.empty()
+        cache.getSummary().hits == 2
+        cache.getSummary().misses == 2
+    }
+
+    def "invalidate makes the next read go to the database"() {
+        given:
+        def updated = metadata.withDeliveryStatus(PartnerMetadataStatus.DELIVERED)
+        cache.startedListening()
+
+        when:
+        cache.readMetadata("inboundReportId")
+        cache.invalidate("inboundReportId")
+        def actual = cache.readMetadata("inboundReportId")
+
+        then:
+        2 * mockStorage.readMetadata("inboundReportId") >>> [
+            Optional.of(metadata),
+            Optional.of(updated)
+        ]
+        actual == Optional.of(updated)
+        cache.getSummary().invalidated == 1
+    }
+
+    def "a read that overlaps an invalidation isn't cached"() {
+        given:
+        cache.startedListening()
+
+        when:
+        cache.readMetadata("inboundReportId")
+        cache.readMetadata("inboundReportId")
+
+        then:
+        2 * mockStorage.readMetadata("inboundReportId") >> {
+            cache.invalidate("inboundReportId")
+            Optional.of(metadata)
+        }
+        cache.getSummary().hits == 0
+        cache.getSummary().size == 0
+    }
+
+    def "saveMetadata saves to the database and invalidates both report IDs"() {
+        given:
+        def withOutbound = metadata.withOutboundReportId("outboundReportId")
+        cache.startedListening()
+        mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+        mockStorage.readMetadata("outboundReportId") >> Optional.empty()
+        cache.readMetadata("inboundReportId")
+        cache.readMetadata("outboundReportId")
+
+        when:
+        cache.saveMetadata(withOutbound)
+
+        then:
+        1 * mockStorage.saveMetadata(withOutbound)
+        cache.getSummary().invalidated == 2
+        cache.getSummary().size == 0
+    }
+
+    def "saveMetadata invalidates the metadata even when the save fails"() {
+        given:
+        cache.startedListening()
+        mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+        cache.readMetadata("inboundReportId")
+
+        when:
+        cache.saveMetadata(metadata)
+
+        then:
+        1 * mockStorage.saveMetadata(metadata) >> { throw new PartnerMetadataException("DogCow") }
+        thrown(PartnerMetadataException)
+        cache.getSummary().size == 0
+    }
+
+    def "saveAllMetadata saves to the database and invalidates every report ID"() {
+        given:
+        def withOutbound = metadata.withOutboundReportId("outboundReportId")
+        def other = new PartnerMetadata("otherReportId", PartnerMetadataStatus.PENDING)
+        cache.startedListening()
+        mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+        mockStorage.readMetadata("outboundReportId") >> Optional.empty()
+        mockStorage.readMetadata("otherReportId") >> Optional.of(other)
+        cache.readMetadata("inboundReportId")
+        cache.readMetadata("outboundReportId")
+        cache.readMetadata("otherReportId")
+
+        when:
+        cache.saveAllMetadata([withOutbound, other])
+
+        then:
+        1 * mockStorage.saveAllMetadata([withOutbound, other])
+        cache.getSummary().invalidated == 3
+        cache.getSummary().size == 0
+    }
+
+    def "saveAllMetadata invalidates the metadata even when the save fails"() {
+        given:
+        cache.startedListening()
+        mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+        cache.readMetadata("inboundReportId")
+
+        when:
+        cache.saveAllMetadata([metadata])
+
+        then:
+        1 * mockStorage.saveAllMetadata([metadata]) >> { throw new PartnerMetadataException("DogCow") }
+        thrown(PartnerMetadataException)
+        cache.getSummary().size == 0
+    }
+
+    def "saveTimeReceived saves to the database and invalidates the metadata"() {
+        given:
+        def timeReceived = Instant.now()
+        cache.startedListening()
+        mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+        cache.readMetadata("inboundReportId")
+
+        when:
+        cache.saveTimeReceived("inboundReportId", timeReceived)
+
+        then:
+        1 * mockStorage.saveTimeReceived("inboundReportId", timeReceived)
+        cache.getSummary().size == 0
+    }
+
+    def "the other methods go straight to the database"() {
+        given:
+        def now = Instant.now()
+
+        when:
+        def summaries = cache.readMetadataSummaryForSender("sender", now, "afterId", 10)
+        def linked = cache.readMetadataForMessageLinking("inboundReportId")
+        def missing = cache.claimInboundReportIdsMissingTimeReceived(now, now, 5)
+        def claimed = cache.claimPendingStatusChecks(now, now, 5)
+        def checkedAt = cache.readStatusCheckedAt("inboundReportId")
+
+        then:
+        1 * mockStorage.readMetadataSummaryForSender("sender", now, "afterId", 10) >> []
+        1 * mockStorage.readMetadataForMessageLinking("inboundReportId") >> Set.of("linkedId")
+        1 * mockStorage.claimInboundReportIdsMissingTimeReceived(now, now, 5) >> Set.of("missingId")
+        1 * mockStorage.claimPendingStatusChecks(now, now, 5) >> Set.of("claimedId")
+        1 * mockStorage.readStatusCheckedAt("inboundReportId") >> Optional.of(now)
+        summaries == []
+        linked == Set.of("linkedId")
+        missing == Set.of("missingId")
+        claimed == Set.of("claimedId")
+        checkedAt == Optional.of(now)
+    }
+
+    def "start listens for changes in the background and invalidates the changed metadata"() {
+        given:
+        def listenThread = null
+        mockListener.listen(CachingPartnerMetadataStorage.CHANNEL) >> {
+            listenThread = Thread.currentThread()
+            return notifyingChannel()
+        }
+        mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+
+        when:
+        cache.start()
+
+        then:
+        conditions.eventually {
+            assert cache.getSummary().listening
+        }
+        listenThread != Thread.currentThread()
+
+        when:
+        cache.readMetadata("inboundReportId")
+        notifications.add("inboundReportId")
+
+        then:
+        conditions.eventually {
+            assert cache.getSummary().invalidated == 1
+        }
+        cache.getSummary().size == 0
+    }
+
+    def "start keeps at most the configured number of entries, evicting the least recently read"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(CachingPartnerMetadataStorage.MAX_ENTRIES_PROPERTY, "2")
+        mockListener.listen(_ as String) >> notifyingChannel()
+        mockStorage.readMetadata(_ as String) >> { String id -> Optional.of(new PartnerMetadata(id, PartnerMetadataStatus.PENDING)) }
+        cache.start()
+        conditions.eventually {
+            assert cache.getSummary().listening
+        }
+
+        when:
+        cache.readMetadata("first")
+        cache.readMetadata("second")
+        cache.readMetadata("first")
+        cache.readMetadata("third")
+        cache.readMetadata("first")
+        cache.readMetadata("second")
+
+        then:
+        cache.getSummary().size == 2
+        cache.getSummary().evicted == 2
+        cache.getSummary().hits == 2
+        cache.getSummary().misses == 4
+    }
+
+    def "cached metadata expires after the configured time"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(CachingPartnerMetadataStorage.TTL_PROPERTY, "1")
+        mockListener.listen(_ as String) >> notifyingChannel()
+        cache.start()
+        conditions.eventually {
+            assert cache.getSummary().listening
+        }
+
+        when:
+        cache.readMetadata("inboundReportId")
+        TimeUnit.MILLISECONDS.sleep(10)
+        cache.readMetadata("inboundReportId")
+
+        then:
+        2 * mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+        cache.getSummary().hits == 0
+    }
+
+    def "the cache is emptied and bypassed when the listener loses its connection"() {
+        given:
+        def channel = Mock(DatabaseNotificationChannel)
+        def connectionLost = new LinkedBlockingQueue<Boolean>()
+        channel.awaitNotifications(_ as Integer) >> { int timeoutMillis ->
+            if (connectionLost.poll(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("DogCow")
+            }
+            return []
+        }
+        def closed = false
+        channel.close() >> { closed = true }
+        def loggedErrors = Collections.synchronizedList([])
+        mockLogger.logError(_ as String, _ as Exception) >> { String message, Exception e -> loggedErrors.add(e) }
+        mockListener.listen(_ as String) >> channel
+        mockStorage.readMetadata("inboundReportId") >> Optional.of(metadata)
+        cache.start()
+        conditions.eventually {
+            assert cache.getSummary().listening
+        }
+        cache.readMetadata("inboundReportId")
+
+        when:
+        connectionLost.add(true)
+
+        then:
+        conditions.eventually {
+            assert !cache.getSummary().listening
+        }
+        cache.getSummary().size == 0
+        cache.getSummary().listenerErrors == 1
+        loggedErrors.size() == 1
+        loggedErrors[0] instanceof SQLException
+        closed
+    }
+
+    def "start does nothing when the cache is disabled"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(CachingPartnerMetadataStorage.ENABLED_PROPERTY, "false")
+
+        when:
+        cache.start()
+
+        then:
+        0 * mockListener.listen(_)
+        !cache.getSummary().enabled
+        !cache.getSummary().listening
+    }
+
+    private DatabaseNotificationChannel notifyingChannel() {
+        def channel = Mock(DatabaseNotificationChannel)
+        channel.awaitNotifications(_ as Integer) >> { int timeoutMillis ->
+            def reportId = notifications.poll(timeoutMillis, TimeUnit.MILLISECONDS)
+            return reportId != null ? [reportId] : []
+        }
+        return channel
+    }
+}
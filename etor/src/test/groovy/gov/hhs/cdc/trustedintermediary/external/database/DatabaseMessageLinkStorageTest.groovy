@@ -3,10 +3,12 @@ package gov.hhs.cdc.trustedintermediary.external.database
 import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
 import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLink
 import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLinkException
+import java.sql.Array
 import java.sql.Connection
 import java.sql.PreparedStatement
 import java.sql.ResultSet
 import java.sql.SQLException
+import java.sql.Types
 import java.util.function.Function
 import spock.lang.Specification
 
@@ -68,6 +70,46 @@ class DatabaseMessageLinkStorageTest extends Specification {
         thrown(MessageLinkException)
     }
 
+    def "getMessageLinks reads the links of all the messages in one query"() {
+        given:
+        def firstLinkId = UUID.randomUUID()
+        def secondLinkId = UUID.randomUUID()
+        def messageIds = Set.of("messageId1", "messageId3")
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+        def mockArray = Mock(Array)
+
+        when:
+        def actual = DatabaseMessageLinkStorage.getInstance().getMessageLinks(messageIds)
+
+        then:
+        1 * mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, Map<UUID, String>>, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter, collector ->
+            sqlGenerator.apply(mockConnection)
+            return [
+                [(firstLinkId): "messageId1"],
+                [(firstLinkId): "messageId2"],
+                [(secondLinkId): "messageId3"]
+            ].toSet()
+        }
+        1 * mockConnection.prepareStatement({ it.contains("ANY(") }) >> mockStatement
+        1 * mockConnection.createArrayOf("varchar", { (it as Set) == messageIds }) >> mockArray
+        1 * mockStatement.setArray(1, mockArray)
+        actual == Set.of(
+                new MessageLink(firstLinkId, Set.of("messageId1", "messageId2")),
+                new MessageLink(secondLinkId, "messageId3"))
+    }
+
+    def "getMessageLinks returns an empty set when none of the messages are linked"() {
+        given:
+        mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, Map<UUID, String>>, _) >> [].toSet()
+
+        when:
+        def actual = DatabaseMessageLinkStorage.getInstance().getMessageLinks(Set.of("messageId"))
+
+        then:
+        actual.isEmpty()
+    }
+
     def "partialMessageLinkFromResultSet throws exception if something goes wrong"() {
         given:
         def resultSet = Mock(ResultSet)
@@ -82,20 +124,31 @@ class DatabaseMessageLinkStorageTest extends Specification {
         thrownException.getCause() == originalException
     }
 
-    def "saveLinkedMessages happy path works"() {
+    def "saveLinkedMessages writes every message id in one statement"() {
         given:
-        def messageIdCount = mockMessageLinkData.getMessageIds().size()
+        def messageLink = new MessageLink(UUID.randomUUID(), Set.of("messageId1", "messageId2", "messageId3"))
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+        def mockArray = Mock(Array)
 
         when:
-        DatabaseMessageLinkStorage.getInstance().saveMessageLink(mockMessageLinkData)
+        DatabaseMessageLinkStorage.getInstance().saveMessageLink(messageLink)
 
         then:
-        messageIdCount * mockDao.upsertData("message_link", _ as List<DbColumn>, _ as String)
+        1 * mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { Function<Connection, PreparedStatement> sqlGenerator ->
+            sqlGenerator.apply(mockConnection)
+            return 3
+        }
+        1 * mockConnection.prepareStatement({ it.contains("INSERT INTO message_link") && it.contains("unnest") && it.contains("DO NOTHING") }) >> mockStatement
+        1 * mockConnection.createArrayOf("varchar", { (it as Set) == messageLink.messageIds }) >> mockArray
+        1 * mockStatement.setObject(1, messageLink.linkId, Types.OTHER)
+        1 * mockStatement.setArray(2, mockArray)
+        0 * mockDao.upsertData(_, _, _)
     }
 
     def "saveMessageLink unhappy path works"() {
         given:
-        mockDao.upsertData("message_link", _ as List<DbColumn>, _ as String) >> { throw new SQLException("Something went wrong!") }
+        mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { throw new SQLException("Something went wrong!") }
 
         when:
         DatabaseMessageLinkStorage.getInstance().saveMessageLink(mockMessageLinkData)
@@ -103,4 +156,37 @@ class DatabaseMessageLinkStorageTest extends Specification {
         then:
         thrown(MessageLinkException)
     }
+
+    def "linkMessages merges the links in a single statement"() {
+        given:
+        def messageIds = Set.of("messageId1", "messageId2")
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+        def mockArray = Mock(Array)
+
+        when:
+        DatabaseMessageLinkStorage.getInstance().linkMessages(messageIds)
+
+        then:
+        1 * mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { Function<Connection, PreparedStatement> sqlGenerator ->
+            sqlGenerator.apply(mockConnection)
+            return 2
+        }
+        1 * mockConnection.prepareStatement({ it.contains("DELETE FROM message_link") && it.contains("INSERT INTO message_link") && it.contains("FOR UPDATE") }) >> mockStatement
+        1 * mockConnection.createArrayOf("varchar", { (it as Set) == messageIds }) >> mockArray
+        1 * mockStatement.setArray(1, mockArray)
+        1 * mockStatement.setObject(2, _ as UUID, Types.OTHER)
+        0 * mockDao.upsertData(_, _, _)
+    }
+
+    def "linkMessages unhappy path works"() {
+        given:
+        mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        DatabaseMessageLinkStorage.getInstance().linkMessages(Set.of("messageId"))
+
+        then:
+        thrown(MessageLinkException)
+    }
 }
@@ -0,0 +1,269 @@
+package gov.hhs.cdc.trustedintermediary.external.database
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType
+import gov.hhs.cdc.trustedintermediary.etor.outbox.MessageOutbox
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxException
+import gov.hhs.cdc.trustedintermediary.etor.outbox.OutboxMessage
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.ResultSet
+import java.sql.SQLException
+import java.sql.Timestamp
+import java.sql.Types
+import java.time.Duration
+import java.time.Instant
+import java.util.function.Function
+import spock.lang.Specification
+
+class DatabaseMessageOutboxTest extends Specification {
+
+    def mockDao = Mock(DbDao)
+    def mockFormatter = Mock(Formatter)
+    def mockCache = Mock(CachingPartnerMetadataStorage)
+    def outbox = DatabaseMessageOutbox.getInstance()
+    def metadata = new PartnerMetadata("inboundReportId", "hash", PartnerMetadataMessageType.ORDER, null, null, null, null, "placer_order_number")
+    def message = new OutboxMessage("inboundReportId", PartnerMetadataMessageType.ORDER, "fhirResourceId", "payload", false, 0)
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(DbDao, mockDao)
+        TestApplicationContext.register(Formatter, mockFormatter)
+        TestApplicationContext.register(CachingPartnerMetadataStorage, mockCache)
+        TestApplicationContext.register(MessageOutbox, outbox)
+        TestApplicationContext.injectRegisteredImplementations()
+    }
+
+    def "saveWithMetadata saves the metadata and the outbox row in one transaction"() {
+        given:
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+        mockFormatter.convertToJsonString(_) >> "{}"
+
+        when:
+        outbox.saveWithMetadata(metadata, message)
+
+        then:
+        1 * mockDao.runInTransaction(_ as DbDao.DbTransaction) >> { DbDao.DbTransaction transaction ->
+            transaction.run(mockConnection)
+        }
+        1 * mockDao.upsertData(mockConnection, "metadata", { List<DbColumn> columns ->
+            columns.find { it.name() == "received_message_id" }.value() == "inboundReportId"
+        }, "(received_message_id)")
+        1 * mockConnection.prepareStatement({ it.contains("INSERT INTO outbox") && it.contains("'PENDING'") }) >> mockStatement
+        1 * mockStatement.setString(1, "inboundReportId")
+        1 * mockStatement.setObject(2, "ORDER", Types.OTHER)
+        1 * mockStatement.setString(3, "fhirResourceId")
+        1 * mockStatement.setString(4, "payload")
+        1 * mockStatement.setBoolean(5, false)
+        1 * mockStatement.setInt(6, 0)
+        1 * mockStatement.executeUpdate()
+        1 * mockStatement.close()
+    }
+
+    def "saveWithMetadata drops the cached metadata of the message"() {
+        given:
+        mockFormatter.convertToJsonString(_) >> "{}"
+
+        when:
+        outbox.saveWithMetadata(metadata.withOutboundReportId("outboundReportId"), message)
+
+        then:
+        1 * mockDao.runInTransaction(_ as DbDao.DbTransaction)
+        1 * mockCache.invalidate("inboundReportId")
+        1 * mockCache.invalidate("outboundReportId")
+    }
+
+    def "saveWithMetadata drops the cached metadata even when the save fails"() {
+        given:
+        mockFormatter.convertToJsonString(_) >> "{}"
+        mockDao.runInTransaction(_ as DbDao.DbTransaction) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        outbox.saveWithMetadata(metadata, message)
+
+        then:
+        thrown(OutboxException)
+        1 * mockCache.invalidate("inboundReportId")
+    }
+
+    def "saveWithMetadata only replaces a pending message that no node holds a lease on"() {
+        given:
+        def mockConnection = Mock(Connection)
+        def sql = null
+        mockFormatter.convertToJsonString(_) >> "{}"
+        mockDao.runInTransaction(_ as DbDao.DbTransaction) >> { DbDao.DbTransaction transaction ->
+            transaction.run(mockConnection)
+        }
+        mockConnection.prepareStatement(_ as String) >> { String statementSql ->
+            sql = statementSql
+            return Mock(PreparedStatement)
+        }
+
+        when:
+        outbox.saveWithMetadata(metadata, message)
+
+        then:
+        sql.contains("ON CONFLICT (received_message_id) DO UPDATE")
+        sql.contains("WHERE outbox.status = 'PENDING'")
+        sql.contains("AND (outbox.claimed_until IS NULL OR outbox.claimed_until < now())")
+    }
+
+    def "saveWithMetadata doesn't save the outbox row when the metadata can't be saved"() {
+        given:
+        def mockConnection = Mock(Connection)
+        mockFormatter.convertToJsonString(_) >> "{}"
+        mockDao.runInTransaction(_ as DbDao.DbTransaction) >> { DbDao.DbTransaction transaction ->
+            transaction.run(mockConnection)
+        }
+        mockDao.upsertData(mockConnection, "metadata", _, _) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        outbox.saveWithMetadata(metadata, message)
+
+        then:
+        thrown(OutboxException)
+        0 * mockConnection.prepareStatement(_)
+    }
+
+    def "saveWithMetadata unhappy path triggers OutboxException"() {
+        given:
+        mockFormatter.convertToJsonString(_) >> "{}"
+        mockDao.runInTransaction(_ as DbDao.DbTransaction) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        outbox.saveWithMetadata(metadata, message)
+
+        then:
+        thrown(OutboxException)
+    }
+
+    def "saveWithMetadata doesn't start a transaction when the metadata can't be formatted"() {
+        given:
+        mockFormatter.convertToJsonString(_) >> { throw new FormatterProcessingException("DogCow", new Exception()) }
+
+        when:
+        outbox.saveWithMetadata(metadata, message)
+
+        then:
+        thrown(OutboxException)
+        0 * mockDao.runInTransaction(_)
+    }
+
+    def "claim skips the rows other nodes have locked"() {
+        given:
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+
+        when:
+        def claimed = outbox.claim(10, Duration.ofMinutes(5))
+
+        then:
+        claimed == [message]
+        1 * mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, OutboxMessage>, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter, collector ->
+            sqlGenerator.apply(mockConnection)
+            return [message]
+        }
+        1 * mockConnection.prepareStatement({ it.contains("FOR UPDATE SKIP LOCKED") && it.contains("RETURNING") }) >> mockStatement
+        1 * mockStatement.setLong(1, Duration.ofMinutes(5).toMillis())
+        1 * mockStatement.setInt(2, 10)
+    }
+
+    def "claim unhappy path triggers OutboxException"() {
+        given:
+        mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, OutboxMessage>, _) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        outbox.claim(10, Duration.ofMinutes(5))
+
+        then:
+        thrown(OutboxException)
+    }
+
+    def "markSent removes the message from the outbox"() {
+        given:
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+
+        when:
+        outbox.markSent("inboundReportId")
+
+        then:
+        1 * mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { Function<Connection, PreparedStatement> sqlGenerator ->
+            sqlGenerator.apply(mockConnection)
+            return 1
+        }
+        1 * mockConnection.prepareStatement({ it.startsWith("DELETE FROM outbox") }) >> mockStatement
+        1 * mockStatement.setString(1, "inboundReportId")
+    }
+
+    def "scheduleRetry releases the claim and sets the next attempt"() {
+        given:
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+        def nextAttemptAt = Instant.parse("2024-04-09T18:18:00.553Z")
+
+        when:
+        outbox.scheduleRetry("inboundReportId", nextAttemptAt, "DogCow")
+
+        then:
+        1 * mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { Function<Connection, PreparedStatement> sqlGenerator ->
+            sqlGenerator.apply(mockConnection)
+            return 1
+        }
+        1 * mockConnection.prepareStatement({ it.contains("claimed_until = NULL") }) >> mockStatement
+        1 * mockStatement.setTimestamp(1, Timestamp.from(nextAttemptAt))
+        1 * mockStatement.setString(2, "DogCow")
+        1 * mockStatement.setString(3, "inboundReportId")
+    }
+
+    def "markFailed truncates a long error"() {
+        given:
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+
+        when:
+        outbox.markFailed("inboundReportId", "x" * 2000)
+
+        then:
+        1 * mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { Function<Connection, PreparedStatement> sqlGenerator ->
+            sqlGenerator.apply(mockConnection)
+            return 1
+        }
+        1 * mockConnection.prepareStatement({ it.contains("status = 'FAILED'") }) >> mockStatement
+        1 * mockStatement.setString(1, "x" * DatabaseMessageOutbox.MAX_ERROR_LENGTH)
+        1 * mockStatement.setString(2, "inboundReportId")
+    }
+
+    def "markFailed unhappy path triggers OutboxException"() {
+        given:
+        mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        outbox.markFailed("inboundReportId", "DogCow")
+
+        then:
+        thrown(OutboxException)
+    }
+
+    def "outboxMessageFromResultSet reads the claimed row"() {
+        given:
+        def resultSet = Mock(ResultSet)
+        resultSet.getString("received_message_id") >> "inboundReportId"
+        resultSet.getString("message_type") >> "RESULT"
+        resultSet.getString("fhir_resource_id") >> "fhirResourceId"
+        resultSet.getString("payload") >> "payload"
+        resultSet.getBoolean("mock_delivery") >> true
+        resultSet.getInt("attempts") >> 3
+
+        when:
+        def claimedMessage = outbox.outboxMessageFromResultSet(resultSet)
+
+        then:
+        claimedMessage == new OutboxMessage("inboundReportId", PartnerMetadataMessageType.RESULT, "fhirResourceId", "payload", true, 3)
+    }
+}
@@ -7,18 +7,22 @@ import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatus
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatusCount
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStorage
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataSummary
 import gov.hhs.cdc.trustedintermediary.external.jackson.Jackson
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference
 import java.sql.Connection
+import java.sql.Date
 import java.sql.PreparedStatement
 import java.sql.ResultSet
 import java.sql.SQLException
 import java.sql.Timestamp
 import java.sql.Types
 import java.time.Instant
+import java.time.LocalDate
 import java.util.function.Function
 import spock.lang.Specification
 
@@ -58,6 +62,24 @@ class DatabasePartnerMetadataStorageTest extends Specification {
         actualResult == expectedResult
     }
 
+    def "readMetadata looks up the received and sent ids in separate branches"() {
+        given:
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+
+        when:
+        DatabasePartnerMetadataStorage.getInstance().readMetadata("uniqueId")
+
+        then:
+        1 * mockDao.fetchFirstData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadata>) >> { Function<Connection, PreparedStatement> sqlGenerator, converter ->
+            sqlGenerator.apply(mockConnection)
+            return null
+        }
+        1 * mockConnection.prepareStatement({ it.contains("UNION ALL") && !it.contains(" OR ") && it.contains("LIMIT 1") }) >> mockStatement
+        1 * mockStatement.setString(1, "uniqueId")
+        1 * mockStatement.setString(2, "uniqueId")
+    }
+
     def "readMetadata unhappy path works"() {
         given:
         mockDao.fetchFirstData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadata>) >> { throw new SQLException("Something went wrong!") }
@@ -69,33 +91,146 @@ class DatabasePartnerMetadataStorageTest extends Specification {
         thrown(PartnerMetadataException)
     }
 
-    def "readMetadataForSender unhappy path triggers SQLException"() {
+    def "readMetadataSummaryForSender unhappy path triggers SQLException"() {
         given:
-        mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadata>, _) >> { throw new SQLException("Database error has occur") }
+        mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadataSummary>, _) >> { throw new SQLException("Database error has occur") }
 
         when:
-        DatabasePartnerMetadataStorage.getInstance().readMetadataForSender("testSender")
+        DatabasePartnerMetadataStorage.getInstance().readMetadataSummaryForSender("testSender", null, null, 10)
 
         then:
         thrown(PartnerMetadataException)
     }
 
-    def "readMetadataForSender happy path works"() {
+    def "readMetadataSummaryForSender happy path works"() {
         given:
-        def metadata1 = mockMetadata
-        def metadata2 = mockMetadata
-        def expectedMetadataSet = new HashSet<>()
-        expectedMetadataSet.add(metadata1)
-        expectedMetadataSet.add(metadata2)
+        def expectedSummaries = [
+            new PartnerMetadataSummary("inboundReportId", PartnerMetadataStatus.DELIVERED, null, "receiving_facility_id")
+        ]
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
 
-        mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadata>, _) >> expectedMetadataSet
+        when:
+        def actualSummaries = DatabasePartnerMetadataStorage.getInstance().readMetadataSummaryForSender("testSender", null, null, 10)
+
+        then:
+        1 * mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadataSummary>, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter, collector ->
+            sqlGenerator.apply(mockConnection)
+            return expectedSummaries
+        }
+        1 * mockConnection.prepareStatement({ !it.contains("SELECT *") && !it.contains("time_received >=") && !it.contains("received_message_id >") }) >> mockStatement
+        1 * mockStatement.setString(1, "testSender")
+        1 * mockStatement.setInt(2, 10)
+        actualSummaries == expectedSummaries
+    }
+
+    def "readMetadataSummaryForSender filters by time received and continues after the given id"() {
+        given:
+        def receivedSince = Instant.parse("2024-01-01T00:00:00Z")
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
 
         when:
-        def actualMetadataSet = DatabasePartnerMetadataStorage.getInstance().readMetadataForSender("testSender")
+        DatabasePartnerMetadataStorage.getInstance().readMetadataSummaryForSender("testSender", receivedSince, "lastId", 10)
 
         then:
-        actualMetadataSet.size() == expectedMetadataSet.size()
-        actualMetadataSet.containsAll(expectedMetadataSet)
+        1 * mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadataSummary>, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter, collector ->
+            sqlGenerator.apply(mockConnection)
+            return []
+        }
+        1 * mockConnection.prepareStatement({ it.contains("time_received >= ?") && it.contains("received_message_id > ?") && it.contains("ORDER BY received_message_id") }) >> mockStatement
+        1 * mockStatement.setString(1, "testSender")
+        1 * mockStatement.setTimestamp(2, Timestamp.from(receivedSince))
+        1 * mockStatement.setString(3, "lastId")
+        1 * mockStatement.setInt(4, 10)
+    }
+
+    def "partnerMetadataSummaryFromResultSet returns the summary"() {
+        given:
+        def mockResultSet = Mock(ResultSet)
+        mockResultSet.getString("received_message_id") >> "inboundReportId"
+        mockResultSet.getString("delivery_status") >> "FAILED"
+        mockResultSet.getString("failure_reason") >> "DogCow"
+        mockResultSet.getString("receiving_facility_universal_id") >> "receiver"
+
+        when:
+        def summary = DatabasePartnerMetadataStorage.getInstance().partnerMetadataSummaryFromResultSet(mockResultSet)
+
+        then:
+        summary == new PartnerMetadataSummary("inboundReportId", PartnerMetadataStatus.FAILED, "DogCow", "receiver")
+    }
+
+    def "readStatusCountsForSender reads the rollup table without a date range"() {
+        given:
+        def expectedCounts = [
+            new PartnerMetadataStatusCount(LocalDate.parse("2024-01-01"), PartnerMetadataStatus.DELIVERED, 3)
+        ]
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+
+        when:
+        def actualCounts = DatabasePartnerMetadataStorage.getInstance().readStatusCountsForSender("testSender", null, null)
+
+        then:
+        1 * mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadataStatusCount>, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter, collector ->
+            sqlGenerator.apply(mockConnection)
+            return expectedCounts
+        }
+        1 * mockConnection.prepareStatement({ it.contains("FROM metadata_status_counts") && !it.contains("received_day >=") && !it.contains("received_day <=") }) >> mockStatement
+        1 * mockStatement.setString(1, "testSender")
+        0 * mockStatement.setDate(_, _)
+        actualCounts == expectedCounts
+    }
+
+    def "readStatusCountsForSender filters by the days received"() {
+        given:
+        def receivedFrom = LocalDate.parse("2024-01-01")
+        def receivedTo = LocalDate.parse("2024-01-31")
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+
+        when:
+        DatabasePartnerMetadataStorage.getInstance().readStatusCountsForSender("testSender", receivedFrom, receivedTo)
+
+        then:
+        1 * mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadataStatusCount>, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter, collector ->
+            sqlGenerator.apply(mockConnection)
+            return []
+        }
+        1 * mockConnection.prepareStatement({ it.contains("received_day >= ?") && it.contains("received_day <= ?") }) >> mockStatement
+        1 * mockStatement.setString(1, "testSender")
+        1 * mockStatement.setDate(2, Date.valueOf(receivedFrom))
+        1 * mockStatement.setDate(3, Date.valueOf(receivedTo))
+    }
+
+    def "readStatusCountsForSender unhappy path works"() {
+        given:
+        mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadataStatusCount>, _) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        DatabasePartnerMetadataStorage.getInstance().readStatusCountsForSender("testSender", null, null)
+
+        then:
+        thrown(PartnerMetadataException)
+    }
+
+    def "partnerMetadataStatusCountFromResultSet returns the count"() {
+        given:
+        def mockResultSet = Mock(ResultSet)
+        mockResultSet.getDate("received_day") >> receivedDay
+        mockResultSet.getString("delivery_status") >> "PENDING"
+        mockResultSet.getLong("message_count") >> 7L
+
+        when:
+        def count = DatabasePartnerMetadataStorage.getInstance().partnerMetadataStatusCountFromResultSet(mockResultSet)
+
+        then:
+        count == new PartnerMetadataStatusCount(expectedDay, PartnerMetadataStatus.PENDING, 7)
+
+        where:
+        receivedDay                    | expectedDay
+        Date.valueOf("2024-01-02")     | LocalDate.parse("2024-01-02")
+        null                           | null
     }
 
     def "saveMetadata happy path works"() {
@@ -127,6 +262,37 @@ class DatabasePartnerMetadataStorageTest extends Specification {
         1 * mockDao.upsertData("metadata", columns, "(received_message_id)")
     }
 
+    def "saveAllMetadata upserts every metadata in one batch"() {
+        given:
+        def other = mockMetadata.withDeliveryStatus(PartnerMetadataStatus.FAILED)
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        DatabasePartnerMetadataStorage.getInstance().saveAllMetadata([mockMetadata, other])
+
+        then:
+        1 * mockDao.upsertBatch("metadata", { List<List<DbColumn>> rows ->
+            rows.size() == 2
+                    && rows[0].find { it.name() == "delivery_status" }.value() == mockMetadata.deliveryStatus().toString()
+                    && rows[1].find { it.name() == "delivery_status" }.value() == "FAILED"
+        }, "(received_message_id)")
+        0 * mockDao.upsertData(_, _, _)
+    }
+
+    def "saveAllMetadata unhappy path triggers PartnerMetadataException"() {
+        given:
+        mockDao.upsertBatch(_ as String, _ as List, _ as String) >> { throw new SQLException("Something went wrong!") }
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        DatabasePartnerMetadataStorage.getInstance().saveAllMetadata([mockMetadata])
+
+        then:
+        thrown(PartnerMetadataException)
+    }
+
     def "saveMetadata unhappy path works"() {
         given:
         mockDao.upsertData(_ as String, _ as List, _ as String) >> { throw new SQLException("Something went wrong!") }
@@ -254,23 +420,30 @@ class DatabasePartnerMetadataStorageTest extends Specification {
         actualResult == expectedResult
     }
 
-    def "readMetadataForMessageLinking unhappy path works"() {
+    def "readMetadataForMessageLinking matches the sender's link key on the indexed sender and receiver keys"() {
         given:
-        mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadata>, _) >> { throw new SQLException("Something went wrong!") }
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
 
         when:
         DatabasePartnerMetadataStorage.getInstance().readMetadataForMessageLinking("inboundReportId")
 
         then:
-        thrown(PartnerMetadataException)
+        1 * mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, String>, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter, collector ->
+            sqlGenerator.apply(mockConnection)
+            return Set.of()
+        }
+        1 * mockConnection.prepareStatement({ it.contains("m2.sender_link_key = m1.sender_link_key") && it.contains("m2.receiver_link_key = m1.sender_link_key") && !it.contains("m1.receiver_link_key") && !it.contains(" OR ") }) >> mockStatement
+        1 * mockStatement.setString(1, "inboundReportId")
+        1 * mockStatement.setString(2, "inboundReportId")
     }
 
-    def "readMetadataForSender unhappy path works"() {
+    def "readMetadataForMessageLinking unhappy path works"() {
         given:
         mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, PartnerMetadata>, _) >> { throw new SQLException("Something went wrong!") }
 
         when:
-        DatabasePartnerMetadataStorage.getInstance().readMetadataForSender("TestSender")
+        DatabasePartnerMetadataStorage.getInstance().readMetadataForMessageLinking("inboundReportId")
 
         then:
         thrown(PartnerMetadataException)
@@ -366,4 +539,136 @@ class DatabasePartnerMetadataStorageTest extends Specification {
         then:
         actual.timeReceived() == null
     }
+
+    def "saveTimeReceived only updates the time received of metadata that doesn't have one"() {
+        given:
+        def timeReceived = Instant.parse("2024-04-09T18:18:00.553Z")
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+
+        when:
+        DatabasePartnerMetadataStorage.getInstance().saveTimeReceived("inboundReportId", timeReceived)
+
+        then:
+        1 * mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { Function<Connection, PreparedStatement> sqlGenerator ->
+            sqlGenerator.apply(mockConnection)
+            return 1
+        }
+        1 * mockConnection.prepareStatement({ it.contains("time_received IS NULL") }) >> mockStatement
+        1 * mockStatement.setTimestamp(1, Timestamp.from(timeReceived))
+        1 * mockStatement.setString(2, "inboundReportId")
+    }
+
+    def "saveTimeReceived unhappy path triggers PartnerMetadataException"() {
+        given:
+        mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        DatabasePartnerMetadataStorage.getInstance().saveTimeReceived("inboundReportId", Instant.now())
+
+        then:
+        thrown(PartnerMetadataException)
+    }
+
+    def "claimInboundReportIdsMissingTimeReceived marks the claimed metadata as claimed"() {
+        given:
+        def claimedBefore = Instant.parse("2024-04-09T18:17:00Z")
+        def claimedAt = Instant.parse("2024-04-09T18:18:00Z")
+        def expectedResult = Set.of("inboundReportId1", "inboundReportId2")
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+
+        when:
+        def actualResult = DatabasePartnerMetadataStorage.getInstance().claimInboundReportIdsMissingTimeReceived(claimedBefore, claimedAt, 10)
+
+        then:
+        1 * mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, String>, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter, collector ->
+            sqlGenerator.apply(mockConnection)
+            return expectedResult
+        }
+        1 * mockConnection.prepareStatement({ it.contains("SET time_received_claimed_at = ?") && it.contains("time_received IS NULL") && it.contains("FOR UPDATE SKIP LOCKED") }) >> mockStatement
+        1 * mockStatement.setTimestamp(1, Timestamp.from(claimedAt))
+        1 * mockStatement.setTimestamp(2, Timestamp.from(claimedBefore))
+        1 * mockStatement.setInt(3, 10)
+        actualResult == expectedResult
+    }
+
+    def "claimInboundReportIdsMissingTimeReceived unhappy path works"() {
+        given:
+        mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, String>, _) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        DatabasePartnerMetadataStorage.getInstance().claimInboundReportIdsMissingTimeReceived(Instant.now(), Instant.now(), 10)
+
+        then:
+        thrown(PartnerMetadataException)
+    }
+
+    def "claimPendingStatusChecks marks the claimed metadata as checked"() {
+        given:
+        def checkedBefore = Instant.parse("2024-04-09T18:17:00Z")
+        def checkedAt = Instant.parse("2024-04-09T18:18:00Z")
+        def expectedResult = Set.of("inboundReportId1", "inboundReportId2")
+        def mockConnection = Mock(Connection)
+        def mockStatement = Mock(PreparedStatement)
+
+        when:
+        def actualResult = DatabasePartnerMetadataStorage.getInstance().claimPendingStatusChecks(checkedBefore, checkedAt, 10)
+
+        then:
+        1 * mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, String>, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter, collector ->
+            sqlGenerator.apply(mockConnection)
+            return expectedResult
+        }
+        1 * mockConnection.prepareStatement({ it.contains("FOR UPDATE SKIP LOCKED") }) >> mockStatement
+        1 * mockStatement.setTimestamp(1, Timestamp.from(checkedAt))
+        1 * mockStatement.setTimestamp(2, Timestamp.from(checkedBefore))
+        1 * mockStatement.setInt(3, 10)
+        actualResult == expectedResult
+    }
+
+    def "claimPendingStatusChecks unhappy path works"() {
+        given:
+        mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, String>, _) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        DatabasePartnerMetadataStorage.getInstance().claimPendingStatusChecks(Instant.now(), Instant.now(), 10)
+
+        then:
+        thrown(PartnerMetadataException)
+    }
+
+    def "readStatusCheckedAt happy path works"() {
+        given:
+        def checkedAt = Instant.parse("2024-04-09T18:18:00Z")
+        mockDao.fetchFirstData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, Timestamp>) >> Timestamp.from(checkedAt)
+
+        when:
+        def actualResult = DatabasePartnerMetadataStorage.getInstance().readStatusCheckedAt("inboundReportId")
+
+        then:
+        actualResult == Optional.of(checkedAt)
+    }
+
+    def "readStatusCheckedAt returns empty when the status was never checked"() {
+        given:
+        mockDao.fetchFirstData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, Timestamp>) >> null
+
+        when:
+        def actualResult = DatabasePartnerMetadataStorage.getInstance().readStatusCheckedAt("inboundReportId")
+
+        then:
+        actualResult.isEmpty()
+    }
+
+    def "readStatusCheckedAt unhappy path works"() {
+        given:
+        mockDao.fetchFirstData(_ as Function<Connection, PreparedStatement>, _ as Function<ResultSet, Timestamp>) >> { throw new SQLException("Something went wrong!") }
+
+        when:
+        DatabasePartnerMetadataStorage.getInstance().readStatusCheckedAt("inboundReportId")
+
+        then:
+        thrown(PartnerMetadataException)
+    }
 }
@@ -0,0 +1,99 @@
+package gov.hhs.cdc.trustedintermediary.external.database
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.etor.messages.MessageHdDataType
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatus
+import gov.hhs.cdc.trustedintermediary.external.jackson.Jackson
+import gov.hhs.cdc.trustedintermediary.external.postgres.PostgresNotificationListener
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import gov.hhs.cdc.trustedintermediary.wrappers.database.ConnectionPool
+import gov.hhs.cdc.trustedintermediary.wrappers.database.DatabaseNotificationListener
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter
+import spock.lang.Requires
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.sql.DriverManager
+import java.time.Instant
+
+/**
+ * Checks that a change made to the metadata by another node, here a separate connection, removes
+ * it from the cache through the database notifications. Only runs when METADATA_CACHE_DB_URL is set
+ * to a migrated database, for example
+ * {@code METADATA_CACHE_DB_URL='jdbc:postgresql://localhost:5434/intermediary-test?user=intermediary&password=changeIT!'
+ * ./gradlew :etor:test --tests '*MetadataCacheInvalidationTest'}.
+ */
+@Requires({ env.METADATA_CACHE_DB_URL })
+class MetadataCacheInvalidationTest extends Specification {
+
+    def cache = CachingPartnerMetadataStorage.getInstance()
+    def conditions = new PollingConditions(timeout: 10)
+    def inboundReportId = "cache-test-" + UUID.randomUUID()
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, Mock(Logger))
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.register(ConnectionPool, [
+            getConnection: { -> DriverManager.getConnection(System.getenv("METADATA_CACHE_DB_URL")) },
+            getUnpooledConnection: { -> DriverManager.getConnection(System.getenv("METADATA_CACHE_DB_URL")) }
+        ] as ConnectionPool)
+        TestApplicationContext.register(DbDao, PostgresDao.getInstance())
+        TestApplicationContext.register(DatabasePartnerMetadataStorage, DatabasePartnerMetadataStorage.getInstance())
+        TestApplicationContext.register(DatabaseNotificationListener, PostgresNotificationListener.getInstance())
+        TestApplicationContext.register(CachingPartnerMetadataStorage, cache)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        TestApplicationContext.addEnvironmentVariable("DB_URL", "localhost")
+
+        cache.reset()
+    }
+
+    def cleanup() {
+        cache.reset()
+        runOnOtherNode("DELETE FROM metadata WHERE received_message_id = ?")
+    }
+
+    def "a change made on another node invalidates the cached metadata"() {
+        given:
+        def facility = new MessageHdDataType("namespace", "universalId", "universalIdType")
+        def metadata = new PartnerMetadata(inboundReportId, null, Instant.now(), null, "hash", PartnerMetadataStatus.PENDING, null, PartnerMetadataMessageType.ORDER, facility, facility, facility, facility, "placerOrderNumber")
+        // saved before listening, so the notification of the insert can't remove the first read
+        DatabasePartnerMetadataStorage.getInstance().saveMetadata(metadata)
+        cache.start()
+        conditions.eventually {
+            assert cache.getSummary().listening
+        }
+
+        when:
+        cache.readMetadata(inboundReportId)
+        def cached = cache.readMetadata(inboundReportId)
+
+        then:
+        cached.get().deliveryStatus() == PartnerMetadataStatus.PENDING
+        cache.getSummary().hits == 1
+
+        when:
+        runOnOtherNode("UPDATE metadata SET delivery_status = 'DELIVERED' WHERE received_message_id = ?")
+
+        then:
+        conditions.eventually {
+            assert cache.getSummary().invalidated >= 1
+        }
+        cache.readMetadata(inboundReportId).get().deliveryStatus() == PartnerMetadataStatus.DELIVERED
+    }
+
+    private void runOnOtherNode(String sql) {
+        def connection = DriverManager.getConnection(System.getenv("METADATA_CACHE_DB_URL"))
+        try {
+            def statement = connection.prepareStatement(sql)
+            statement.setString(1, inboundReportId)
+            statement.executeUpdate()
+        } finally {
+            connection.close()
+        }
+    }
+}
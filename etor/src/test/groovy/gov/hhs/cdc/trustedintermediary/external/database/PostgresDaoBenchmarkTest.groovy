@@ -0,0 +1,97 @@
+package gov.hhs.cdc.trustedintermediary.external.database
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.wrappers.database.ConnectionPool
+import spock.lang.Requires
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.Timestamp
+import java.sql.Types
+
+/**
+ * Compares upserting rows one statement at a time with a batch upsert against a real Postgres
+ * database. Only runs when BENCHMARK_DB_URL is set, for example
+ * {@code BENCHMARK_DB_URL='jdbc:postgresql://localhost:5434/intermediary-test?user=intermediary&password=changeIT!'
+ * ./gradlew :etor:test --tests '*PostgresDaoBenchmarkTest'}.
+ */
+@Requires({ env.BENCHMARK_DB_URL })
+class PostgresDaoBenchmarkTest extends Specification {
+
+    static final int ROWS = 5_000
+    static final String TABLE_NAME = "upsert_benchmark"
+
+    @Shared
+    Connection connection
+
+    def setupSpec() {
+        // the same driver settings as the HikariConnectionPool
+        def properties = new Properties()
+        properties.setProperty("reWriteBatchedInserts", "true")
+        properties.setProperty("prepareThreshold", "1")
+        connection = DriverManager.getConnection(System.getenv("BENCHMARK_DB_URL"), properties)
+        connection.createStatement().execute("CREATE TABLE IF NOT EXISTS ${TABLE_NAME} (id varchar(40) PRIMARY KEY, status varchar(30), updated_at timestamptz)")
+    }
+
+    def cleanupSpec() {
+        connection?.createStatement()?.execute("DROP TABLE IF EXISTS ${TABLE_NAME}")
+        connection?.close()
+    }
+
+    def setup() {
+        // hands out the one connection and keeps it open, the same as a warm connection pool
+        def pooledConnection = Proxy.newProxyInstance(Connection.classLoader, [Connection] as Class[], { proxy, Method method, Object[] args ->
+            method.name == "close" ? null : method.invoke(connection, args)
+        } as InvocationHandler) as Connection
+
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(ConnectionPool, [getConnection: { -> pooledConnection }] as ConnectionPool)
+        TestApplicationContext.register(PostgresDao, PostgresDao.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        connection.createStatement().execute("TRUNCATE ${TABLE_NAME}")
+    }
+
+    def "batch upserts compared with one upsert per row"() {
+        given:
+        def dao = PostgresDao.getInstance()
+        def rows = (1..ROWS).collect { rowFor("row" + it) }
+
+        when:
+        def singleMillis = measure {
+            rows.each { dao.upsertData(TABLE_NAME, it, "(id)") }
+        }
+        connection.createStatement().execute("TRUNCATE ${TABLE_NAME}")
+        def batchMillis = measure {
+            dao.upsertBatch(TABLE_NAME, rows, "(id)")
+        }
+
+        println "One upsert per row: ${singleMillis} ms, ${(long) (ROWS * 1000 / Math.max(singleMillis, 1))} rows/s"
+        println "Batch upsert:       ${batchMillis} ms, ${(long) (ROWS * 1000 / Math.max(batchMillis, 1))} rows/s"
+
+        then:
+        def resultSet = connection.createStatement().executeQuery("SELECT count(*) FROM ${TABLE_NAME}")
+        resultSet.next()
+        resultSet.getInt(1) == ROWS
+    }
+
+    private List<DbColumn> rowFor(String id) {
+        return [
+            new DbColumn("id", id, false, Types.VARCHAR),
+            new DbColumn("status", "PENDING", true, Types.VARCHAR),
+            new DbColumn("updated_at", new Timestamp(System.currentTimeMillis()), true, Types.TIMESTAMP_WITH_TIMEZONE),
+        ]
+    }
+
+    private long measure(Closure work) {
+        def start = System.nanoTime()
+        work()
+        return (System.nanoTime() - start).intdiv(1_000_000)
+    }
+}
@@ -340,4 +340,192 @@ class PostgresDaoTest extends Specification {
         def thrownException = thrown(SQLException)
         thrownException.getCause() == originalException
     }
+
+    def "updateData returns the number of changed rows"() {
+        given:
+        mockConnPool.getConnection() >> mockConn
+        mockConn.prepareStatement(_ as String) >> mockPreparedStatement
+
+        TestApplicationContext.register(ConnectionPool, mockConnPool)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        def sqlGenerator = { connection -> connection.prepareStatement("UPDATE table SET value = 'DogCow'") }
+
+        when:
+        def changedRows = PostgresDao.getInstance().updateData(sqlGenerator)
+
+        then:
+        changedRows == 3
+        1 * mockPreparedStatement.executeUpdate() >> 3
+    }
+
+    def "updateData fails from SQL generator"() {
+        given:
+        mockConnPool.getConnection() >> mockConn
+
+        TestApplicationContext.register(ConnectionPool, mockConnPool)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        def originalException = new RuntimeException("oh no!")
+        def sqlGenerator = { connection -> throw originalException }
+
+        when:
+        PostgresDao.getInstance().updateData(sqlGenerator)
+
+        then:
+        def thrownException = thrown(SQLException)
+        thrownException.getCause() == originalException
+    }
+
+    def "upsertData with a connection uses that connection"() {
+        given:
+        TestApplicationContext.register(ConnectionPool, mockConnPool)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        PostgresDao.getInstance().upsertData(mockConn, "DogCow", [
+            new DbColumn("Moof", "Clarus", false, Types.VARCHAR),
+        ], "(Moof)")
+
+        then:
+        1 * mockConn.prepareStatement({ it.startsWith("INSERT INTO DogCow (Moof)") }) >> mockPreparedStatement
+        1 * mockPreparedStatement.executeUpdate()
+        0 * mockConnPool.getConnection()
+        0 * mockConn.close()
+    }
+
+    def "upsertData reuses the generated SQL for the same table and columns"() {
+        given:
+        def columns = [
+            new DbColumn("Moof", "Clarus", false, Types.VARCHAR),
+            new DbColumn("second_column", "DogCow", true, Types.VARCHAR),
+        ]
+        def sqlStatements = []
+
+        mockConnPool.getConnection() >> mockConn
+        mockConn.prepareStatement(_ as String) >> { String sqlStatement ->
+            sqlStatements.add(sqlStatement)
+            return mockPreparedStatement
+        }
+
+        TestApplicationContext.register(ConnectionPool, mockConnPool)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        PostgresDao.getInstance().upsertData("CachedDogCow", columns, "(Moof)")
+        PostgresDao.getInstance().upsertData("CachedDogCow", [
+            new DbColumn("Moof", "Other", false, Types.VARCHAR),
+            new DbColumn("second_column", null, true, Types.VARCHAR),
+        ], "(Moof)")
+
+        then:
+        sqlStatements.size() == 2
+        sqlStatements[0].is(sqlStatements[1])
+    }
+
+    def "upsertBatch sends every row in one batch inside a transaction"() {
+        given:
+        def rows = (1..3).collect {
+            [
+                new DbColumn("Moof", "Clarus" + it, false, Types.VARCHAR),
+                new DbColumn("second_column", it == 2 ? null : "DogCow", true, Types.VARCHAR),
+            ]
+        }
+
+        mockConnPool.getConnection() >> mockConn
+        mockConn.getAutoCommit() >> true
+
+        TestApplicationContext.register(ConnectionPool, mockConnPool)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        PostgresDao.getInstance().upsertBatch("DogCow", rows, "(Moof)")
+
+        then:
+        1 * mockConn.prepareStatement({ it.contains("ON CONFLICT (Moof) DO UPDATE SET second_column = EXCLUDED.second_column") }) >> mockPreparedStatement
+        5 * mockPreparedStatement.setObject(_ as Integer, _, Types.VARCHAR)
+        1 * mockPreparedStatement.setNull(2, Types.VARCHAR)
+        3 * mockPreparedStatement.addBatch()
+        1 * mockPreparedStatement.executeBatch()
+        0 * mockPreparedStatement.executeUpdate()
+        1 * mockConn.setAutoCommit(false)
+        1 * mockConn.commit()
+    }
+
+    def "upsertBatch rejects rows with different columns"() {
+        given:
+        TestApplicationContext.register(ConnectionPool, mockConnPool)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        PostgresDao.getInstance().upsertBatch("DogCow", [
+            [
+                new DbColumn("Moof", "Clarus", false, Types.VARCHAR)
+            ],
+            [
+                new DbColumn("Clarus", "Moof", false, Types.VARCHAR)
+            ]
+        ], null)
+
+        then:
+        thrown(IllegalArgumentException)
+        0 * mockConnPool.getConnection()
+    }
+
+    def "upsertBatch does nothing without rows"() {
+        given:
+        TestApplicationContext.register(ConnectionPool, mockConnPool)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        PostgresDao.getInstance().upsertBatch("DogCow", [], null)
+
+        then:
+        0 * mockConnPool.getConnection()
+    }
+
+    def "runInTransaction commits when the statements succeed"() {
+        given:
+        mockConnPool.getConnection() >> mockConn
+        mockConn.getAutoCommit() >> true
+
+        TestApplicationContext.register(ConnectionPool, mockConnPool)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        def usedConnection = null
+
+        when:
+        PostgresDao.getInstance().runInTransaction({ connection -> usedConnection = connection })
+
+        then:
+        usedConnection == mockConn
+        1 * mockConn.setAutoCommit(false)
+        1 * mockConn.commit()
+        0 * mockConn.rollback()
+        1 * mockConn.setAutoCommit(true)
+        1 * mockConn.close()
+    }
+
+    def "runInTransaction rolls back when a statement fails"() {
+        given:
+        mockConnPool.getConnection() >> mockConn
+        mockConn.getAutoCommit() >> true
+
+        TestApplicationContext.register(ConnectionPool, mockConnPool)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        def originalException = new SQLException("DogCow")
+
+        when:
+        PostgresDao.getInstance().runInTransaction({ connection -> throw originalException })
+
+        then:
+        def thrownException = thrown(SQLException)
+        thrownException == originalException
+        0 * mockConn.commit()
+        1 * mockConn.rollback()
+        1 * mockConn.setAutoCommit(true)
+    }
 }
@@ -0,0 +1,113 @@
+package gov.hhs.cdc.trustedintermediary.external.database
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLink
+import gov.hhs.cdc.trustedintermediary.etor.messagelink.MessageLinkStorage
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStorage
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import spock.lang.Requires
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.PreparedStatement
+import java.time.Instant
+import java.time.LocalDate
+import java.util.function.Function
+import java.util.stream.Collector
+import java.util.stream.Stream
+
+/**
+ * Explains every metadata and message link query against a migrated Postgres database and fails if
+ * any of them would scan a whole table. Only runs when QUERY_PLAN_DB_URL is set, for example
+ * {@code QUERY_PLAN_DB_URL='jdbc:postgresql://localhost:5434/intermediary-test?user=intermediary&password=changeIT!'
+ * ./gradlew :etor:test --tests '*QueryPlanTest'}.
+ */
+@Requires({ env.QUERY_PLAN_DB_URL })
+class QueryPlanTest extends Specification {
+
+    @Shared
+    Connection connection
+
+    def mockDao = Mock(DbDao)
+    def plans = []
+
+    def setupSpec() {
+        connection = DriverManager.getConnection(System.getenv("QUERY_PLAN_DB_URL"))
+        // the test database is nearly empty, so a sequential scan would otherwise be the cheapest
+        // plan for every query. With them disabled, one only comes back when no index fits.
+        connection.createStatement().execute("SET enable_seqscan = off")
+    }
+
+    def cleanupSpec() {
+        connection?.close()
+    }
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(DbDao, mockDao)
+        TestApplicationContext.register(Logger, Mock(Logger))
+        TestApplicationContext.register(PartnerMetadataStorage, DatabasePartnerMetadataStorage.getInstance())
+        TestApplicationContext.register(MessageLinkStorage, DatabaseMessageLinkStorage.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        mockDao.fetchFirstData(_ as Function<Connection, PreparedStatement>, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter ->
+            explain(sqlGenerator)
+            return null
+        }
+        mockDao.fetchManyData(_ as Function<Connection, PreparedStatement>, _, _) >> { Function<Connection, PreparedStatement> sqlGenerator, converter, Collector collector ->
+            explain(sqlGenerator)
+            return Stream.empty().collect(collector)
+        }
+        mockDao.updateData(_ as Function<Connection, PreparedStatement>) >> { Function<Connection, PreparedStatement> sqlGenerator ->
+            explain(sqlGenerator)
+            return 0
+        }
+    }
+
+    def "#query doesn't scan a whole table"() {
+        when:
+        runQuery.call()
+
+        then:
+        !plans.isEmpty()
+        plans.collectMany { sequentialScans(it) } == []
+
+        where:
+        query                                                   | runQuery
+        "readMetadata"                                          | { DatabasePartnerMetadataStorage.getInstance().readMetadata("inboundReportId") }
+        "readMetadataSummaryForSender"                          | { DatabasePartnerMetadataStorage.getInstance().readMetadataSummaryForSender("sender", null, null, 10) }
+        "readMetadataSummaryForSender with a time and a token"  | { DatabasePartnerMetadataStorage.getInstance().readMetadataSummaryForSender("sender", Instant.now(), "inboundReportId", 10) }
+        "readStatusCountsForSender"                             | { DatabasePartnerMetadataStorage.getInstance().readStatusCountsForSender("sender", LocalDate.now(), LocalDate.now()) }
+        "readMetadataForMessageLinking"                         | { DatabasePartnerMetadataStorage.getInstance().readMetadataForMessageLinking("inboundReportId") }
+        "saveTimeReceived"                                      | { DatabasePartnerMetadataStorage.getInstance().saveTimeReceived("inboundReportId", Instant.now()) }
+        "claimInboundReportIdsMissingTimeReceived"              | { DatabasePartnerMetadataStorage.getInstance().claimInboundReportIdsMissingTimeReceived(Instant.now(), Instant.now(), 10) }
+        "claimPendingStatusChecks"                              | { DatabasePartnerMetadataStorage.getInstance().claimPendingStatusChecks(Instant.now(), Instant.now(), 10) }
+        "readStatusCheckedAt"                                   | { DatabasePartnerMetadataStorage.getInstance().readStatusCheckedAt("inboundReportId") }
+        "getMessageLink"                                        | { DatabaseMessageLinkStorage.getInstance().getMessageLink("inboundReportId") }
+        "getMessageLinks"                                       | { DatabaseMessageLinkStorage.getInstance().getMessageLinks(Set.of("inboundReportId", "otherReportId")) }
+        "saveMessageLink"                                       | { DatabaseMessageLinkStorage.getInstance().saveMessageLink(new MessageLink(UUID.randomUUID(), Set.of("inboundReportId", "otherReportId"))) }
+        "linkMessages"                                          | { DatabaseMessageLinkStorage.getInstance().linkMessages(Set.of("inboundReportId", "otherReportId")) }
+    }
+
+    private void explain(Function<Connection, PreparedStatement> sqlGenerator) {
+        // hands the storage a connection that prepares the EXPLAIN of its query instead
+        def explainingConnection = [
+            prepareStatement: { String sql -> connection.prepareStatement("EXPLAIN (FORMAT JSON) " + sql) },
+            createArrayOf: { String typeName, Object[] elements -> connection.createArrayOf(typeName, elements) }
+        ] as Connection
+
+        def resultSet = sqlGenerator.apply(explainingConnection).executeQuery()
+        resultSet.next()
+        plans.add(new ObjectMapper().readValue(resultSet.getString(1), List)[0]["Plan"])
+    }
+
+    private List<String> sequentialScans(Map plan) {
+        def scans = plan["Node Type"] == "Seq Scan" ? [plan["Relation Name"] as String] : []
+        plan["Plans"]?.each { scans.addAll(sequentialScans(it as Map)) }
+        return scans
+    }
+}
@@ -93,6 +93,37 @@ class FileMessageLinkStorageTest extends Specification {
         1 * mockLogger.logWarning(_ as String, repeatedMessageId)
     }
 
+    def "getMessageLinks returns every link of the messages"() {
+        given:
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        def firstLink = new MessageLink(UUID.randomUUID(), Set.of("batchA", "batchB"))
+        def secondLink = new MessageLink(UUID.randomUUID(), Set.of("batchC"))
+        def otherLink = new MessageLink(UUID.randomUUID(), Set.of("batchD"))
+        [firstLink, secondLink, otherLink].each { messageLinkStorage.saveMessageLink(it) }
+
+        when:
+        def actual = messageLinkStorage.getMessageLinks(Set.of("batchA", "batchC", "batchE"))
+
+        then:
+        actual == Set.of(firstLink, secondLink)
+    }
+
+    def "getMessageLinks throws MessageLinkException when unable to parse file"() {
+        given:
+        def mockFormatter = Mock(Formatter)
+        mockFormatter.convertJsonToObject(_ as String, _ as TypeReference) >> {throw new FormatterProcessingException("error", new Exception())}
+        TestApplicationContext.register(Formatter, mockFormatter)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        messageLinkStorage.getMessageLinks(Set.of("messageId"))
+
+        then:
+        thrown(MessageLinkException)
+    }
+
     def "saveMessageLink throws MessageLinkException when unable to save file"() {
         given:
         def messageLink = new MessageLink(UUID.randomUUID(), Set.of("messageId1", "messageId2"))
@@ -134,4 +165,40 @@ class FileMessageLinkStorageTest extends Specification {
             messageIds.containsAll(existingMessageLink.messageIds) && messageIds.containsAll(newMessageLink.messageIds)
         }
     }
+
+    def "linkMessages creates a new link when none of the messages are linked"() {
+        given:
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        messageLinkStorage.linkMessages(Set.of("newLink1", "newLink2"))
+
+        then:
+        def link = messageLinkStorage.getMessageLink("newLink1")
+        link.isPresent()
+        link.get().linkId != null
+        link.get().messageIds == Set.of("newLink1", "newLink2")
+    }
+
+    def "linkMessages merges every link of the messages into the one with the lowest id"() {
+        given:
+        def lowerLinkId = UUID.fromString("00000000-0000-0000-0000-000000000001")
+        def higherLinkId = UUID.fromString("00000000-0000-0000-0000-000000000002")
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        messageLinkStorage.saveMessageLink(new MessageLink(higherLinkId, Set.of("mergeA", "mergeB")))
+        messageLinkStorage.saveMessageLink(new MessageLink(lowerLinkId, Set.of("mergeC", "mergeD")))
+
+        when:
+        messageLinkStorage.linkMessages(Set.of("mergeA", "mergeC", "mergeE"))
+
+        then:
+        ["mergeA", "mergeB", "mergeC", "mergeD", "mergeE"].every { messageId ->
+            def link = messageLinkStorage.getMessageLink(messageId)
+            link.isPresent() && link.get().linkId == lowerLinkId && link.get().messageIds == Set.of("mergeA", "mergeB", "mergeC", "mergeD", "mergeE")
+        }
+        0 * mockLogger.logWarning(_ as String, _)
+    }
 }
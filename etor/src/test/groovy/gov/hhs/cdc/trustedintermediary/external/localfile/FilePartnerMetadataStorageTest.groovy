@@ -6,6 +6,8 @@ import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadata
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataException
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMessageType
 import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatus
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataStatusCount
+import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataSummary
 import gov.hhs.cdc.trustedintermediary.external.jackson.Jackson
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException
@@ -13,6 +15,7 @@ import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference
 
 import java.nio.file.Files
 import java.time.Instant
+import java.time.LocalDate
 import spock.lang.Specification
 
 class FilePartnerMetadataStorageTest extends Specification {
@@ -83,6 +86,22 @@ class FilePartnerMetadataStorageTest extends Specification {
         actualMetadata.get() == metadata2
     }
 
+    def "saveAllMetadata saves each metadata"() {
+        given:
+        PartnerMetadata metadata1 = new PartnerMetadata("inboundReportId1", PartnerMetadataStatus.DELIVERED)
+        PartnerMetadata metadata2 = new PartnerMetadata("inboundReportId2", PartnerMetadataStatus.FAILED)
+
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        FilePartnerMetadataStorage.getInstance().saveAllMetadata([metadata1, metadata2])
+
+        then:
+        FilePartnerMetadataStorage.getInstance().readMetadata("inboundReportId1").get() == metadata1
+        FilePartnerMetadataStorage.getInstance().readMetadata("inboundReportId2").get() == metadata2
+    }
+
     def "readMetadata throws PartnerMetadataException when unable to parse file"() {
         given:
         def mockFormatter = Mock(Formatter)
@@ -111,21 +130,73 @@ class FilePartnerMetadataStorageTest extends Specification {
         actualMetadata.isEmpty()
     }
 
-    def "readMetadataForSender returns a set of PartnerMetadata"() {
+    def "readMetadataSummaryForSender returns the summaries in inbound report id order"() {
         given:
         PartnerMetadata metadata2 = new PartnerMetadata("abcdefghi", null, null, null, null, null, null, null, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number")
-        PartnerMetadata metadata1 = new PartnerMetadata("123456789", null, null, null, null, null, null, null, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number")
+        PartnerMetadata metadata1 = new PartnerMetadata("123456789", null, null, null, null, PartnerMetadataStatus.FAILED, "DogCow", null, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number")
 
         TestApplicationContext.register(Formatter, Jackson.getInstance())
         TestApplicationContext.injectRegisteredImplementations()
 
         when:
-        FilePartnerMetadataStorage.getInstance().saveMetadata(metadata1)
         FilePartnerMetadataStorage.getInstance().saveMetadata(metadata2)
-        def metadataSet = FilePartnerMetadataStorage.getInstance().readMetadataForSender(sendingFacilityDetails.universalId())
+        FilePartnerMetadataStorage.getInstance().saveMetadata(metadata1)
+        def summaries = FilePartnerMetadataStorage.getInstance().readMetadataSummaryForSender(sendingFacilityDetails.universalId(), null, null, 10)
+
+        then:
+        summaries == [
+            new PartnerMetadataSummary("123456789", PartnerMetadataStatus.FAILED, "DogCow", receivingFacilityDetails.universalId()),
+            new PartnerMetadataSummary("abcdefghi", PartnerMetadataStatus.PENDING, null, receivingFacilityDetails.universalId())
+        ]
+    }
+
+    def "readMetadataSummaryForSender filters by time received and continues after the given id"() {
+        given:
+        def receivedSince = Instant.parse("2024-01-01T00:00:00Z")
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        ["1", "2", "3", "4"].each {
+            FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata(it, "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number").withTimeReceived(receivedSince))
+        }
+        FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata("5", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number").withTimeReceived(receivedSince.minusSeconds(1)))
+
+        when:
+        def summaries = FilePartnerMetadataStorage.getInstance().readMetadataSummaryForSender(sendingFacilityDetails.universalId(), receivedSince, "1", 2)
 
         then:
-        metadataSet.containsAll(Set.of(metadata1, metadata2))
+        summaries*.inboundReportId() == ["2", "3"]
+    }
+
+    def "readStatusCountsForSender counts the sender's messages per day and status"() {
+        given:
+        def firstDay = Instant.parse("2024-01-01T23:59:59Z")
+        def secondDay = Instant.parse("2024-01-02T00:00:00Z")
+        def otherSender = new MessageHdDataType("other_facility_name", "other_facility_id", "other_facility_type")
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata("1", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number").withTimeReceived(firstDay))
+        FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata("2", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number").withTimeReceived(firstDay))
+        FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata("3", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number").withTimeReceived(firstDay).withDeliveryStatus(PartnerMetadataStatus.FAILED))
+        FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata("4", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number").withTimeReceived(secondDay))
+        FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata("5", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number"))
+        FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata("6", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, otherSender, receivingAppDetails, receivingFacilityDetails, "placer_order_number").withTimeReceived(firstDay))
+
+        when:
+        def allCounts = FilePartnerMetadataStorage.getInstance().readStatusCountsForSender(sendingFacilityDetails.universalId(), null, null)
+        def secondDayCounts = FilePartnerMetadataStorage.getInstance().readStatusCountsForSender(sendingFacilityDetails.universalId(), LocalDate.parse("2024-01-02"), null)
+
+        then:
+        allCounts == [
+            new PartnerMetadataStatusCount(null, PartnerMetadataStatus.PENDING, 1),
+            new PartnerMetadataStatusCount(LocalDate.parse("2024-01-01"), PartnerMetadataStatus.PENDING, 2),
+            new PartnerMetadataStatusCount(LocalDate.parse("2024-01-01"), PartnerMetadataStatus.FAILED, 1),
+            new PartnerMetadataStatusCount(LocalDate.parse("2024-01-02"), PartnerMetadataStatus.PENDING, 1)
+        ]
+        secondDayCounts == [
+            new PartnerMetadataStatusCount(LocalDate.parse("2024-01-02"), PartnerMetadataStatus.PENDING, 1)
+        ]
     }
 
     def "readMetadataForMessageLinking returns a set of PartnerMetadata"() {
@@ -162,6 +233,48 @@ class FilePartnerMetadataStorageTest extends Specification {
         !metadataSetWithMatchingSendingAndReceivingFacilityDetails.contains(matchingSendingFacilityDetailsMetadata2.inboundReportId())
     }
 
+    def "readMetadataForMessageLinking ignores the case and surrounding spaces of the facility"() {
+        given:
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        def orderMetadata = new PartnerMetadata("normalizedOrder", null, null, null, null, null, null, null, null, new MessageHdDataType("sender", "Sending_Facility", "type"), null, new MessageHdDataType("receiver", null, null), "normalizedPlacerOrderNumber")
+        def resultMetadata = new PartnerMetadata("normalizedResult", null, null, null, null, null, null, null, null, new MessageHdDataType(" RECEIVER ", null, null), null, new MessageHdDataType("sender", " SENDING_facility", "type"), "normalizedPlacerOrderNumber")
+        def otherOrderMetadata = new PartnerMetadata("normalizedOtherOrder", null, null, null, null, null, null, null, null, new MessageHdDataType("sender", "sending_facility ", "type"), null, new MessageHdDataType(null, null, null), "normalizedPlacerOrderNumber")
+        def unrelatedMetadata = new PartnerMetadata("normalizedUnrelated", null, null, null, null, null, null, null, null, new MessageHdDataType("receiver", null, null), null, new MessageHdDataType(null, null, null), "otherPlacerOrderNumber")
+        [orderMetadata, resultMetadata, otherOrderMetadata, unrelatedMetadata].each {
+            FilePartnerMetadataStorage.getInstance().saveMetadata(it)
+        }
+
+        when:
+        def linkedIds = FilePartnerMetadataStorage.getInstance().readMetadataForMessageLinking("normalizedOrder")
+
+        then:
+        linkedIds == Set.of("normalizedResult", "normalizedOtherOrder")
+    }
+
+    def "readMetadataForMessageLinking matches the messages sent to the sender, not the ones sent by the receiver"() {
+        given:
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        def facilityA = new MessageHdDataType("a", "facilityA", "type")
+        def facilityB = new MessageHdDataType("b", "facilityB", "type")
+        def facilityC = new MessageHdDataType("c", "facilityC", "type")
+        def order = new PartnerMetadata("directionOrder", null, null, null, null, null, null, null, null, facilityA, null, facilityB, "directionPlacerOrderNumber")
+        def sentToSender = new PartnerMetadata("directionSentToSender", null, null, null, null, null, null, null, null, facilityC, null, facilityA, "directionPlacerOrderNumber")
+        def sentByReceiver = new PartnerMetadata("directionSentByReceiver", null, null, null, null, null, null, null, null, facilityB, null, facilityC, "directionPlacerOrderNumber")
+        [order, sentToSender, sentByReceiver].each {
+            FilePartnerMetadataStorage.getInstance().saveMetadata(it)
+        }
+
+        when:
+        def linkedIds = FilePartnerMetadataStorage.getInstance().readMetadataForMessageLinking("directionOrder")
+
+        then:
+        linkedIds == Set.of("directionSentToSender")
+    }
+
     def "readMetadataForMessageLinking returns an empty set when no metadata is found"() {
         when:
         def metadataSet = FilePartnerMetadataStorage.getInstance().readMetadataForMessageLinking("nonexistentId")
@@ -188,4 +301,81 @@ class FilePartnerMetadataStorageTest extends Specification {
         then:
         thrown(PartnerMetadataException)
     }
+
+    def "saveTimeReceived sets the time received only when it's missing"() {
+        given:
+        def timeReceived = Instant.parse("2024-04-09T18:18:00.553Z")
+        def withoutTimeReceived = new PartnerMetadata("inboundReportId1", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number")
+        def withTimeReceived = new PartnerMetadata("inboundReportId2", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number")
+                .withTimeReceived(Instant.parse("2023-12-04T18:51:48.941875Z"))
+
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        FilePartnerMetadataStorage.getInstance().saveMetadata(withoutTimeReceived)
+        FilePartnerMetadataStorage.getInstance().saveMetadata(withTimeReceived)
+
+        when:
+        FilePartnerMetadataStorage.getInstance().saveTimeReceived("inboundReportId1", timeReceived)
+        FilePartnerMetadataStorage.getInstance().saveTimeReceived("inboundReportId2", timeReceived)
+        FilePartnerMetadataStorage.getInstance().saveTimeReceived("unknownReportId", timeReceived)
+
+        then:
+        FilePartnerMetadataStorage.getInstance().readMetadata("inboundReportId1").get() == withoutTimeReceived.withTimeReceived(timeReceived)
+        FilePartnerMetadataStorage.getInstance().readMetadata("inboundReportId2").get() == withTimeReceived
+    }
+
+    def "claimInboundReportIdsMissingTimeReceived claims the metadata without a time received"() {
+        given:
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        ["missingTime1", "missingTime2", "missingTime3"].each {
+            FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata(it, "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number"))
+        }
+        FilePartnerMetadataStorage.getInstance().saveTimeReceived("missingTime2", Instant.now())
+
+        def claimedAt = Instant.now()
+
+        when:
+        def firstClaim = FilePartnerMetadataStorage.getInstance().claimInboundReportIdsMissingTimeReceived(claimedAt, claimedAt, 1)
+        def secondClaim = FilePartnerMetadataStorage.getInstance().claimInboundReportIdsMissingTimeReceived(claimedAt, claimedAt, 10)
+        def thirdClaim = FilePartnerMetadataStorage.getInstance().claimInboundReportIdsMissingTimeReceived(claimedAt, claimedAt, 10)
+        def laterClaim = FilePartnerMetadataStorage.getInstance().claimInboundReportIdsMissingTimeReceived(claimedAt.plusSeconds(1), claimedAt.plusSeconds(1), 10)
+
+        then:
+        firstClaim.size() == 1
+        (firstClaim + secondClaim) == Set.of("missingTime1", "missingTime3")
+        thirdClaim.isEmpty()
+        laterClaim == Set.of("missingTime1", "missingTime3")
+    }
+
+    def "claimPendingStatusChecks claims pending sent metadata that's due for a check"() {
+        given:
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        def pending = new PartnerMetadata("claimPending", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number")
+        FilePartnerMetadataStorage.getInstance().saveMetadata(pending.withOutboundReportId("outbound1"))
+        FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata("claimNotSent", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number"))
+        FilePartnerMetadataStorage.getInstance().saveMetadata(new PartnerMetadata("claimDelivered", "abcd", PartnerMetadataMessageType.ORDER, sendingAppDetails, sendingFacilityDetails, receivingAppDetails, receivingFacilityDetails, "placer_order_number").withOutboundReportId("outbound2").withDeliveryStatus(PartnerMetadataStatus.DELIVERED))
+
+        def checkedAt = Instant.now()
+
+        when:
+        def firstClaim = FilePartnerMetadataStorage.getInstance().claimPendingStatusChecks(checkedAt, checkedAt, 10)
+        def secondClaim = FilePartnerMetadataStorage.getInstance().claimPendingStatusChecks(checkedAt, checkedAt, 10)
+        def laterClaim = FilePartnerMetadataStorage.getInstance().claimPendingStatusChecks(checkedAt.plusSeconds(1), checkedAt.plusSeconds(1), 10)
+
+        then:
+        firstClaim == Set.of("claimPending")
+        secondClaim.isEmpty()
+        laterClaim == Set.of("claimPending")
+        FilePartnerMetadataStorage.getInstance().readStatusCheckedAt("claimPending") == Optional.of(checkedAt.plusSeconds(1))
+    }
+
+    def "readStatusCheckedAt returns empty when the status was never checked"() {
+        expect:
+        FilePartnerMetadataStorage.getInstance().readStatusCheckedAt("neverChecked").isEmpty()
+    }
 }
@@ -0,0 +1,207 @@
+package gov.hhs.cdc.trustedintermediary.external.reportstream
+
+import gov.hhs.cdc.trustedintermediary.wrappers.HttpClientException
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeoutException
+
+class CircuitBreakerTest extends Specification {
+
+    def mockLogger = Mock(Logger)
+
+    def "the circuit opens after the failure threshold and rejects calls without running them"() {
+        given:
+        def breaker = new CircuitBreaker("waters", 2, 60_000, 10, 10, mockLogger)
+        def calls = 0
+
+        when:
+        2.times {
+            try {
+                breaker.call({ calls++; throw new HttpClientException("500", new IOException()) })
+            } catch (HttpClientException ignored) {
+            }
+        }
+        breaker.call({ calls++; "response" })
+
+        then:
+        thrown(ReportStreamCallRejectedException)
+        calls == 2
+        breaker.getState() == CircuitBreaker.State.OPEN
+        breaker.getSummary().rejectedWhileOpen == 1
+        1 * mockLogger.logWarning(_ as String, "waters", 2)
+    }
+
+    def "a success resets the consecutive failures"() {
+        given:
+        def breaker = new CircuitBreaker("waters", 2, 60_000, 10, 10, mockLogger)
+
+        when:
+        failOnce(breaker)
+        breaker.call({ "response" })
+        failOnce(breaker)
+
+        then:
+        breaker.getState() == CircuitBreaker.State.CLOSED
+        breaker.getSummary().consecutiveFailures == 1
+    }
+
+    def "after the open period a successful probe closes the circuit"() {
+        given:
+        def breaker = new CircuitBreaker("history", 1, 1, 10, 10, mockLogger)
+        failOnce(breaker)
+        Thread.sleep(5)
+
+        when:
+        def response = breaker.call({ "response" })
+
+        then:
+        response == "response"
+        breaker.getState() == CircuitBreaker.State.CLOSED
+    }
+
+    def "a failed probe opens the circuit again"() {
+        given:
+        def breaker = new CircuitBreaker("history", 1, 1, 10, 10, mockLogger)
+        failOnce(breaker)
+        Thread.sleep(5)
+
+        when:
+        failOnce(breaker)
+
+        then:
+        breaker.getState() == CircuitBreaker.State.OPEN
+    }
+
+    def "only one probe is let through while the circuit is half-open"() {
+        given:
+        def breaker = new CircuitBreaker("delivery", 1, 1, 10, 10, mockLogger)
+        failOnce(breaker)
+        Thread.sleep(5)
+        def probe = new CompletableFuture<String>()
+
+        when:
+        def probeResult = breaker.callAsync({ probe })
+        def secondResult = breaker.callAsync({ CompletableFuture.completedFuture("response") })
+
+        then:
+        breaker.getState() == CircuitBreaker.State.HALF_OPEN
+        secondResult.isCompletedExceptionally()
+
+        when:
+        probe.complete("response")
+
+        then:
+        probeResult.get() == "response"
+        breaker.getState() == CircuitBreaker.State.CLOSED
+    }
+
+    def "calls over the concurrency limit are rejected"() {
+        given:
+        def breaker = new CircuitBreaker("waters", 5, 60_000, 1, 1, mockLogger)
+        def inFlight = new CompletableFuture<String>()
+
+        when:
+        breaker.callAsync({ inFlight })
+        breaker.callAsync({ CompletableFuture.completedFuture("response") }).get()
+
+        then:
+        def exception = thrown(ExecutionException)
+        exception.cause instanceof ReportStreamCallRejectedException
+        breaker.getSummary().inFlight == 1
+        breaker.getSummary().rejectedWhileFull == 1
+
+        when:
+        inFlight.complete("response")
+
+        then:
+        breaker.getSummary().inFlight == 0
+        breaker.callAsync({ CompletableFuture.completedFuture("next") }).get() == "next"
+    }
+
+    def "a failed async call counts as a failure"() {
+        given:
+        def breaker = new CircuitBreaker("waters", 1, 60_000, 10, 10, mockLogger)
+
+        when:
+        breaker.callAsync({ CompletableFuture.failedFuture(new HttpClientException("500", new IOException())) })
+
+        then:
+        breaker.getState() == CircuitBreaker.State.OPEN
+        breaker.getSummary().failures == 1
+    }
+
+    def "a rejected request is returned to the caller but doesn't count as a failure"() {
+        given:
+        def breaker = new CircuitBreaker("waters", 1, 60_000, 10, 10, mockLogger)
+
+        when:
+        breaker.call({ throw new HttpClientException("400", 400, new IOException()) })
+
+        then:
+        def exception = thrown(HttpClientException)
+        exception.getStatusCode().getAsInt() == 400
+        breaker.getState() == CircuitBreaker.State.CLOSED
+        breaker.getSummary().failures == 0
+        breaker.getSummary().successes == 1
+    }
+
+    def "a rejected async request fails its future but doesn't count as a failure"() {
+        given:
+        def breaker = new CircuitBreaker("history", 1, 60_000, 10, 10, mockLogger)
+
+        when:
+        def result = breaker.callAsync({ CompletableFuture.failedFuture(new HttpClientException("404", 404, new IOException())) })
+
+        then:
+        result.isCompletedExceptionally()
+        breaker.getState() == CircuitBreaker.State.CLOSED
+        breaker.getSummary().failures == 0
+    }
+
+    def "a probe that's answered with a client error closes the circuit"() {
+        given:
+        def breaker = new CircuitBreaker("history", 1, 1, 10, 10, mockLogger)
+        failOnce(breaker)
+        Thread.sleep(5)
+
+        when:
+        breaker.call({ throw new HttpClientException("404", 404, new IOException()) })
+
+        then:
+        thrown(HttpClientException)
+        breaker.getState() == CircuitBreaker.State.CLOSED
+    }
+
+    def "isFailure counts server errors, throttling, timeouts and I/O errors"() {
+        expect:
+        CircuitBreaker.isFailure(exception) == failure
+
+        where:
+        exception                                                                         || failure
+        new HttpClientException("500", 500, new IOException())                            || true
+        new HttpClientException("503", 503, new IOException())                            || true
+        new HttpClientException("429", 429, new IOException())                            || true
+        new HttpClientException("timeout", new IOException())                             || true
+        new CompletionException(new HttpClientException("502", 502, new IOException()))   || true
+        new ExecutionException(new HttpClientException("no response", new IOException())) || true
+        new IOException()                                                                 || true
+        new TimeoutException()                                                            || true
+        new HttpClientException("400", 400, new IOException())                            || false
+        new HttpClientException("401", 401, new IOException())                            || false
+        new HttpClientException("404", 404, new IOException())                            || false
+        new CompletionException(new HttpClientException("409", 409, new IOException()))   || false
+        new HttpClientException("301", 301, new IOException())                            || false
+        new IllegalArgumentException()                                                    || false
+    }
+
+    private static void failOnce(CircuitBreaker breaker) {
+        try {
+            breaker.call({ throw new HttpClientException("500", new IOException()) })
+        } catch (HttpClientException ignored) {
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package gov.hhs.cdc.trustedintermediary.external.reportstream
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import spock.lang.Specification
+
+class ReportStreamCircuitBreakersTest extends Specification {
+
+    def circuitBreakers = ReportStreamCircuitBreakers.getInstance()
+    def mockLogger = Mock(Logger)
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(ReportStreamCircuitBreakers, circuitBreakers)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        circuitBreakers.reset()
+    }
+
+    def "each endpoint has its own circuit breaker"() {
+        expect:
+        circuitBreakers.get(ReportStreamCircuitBreakers.Endpoint.WATERS) != circuitBreakers.get(ReportStreamCircuitBreakers.Endpoint.DELIVERY)
+        circuitBreakers.get(ReportStreamCircuitBreakers.Endpoint.WATERS) == circuitBreakers.get(ReportStreamCircuitBreakers.Endpoint.WATERS)
+    }
+
+    def "getSummary reports every endpoint"() {
+        when:
+        def summary = circuitBreakers.getSummary()
+
+        then:
+        summary.keySet() == ["token", "waters", "history", "delivery"] as Set
+        summary.waters.state == "CLOSED"
+        summary.waters.maxConcurrentCalls == ReportStreamCircuitBreakers.DEFAULT_MAX_CONCURRENT_CALLS
+    }
+
+    def "the concurrency limit is read from the properties"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ReportStreamCircuitBreakers.MAX_CONCURRENT_CALLS_PROPERTY, "3")
+
+        expect:
+        circuitBreakers.getSummary().history.maxConcurrentCalls == 3
+    }
+
+    def "an invalid property falls back to the default"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ReportStreamCircuitBreakers.FAILURE_THRESHOLD_PROPERTY, "-1")
+
+        when:
+        circuitBreakers.get(ReportStreamCircuitBreakers.Endpoint.TOKEN)
+
+        then:
+        1 * mockLogger.logWarning(_ as String, ReportStreamCircuitBreakers.FAILURE_THRESHOLD_PROPERTY, ReportStreamCircuitBreakers.DEFAULT_FAILURE_THRESHOLD)
+    }
+}
@@ -16,6 +16,8 @@ import spock.lang.Specification
 
 import java.time.LocalDateTime
 import java.time.temporal.ChronoUnit
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
 
 class ReportStreamEndpointClientTest extends Specification {
 
@@ -23,6 +25,8 @@ class ReportStreamEndpointClientTest extends Specification {
         TestApplicationContext.reset()
         TestApplicationContext.init()
         TestApplicationContext.register(ReportStreamEndpointClient, ReportStreamEndpointClient.getInstance())
+        TestApplicationContext.register(ReportStreamCircuitBreakers, ReportStreamCircuitBreakers.getInstance())
+        ReportStreamCircuitBreakers.getInstance().reset()
     }
 
     def "requestWatersEndpoint works"() {
@@ -103,6 +107,87 @@ class ReportStreamEndpointClientTest extends Specification {
         thrown(ReportStreamEndpointClientException)
     }
 
+    def "requestWatersEndpointAsync completes with the response"() {
+        given:
+        def mockClient = Mock(HttpClient)
+        mockClient.postAsync(_ as String, _ as Map<String, String>, "message") >> CompletableFuture.completedFuture("200")
+        TestApplicationContext.register(HttpClient, mockClient)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def response = ReportStreamEndpointClient.getInstance().requestWatersEndpointAsync("message", "fake token")
+
+        then:
+        response.get() == "200"
+    }
+
+    def "the async endpoints can be in flight at the same time"() {
+        given:
+        def mockClient = Mock(HttpClient)
+        def historyResponse = new CompletableFuture<String>()
+        def deliveryResponse = new CompletableFuture<String>()
+        mockClient.getAsync({ it.contains("report_id_1/history") }, _ as Map<String, String>) >> historyResponse
+        mockClient.getAsync({ it.contains("report_id_2/delivery") }, _ as Map<String, String>) >> deliveryResponse
+        TestApplicationContext.register(HttpClient, mockClient)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def history = ReportStreamEndpointClient.getInstance().requestHistoryEndpointAsync("report_id_1", "fake token")
+        def delivery = ReportStreamEndpointClient.getInstance().requestDeliveryEndpointAsync("report_id_2", "fake token")
+
+        then:
+        !history.isDone()
+        !delivery.isDone()
+
+        when:
+        deliveryResponse.complete("delivery")
+        historyResponse.complete("history")
+
+        then:
+        history.get() == "history"
+        delivery.get() == "delivery"
+    }
+
+    def "requestDeliveryEndpointAsync fails with a ReportStreamEndpointClientException"() {
+        given:
+        def mockClient = Mock(HttpClient)
+        mockClient.getAsync(_ as String, _ as Map<String, String>) >> CompletableFuture.failedFuture(new HttpClientException("404", new IOException()))
+        TestApplicationContext.register(HttpClient, mockClient)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        ReportStreamEndpointClient.getInstance().requestDeliveryEndpointAsync("report_id", "fake token").get()
+
+        then:
+        def exception = thrown(ExecutionException)
+        exception.cause instanceof ReportStreamEndpointClientException
+        exception.cause.cause instanceof HttpClientException
+    }
+
+    def "requestWatersEndpoint fails fast once the circuit breaker opens"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ReportStreamCircuitBreakers.FAILURE_THRESHOLD_PROPERTY, "2")
+        def mockClient = Mock(HttpClient)
+        TestApplicationContext.register(HttpClient, mockClient)
+        TestApplicationContext.injectRegisteredImplementations()
+        def endpointClient = ReportStreamEndpointClient.getInstance()
+
+        when:
+        2.times {
+            try {
+                endpointClient.requestWatersEndpoint("message", "fake token")
+            } catch (ReportStreamEndpointClientException ignored) {
+            }
+        }
+        endpointClient.requestWatersEndpoint("message", "fake token")
+
+        then:
+        2 * mockClient.post(_ as String, _ as Map<String, String>, _ as String) >> { throw new HttpClientException("503", new IOException()) }
+        thrown(ReportStreamCallRejectedException)
+        ReportStreamCircuitBreakers.getInstance().get(ReportStreamCircuitBreakers.Endpoint.WATERS).getState() == CircuitBreaker.State.OPEN
+        ReportStreamCircuitBreakers.getInstance().get(ReportStreamCircuitBreakers.Endpoint.DELIVERY).getState() == CircuitBreaker.State.CLOSED
+    }
+
     def "requestDeliveryEndpoint works"() {
         given:
         def mockClient = Mock(HttpClient)
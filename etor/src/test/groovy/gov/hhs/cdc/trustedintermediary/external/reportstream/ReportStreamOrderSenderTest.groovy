@@ -6,6 +6,7 @@ import gov.hhs.cdc.trustedintermediary.etor.RSEndpointClient
 import gov.hhs.cdc.trustedintermediary.etor.orders.OrderSender
 import gov.hhs.cdc.trustedintermediary.external.localfile.MockRSEndpointClient
 import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir
+import gov.hhs.cdc.trustedintermediary.wrappers.StreamingBody
 import gov.hhs.cdc.trustedintermediary.wrappers.MetricMetadata
 import spock.lang.Specification
 
@@ -41,4 +42,35 @@ class ReportStreamOrderSenderTest extends Specification {
         then:
         noExceptionThrown()
     }
+
+    def "send streams the encoded order to the sender helper"() {
+        given:
+        def fhirResourceId = "order-id"
+        def underlying = "Mock order"
+        def mockOrder = new OrderMock(fhirResourceId, "patient-id", underlying, null, null, null, null, null)
+        def written = new ByteArrayOutputStream()
+
+        def senderHelper = Mock(ReportStreamSenderHelper)
+        TestApplicationContext.register(ReportStreamSenderHelper, senderHelper)
+
+        def mockFhir = Mock(HapiFhir)
+        mockFhir.encodeResourceToJson(underlying, _ as OutputStream) >> { Object resource, OutputStream outputStream ->
+            outputStream.write("{\"resourceType\":\"Bundle\"}".getBytes("UTF-8"))
+        }
+        TestApplicationContext.register(HapiFhir, mockFhir)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def outboundReportId = ReportStreamOrderSender.getInstance().send(mockOrder)
+
+        then:
+        1 * senderHelper.sendOrderToReportStream(_ as StreamingBody, fhirResourceId) >> { StreamingBody body, String id ->
+            body.writeTo(written)
+            Optional.of("fake-id")
+        }
+        outboundReportId.get() == "fake-id"
+        written.toString("UTF-8") == "{\"resourceType\":\"Bundle\"}"
+        0 * mockFhir.encodeResourceToJson(_)
+    }
 }
@@ -4,6 +4,7 @@ import gov.hhs.cdc.trustedintermediary.ResultMock
 import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
 import gov.hhs.cdc.trustedintermediary.etor.results.ResultSender
 import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir
+import gov.hhs.cdc.trustedintermediary.wrappers.StreamingBody
 import spock.lang.Specification
 
 class ReportStreamResultSenderTest extends Specification {
@@ -36,4 +37,35 @@ class ReportStreamResultSenderTest extends Specification {
         then:
         noExceptionThrown()
     }
+
+    def "send streams the encoded result to the sender helper"() {
+        given:
+        def fhirResourceId = "result-id"
+        def underlying = "Mock result"
+        def mockResult = new ResultMock(fhirResourceId, underlying, null, null, null, null, null)
+        def written = new ByteArrayOutputStream()
+
+        def senderHelper = Mock(ReportStreamSenderHelper)
+        TestApplicationContext.register(ReportStreamSenderHelper, senderHelper)
+
+        def mockFhir = Mock(HapiFhir)
+        mockFhir.encodeResourceToJson(underlying, _ as OutputStream) >> { Object resource, OutputStream outputStream ->
+            outputStream.write("{\"resourceType\":\"Bundle\"}".getBytes("UTF-8"))
+        }
+        TestApplicationContext.register(HapiFhir, mockFhir)
+
+        TestApplicationContext.injectRegisteredImplementations()
+
+        when:
+        def outboundReportId = ReportStreamResultSender.getInstance().send(mockResult)
+
+        then:
+        1 * senderHelper.sendResultToReportStream(_ as StreamingBody, fhirResourceId) >> { StreamingBody body, String id ->
+            body.writeTo(written)
+            Optional.of("fake-id")
+        }
+        outboundReportId.get() == "fake-id"
+        written.toString("UTF-8") == "{\"resourceType\":\"Bundle\"}"
+        0 * mockFhir.encodeResourceToJson(_)
+    }
 }
@@ -8,6 +8,7 @@ import gov.hhs.cdc.trustedintermediary.etor.metadata.partner.PartnerMetadataMess
 import gov.hhs.cdc.trustedintermediary.external.jackson.Jackson
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger
 import gov.hhs.cdc.trustedintermediary.wrappers.MetricMetadata
+import gov.hhs.cdc.trustedintermediary.wrappers.StreamingBody
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference
@@ -47,6 +48,33 @@ class ReportStreamSenderHelperTest extends Specification {
         1 * ReportStreamSenderHelper.getInstance().metadata.put(_, EtorMetadataStep.SENT_TO_REPORT_STREAM)
     }
 
+    def "sendToReportStream streams the payload"() {
+        given:
+        def payload = "streamed payload"
+        def responseBody = """{"reportId": "fake-id"}"""
+        TestApplicationContext.register(Formatter, Jackson.getInstance())
+        TestApplicationContext.register(Logger, Mock(Logger))
+
+        def mockRsClient = Mock(RSEndpointClient)
+        mockRsClient.getRsToken() >> "fake-token"
+        def sent = new ByteArrayOutputStream()
+        mockRsClient.requestWatersEndpoint(_ as StreamingBody, "fake-token") >> { StreamingBody body, String token ->
+            body.writeTo(sent)
+            responseBody
+        }
+        TestApplicationContext.register(RSEndpointClient, mockRsClient)
+
+        TestApplicationContext.injectRegisteredImplementations()
+        def body = { OutputStream outputStream -> outputStream.write(payload.getBytes("UTF-8")) } as StreamingBody
+
+        when:
+        def reportId = ReportStreamSenderHelper.getInstance().sendToReportStream(body, "testId", PartnerMetadataMessageType.ORDER)
+
+        then:
+        reportId.get() == "fake-id"
+        sent.toString("UTF-8") == payload
+    }
+
     def "sendOrderToReportStream works"() {
         setup:
         def body = "testBody"
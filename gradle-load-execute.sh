@@ -2,6 +2,7 @@
 set -e
 
 local_port=5434
+simulator_port=7071
 
 start_api() {
     echo 'Starting API'
@@ -12,6 +13,9 @@ start_api() {
     export DB_PASS=changeIT!
     export DB_SSL=require
     export REPORT_STREAM_URL_PREFIX=
+    if [ "${USE_RS_SIMULATOR}" = "true" ]; then
+        export REPORT_STREAM_URL_PREFIX=http://localhost:${simulator_port}
+    fi
     ./gradlew --no-daemon app:clean app:run > /dev/null 2>&1 &
     export API_PID="${!}"
     echo "API starting at PID ${API_PID}"
@@ -30,6 +34,13 @@ migrate_database() {
     echo "Database migrated"
 }
 
+start_simulator() {
+    echo 'Starting ReportStream simulator'
+    RS_SIMULATOR_PORT=${simulator_port} ./gradlew --no-daemon rs-simulator:run > /dev/null 2>&1 &
+    export SIMULATOR_PID="${!}"
+    echo "ReportStream simulator starting at PID ${SIMULATOR_PID}"
+}
+
 wait_for_api() {
     attempt_counter=0
     max_attempts=36
@@ -97,6 +108,10 @@ cleanup() {
     echo "Killing API at PID ${API_PID}"
     kill "${API_PID}"
     echo "PID ${API_PID} killed"
+    if [ -n "${SIMULATOR_PID}" ]; then
+        echo "Killing ReportStream simulator at PID ${SIMULATOR_PID}"
+        kill "${SIMULATOR_PID}"
+    fi
     echo "Stopping and deleting database"
     docker compose -f docker-compose.postgres-test.yml down -v
     echo "Database stopped and deleted"
@@ -105,6 +120,9 @@ cleanup() {
 trap cleanup EXIT  # Run the cleanup function on exit
 start_database
 migrate_database
+if [ "${USE_RS_SIMULATOR}" = "true" ]; then
+    start_simulator
+fi
 start_api
 wait_for_api
 warm_up_api
@@ -0,0 +1,54 @@
+package gov.hhs.cdc.trustedintermediary.rssimulator;
+
+import java.util.Random;
+
+/**
+ * A log-normal latency distribution described by its median and 99th percentile, which is close
+ * enough to how real HTTP latencies are shaped to give useful load test numbers. A distribution
+ * where both are the same always returns that value.
+ */
+public record LatencyDistribution(long medianMillis, long p99Millis) {
+
+    public static final LatencyDistribution NONE = new LatencyDistribution(0, 0);
+
+    // the z-score of the 99th percentile of a standard normal distribution
+    private static final double P99_Z_SCORE = 2.326;
+
+    public LatencyDistribution {
+        if (medianMillis < 0 || p99Millis < medianMillis) {
+            throw new IllegalArgumentException(
+                    "The median latency must not be negative or larger than the p99 latency");
+        }
+    }
+
+    /**
+     * Parses a {@code median:p99} pair of milliseconds, or a single number of milliseconds for a
+     * fixed latency.
+     */
+    public static LatencyDistribution parse(String value) {
+        String[] parts = value.trim().split(":");
+        try {
+            if (parts.length == 1) {
+                long fixed = Long.parseLong(parts[0].trim());
+                return new LatencyDistribution(fixed, fixed);
+            }
+            if (parts.length == 2) {
+                return new LatencyDistribution(
+                        Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid latency: " + value, e);
+        }
+        throw new IllegalArgumentException("Invalid latency: " + value);
+    }
+
+    public long sample(Random random) {
+        if (medianMillis == 0 || medianMillis == p99Millis) {
+            return medianMillis;
+        }
+
+        double mu = Math.log(medianMillis);
+        double sigma = (Math.log(p99Millis) - mu) / P99_Z_SCORE;
+        return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+    }
+}
@@ -0,0 +1,219 @@
+package gov.hhs.cdc.trustedintermediary.rssimulator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/**
+ * An embedded stand-in for the ReportStream token, waters, history and delivery endpoints, for
+ * measuring the Intermediary's capacity locally. Unlike the {@code MockRSEndpointClient}, requests
+ * to it go through the real HTTP client, so latency, errors, connection pooling and TLS are all
+ * exercised. Point {@code REPORT_STREAM_URL_PREFIX} at it to use it.
+ */
+public class ReportStreamSimulator {
+
+    static final String TOKEN_PATH = "/api/token";
+    static final String WATERS_PATH = "/api/waters";
+    static final String REPORT_PATH = "/api/waters/report/";
+    static final String HISTORY_SUFFIX = "/history";
+    static final String DELIVERY_SUFFIX = "/delivery";
+
+    private final HttpServer server;
+    private final ExecutorService serverExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final SimulatedReports reports;
+
+    private ReportStreamSimulator(
+            HttpServer server,
+            ExecutorService serverExecutor,
+            ScheduledExecutorService scheduler,
+            SimulatedReports reports) {
+        this.server = server;
+        this.serverExecutor = serverExecutor;
+        this.scheduler = scheduler;
+        this.reports = reports;
+    }
+
+    public static void main(String[] args) throws IOException, GeneralSecurityException {
+        var simulator =
+                start(SimulatorSettings.fromEnvironment(System.getenv()), Clock.systemUTC());
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::stop));
+        System.out.println("ReportStream simulator listening on port " + simulator.getPort());
+    }
+
+    public static ReportStreamSimulator start(SimulatorSettings settings, Clock clock)
+            throws IOException, GeneralSecurityException {
+        Random random = settings.seed() == null ? new Random() : new Random(settings.seed());
+        ObjectMapper objectMapper = new ObjectMapper();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService serverExecutor = Executors.newFixedThreadPool(threads);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(threads);
+        var reports =
+                new SimulatedReports(
+                        settings.deliveryDelay(), settings.deliveryFailureRate(), random, clock);
+
+        HttpServer server = createServer(settings);
+        server.createContext(
+                TOKEN_PATH,
+                new SimulatedEndpoint(
+                        "POST",
+                        false,
+                        settings.token(),
+                        (exchange, body) -> tokenResponse(settings, clock),
+                        scheduler,
+                        random,
+                        objectMapper));
+        server.createContext(
+                WATERS_PATH,
+                new SimulatedEndpoint(
+                        "POST",
+                        true,
+                        settings.waters(),
+                        (exchange, body) ->
+                                new SimulatedEndpoint.Response(
+                                        201, Map.of("reportId", reports.submit())),
+                        scheduler,
+                        random,
+                        objectMapper));
+
+        // history and delivery share a path prefix, so one context routes to both
+        var historyEndpoint =
+                new SimulatedEndpoint(
+                        "GET",
+                        true,
+                        settings.history(),
+                        (exchange, body) -> historyResponse(exchange, reports),
+                        scheduler,
+                        random,
+                        objectMapper);
+        var deliveryEndpoint =
+                new SimulatedEndpoint(
+                        "GET",
+                        true,
+                        settings.delivery(),
+                        (exchange, body) ->
+                                new SimulatedEndpoint.Response(
+                                        200, reports.delivery(reportId(exchange))),
+                        scheduler,
+                        random,
+                        objectMapper);
+        server.createContext(
+                REPORT_PATH,
+                exchange -> {
+                    String path = exchange.getRequestURI().getPath();
+                    if (path.endsWith(HISTORY_SUFFIX)) {
+                        historyEndpoint.handle(exchange);
+                    } else if (path.endsWith(DELIVERY_SUFFIX)) {
+                        deliveryEndpoint.handle(exchange);
+                    } else {
+                        exchange.getRequestBody().readAllBytes();
+                        exchange.sendResponseHeaders(404, -1);
+                        exchange.close();
+                    }
+                });
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        return new ReportStreamSimulator(server, serverExecutor, scheduler, reports);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getSubmittedReportCount() {
+        return reports.size();
+    }
+
+    public void stop() {
+        server.stop(0);
+        scheduler.shutdownNow();
+        serverExecutor.shutdownNow();
+    }
+
+    /**
+     * Creates an unsigned token that only carries an expiration, which is all the Intermediary
+     * reads from it.
+     */
+    static String createToken(Instant expiresAt) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header =
+                encoder.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8));
+        String claims =
+                encoder.encodeToString(
+                        ("{\"sub\":\"rs-simulator\",\"exp\":" + expiresAt.getEpochSecond() + "}")
+                                .getBytes(StandardCharsets.UTF_8));
+        return header + "." + claims + ".simulated";
+    }
+
+    private static SimulatedEndpoint.Response tokenResponse(
+            SimulatorSettings settings, Clock clock) {
+        long lifetime = settings.tokenLifetimeSeconds();
+        return new SimulatedEndpoint.Response(
+                200,
+                Map.of(
+                        "access_token",
+                        createToken(clock.instant().plusSeconds(lifetime)),
+                        "token_type",
+                        "bearer",
+                        "expires_in",
+                        lifetime));
+    }
+
+    private static SimulatedEndpoint.Response historyResponse(
+            HttpExchange exchange, SimulatedReports reports) {
+        return reports.history(reportId(exchange))
+                .map(history -> new SimulatedEndpoint.Response(200, history))
+                .orElseGet(() -> SimulatedEndpoint.error(404, "Report not found"));
+    }
+
+    private static String reportId(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        String remainder = path.substring(REPORT_PATH.length());
+        int slash = remainder.indexOf('/');
+        return slash < 0 ? remainder : remainder.substring(0, slash);
+    }
+
+    private static HttpServer createServer(SimulatorSettings settings)
+            throws IOException, GeneralSecurityException {
+        var address = new InetSocketAddress(settings.port());
+        if (settings.keystorePath() == null) {
+            return HttpServer.create(address, 0);
+        }
+
+        char[] password = settings.keystorePassword().toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream stream = Files.newInputStream(Path.of(settings.keystorePath()))) {
+            keyStore.load(stream, password);
+        }
+        KeyManagerFactory keyManagers =
+                KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), null, null);
+
+        HttpsServer server = HttpsServer.create(address, 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        return server;
+    }
+}
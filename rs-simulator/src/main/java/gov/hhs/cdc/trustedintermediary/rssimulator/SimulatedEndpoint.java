@@ -0,0 +1,101 @@
+package gov.hhs.cdc.trustedintermediary.rssimulator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles the requests for one simulated ReportStream endpoint. The response is worked out right
+ * away, but it's sent on the scheduler after the sampled latency, so slow responses don't hold up
+ * the server threads. A share of the requests set by the error rate fail with a 500 or 503, like
+ * an overloaded ReportStream would.
+ */
+public class SimulatedEndpoint implements HttpHandler {
+
+    private final String method;
+    private final boolean requiresToken;
+    private final SimulatorSettings.EndpointBehavior behavior;
+    private final Responder responder;
+    private final ScheduledExecutorService scheduler;
+    private final Random random;
+    private final ObjectMapper objectMapper;
+
+    /** Works out the response to a request that wasn't picked to fail. */
+    @FunctionalInterface
+    public interface Responder {
+        Response respond(HttpExchange exchange, String requestBody);
+    }
+
+    public record Response(int status, Object body) {}
+
+    public SimulatedEndpoint(
+            String method,
+            boolean requiresToken,
+            SimulatorSettings.EndpointBehavior behavior,
+            Responder responder,
+            ScheduledExecutorService scheduler,
+            Random random,
+            ObjectMapper objectMapper) {
+        this.method = method;
+        this.requiresToken = requiresToken;
+        this.behavior = behavior;
+        this.responder = responder;
+        this.scheduler = scheduler;
+        this.random = random;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String requestBody = new String(exchange.getRequestBody().readAllBytes());
+
+        Response response;
+        if (!method.equalsIgnoreCase(exchange.getRequestMethod())) {
+            response = error(405, "Method not allowed");
+        } else if (requiresToken && !hasBearerToken(exchange)) {
+            response = error(401, "Missing bearer token");
+        } else if (random.nextDouble() < behavior.errorRate()) {
+            response =
+                    random.nextBoolean()
+                            ? error(500, "Simulated internal server error")
+                            : error(503, "Simulated service unavailable");
+        } else {
+            response = responder.respond(exchange, requestBody);
+        }
+
+        scheduler.schedule(
+                () -> send(exchange, response),
+                behavior.latency().sample(random),
+                TimeUnit.MILLISECONDS);
+    }
+
+    static Response error(int status, String message) {
+        return new Response(status, Map.of("error", message));
+    }
+
+    private boolean hasBearerToken(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        return authorization != null && authorization.startsWith("Bearer ");
+    }
+
+    private void send(HttpExchange exchange, Response response) {
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(response.body());
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(response.status(), body.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(body);
+            }
+        } catch (IOException e) {
+            // the client gave up waiting, which is expected when it has a shorter timeout
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package gov.hhs.cdc.trustedintermediary.rssimulator;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the reports submitted to the simulator. Each report waits for a delay sampled
+ * from the delivery delay distribution before it moves from {@value #WAITING_STATUS} to either
+ * {@value #DELIVERED_STATUS} or {@value #ERROR_STATUS}, the same way ReportStream's history API
+ * reports it.
+ */
+public class SimulatedReports {
+
+    static final String WAITING_STATUS = "Waiting to Deliver";
+    static final String DELIVERED_STATUS = "Delivered";
+    static final String ERROR_STATUS = "Error";
+    static final String SENDER = "flexion.simulated-hospital";
+    static final String SENDING_ORG = "simulated-sender";
+
+    private final Map<String, SimulatedReport> reports = new ConcurrentHashMap<>();
+    private final Map<String, Instant> ingestionTimes = new ConcurrentHashMap<>();
+    private final LatencyDistribution deliveryDelay;
+    private final double deliveryFailureRate;
+    private final Random random;
+    private final Clock clock;
+
+    public SimulatedReports(
+            LatencyDistribution deliveryDelay,
+            double deliveryFailureRate,
+            Random random,
+            Clock clock) {
+        this.deliveryDelay = deliveryDelay;
+        this.deliveryFailureRate = deliveryFailureRate;
+        this.random = random;
+        this.clock = clock;
+    }
+
+    /** Records a new report and returns its report ID. */
+    public String submit() {
+        Instant submittedAt = clock.instant();
+        var report =
+                new SimulatedReport(
+                        UUID.randomUUID().toString(),
+                        submittedAt,
+                        submittedAt.plusMillis(deliveryDelay.sample(random)),
+                        random.nextDouble() < deliveryFailureRate);
+        reports.put(report.reportId(), report);
+        return report.reportId();
+    }
+
+    /** Returns the history API response for a report, or empty if it was never submitted. */
+    public Optional<Map<String, Object>> history(String reportId) {
+        SimulatedReport report = reports.get(reportId);
+        if (report == null) {
+            return Optional.empty();
+        }
+
+        boolean complete = !clock.instant().isBefore(report.completesAt());
+        String status = WAITING_STATUS;
+        List<Map<String, String>> errors = List.of();
+        if (complete && report.fails()) {
+            status = ERROR_STATUS;
+            errors = List.of(Map.of("message", "Simulated delivery failure"));
+        } else if (complete) {
+            status = DELIVERED_STATUS;
+        }
+
+        Map<String, Object> history = new LinkedHashMap<>();
+        history.put("reportId", report.reportId());
+        history.put("timestamp", report.submittedAt().toString());
+        history.put("sender", SENDER);
+        history.put("actualCompletionAt", complete ? report.completesAt().toString() : null);
+        history.put("overallStatus", status);
+        history.put(
+                "destinations",
+                List.of(Map.of("organization_id", "flexion", "service", "simulated-lab")));
+        history.put("errors", errors);
+        return Optional.of(history);
+    }
+
+    /**
+     * Returns the delivery API response for an inbound report. The simulator never received the
+     * inbound report, so its ingestion time is the first time it was asked about.
+     */
+    public Map<String, Object> delivery(String inboundReportId) {
+        Instant ingestionTime =
+                ingestionTimes.computeIfAbsent(inboundReportId, id -> clock.instant());
+
+        Map<String, Object> delivery = new LinkedHashMap<>();
+        delivery.put("reportId", inboundReportId);
+        delivery.put("topic", "etor-ti");
+        delivery.put("fileType", "FHIR");
+        delivery.put(
+                "originalIngestion",
+                List.of(
+                        Map.of(
+                                "reportId", inboundReportId,
+                                "ingestionTime", ingestionTime.toString(),
+                                "sendingOrg", SENDING_ORG)));
+        return delivery;
+    }
+
+    public int size() {
+        return reports.size();
+    }
+
+    private record SimulatedReport(
+            String reportId, Instant submittedAt, Instant completesAt, boolean fails) {}
+}
@@ -0,0 +1,75 @@
+package gov.hhs.cdc.trustedintermediary.rssimulator;
+
+import java.util.Map;
+
+/** The simulator settings, read from {@code RS_SIMULATOR_*} environment variables. */
+public record SimulatorSettings(
+        int port,
+        String keystorePath,
+        String keystorePassword,
+        Long seed,
+        long tokenLifetimeSeconds,
+        EndpointBehavior token,
+        EndpointBehavior waters,
+        EndpointBehavior history,
+        EndpointBehavior delivery,
+        LatencyDistribution deliveryDelay,
+        double deliveryFailureRate) {
+
+    static final String PREFIX = "RS_SIMULATOR_";
+    static final int DEFAULT_PORT = 7071;
+    static final long DEFAULT_TOKEN_LIFETIME_SECONDS = 300;
+    static final String DEFAULT_DELIVERY_DELAY = "5000:30000";
+    static final double DEFAULT_DELIVERY_FAILURE_RATE = 0.02;
+
+    /** How one simulated endpoint responds: how long it takes and how often it fails. */
+    public record EndpointBehavior(LatencyDistribution latency, double errorRate) {}
+
+    public static SimulatorSettings fromEnvironment(Map<String, String> environment) {
+        return new SimulatorSettings(
+                Integer.parseInt(
+                        environment.getOrDefault(PREFIX + "PORT", String.valueOf(DEFAULT_PORT))),
+                environment.get(PREFIX + "KEYSTORE"),
+                environment.getOrDefault(PREFIX + "KEYSTORE_PASSWORD", ""),
+                environment.containsKey(PREFIX + "SEED")
+                        ? Long.parseLong(environment.get(PREFIX + "SEED"))
+                        : null,
+                Long.parseLong(
+                        environment.getOrDefault(
+                                PREFIX + "TOKEN_LIFETIME_SECONDS",
+                                String.valueOf(DEFAULT_TOKEN_LIFETIME_SECONDS))),
+                endpointBehavior(environment, "TOKEN", "50:300"),
+                endpointBehavior(environment, "WATERS", "200:1500"),
+                endpointBehavior(environment, "HISTORY", "100:800"),
+                endpointBehavior(environment, "DELIVERY", "100:800"),
+                LatencyDistribution.parse(
+                        environment.getOrDefault(
+                                PREFIX + "DELIVERY_DELAY_MS", DEFAULT_DELIVERY_DELAY)),
+                rate(
+                        environment,
+                        PREFIX + "DELIVERY_FAILURE_RATE",
+                        DEFAULT_DELIVERY_FAILURE_RATE));
+    }
+
+    private static EndpointBehavior endpointBehavior(
+            Map<String, String> environment, String endpoint, String defaultLatency) {
+        return new EndpointBehavior(
+                LatencyDistribution.parse(
+                        environment.getOrDefault(
+                                PREFIX + endpoint + "_LATENCY_MS", defaultLatency)),
+                rate(environment, PREFIX + endpoint + "_ERROR_RATE", 0.0));
+    }
+
+    private static double rate(Map<String, String> environment, String name, double defaultRate) {
+        String value = environment.get(name);
+        if (value == null) {
+            return defaultRate;
+        }
+
+        double rate = Double.parseDouble(value);
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException(name + " must be between 0 and 1");
+        }
+        return rate;
+    }
+}
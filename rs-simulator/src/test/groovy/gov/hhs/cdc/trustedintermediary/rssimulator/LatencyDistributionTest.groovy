@@ -0,0 +1,50 @@
+package gov.hhs.cdc.trustedintermediary.rssimulator
+
+import spock.lang.Specification
+
+class LatencyDistributionTest extends Specification {
+
+    def "parse reads a median and p99 pair"() {
+        expect:
+        LatencyDistribution.parse("200:1500") == new LatencyDistribution(200, 1500)
+    }
+
+    def "parse reads a single value as a fixed latency"() {
+        expect:
+        LatencyDistribution.parse("250") == new LatencyDistribution(250, 250)
+    }
+
+    def "parse rejects an invalid latency"() {
+        when:
+        LatencyDistribution.parse(value)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        value << ["DogCow", "1:2:3", "1500:200", "-1"]
+    }
+
+    def "a fixed latency is always sampled as the same value"() {
+        given:
+        def random = new Random(42)
+
+        expect:
+        new LatencyDistribution(250, 250).sample(random) == 250
+        LatencyDistribution.NONE.sample(random) == 0
+    }
+
+    def "samples are spread around the median with about one percent over the p99"() {
+        given:
+        def distribution = new LatencyDistribution(100, 1000)
+        def random = new Random(42)
+
+        when:
+        def samples = (1..10_000).collect { distribution.sample(random) }.sort()
+
+        then:
+        samples[5_000] >= 90 && samples[5_000] <= 110
+        samples[9_900] >= 800 && samples[9_900] <= 1200
+        samples.every { it > 0 }
+    }
+}
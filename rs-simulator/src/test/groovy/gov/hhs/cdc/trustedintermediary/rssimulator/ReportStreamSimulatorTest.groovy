@@ -0,0 +1,153 @@
+package gov.hhs.cdc.trustedintermediary.rssimulator
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import spock.lang.Specification
+
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+
+class ReportStreamSimulatorTest extends Specification {
+
+    def httpClient = HttpClient.newHttpClient()
+    def objectMapper = new ObjectMapper()
+    def simulator
+
+    def cleanup() {
+        simulator?.stop()
+    }
+
+    def "the token endpoint returns a token that expires after the token lifetime"() {
+        given:
+        startSimulator([RS_SIMULATOR_TOKEN_LIFETIME_SECONDS: "60"])
+
+        when:
+        def response = post(ReportStreamSimulator.TOKEN_PATH, null, "grant_type=client_credentials")
+        def body = objectMapper.readValue(response.body(), Map)
+        def claims = new String(Base64.getUrlDecoder().decode(body.access_token.split("\\.")[1]))
+
+        then:
+        response.statusCode() == 200
+        body.expires_in == 60
+        objectMapper.readValue(claims, Map).exp >= Instant.now().plusSeconds(59).epochSecond
+    }
+
+    def "a submitted report can be looked up in the history endpoint"() {
+        given:
+        startSimulator([RS_SIMULATOR_DELIVERY_DELAY_MS: "0", RS_SIMULATOR_DELIVERY_FAILURE_RATE: "0"])
+
+        when:
+        def watersResponse = post(ReportStreamSimulator.WATERS_PATH, "token", "{}")
+        def reportId = objectMapper.readValue(watersResponse.body(), Map).reportId
+        def historyResponse = get(ReportStreamSimulator.REPORT_PATH + reportId + "/history", "token")
+
+        then:
+        watersResponse.statusCode() == 201
+        historyResponse.statusCode() == 200
+        objectMapper.readValue(historyResponse.body(), Map).overallStatus == SimulatedReports.DELIVERED_STATUS
+        simulator.getSubmittedReportCount() == 1
+    }
+
+    def "the history endpoint returns a 404 for an unknown report"() {
+        given:
+        startSimulator([:])
+
+        expect:
+        get(ReportStreamSimulator.REPORT_PATH + "DogCow/history", "token").statusCode() == 404
+    }
+
+    def "the delivery endpoint returns the ingestion time for the inbound report"() {
+        given:
+        startSimulator([:])
+
+        when:
+        def response = get(ReportStreamSimulator.REPORT_PATH + "inboundReportId/delivery", "token")
+        def ingestion = objectMapper.readValue(response.body(), Map).originalIngestion
+
+        then:
+        response.statusCode() == 200
+        ingestion[0].reportId == "inboundReportId"
+        Instant.parse(ingestion[0].ingestionTime) != null
+    }
+
+    def "requests without a bearer token are rejected"() {
+        given:
+        startSimulator([:])
+
+        expect:
+        post(ReportStreamSimulator.WATERS_PATH, null, "{}").statusCode() == 401
+    }
+
+    def "requests with the wrong method are rejected"() {
+        given:
+        startSimulator([:])
+
+        expect:
+        get(ReportStreamSimulator.WATERS_PATH, "token").statusCode() == 405
+    }
+
+    def "an endpoint with an error rate of one always fails"() {
+        given:
+        startSimulator([RS_SIMULATOR_WATERS_ERROR_RATE: "1"])
+
+        when:
+        def statuses = (1..10).collect { post(ReportStreamSimulator.WATERS_PATH, "token", "{}").statusCode() }
+
+        then:
+        statuses.every { it in [500, 503] }
+        simulator.getSubmittedReportCount() == 0
+    }
+
+    def "responses are delayed by the endpoint latency"() {
+        given:
+        startSimulator([RS_SIMULATOR_TOKEN_LATENCY_MS: "300"])
+
+        when:
+        def start = System.nanoTime()
+        post(ReportStreamSimulator.TOKEN_PATH, null, "")
+        def elapsed = Duration.ofNanos(System.nanoTime() - start)
+
+        then:
+        elapsed.toMillis() >= 300
+    }
+
+    def "unknown report paths return a 404"() {
+        given:
+        startSimulator([:])
+
+        expect:
+        get(ReportStreamSimulator.REPORT_PATH + "inboundReportId/DogCow", "token").statusCode() == 404
+    }
+
+    def startSimulator(Map<String, String> environment) {
+        def zeroLatency = [
+            RS_SIMULATOR_PORT                : "0",
+            RS_SIMULATOR_SEED                : "42",
+            RS_SIMULATOR_TOKEN_LATENCY_MS    : "0",
+            RS_SIMULATOR_WATERS_LATENCY_MS   : "0",
+            RS_SIMULATOR_HISTORY_LATENCY_MS  : "0",
+            RS_SIMULATOR_DELIVERY_LATENCY_MS : "0",
+        ]
+        simulator = ReportStreamSimulator.start(SimulatorSettings.fromEnvironment(zeroLatency + environment), Clock.systemUTC())
+    }
+
+    HttpResponse<String> post(String path, String token, String body) {
+        def request = HttpRequest.newBuilder(uri(path)).POST(HttpRequest.BodyPublishers.ofString(body))
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token)
+        }
+        return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString())
+    }
+
+    HttpResponse<String> get(String path, String token) {
+        def request = HttpRequest.newBuilder(uri(path)).GET().header("Authorization", "Bearer " + token)
+        return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString())
+    }
+
+    URI uri(String path) {
+        return URI.create("http://localhost:" + simulator.getPort() + path)
+    }
+}
@@ -0,0 +1,109 @@
+package gov.hhs.cdc.trustedintermediary.rssimulator
+
+import spock.lang.Specification
+
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+import java.time.ZoneOffset
+
+class SimulatedReportsTest extends Specification {
+
+    def clock = new MutableClock(Instant.parse("2024-04-09T18:18:00Z"))
+
+    def "a report waits to be delivered until its delivery delay has passed"() {
+        given:
+        def reports = new SimulatedReports(new LatencyDistribution(1000, 1000), 0, new Random(42), clock)
+        def reportId = reports.submit()
+
+        when:
+        def waiting = reports.history(reportId).get()
+        clock.advance(Duration.ofMillis(1000))
+        def delivered = reports.history(reportId).get()
+
+        then:
+        waiting.overallStatus == SimulatedReports.WAITING_STATUS
+        waiting.actualCompletionAt == null
+        waiting.errors == []
+        delivered.overallStatus == SimulatedReports.DELIVERED_STATUS
+        delivered.actualCompletionAt == "2024-04-09T18:18:01Z"
+        delivered.timestamp == "2024-04-09T18:18:00Z"
+    }
+
+    def "a report that fails has an error status and message once its delay has passed"() {
+        given:
+        def reports = new SimulatedReports(new LatencyDistribution(1000, 1000), 1, new Random(42), clock)
+        def reportId = reports.submit()
+
+        when:
+        clock.advance(Duration.ofSeconds(5))
+        def history = reports.history(reportId).get()
+
+        then:
+        history.overallStatus == SimulatedReports.ERROR_STATUS
+        history.errors == [[message: "Simulated delivery failure"]]
+    }
+
+    def "history is empty for a report that was never submitted"() {
+        given:
+        def reports = new SimulatedReports(LatencyDistribution.NONE, 0, new Random(42), clock)
+
+        expect:
+        reports.history("DogCow").isEmpty()
+    }
+
+    def "the delivery ingestion time stays the same across lookups"() {
+        given:
+        def reports = new SimulatedReports(LatencyDistribution.NONE, 0, new Random(42), clock)
+
+        when:
+        def first = reports.delivery("inboundReportId")
+        clock.advance(Duration.ofMinutes(1))
+        def second = reports.delivery("inboundReportId")
+
+        then:
+        first.originalIngestion == [[reportId: "inboundReportId", ingestionTime: "2024-04-09T18:18:00Z", sendingOrg: SimulatedReports.SENDING_ORG]]
+        second.originalIngestion == first.originalIngestion
+    }
+
+    def "submit creates a new report each time"() {
+        given:
+        def reports = new SimulatedReports(LatencyDistribution.NONE, 0, new Random(42), clock)
+
+        when:
+        def first = reports.submit()
+        def second = reports.submit()
+
+        then:
+        first != second
+        reports.size() == 2
+    }
+
+    static class MutableClock extends Clock {
+        private Instant now
+
+        MutableClock(Instant now) {
+            this.now = now
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration)
+        }
+
+        @Override
+        ZoneId getZone() {
+            return ZoneOffset.UTC
+        }
+
+        @Override
+        Clock withZone(ZoneId zone) {
+            return this
+        }
+
+        @Override
+        Instant instant() {
+            return now
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package gov.hhs.cdc.trustedintermediary.rssimulator
+
+import spock.lang.Specification
+
+class SimulatorSettingsTest extends Specification {
+
+    def "the defaults are used when nothing is set"() {
+        when:
+        def settings = SimulatorSettings.fromEnvironment([:])
+
+        then:
+        settings.port() == SimulatorSettings.DEFAULT_PORT
+        settings.keystorePath() == null
+        settings.seed() == null
+        settings.tokenLifetimeSeconds() == SimulatorSettings.DEFAULT_TOKEN_LIFETIME_SECONDS
+        settings.waters() == new SimulatorSettings.EndpointBehavior(new LatencyDistribution(200, 1500), 0.0)
+        settings.deliveryDelay() == LatencyDistribution.parse(SimulatorSettings.DEFAULT_DELIVERY_DELAY)
+        settings.deliveryFailureRate() == SimulatorSettings.DEFAULT_DELIVERY_FAILURE_RATE
+    }
+
+    def "the settings are read from the environment"() {
+        when:
+        def settings = SimulatorSettings.fromEnvironment([
+            RS_SIMULATOR_PORT                 : "8080",
+            RS_SIMULATOR_KEYSTORE             : "simulator.p12",
+            RS_SIMULATOR_KEYSTORE_PASSWORD    : "DogCow",
+            RS_SIMULATOR_SEED                 : "42",
+            RS_SIMULATOR_TOKEN_LIFETIME_SECONDS: "60",
+            RS_SIMULATOR_TOKEN_LATENCY_MS     : "10",
+            RS_SIMULATOR_WATERS_LATENCY_MS    : "300:3000",
+            RS_SIMULATOR_WATERS_ERROR_RATE    : "0.1",
+            RS_SIMULATOR_HISTORY_ERROR_RATE   : "0.2",
+            RS_SIMULATOR_DELIVERY_LATENCY_MS  : "0",
+            RS_SIMULATOR_DELIVERY_DELAY_MS    : "1000:2000",
+            RS_SIMULATOR_DELIVERY_FAILURE_RATE: "0.5",
+        ])
+
+        then:
+        settings.port() == 8080
+        settings.keystorePath() == "simulator.p12"
+        settings.keystorePassword() == "DogCow"
+        settings.seed() == 42
+        settings.tokenLifetimeSeconds() == 60
+        settings.token().latency() == new LatencyDistribution(10, 10)
+        settings.waters() == new SimulatorSettings.EndpointBehavior(new LatencyDistribution(300, 3000), 0.1)
+        settings.history().errorRate() == 0.2
+        settings.delivery().latency() == LatencyDistribution.NONE
+        settings.deliveryDelay() == new LatencyDistribution(1000, 2000)
+        settings.deliveryFailureRate() == 0.5
+    }
+
+    def "a rate outside of zero to one is rejected"() {
+        when:
+        SimulatorSettings.fromEnvironment([RS_SIMULATOR_WATERS_ERROR_RATE: "1.5"])
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -18,6 +18,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.inject.Inject;
@@ -69,6 +70,56 @@ public class ApplicationContext {
         THREAD_OBJECT_MAP.remove();
     }
 
+    /** Removes the implementation of a single class registered for the current thread. */
+    public static void clearThreadRegistration(Class<?> clazz) {
+        Map<Class<?>, Object> threadObjectMap = THREAD_OBJECT_MAP.get();
+        if (threadObjectMap != null) {
+            threadObjectMap.remove(clazz);
+        }
+    }
+
+    /**
+     * Wraps a task so it sees the calling thread's registrations when it runs on another thread.
+     * Pooled threads are created long before the request they run work for, so they don't inherit
+     * the request thread's registrations on their own.
+     */
+    public static Runnable withThreadRegistrations(Runnable task) {
+        Map<Class<?>, Object> callerObjectMap = THREAD_OBJECT_MAP.get();
+        Map<Class<?>, Object> registrations =
+                callerObjectMap == null ? null : new HashMap<>(callerObjectMap);
+
+        return () -> {
+            Map<Class<?>, Object> previousObjectMap = THREAD_OBJECT_MAP.get();
+            setThreadObjectMap(registrations);
+            try {
+                task.run();
+            } finally {
+                setThreadObjectMap(previousObjectMap);
+            }
+        };
+    }
+
+    private static void setThreadObjectMap(Map<Class<?>, Object> threadObjectMap) {
+        if (threadObjectMap == null) {
+            THREAD_OBJECT_MAP.remove();
+        } else {
+            THREAD_OBJECT_MAP.set(threadObjectMap);
+        }
+    }
+
+    /**
+     * Returns the implementation registered for the current thread only, without falling back to
+     * the implementation registered for the whole application.
+     */
+    public static <T> Optional<T> getThreadImplementation(Class<T> clazz) {
+        Map<Class<?>, Object> threadObjectMap = THREAD_OBJECT_MAP.get();
+        if (threadObjectMap == null) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable((T) threadObjectMap.get(clazz));
+    }
+
     public static <T> T getImplementation(Class<T> clazz) {
         // check the thread local map first
         Map<Class<?>, Object> threadObjectMap = THREAD_OBJECT_MAP.get();
@@ -9,6 +9,7 @@ public class DomainRequest {
     private String url = "";
     private Map<String, String> headers = new HashMap<>();
     private Map<String, String> pathParams = new HashMap<>();
+    private Map<String, String> queryParams = new HashMap<>();
 
     public String getBody() {
         return body;
@@ -47,4 +48,16 @@ public class DomainRequest {
     public void setPathParams(Map<String, String> headers) {
         this.pathParams = headers;
     }
+
+    /**
+     * Returns the query parameters for the request. Only the first value of a repeated parameter is
+     * kept.
+     */
+    public Map<String, String> getQueryParams() {
+        return queryParams;
+    }
+
+    public void setQueryParams(Map<String, String> queryParams) {
+        this.queryParams = queryParams;
+    }
 }
@@ -1,5 +1,7 @@
 package gov.hhs.cdc.trustedintermediary.domainconnector;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -11,6 +13,13 @@ public class DomainResponse {
     private int statusCode;
     private String body = "";
     private Map<String, String> headers = new HashMap<>();
+    private BodyWriter bodyWriter;
+
+    /** Writes a response body straight to the client instead of holding it as a String. */
+    @FunctionalInterface
+    public interface BodyWriter {
+        void writeTo(OutputStream output) throws IOException;
+    }
 
     public DomainResponse(int statusCode) {
         this.statusCode = statusCode;
@@ -39,4 +48,16 @@ public class DomainResponse {
     public void setHeaders(Map<String, String> headers) {
         this.headers = headers;
     }
+
+    /**
+     * Returns the writer for a streamed body, or null when the body is the String from {@link
+     * #getBody()}.
+     */
+    public BodyWriter getBodyWriter() {
+        return bodyWriter;
+    }
+
+    public void setBodyWriter(BodyWriter bodyWriter) {
+        this.bodyWriter = bodyWriter;
+    }
 }
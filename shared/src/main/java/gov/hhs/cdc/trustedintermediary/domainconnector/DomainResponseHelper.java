@@ -58,6 +58,20 @@ public class DomainResponseHelper {
         return constructResponseFromString(200, jsonBody);
     }
 
+    /**
+     * Constructs a JSON response whose body is written to the client by the given writer, for
+     * bodies too large to hold in memory as a String.
+     */
+    public DomainResponse constructStreamingOkResponse(DomainResponse.BodyWriter bodyWriter) {
+        logger.logInfo("Constructing the streaming response");
+        var response = new DomainResponse(200);
+        response.setBodyWriter(bodyWriter);
+
+        response.setHeaders(Map.of(CONTENT_TYPE_LITERAL, APPLICATION_JSON_LITERAL));
+
+        return response;
+    }
+
     public DomainResponse constructErrorResponse(int httpStatus, String errorString) {
         return constructResponse(httpStatus, Map.of("error", errorString));
     }
@@ -0,0 +1,319 @@
+package gov.hhs.cdc.trustedintermediary.external.apache;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.wrappers.HttpClient;
+import gov.hhs.cdc.trustedintermediary.wrappers.HttpClientException;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import gov.hhs.cdc.trustedintermediary.wrappers.StreamingBody;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Inject;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.support.AsyncRequestBuilder;
+import org.apache.hc.core5.http.nio.support.classic.AbstractClassicEntityProducer;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * This class implements HttpClient on top of the Apache Client 5 async client. Requests don't hold
+ * a thread while they wait for the server, so callers can overlap several requests and join them
+ * later. Connections are pooled and kept alive between requests, and HTTP/2 is used when the
+ * server offers it over TLS.
+ *
+ * <p>The pool and timeouts are configured with the {@value #MAX_CONNECTIONS_PROPERTY}, {@value
+ * #MAX_CONNECTIONS_PER_ROUTE_PROPERTY}, {@value #CONNECT_TIMEOUT_PROPERTY}, {@value
+ * #RESPONSE_TIMEOUT_PROPERTY} and {@value #KEEP_ALIVE_PROPERTY} properties.
+ */
+public class ApacheAsyncClient implements HttpClient {
+
+    static final String MAX_CONNECTIONS_PROPERTY = "HTTP_CLIENT_MAX_CONNECTIONS";
+    static final String MAX_CONNECTIONS_PER_ROUTE_PROPERTY =
+            "HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE";
+    static final String CONNECT_TIMEOUT_PROPERTY = "HTTP_CLIENT_CONNECT_TIMEOUT_MS";
+    static final String RESPONSE_TIMEOUT_PROPERTY = "HTTP_CLIENT_RESPONSE_TIMEOUT_MS";
+    static final String KEEP_ALIVE_PROPERTY = "HTTP_CLIENT_KEEP_ALIVE_MS";
+
+    static final int DEFAULT_MAX_CONNECTIONS = 50;
+    static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+    static final long DEFAULT_RESPONSE_TIMEOUT_MILLIS = 60_000;
+    static final long DEFAULT_KEEP_ALIVE_MILLIS = 30_000;
+
+    static final int STREAMING_BUFFER_SIZE = 64 * 1024;
+
+    private static final ApacheAsyncClient INSTANCE = new ApacheAsyncClient();
+
+    private volatile CloseableHttpAsyncClient client;
+
+    @Inject Logger logger;
+
+    private ApacheAsyncClient() {}
+
+    public static ApacheAsyncClient getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public String post(String url, Map<String, String> headerMap, String body)
+            throws HttpClientException {
+        return await(postAsync(url, headerMap, body));
+    }
+
+    @Override
+    public String get(String url, Map<String, String> headerMap) throws HttpClientException {
+        return await(getAsync(url, headerMap));
+    }
+
+    @Override
+    public String post(String url, Map<String, String> headerMap, StreamingBody body)
+            throws HttpClientException {
+        return await(postAsync(url, headerMap, body));
+    }
+
+    @Override
+    public CompletableFuture<String> postAsync(
+            String url, Map<String, String> headerMap, String body) {
+        SimpleRequestBuilder request =
+                SimpleRequestBuilder.post(url)
+                        .setBody(body, ContentType.TEXT_PLAIN.withCharset(StandardCharsets.UTF_8));
+        for (Map.Entry<String, String> header : headers(headerMap).entrySet()) {
+            request.addHeader(header.getKey(), header.getValue());
+        }
+        return execute(SimpleRequestProducer.create(request.build()), "POST", url);
+    }
+
+    /**
+     * Starts a POST request whose body is written by a body writer thread while the request is
+     * sent. The body has no length up front, so it goes out with chunked transfer encoding on
+     * HTTP/1.1.
+     */
+    @Override
+    public CompletableFuture<String> postAsync(
+            String url, Map<String, String> headerMap, StreamingBody body) {
+        AsyncRequestBuilder request =
+                AsyncRequestBuilder.post(url)
+                        .setEntity(
+                                new AbstractClassicEntityProducer(
+                                        STREAMING_BUFFER_SIZE, null, BodyWriterHolder.EXECUTOR) {
+                                    @Override
+                                    protected void produceData(
+                                            ContentType contentType, OutputStream outputStream)
+                                            throws IOException {
+                                        body.writeTo(outputStream);
+                                    }
+                                });
+        for (Map.Entry<String, String> header : headers(headerMap).entrySet()) {
+            request.addHeader(header.getKey(), header.getValue());
+        }
+        return execute(request.build(), "POST", url);
+    }
+
+    @Override
+    public CompletableFuture<String> getAsync(String url, Map<String, String> headerMap) {
+        SimpleRequestBuilder request = SimpleRequestBuilder.get(url);
+        for (Map.Entry<String, String> header : headers(headerMap).entrySet()) {
+            request.addHeader(header.getKey(), header.getValue());
+        }
+        return execute(SimpleRequestProducer.create(request.build()), "GET", url);
+    }
+
+    /** Closes the client and its pooled connections. The next request starts a new client. */
+    public synchronized void shutdown() {
+        if (client != null) {
+            client.close(CloseMode.GRACEFUL);
+            client = null;
+        }
+    }
+
+    private CompletableFuture<String> execute(
+            AsyncRequestProducer request, String method, String url) {
+        String description =
+                "Error occurred while making HTTP " + method + " request to [" + url + "]";
+        CompletableFuture<String> future = new CompletableFuture<>();
+
+        CloseableHttpAsyncClient startedClient;
+        try {
+            startedClient = getClient();
+        } catch (RuntimeException e) {
+            future.completeExceptionally(new HttpClientException(description, e));
+            return future;
+        }
+
+        startedClient.execute(
+                request,
+                SimpleResponseConsumer.create(),
+                new FutureCallback<>() {
+                    @Override
+                    public void completed(SimpleHttpResponse response) {
+                        // match the fluent client, which treats any non-2xx status as an error
+                        if (response.getCode() >= 300) {
+                            future.completeExceptionally(
+                                    new HttpClientException(
+                                            description,
+                                            response.getCode(),
+                                            new IllegalStateException(
+                                                    "Status code "
+                                                            + response.getCode()
+                                                            + ": "
+                                                            + response.getReasonPhrase())));
+                            return;
+                        }
+                        future.complete(response.getBodyText());
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        future.completeExceptionally(new HttpClientException(description, e));
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        future.completeExceptionally(
+                                new HttpClientException(
+                                        description,
+                                        new IllegalStateException("Request was cancelled")));
+                    }
+                });
+        return future;
+    }
+
+    private String await(CompletableFuture<String> future) throws HttpClientException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new HttpClientException("Interrupted while waiting for the HTTP response", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static HttpClientException unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof HttpClientException httpClientException) {
+            return httpClientException;
+        }
+        return new HttpClientException("Error occurred while making HTTP request", cause);
+    }
+
+    private static Map<String, String> headers(Map<String, String> headerMap) {
+        return headerMap == null ? Map.of() : headerMap;
+    }
+
+    private CloseableHttpAsyncClient getClient() {
+        CloseableHttpAsyncClient startedClient = client;
+        if (startedClient == null) {
+            synchronized (this) {
+                startedClient = client;
+                if (startedClient == null) {
+                    startedClient = createClient();
+                    startedClient.start();
+                    client = startedClient;
+                }
+            }
+        }
+        return startedClient;
+    }
+
+    private CloseableHttpAsyncClient createClient() {
+        int maxConnections = getIntProperty(MAX_CONNECTIONS_PROPERTY, DEFAULT_MAX_CONNECTIONS);
+        int maxConnectionsPerRoute =
+                getIntProperty(
+                        MAX_CONNECTIONS_PER_ROUTE_PROPERTY, DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        long connectTimeout =
+                getLongProperty(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+        long responseTimeout =
+                getLongProperty(RESPONSE_TIMEOUT_PROPERTY, DEFAULT_RESPONSE_TIMEOUT_MILLIS);
+        TimeValue keepAlive =
+                TimeValue.ofMilliseconds(
+                        getLongProperty(KEEP_ALIVE_PROPERTY, DEFAULT_KEEP_ALIVE_MILLIS));
+
+        PoolingAsyncClientConnectionManager connectionManager =
+                PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(maxConnections)
+                        .setMaxConnPerRoute(maxConnectionsPerRoute)
+                        .setDefaultConnectionConfig(
+                                ConnectionConfig.custom()
+                                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeout))
+                                        .setSocketTimeout(Timeout.ofMilliseconds(responseTimeout))
+                                        .build())
+                        .setDefaultTlsConfig(
+                                TlsConfig.custom()
+                                        .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                                        .build())
+                        .build();
+
+        return HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(
+                        RequestConfig.custom()
+                                .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeout))
+                                .setResponseTimeout(Timeout.ofMilliseconds(responseTimeout))
+                                .build())
+                .setKeepAliveStrategy((response, context) -> keepAlive)
+                .evictIdleConnections(keepAlive)
+                .build();
+    }
+
+    private int getIntProperty(String property, int defaultValue) {
+        return (int) getLongProperty(property, defaultValue);
+    }
+
+    private long getLongProperty(String property, long defaultValue) {
+        String value = ApplicationContext.getProperty(property, String.valueOf(defaultValue));
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the warning below
+        }
+        logger.logWarning("Invalid {} value, using the default of {}", property, defaultValue);
+        return defaultValue;
+    }
+
+    /** Lazily creates the threads that write streamed request bodies. */
+    private static final class BodyWriterHolder {
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+        private static final ExecutorService EXECUTOR =
+                Executors.newCachedThreadPool(
+                        runnable -> {
+                            Thread thread =
+                                    new Thread(
+                                            runnable,
+                                            "http-body-writer-" + THREAD_COUNT.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+    }
+}
@@ -2,11 +2,14 @@ package gov.hhs.cdc.trustedintermediary.external.apache;
 
 import gov.hhs.cdc.trustedintermediary.wrappers.HttpClient;
 import gov.hhs.cdc.trustedintermediary.wrappers.HttpClientException;
+import gov.hhs.cdc.trustedintermediary.wrappers.StreamingBody;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import org.apache.hc.client5.http.HttpResponseException;
 import org.apache.hc.client5.http.fluent.Request;
 import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.io.entity.EntityTemplate;
 import org.apache.hc.core5.http.io.entity.StringEntity;
 import org.apache.hc.core5.http.message.BasicHeader;
 
@@ -37,6 +40,35 @@ public class ApacheClient implements HttpClient {
                     .execute()
                     .returnContent()
                     .asString();
+        } catch (HttpResponseException e) {
+            throw new HttpClientException(
+                    "Error occurred while making HTTP POST request to [" + url + "]",
+                    e.getStatusCode(),
+                    e);
+        } catch (IOException e) {
+            throw new HttpClientException(
+                    "Error occurred while making HTTP POST request to [" + url + "]", e);
+        }
+    }
+
+    @Override
+    public String post(String url, Map<String, String> headerMap, StreamingBody body)
+            throws HttpClientException {
+        Header[] headers = convertMapToHeader(headerMap);
+
+        try {
+            // a negative length makes the entity use chunked transfer encoding
+            return Request.post(url)
+                    .setHeaders(headers)
+                    .body(new EntityTemplate(-1, null, null, body::writeTo))
+                    .execute()
+                    .returnContent()
+                    .asString();
+        } catch (HttpResponseException e) {
+            throw new HttpClientException(
+                    "Error occurred while making HTTP POST request to [" + url + "]",
+                    e.getStatusCode(),
+                    e);
         } catch (IOException e) {
             throw new HttpClientException(
                     "Error occurred while making HTTP POST request to [" + url + "]", e);
@@ -49,6 +81,11 @@ public class ApacheClient implements HttpClient {
 
         try {
             return Request.get(url).setHeaders(headers).execute().returnContent().asString();
+        } catch (HttpResponseException e) {
+            throw new HttpClientException(
+                    "Error occurred while making HTTP GET request to [" + url + "]",
+                    e.getStatusCode(),
+                    e);
         } catch (IOException e) {
             throw new HttpClientException(
                     "Error occurred while making HTTP GET request to [" + url + "]", e);
@@ -7,17 +7,29 @@ import gov.hhs.cdc.trustedintermediary.wrappers.FhirParseException;
 import gov.hhs.cdc.trustedintermediary.wrappers.HapiFhir;
 import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
 import gov.hhs.cdc.trustedintermediary.wrappers.HealthDataExpressionEvaluator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Base;
 import org.hl7.fhir.r4.model.BooleanType;
 
-/** Concrete implementation that calls the Hapi FHIR library. */
+/**
+ * Concrete implementation that calls the Hapi FHIR library. HAPI's FHIRPath engines and parsers
+ * keep state while they work and aren't safe to share between threads, but they're expensive enough
+ * to create that each thread keeps its own and reuses it for every call.
+ */
 public class HapiFhirImplementation implements HapiFhir, HealthDataExpressionEvaluator {
 
     private static final HapiFhirImplementation INSTANCE = new HapiFhirImplementation();
     private static final FhirContext CONTEXT = FhirContext.forR4();
 
-    private static final IFhirPath PATH_ENGINE = createEngine();
+    private static final ThreadLocal<IFhirPath> PATH_ENGINE =
+            ThreadLocal.withInitial(HapiFhirImplementation::createEngine);
+    private static final ThreadLocal<IParser> JSON_PARSER =
+            ThreadLocal.withInitial(CONTEXT::newJsonParser);
 
     private HapiFhirImplementation() {}
 
@@ -39,10 +51,8 @@ public class HapiFhirImplementation implements HapiFhir, HealthDataExpressionEva
     @Override
     public <T extends IBaseResource> T parseResource(
             final String fhirResource, final Class<T> clazz) throws FhirParseException {
-        IParser resourceParser = CONTEXT.newJsonParser();
-
         try {
-            return resourceParser.parseResource(clazz, fhirResource);
+            return JSON_PARSER.get().parseResource(clazz, fhirResource);
         } catch (Exception e) {
             throw new FhirParseException(
                     "An error occurred while parsing the payload, make sure the payload is not empty and it has the correct format.",
@@ -58,8 +68,22 @@ public class HapiFhirImplementation implements HapiFhir, HealthDataExpressionEva
      */
     @Override
     public String encodeResourceToJson(Object resource) {
-        IParser encodeResourceParser = CONTEXT.newJsonParser();
-        return encodeResourceParser.encodeResourceToString((IBaseResource) resource);
+        return JSON_PARSER.get().encodeResourceToString((IBaseResource) resource);
+    }
+
+    /**
+     * Encode resource to JSON, writing it to the stream as it's encoded so the whole document is
+     * never held in memory.
+     *
+     * @param resource Object to encode.
+     * @param outputStream Stream to write the UTF-8 encoded JSON to. It's flushed but not closed.
+     */
+    @Override
+    public void encodeResourceToJson(Object resource, OutputStream outputStream)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        JSON_PARSER.get().encodeResourceToWriter((IBaseResource) resource, writer);
+        writer.flush();
     }
 
     /**
@@ -76,9 +100,8 @@ public class HapiFhirImplementation implements HapiFhir, HealthDataExpressionEva
                     "Expected one resource, but received: " + data.length);
         }
 
-        var result =
-                PATH_ENGINE.evaluateFirst(
-                        (IBaseResource) data[0].getUnderlyingData(), expression, BooleanType.class);
+        var resource = (IBaseResource) data[0].getUnderlyingData();
+        var result = PATH_ENGINE.get().evaluateFirst(resource, expression, BooleanType.class);
         return result.map(BooleanType::booleanValue).orElse(false);
     }
 
@@ -100,7 +123,8 @@ public class HapiFhirImplementation implements HapiFhir, HealthDataExpressionEva
      */
     @Override
     public String getStringFromFhirPath(Object resource, String expression) {
-        var result = PATH_ENGINE.evaluateFirst((IBaseResource) resource, expression, Base.class);
+        var result =
+                PATH_ENGINE.get().evaluateFirst((IBaseResource) resource, expression, Base.class);
         return result.map(Base::primitiveValue).orElse("");
     }
 }
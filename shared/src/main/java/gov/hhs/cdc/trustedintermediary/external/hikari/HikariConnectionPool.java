@@ -1,11 +1,13 @@
 package gov.hhs.cdc.trustedintermediary.external.hikari;
 
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.util.PropertyElf;
 import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
 import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
 import gov.hhs.cdc.trustedintermediary.wrappers.database.ConnectionPool;
 import java.sql.Connection;
 import java.sql.SQLException;
+import org.postgresql.ds.PGSimpleDataSource;
 
 /**
  * A shared connection pool for connecting to the database. The class currently spins up 10
@@ -58,11 +60,30 @@ public class HikariConnectionPool implements ConnectionPool {
         config.addDataSourceProperty("databaseName", dbName);
         config.addDataSourceProperty("portNumber", dbPort);
 
+        // batched inserts are sent as multi-row inserts, and a statement is prepared on the server
+        // the first time a connection runs it, so later runs skip parsing and planning
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
+        config.addDataSourceProperty(
+                "prepareThreshold", ApplicationContext.getProperty("DB_PREPARE_THRESHOLD", "1"));
+
         return config;
     }
 
+    // the same data source the pool opens its connections with, so an unpooled connection has the
+    // pool's settings
+    static PGSimpleDataSource constructUnpooledDataSource(HikariDataSource pooled) {
+        PGSimpleDataSource dataSource = new PGSimpleDataSource();
+        PropertyElf.setTargetFromProperties(dataSource, pooled.getDataSourceProperties());
+        return dataSource;
+    }
+
     @Override
     public Connection getConnection() throws SQLException {
         return ds.getConnection();
     }
+
+    @Override
+    public Connection getUnpooledConnection() throws SQLException {
+        return constructUnpooledDataSource(ds).getConnection(ds.getUsername(), ds.getPassword());
+    }
 }
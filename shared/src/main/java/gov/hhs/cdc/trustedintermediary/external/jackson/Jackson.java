@@ -1,5 +1,6 @@
 package gov.hhs.cdc.trustedintermediary.external.jackson;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -13,7 +14,11 @@ import gov.hhs.cdc.trustedintermediary.wrappers.YamlCombinerException;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.Formatter;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException;
 import gov.hhs.cdc.trustedintermediary.wrappers.formatter.TypeReference;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import javax.inject.Inject;
 
@@ -82,6 +87,28 @@ public class Jackson implements Formatter, YamlCombiner {
         }
     }
 
+    @Override
+    public void writeJsonObject(
+            OutputStream output, Iterator<? extends Map.Entry<String, ?>> fields)
+            throws FormatterProcessingException {
+        try (JsonGenerator generator = JSON_OBJECT_MAPPER.createGenerator(output)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // a failure partway leaves the object unterminated instead of closing it, so a client
+            // can't mistake a cut off response for a whole one
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartObject();
+            while (fields.hasNext()) {
+                Map.Entry<String, ?> field = fields.next();
+                generator.writeObjectField(field.getKey(), field.getValue());
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            String errorMessage = "Jackson's objectMapper failed to write the JSON object";
+            logger.logError(errorMessage, e);
+            throw new FormatterProcessingException(errorMessage, e);
+        }
+    }
+
     @Override
     public String combineYaml(final Set<String> yamlStrings) throws YamlCombinerException {
         var mapOfMaps = new HashMap<>();
@@ -0,0 +1,70 @@
+package gov.hhs.cdc.trustedintermediary.external.postgres;
+
+import gov.hhs.cdc.trustedintermediary.wrappers.database.ConnectionPool;
+import gov.hhs.cdc.trustedintermediary.wrappers.database.DatabaseNotificationChannel;
+import gov.hhs.cdc.trustedintermediary.wrappers.database.DatabaseNotificationListener;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Listens to Postgres notifications with {@code LISTEN}. Each channel holds on to a connection
+ * until it's closed, because Postgres only delivers the notifications to the session that listens.
+ * The connection is opened outside the {@link ConnectionPool}, so a listener doesn't take one of
+ * the pooled connections the requests and workers share.
+ */
+public class PostgresNotificationListener implements DatabaseNotificationListener {
+
+    private static final PostgresNotificationListener INSTANCE =
+            new PostgresNotificationListener();
+
+    @Inject ConnectionPool connectionPool;
+
+    private PostgresNotificationListener() {}
+
+    public static PostgresNotificationListener getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public DatabaseNotificationChannel listen(String channel) throws SQLException {
+        Connection connection = connectionPool.getUnpooledConnection();
+        try {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + channel);
+            }
+            return new PostgresNotificationChannel(connection, pgConnection);
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private record PostgresNotificationChannel(Connection connection, PGConnection pgConnection)
+            implements DatabaseNotificationChannel {
+
+        @Override
+        public List<String> awaitNotifications(int timeoutMillis) throws SQLException {
+            List<String> payloads = new ArrayList<>();
+            PGNotification[] notifications = pgConnection.getNotifications(timeoutMillis);
+            if (notifications != null) {
+                for (PGNotification notification : notifications) {
+                    payloads.add(notification.getParameter());
+                }
+            }
+            return payloads;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            // closing the session stops it from listening
+            connection.close();
+        }
+    }
+}
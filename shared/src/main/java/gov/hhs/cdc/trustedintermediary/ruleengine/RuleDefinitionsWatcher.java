@@ -0,0 +1,196 @@
+package gov.hhs.cdc.trustedintermediary.ruleengine;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+
+/**
+ * Watches rule definition files in an external directory and calls the registered listeners once a
+ * file has stopped changing. This lets the rule engines pick up new definitions without a restart.
+ */
+public class RuleDefinitionsWatcher {
+
+    /** The property naming the directory that rule definitions and related files are read from. */
+    public static final String RULE_DEFINITIONS_DIRECTORY = "RULE_DEFINITIONS_DIRECTORY";
+
+    static final long DEBOUNCE_MILLIS = 500;
+
+    private static final RuleDefinitionsWatcher INSTANCE = new RuleDefinitionsWatcher();
+
+    private final Map<Path, Set<Runnable>> listeners = new ConcurrentHashMap<>();
+    private final Map<Path, Long> pendingChanges = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = new HashSet<>();
+    private WatchService watchService;
+    private Thread watcherThread;
+
+    @Inject Logger logger;
+
+    private RuleDefinitionsWatcher() {}
+
+    public static RuleDefinitionsWatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Resolves a file name against the {@value #RULE_DEFINITIONS_DIRECTORY} directory.
+     *
+     * @return The path to the file, or null when the directory isn't configured.
+     */
+    public static Path resolveInRuleDefinitionsDirectory(String fileName) {
+        if (!ApplicationContext.isPropertyPresent(RULE_DEFINITIONS_DIRECTORY)) {
+            return null;
+        }
+        return Path.of(ApplicationContext.getProperty(RULE_DEFINITIONS_DIRECTORY))
+                .resolve(fileName);
+    }
+
+    /**
+     * Registers a listener that is called on the watcher thread after the given file is created or
+     * modified. A file can have several listeners, and registering the same listener for a file
+     * again has no effect.
+     */
+    public synchronized void watch(Path file, Runnable onChange) throws IOException {
+        Path normalizedFile = file.toAbsolutePath().normalize();
+        Path directory = normalizedFile.getParent();
+
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+        }
+
+        if (watchedDirectories.add(directory)) {
+            try {
+                directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            } catch (IOException e) {
+                watchedDirectories.remove(directory);
+                throw e;
+            }
+        }
+
+        listeners.computeIfAbsent(normalizedFile, key -> new CopyOnWriteArraySet<>()).add(onChange);
+
+        if (watcherThread == null) {
+            watcherThread = new Thread(this::processEvents, "rule-definitions-watcher");
+            watcherThread.setDaemon(true);
+            watcherThread.start();
+        }
+    }
+
+    /**
+     * Removes a listener registered with {@link #watch}, so it's no longer called when the file
+     * changes. The other listeners of the file are kept.
+     */
+    public synchronized void unwatch(Path file, Runnable onChange) {
+        Path normalizedFile = file.toAbsolutePath().normalize();
+        Set<Runnable> fileListeners = listeners.get(normalizedFile);
+        if (fileListeners == null) {
+            return;
+        }
+
+        fileListeners.remove(onChange);
+        if (fileListeners.isEmpty()) {
+            listeners.remove(normalizedFile);
+            pendingChanges.remove(normalizedFile);
+        }
+    }
+
+    /** Stops watching all files and releases the underlying watch service. */
+    public synchronized void stop() {
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+            watcherThread = null;
+        }
+
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.logWarning("Unable to close the rule definitions watch service", e);
+            }
+            watchService = null;
+        }
+
+        watchedDirectories.clear();
+        listeners.clear();
+        pendingChanges.clear();
+    }
+
+    private void processEvents() {
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+        }
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                WatchKey key = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    recordChanges((Path) key.watchable(), key);
+                    key.reset();
+                }
+                notifySettledChanges();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+
+    private void recordChanges(Path directory, WatchKey key) {
+        long now = System.nanoTime();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // events were lost, so assume every file in this directory changed
+                listeners.keySet().stream()
+                        .filter(file -> file.getParent().equals(directory))
+                        .forEach(file -> pendingChanges.put(file, now));
+                continue;
+            }
+
+            Path changedFile = directory.resolve((Path) event.context()).normalize();
+            if (listeners.containsKey(changedFile)) {
+                pendingChanges.put(changedFile, now);
+            }
+        }
+    }
+
+    private void notifySettledChanges() {
+        long settledBefore = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(DEBOUNCE_MILLIS);
+        for (Map.Entry<Path, Long> change : pendingChanges.entrySet()) {
+            if (change.getValue() > settledBefore
+                    || !pendingChanges.remove(change.getKey(), change.getValue())) {
+                continue;
+            }
+
+            Set<Runnable> fileListeners = listeners.get(change.getKey());
+            if (fileListeners == null) {
+                continue;
+            }
+
+            for (Runnable listener : fileListeners) {
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    logger.logError("Rule definitions listener failed for " + change.getKey(), e);
+                }
+            }
+        }
+    }
+}
@@ -4,12 +4,25 @@ import gov.hhs.cdc.trustedintermediary.wrappers.HealthData;
 
 /**
  * The RuleEngine interface defines the structure for a rule engine. Each rule engine has methods to
- * load rules, ensure rules are loaded, and run rules on a resource.
+ * load rules, ensure rules are loaded, reload rules after their definitions change, and run rules
+ * on a resource.
  */
 public interface RuleEngine {
     void unloadRules();
 
     void ensureRulesLoaded() throws RuleLoaderException;
 
-    void runRules(HealthData<?> resource);
+    /**
+     * Loads the rule definitions again and swaps them in for the current rules. If the new
+     * definitions fail to load, the current rules are kept.
+     */
+    void reloadRules() throws RuleLoaderException;
+
+    /**
+     * Runs the rules against the resource.
+     *
+     * @throws RuleTimeBudgetExceededException When the rules take longer than the {@link
+     *     RuleTimeBudget} for the resource. The remaining rules aren't run.
+     */
+    void runRules(HealthData<?> resource) throws RuleTimeBudgetExceededException;
 }
@@ -0,0 +1,233 @@
+package gov.hhs.cdc.trustedintermediary.ruleengine;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.Inject;
+
+/**
+ * Collects per-rule and per-transformation counters and latency histograms so the rules that
+ * dominate processing time can be found. Recording is lock-free and safe to call from any thread.
+ * Rules or transformations that take longer than the {@value #SLOW_RULE_THRESHOLD_PROPERTY}
+ * threshold are logged.
+ */
+public class RuleStatistics {
+
+    static final String SLOW_RULE_THRESHOLD_PROPERTY = "RULE_SLOW_THRESHOLD_MS";
+    static final long DEFAULT_SLOW_RULE_THRESHOLD_MILLIS = 100;
+    static final String UNNAMED_RULE = "(unnamed)";
+
+    private static final RuleStatistics INSTANCE = new RuleStatistics();
+
+    private final Map<String, Map<String, RuleCounters>> ruleCounters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> transformationLatencies =
+            new ConcurrentHashMap<>();
+    private volatile long slowRuleThresholdNanos = -1;
+
+    @Inject Logger logger;
+
+    private RuleStatistics() {}
+
+    public static RuleStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    public void recordConditionEvaluation(
+            String engineName, String ruleName, long elapsedNanos, boolean matched) {
+        RuleCounters counters = getRuleCounters(engineName, ruleName);
+        counters.conditionLatency.record(elapsedNanos);
+        if (matched) {
+            counters.matches.increment();
+        }
+        logIfSlow(engineName + " rule [" + ruleName + "] conditions", elapsedNanos);
+    }
+
+    public void recordRuleRun(String engineName, String ruleName, long elapsedNanos) {
+        getRuleCounters(engineName, ruleName).runLatency.record(elapsedNanos);
+        logIfSlow(engineName + " rule [" + ruleName + "]", elapsedNanos);
+    }
+
+    /** Counts a rule that ran out of its {@link RuleTimeBudget}. */
+    public void recordBudgetOverrun(String engineName, String ruleName) {
+        getRuleCounters(engineName, ruleName).budgetOverruns.increment();
+        logger.logWarning("{} rule [{}] exceeded its time budget", engineName, ruleName);
+    }
+
+    public void recordTransformation(String transformationName, long elapsedNanos) {
+        transformationLatencies
+                .computeIfAbsent(transformationName, name -> new LatencyHistogram())
+                .record(elapsedNanos);
+        logIfSlow("Transformation [" + transformationName + "]", elapsedNanos);
+    }
+
+    /**
+     * Returns a point-in-time view of the collected statistics, keyed by engine and rule name for
+     * the rules and by class name for the custom transformations.
+     */
+    public Map<String, Object> getSummary() {
+        Map<String, Object> engines = new TreeMap<>();
+        ruleCounters.forEach(
+                (engineName, rules) -> {
+                    Map<String, Object> ruleSummaries = new TreeMap<>();
+                    rules.forEach(
+                            (ruleName, counters) ->
+                                    ruleSummaries.put(ruleName, counters.summary()));
+                    engines.put(engineName, ruleSummaries);
+                });
+
+        Map<String, Object> transformations = new TreeMap<>();
+        transformationLatencies.forEach(
+                (transformationName, histogram) ->
+                        transformations.put(transformationName, histogram.summary()));
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("engines", engines);
+        summary.put("transformations", transformations);
+        summary.put("slowThresholdMillis", TimeUnit.NANOSECONDS.toMillis(getSlowThresholdNanos()));
+        return summary;
+    }
+
+    public void reset() {
+        ruleCounters.clear();
+        transformationLatencies.clear();
+        slowRuleThresholdNanos = -1;
+    }
+
+    private RuleCounters getRuleCounters(String engineName, String ruleName) {
+        // rule definitions don't have to name their rules, and ConcurrentHashMap rejects null keys
+        return ruleCounters
+                .computeIfAbsent(engineName, name -> new ConcurrentHashMap<>())
+                .computeIfAbsent(
+                        ruleName == null ? UNNAMED_RULE : ruleName, name -> new RuleCounters());
+    }
+
+    private void logIfSlow(String description, long elapsedNanos) {
+        if (elapsedNanos > getSlowThresholdNanos()) {
+            logger.logWarning(
+                    "{} took {} ms, which is over the slow rule threshold",
+                    description,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+    }
+
+    private long getSlowThresholdNanos() {
+        long threshold = slowRuleThresholdNanos;
+        if (threshold < 0) {
+            long thresholdMillis = DEFAULT_SLOW_RULE_THRESHOLD_MILLIS;
+            try {
+                thresholdMillis =
+                        Long.parseLong(
+                                ApplicationContext.getProperty(
+                                        SLOW_RULE_THRESHOLD_PROPERTY,
+                                        String.valueOf(DEFAULT_SLOW_RULE_THRESHOLD_MILLIS)));
+            } catch (NumberFormatException e) {
+                logger.logWarning(
+                        "Invalid {} value, using the default of {} ms",
+                        SLOW_RULE_THRESHOLD_PROPERTY,
+                        DEFAULT_SLOW_RULE_THRESHOLD_MILLIS);
+            }
+            threshold = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+            slowRuleThresholdNanos = threshold;
+        }
+        return threshold;
+    }
+
+    private static final class RuleCounters {
+        private final LatencyHistogram conditionLatency = new LatencyHistogram();
+        private final LatencyHistogram runLatency = new LatencyHistogram();
+        private final LongAdder matches = new LongAdder();
+        private final LongAdder budgetOverruns = new LongAdder();
+
+        private Map<String, Object> summary() {
+            long evaluations = conditionLatency.count.sum();
+            long matched = matches.sum();
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("evaluations", evaluations);
+            summary.put("matches", matched);
+            summary.put("matchRate", evaluations == 0 ? 0.0 : (double) matched / evaluations);
+            summary.put("budgetOverruns", budgetOverruns.sum());
+            summary.put("conditionLatency", conditionLatency.summary());
+            summary.put("runLatency", runLatency.summary());
+            return summary;
+        }
+    }
+
+    /**
+     * A fixed-bucket latency histogram. Percentiles are reported as the upper bound of the bucket
+     * they fall into.
+     */
+    public static final class LatencyHistogram {
+        static final long[] BUCKET_UPPER_BOUNDS_MICROS = {
+            10, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000,
+            500_000, 1_000_000
+        };
+
+        private final LongAdder[] buckets = new LongAdder[BUCKET_UPPER_BOUNDS_MICROS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        public LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long elapsedNanos) {
+            long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+            int bucket = 0;
+            while (bucket < BUCKET_UPPER_BOUNDS_MICROS.length
+                    && elapsedMicros > BUCKET_UPPER_BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            count.increment();
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulate(elapsedNanos);
+        }
+
+        public Map<String, Object> summary() {
+            long[] bucketCounts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                bucketCounts[i] = buckets[i].sum();
+                total += bucketCounts[i];
+            }
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", total);
+            summary.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(totalNanos.sum()));
+            summary.put(
+                    "meanMicros",
+                    total == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum()) / total);
+            summary.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+            summary.put("p50Micros", percentile(bucketCounts, total, 0.50));
+            summary.put("p95Micros", percentile(bucketCounts, total, 0.95));
+            summary.put("p99Micros", percentile(bucketCounts, total, 0.99));
+            return summary;
+        }
+
+        private long percentile(long[] bucketCounts, long total, double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_UPPER_BOUNDS_MICROS.length; i++) {
+                seen += bucketCounts[i];
+                if (seen >= rank) {
+                    return BUCKET_UPPER_BOUNDS_MICROS[i];
+                }
+            }
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package gov.hhs.cdc.trustedintermediary.ruleengine;
+
+import gov.hhs.cdc.trustedintermediary.context.ApplicationContext;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks how long the rules have been running for one message, against a budget for each rule
+ * ({@value #RULE_TIME_BUDGET_PROPERTY}) and for the whole message ({@value
+ * #MESSAGE_TIME_BUDGET_PROPERTY}). A FHIRPath evaluation or transformation can't be safely
+ * interrupted part way through, so the budget is enforced cooperatively: the rule engines check it
+ * after every rule, and rules check the budget bound to the current thread between their steps. A
+ * budget of 0 turns that limit off.
+ */
+public final class RuleTimeBudget {
+
+    public static final String RULE_TIME_BUDGET_PROPERTY = "RULE_TIME_BUDGET_MS";
+    public static final String MESSAGE_TIME_BUDGET_PROPERTY = "MESSAGE_TIME_BUDGET_MS";
+    static final long DEFAULT_RULE_TIME_BUDGET_MILLIS = 10_000;
+    static final long DEFAULT_MESSAGE_TIME_BUDGET_MILLIS = 30_000;
+
+    private static final ThreadLocal<RuleTimeBudget> CURRENT = new ThreadLocal<>();
+
+    private final long ruleBudgetNanos;
+    private final long messageBudgetNanos;
+    private final long messageStart;
+    private volatile long ruleStart;
+
+    RuleTimeBudget(long ruleBudgetNanos, long messageBudgetNanos) {
+        this.ruleBudgetNanos = ruleBudgetNanos;
+        this.messageBudgetNanos = messageBudgetNanos;
+        this.messageStart = System.nanoTime();
+        this.ruleStart = messageStart;
+    }
+
+    /** Starts the budget for a message, using the configured rule and message budgets. */
+    public static RuleTimeBudget startMessage() {
+        return new RuleTimeBudget(
+                TimeUnit.MILLISECONDS.toNanos(
+                        getBudgetMillis(
+                                RULE_TIME_BUDGET_PROPERTY, DEFAULT_RULE_TIME_BUDGET_MILLIS)),
+                TimeUnit.MILLISECONDS.toNanos(
+                        getBudgetMillis(
+                                MESSAGE_TIME_BUDGET_PROPERTY,
+                                DEFAULT_MESSAGE_TIME_BUDGET_MILLIS)));
+    }
+
+    /**
+     * Binds the budget to the current thread so rules can check it with {@link
+     * #isCurrentExceeded()}.
+     */
+    public static void setCurrent(RuleTimeBudget budget) {
+        CURRENT.set(budget);
+    }
+
+    public static void clearCurrent() {
+        CURRENT.remove();
+    }
+
+    /** Returns whether the budget bound to the current thread, if any, has run out. */
+    public static boolean isCurrentExceeded() {
+        RuleTimeBudget budget = CURRENT.get();
+        return budget != null && budget.isExceeded();
+    }
+
+    /** Restarts the per-rule budget. Called before each rule is evaluated. */
+    public void startRule() {
+        ruleStart = System.nanoTime();
+    }
+
+    public boolean isExceeded() {
+        long now = System.nanoTime();
+        return isRuleExceeded(now) || isMessageExceeded(now);
+    }
+
+    /** Creates the exception describing which budget ran out while the given rule was running. */
+    public RuleTimeBudgetExceededException exceeded(String ruleName) {
+        long now = System.nanoTime();
+        if (isRuleExceeded(now)) {
+            return new RuleTimeBudgetExceededException(
+                    String.format(
+                            "Rule [%s] ran for %d ms, over its %d ms budget",
+                            ruleName,
+                            TimeUnit.NANOSECONDS.toMillis(now - ruleStart),
+                            TimeUnit.NANOSECONDS.toMillis(ruleBudgetNanos)));
+        }
+        return new RuleTimeBudgetExceededException(
+                String.format(
+                        "Rules ran for %d ms, over the %d ms message budget, stopped after rule"
+                                + " [%s]",
+                        TimeUnit.NANOSECONDS.toMillis(now - messageStart),
+                        TimeUnit.NANOSECONDS.toMillis(messageBudgetNanos),
+                        ruleName));
+    }
+
+    private boolean isRuleExceeded(long now) {
+        return ruleBudgetNanos > 0 && now - ruleStart > ruleBudgetNanos;
+    }
+
+    private boolean isMessageExceeded(long now) {
+        return messageBudgetNanos > 0 && now - messageStart > messageBudgetNanos;
+    }
+
+    private static long getBudgetMillis(String property, long defaultMillis) {
+        try {
+            return Long.parseLong(
+                    ApplicationContext.getProperty(property, String.valueOf(defaultMillis)));
+        } catch (NumberFormatException e) {
+            return defaultMillis;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package gov.hhs.cdc.trustedintermediary.ruleengine;
+
+/** Thrown when running the rules for a message takes longer than its {@link RuleTimeBudget}. */
+public class RuleTimeBudgetExceededException extends Exception {
+    public RuleTimeBudgetExceededException(String message) {
+        super(message);
+    }
+}
@@ -1,5 +1,7 @@
 package gov.hhs.cdc.trustedintermediary.wrappers;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
 /**
@@ -14,5 +16,8 @@ public interface HapiFhir {
 
     String encodeResourceToJson(Object resource);
 
+    /** Encodes the resource as UTF-8 JSON straight into the stream, without closing it. */
+    void encodeResourceToJson(Object resource, OutputStream outputStream) throws IOException;
+
     String getStringFromFhirPath(Object resource, String expression);
 }
@@ -1,10 +1,71 @@
 package gov.hhs.cdc.trustedintermediary.wrappers;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /** This interface provides a generic blueprint for HTTP operations */
 public interface HttpClient {
     String post(String url, Map<String, String> headerMap, String body) throws HttpClientException;
 
     String get(String url, Map<String, String> headerMap) throws HttpClientException;
+
+    /**
+     * POSTs a body that's written while the request is sent, with chunked transfer encoding.
+     * Implementations that can't stream the body write it to memory first.
+     */
+    default String post(String url, Map<String, String> headerMap, StreamingBody body)
+            throws HttpClientException {
+        var buffer = new ByteArrayOutputStream();
+        try {
+            body.writeTo(buffer);
+        } catch (IOException e) {
+            throw new HttpClientException(
+                    "Error occurred while writing the HTTP POST body for [" + url + "]", e);
+        }
+        return post(url, headerMap, buffer.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Starts a POST request and returns a future for the response body. The future fails with an
+     * {@link HttpClientException}. Implementations that can't send requests in the background run
+     * the request on the calling thread.
+     */
+    default CompletableFuture<String> postAsync(
+            String url, Map<String, String> headerMap, String body) {
+        try {
+            return CompletableFuture.completedFuture(post(url, headerMap, body));
+        } catch (HttpClientException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Starts a POST request with a streamed body and returns a future for the response body. The
+     * future fails with an {@link HttpClientException}. Implementations that can't send requests in
+     * the background run the request on the calling thread.
+     */
+    default CompletableFuture<String> postAsync(
+            String url, Map<String, String> headerMap, StreamingBody body) {
+        try {
+            return CompletableFuture.completedFuture(post(url, headerMap, body));
+        } catch (HttpClientException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Starts a GET request and returns a future for the response body. The future fails with an
+     * {@link HttpClientException}. Implementations that can't send requests in the background run
+     * the request on the calling thread.
+     */
+    default CompletableFuture<String> getAsync(String url, Map<String, String> headerMap) {
+        try {
+            return CompletableFuture.completedFuture(get(url, headerMap));
+        } catch (HttpClientException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
@@ -1,9 +1,29 @@
 package gov.hhs.cdc.trustedintermediary.wrappers;
 
+import java.util.OptionalInt;
+
 /** Custom exception class use to catch any exception coming from an HTTP request */
 public class HttpClientException extends Exception {
 
+    private static final int NO_RESPONSE = -1;
+
+    private final int statusCode;
+
     public HttpClientException(String message, Throwable cause) {
+        this(message, NO_RESPONSE, cause);
+    }
+
+    /** For a request that got a response with an error status. */
+    public HttpClientException(String message, int statusCode, Throwable cause) {
         super(message, cause);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * The status of the error response, or empty when the request failed without a response, for
+     * example because it timed out or the connection failed.
+     */
+    public OptionalInt getStatusCode() {
+        return statusCode == NO_RESPONSE ? OptionalInt.empty() : OptionalInt.of(statusCode);
     }
 }
@@ -0,0 +1,13 @@
+package gov.hhs.cdc.trustedintermediary.wrappers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A request body that is written straight to the connection while the request is sent, instead of
+ * being built in memory first.
+ */
+@FunctionalInterface
+public interface StreamingBody {
+    void writeTo(OutputStream outputStream) throws IOException;
+}
@@ -7,4 +7,10 @@ import java.sql.SQLException;
 public interface ConnectionPool {
 
     Connection getConnection() throws SQLException;
+
+    /**
+     * Opens a connection with the pool's settings that isn't taken from the pool, for a session
+     * that's held open for a long time. The caller closes it.
+     */
+    Connection getUnpooledConnection() throws SQLException;
 }
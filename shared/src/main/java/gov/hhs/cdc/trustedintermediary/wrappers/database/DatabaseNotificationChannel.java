@@ -0,0 +1,18 @@
+package gov.hhs.cdc.trustedintermediary.wrappers.database;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/** A channel opened by the {@link DatabaseNotificationListener}. */
+public interface DatabaseNotificationChannel extends AutoCloseable {
+
+    /**
+     * Waits up to the timeout for notifications and returns their payloads in the order they were
+     * sent. Returns an empty list when none arrived in time.
+     */
+    List<String> awaitNotifications(int timeoutMillis) throws SQLException;
+
+    /** Stops listening and releases the connection. */
+    @Override
+    void close() throws SQLException;
+}
@@ -0,0 +1,14 @@
+package gov.hhs.cdc.trustedintermediary.wrappers.database;
+
+import java.sql.SQLException;
+
+/** Wrapper interface for listening to the notifications the database sends on a channel. */
+public interface DatabaseNotificationListener {
+
+    /**
+     * Starts listening on the channel with a connection of its own. The notifications sent after
+     * this returns are delivered by the returned {@link DatabaseNotificationChannel}, which has to
+     * be closed to stop listening and release the connection.
+     */
+    DatabaseNotificationChannel listen(String channel) throws SQLException;
+}
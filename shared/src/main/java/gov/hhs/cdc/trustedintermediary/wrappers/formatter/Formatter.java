@@ -1,5 +1,9 @@
 package gov.hhs.cdc.trustedintermediary.wrappers.formatter;
 
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+
 /**
  * Signifies something that can convert objects to {@link String}s and {@link String}s back to
  * objects.
@@ -13,4 +17,11 @@ public interface Formatter {
             throws FormatterProcessingException;
 
     String convertToJsonString(Object obj) throws FormatterProcessingException;
+
+    /**
+     * Writes a JSON object to the output one field at a time, so the whole object is never built
+     * up as a String. The output is flushed but not closed.
+     */
+    void writeJsonObject(OutputStream output, Iterator<? extends Map.Entry<String, ?>> fields)
+            throws FormatterProcessingException;
 }
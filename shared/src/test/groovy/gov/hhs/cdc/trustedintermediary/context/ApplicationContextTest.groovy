@@ -6,6 +6,8 @@ import spock.lang.Specification
 import javax.inject.Inject
 import java.nio.file.Files
 import java.nio.file.Paths
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 
 class ApplicationContextTest extends Specification {
 
@@ -62,6 +64,66 @@ class ApplicationContextTest extends Specification {
         implementors == ApplicationContext.getImplementors(TestingInterface)
     }
 
+    def "withThreadRegistrations runs the task on another thread with the caller's registrations"() {
+        given:
+        def executor = Executors.newSingleThreadExecutor()
+        // start the pooled thread before the registration so it can't inherit it
+        executor.submit({} as Runnable).get()
+        ApplicationContext.register(TestingInterface, DOGCOW)
+        ApplicationContext.registerForThread(TestingInterface, DOGCOWTWO)
+        def seenInTask = null
+
+        when:
+        executor.submit(ApplicationContext.withThreadRegistrations({
+            seenInTask = ApplicationContext.getImplementation(TestingInterface)
+        })).get()
+        def seenAfterTask = executor.submit({ ApplicationContext.getImplementation(TestingInterface) } as Callable).get()
+
+        then:
+        seenInTask == DOGCOWTWO
+        seenAfterTask == DOGCOW
+
+        cleanup:
+        ApplicationContext.clearThreadRegistrations()
+        executor.shutdownNow()
+    }
+
+    def "getThreadImplementation only returns the registration of the current thread"() {
+        given:
+        ApplicationContext.clearThreadRegistrations()
+        ApplicationContext.register(TestingInterface, DOGCOW)
+
+        when:
+        def beforeThreadRegistration = ApplicationContext.getThreadImplementation(TestingInterface)
+        ApplicationContext.registerForThread(TestingInterface, DOGCOWTWO)
+        def afterThreadRegistration = ApplicationContext.getThreadImplementation(TestingInterface)
+        def otherClass = ApplicationContext.getThreadImplementation(String)
+
+        then:
+        beforeThreadRegistration == Optional.empty()
+        afterThreadRegistration == Optional.of(DOGCOWTWO)
+        otherClass == Optional.empty()
+
+        cleanup:
+        ApplicationContext.clearThreadRegistrations()
+    }
+
+    def "clearThreadRegistration only removes the registration of the given class"() {
+        given:
+        ApplicationContext.registerForThread(TestingInterface, DOGCOWTWO)
+        ApplicationContext.registerForThread(String, "DogCow")
+
+        when:
+        ApplicationContext.clearThreadRegistration(TestingInterface)
+
+        then:
+        ApplicationContext.getThreadImplementation(TestingInterface) == Optional.empty()
+        ApplicationContext.getThreadImplementation(String) == Optional.of("DogCow")
+
+        cleanup:
+        ApplicationContext.clearThreadRegistrations()
+    }
+
     def "injectIntoNonSingleton unhappy path"() {
         given:
         def nonSingletonClass = new NonSingletonClazz()
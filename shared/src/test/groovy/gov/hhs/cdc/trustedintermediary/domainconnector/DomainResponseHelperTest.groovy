@@ -157,4 +157,18 @@ class DomainResponseHelperTest extends Specification {
         actual.getStatusCode() == expectedResponseStatus
         actual.getHeaders().get(DomainResponseHelper.CONTENT_TYPE_LITERAL) == DomainResponseHelper.APPLICATION_JSON_LITERAL
     }
+
+    def "constructStreamingOkResponse returns a JSON response with the body writer"() {
+        given:
+        TestApplicationContext.injectRegisteredImplementations()
+        DomainResponse.BodyWriter bodyWriter = { OutputStream output -> output.write("{}".getBytes()) }
+
+        when:
+        def actual = DomainResponseHelper.getInstance().constructStreamingOkResponse(bodyWriter)
+
+        then:
+        actual.getStatusCode() == 200
+        actual.getBodyWriter() == bodyWriter
+        actual.getHeaders().get(DomainResponseHelper.CONTENT_TYPE_LITERAL) == DomainResponseHelper.APPLICATION_JSON_LITERAL
+    }
 }
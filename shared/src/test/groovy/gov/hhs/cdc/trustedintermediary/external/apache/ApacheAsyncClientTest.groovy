@@ -0,0 +1,172 @@
+package gov.hhs.cdc.trustedintermediary.external.apache
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.wrappers.HttpClientException
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import gov.hhs.cdc.trustedintermediary.wrappers.StreamingBody
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class ApacheAsyncClientTest extends Specification {
+
+    def client = ApacheAsyncClient.getInstance()
+    def mockLogger = Mock(Logger)
+    HttpServer server
+    String baseUrl
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(ApacheAsyncClient, client)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.setExecutor(Executors.newCachedThreadPool())
+        server.start()
+        baseUrl = "http://localhost:${server.address.port}"
+    }
+
+    def cleanup() {
+        client.shutdown()
+        server.stop(0)
+    }
+
+    def "post sends the body and headers and returns the response body"() {
+        given:
+        def receivedBody = null
+        def receivedHeader = null
+        respond("/post") { HttpExchange exchange ->
+            receivedBody = new String(exchange.requestBody.readAllBytes(), StandardCharsets.UTF_8)
+            receivedHeader = exchange.requestHeaders.getFirst("client")
+            return [200, "created"]
+        }
+
+        when:
+        def response = client.post("${baseUrl}/post", ["client": "dogcow"], "moof")
+
+        then:
+        response == "created"
+        receivedBody == "moof"
+        receivedHeader == "dogcow"
+    }
+
+    def "post streams a body with chunked transfer encoding"() {
+        given:
+        def receivedBody = null
+        def transferEncoding = null
+        respond("/stream") { HttpExchange exchange ->
+            receivedBody = new String(exchange.requestBody.readAllBytes(), StandardCharsets.UTF_8)
+            transferEncoding = exchange.requestHeaders.getFirst("Transfer-Encoding")
+            return [200, "streamed"]
+        }
+        def body = { OutputStream outputStream ->
+            3.times { outputStream.write("chunk${it};".getBytes(StandardCharsets.UTF_8)) }
+        } as StreamingBody
+
+        when:
+        def response = client.post("${baseUrl}/stream", [:], body)
+
+        then:
+        response == "streamed"
+        receivedBody == "chunk0;chunk1;chunk2;"
+        transferEncoding == "chunked"
+    }
+
+    def "a body that fails to write fails the request"() {
+        given:
+        respond("/stream") { HttpExchange exchange ->
+            exchange.requestBody.readAllBytes()
+            return [200, "streamed"]
+        }
+        def body = { OutputStream outputStream -> throw new IOException("encoding failed") } as StreamingBody
+
+        when:
+        client.post("${baseUrl}/stream", [:], body)
+
+        then:
+        thrown(HttpClientException)
+    }
+
+    def "get returns the response body"() {
+        given:
+        respond("/get") { [200, "history"] }
+
+        expect:
+        client.get("${baseUrl}/get", null) == "history"
+    }
+
+    def "a response with an error status throws an HttpClientException"() {
+        given:
+        respond("/missing") { [404, "not found"] }
+
+        when:
+        client.get("${baseUrl}/missing", [:])
+
+        then:
+        def exception = thrown(HttpClientException)
+        exception.cause.message.contains("404")
+        exception.getStatusCode().getAsInt() == 404
+    }
+
+    def "the async methods fail their future with an HttpClientException when the server can't be reached"() {
+        given:
+        def unreachableUrl = "${baseUrl}/post"
+        server.stop(0)
+
+        when:
+        client.postAsync(unreachableUrl, [:], "body").get(1, TimeUnit.MINUTES)
+
+        then:
+        def exception = thrown(ExecutionException)
+        exception.cause instanceof HttpClientException
+        exception.cause.getStatusCode().isEmpty()
+    }
+
+    def "requests overlap instead of waiting for each other"() {
+        given:
+        def bothArrived = new CountDownLatch(2)
+        respond("/slow") {
+            bothArrived.countDown()
+            // neither request answers until both are in flight at the same time
+            return [bothArrived.await(30, TimeUnit.SECONDS) ? 200 : 500, "done"]
+        }
+
+        when:
+        def first = client.getAsync("${baseUrl}/slow", [:])
+        def second = client.getAsync("${baseUrl}/slow", [:])
+
+        then:
+        first.get(1, TimeUnit.MINUTES) == "done"
+        second.get(1, TimeUnit.MINUTES) == "done"
+    }
+
+    def "an invalid pool size falls back to the default"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(ApacheAsyncClient.MAX_CONNECTIONS_PROPERTY, "lots")
+        respond("/get") { [200, "ok"] }
+
+        when:
+        def response = client.get("${baseUrl}/get", [:])
+
+        then:
+        response == "ok"
+        1 * mockLogger.logWarning(_ as String, ApacheAsyncClient.MAX_CONNECTIONS_PROPERTY, ApacheAsyncClient.DEFAULT_MAX_CONNECTIONS)
+    }
+
+    private void respond(String path, Closure<List> handler) {
+        server.createContext(path) { HttpExchange exchange ->
+            def (status, body) = handler(exchange)
+            def bytes = body.getBytes(StandardCharsets.UTF_8)
+            exchange.sendResponseHeaders(status, bytes.length)
+            exchange.responseBody.withCloseable { it.write(bytes) }
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package gov.hhs.cdc.trustedintermediary.external.apache
 
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
 import gov.hhs.cdc.trustedintermediary.wrappers.HttpClientException
+import gov.hhs.cdc.trustedintermediary.wrappers.StreamingBody
 import org.apache.hc.core5.http.message.BasicHeader
 import spock.lang.Specification
 
+import java.nio.charset.StandardCharsets
+
 class ApacheClientTest extends Specification {
 
     def "convertMapToHeader works"() {
@@ -36,4 +41,31 @@ class ApacheClientTest extends Specification {
         then:
         thrown(HttpClientException)
     }
+
+    def "post streams a body with chunked transfer encoding"() {
+        given:
+        def receivedBody = null
+        def transferEncoding = null
+        def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+        server.createContext("/stream") { HttpExchange exchange ->
+            receivedBody = new String(exchange.requestBody.readAllBytes(), StandardCharsets.UTF_8)
+            transferEncoding = exchange.requestHeaders.getFirst("Transfer-Encoding")
+            def response = "streamed".getBytes(StandardCharsets.UTF_8)
+            exchange.sendResponseHeaders(200, response.length)
+            exchange.responseBody.withCloseable { it.write(response) }
+        }
+        server.start()
+        def body = { OutputStream outputStream -> outputStream.write("DogCow".getBytes(StandardCharsets.UTF_8)) } as StreamingBody
+
+        when:
+        def response = ApacheClient.getInstance().post("http://localhost:${server.address.port}/stream", null, body)
+
+        then:
+        response == "streamed"
+        receivedBody == "DogCow"
+        transferEncoding == "chunked"
+
+        cleanup:
+        server.stop(0)
+    }
 }
@@ -0,0 +1,101 @@
+package gov.hhs.cdc.trustedintermediary.external.hapi
+
+import ca.uhn.fhir.context.FhirContext
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import org.hl7.fhir.r4.model.BooleanType
+import org.hl7.fhir.r4.model.Bundle
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Compares the per-thread FHIRPath engines and parsers with a single engine shared by every
+ * thread, the way HapiFhirImplementation used to work. Only runs when RUN_BENCHMARKS is set, for
+ * example {@code RUN_BENCHMARKS=true ./gradlew :shared:test --tests '*BenchmarkTest'}.
+ */
+@Requires({ env.RUN_BENCHMARKS })
+class HapiFhirImplementationBenchmarkTest extends Specification {
+
+    static final int THREADS = 64
+    static final int ITERATIONS_PER_THREAD = 200
+    static final List<String> EXPRESSIONS = [
+        "Bundle.entry.resource.ofType(ServiceRequest).exists()",
+        "Bundle.entry.resource.ofType(Patient).name.exists()",
+        "Bundle.entry.resource.ofType(MessageHeader).event.code.exists()"
+    ]
+
+    def fhir = HapiFhirImplementation.getInstance()
+    def fhirBody = Files.readString(Path.of("../examples/Test/e2e/orders/001_OML_O21_short.fhir"))
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(HapiFhirImplementation, fhir)
+        TestApplicationContext.injectRegisteredImplementations()
+    }
+
+    def "per-thread engines and parsers under concurrent requests"() {
+        given:
+        def context = FhirContext.forR4()
+        def sharedEngine = context.newFhirPath()
+        sharedEngine.setEvaluationContext(new HapiFhirCustomEvaluationContext())
+
+        when:
+        def shared = measure { Bundle bundle ->
+            // the previous implementation: one engine for all threads and a new parser per call
+            EXPRESSIONS.each { sharedEngine.evaluateFirst(bundle, it, BooleanType) }
+            context.newJsonParser().encodeResourceToString(bundle)
+            context.newJsonParser().parseResource(Bundle, fhirBody)
+        }
+        def perThread = measure { Bundle bundle ->
+            EXPRESSIONS.each { fhir.evaluateExpression(it, new HapiFhirResource(bundle)) }
+            fhir.encodeResourceToJson(bundle)
+            fhir.parseResource(fhirBody, Bundle)
+        }
+
+        println "Shared engine:      ${shared.millis} ms, ${shared.errors} errors"
+        println "Per-thread engines: ${perThread.millis} ms, ${perThread.errors} errors"
+
+        then:
+        perThread.errors == 0
+    }
+
+    private Map measure(Closure work) {
+        // warm up the caches of both HAPI and the JIT before timing
+        def warmupBundle = fhir.parseResource(fhirBody, Bundle)
+        50.times { work(warmupBundle) }
+
+        def executor = Executors.newFixedThreadPool(THREADS)
+        def start = new CountDownLatch(1)
+        def errors = new AtomicInteger()
+        try {
+            def futures = (1..THREADS).collect {
+                executor.submit({
+                    def bundle = fhir.parseResource(fhirBody, Bundle)
+                    start.await()
+                    ITERATIONS_PER_THREAD.times {
+                        try {
+                            work(bundle)
+                        } catch (Exception ignored) {
+                            errors.incrementAndGet()
+                        }
+                    }
+                } as Callable)
+            }
+
+            long begin = System.nanoTime()
+            start.countDown()
+            futures.each { it.get(10, TimeUnit.MINUTES) }
+            return [millis: TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin), errors: errors.get()]
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+}
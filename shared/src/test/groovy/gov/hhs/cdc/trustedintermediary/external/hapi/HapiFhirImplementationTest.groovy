@@ -11,6 +11,10 @@ import spock.lang.Specification
 
 import java.nio.file.Files
 import java.nio.file.Path
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 class HapiFhirImplementationTest extends Specification {
     Bundle bundle
@@ -170,4 +174,67 @@ class HapiFhirImplementationTest extends Specification {
         then:
         encodedBundle.class == String.class
     }
+
+    def "encodeResourceToJson writes the same JSON to a stream"() {
+        given:
+        def outputStream = new ByteArrayOutputStream()
+
+        when:
+        fhir.encodeResourceToJson(bundle, outputStream)
+
+        then:
+        outputStream.toString("UTF-8") == fhir.encodeResourceToJson(bundle)
+    }
+
+    def "parseResource can still parse after a payload failed to parse on the same thread"() {
+        given:
+        def fhirBody = Files.readString(Path.of("../examples/Test/e2e/orders/001_OML_O21_short.fhir"))
+
+        when:
+        fhir.parseResource("badString", Bundle.class)
+
+        then:
+        thrown(FhirParseException)
+
+        when:
+        def parsedBundle = fhir.parseResource(fhirBody, Bundle.class)
+
+        then:
+        parsedBundle.class == Bundle.class
+    }
+
+    def "parsing, evaluating and encoding give the same results from many threads at once"() {
+        given:
+        def fhirBody = Files.readString(Path.of("../examples/Test/e2e/orders/001_OML_O21_short.fhir"))
+        def expectedBundle = fhir.parseResource(fhirBody, Bundle.class)
+        def expectedJson = fhir.encodeResourceToJson(expectedBundle)
+        def expectedId = fhir.getStringFromFhirPath(expectedBundle, "Bundle.entry[0].resource.id")
+        def threadCount = 64
+        def executor = Executors.newFixedThreadPool(threadCount)
+        def start = new CountDownLatch(1)
+
+        when:
+        def futures = (1..threadCount).collect {
+            executor.submit({
+                start.await()
+                (1..20).collect {
+                    def parsedBundle = fhir.parseResource(fhirBody, Bundle.class)
+                    [
+                        fhir.encodeResourceToJson(parsedBundle),
+                        fhir.getStringFromFhirPath(parsedBundle, "Bundle.entry[0].resource.id"),
+                        fhir.evaluateExpression("Bundle.entry.exists()", new HapiFhirResource(parsedBundle))
+                    ]
+                }
+            } as Callable)
+        }
+        start.countDown()
+        def results = futures.collectMany { it.get(1, TimeUnit.MINUTES) }
+
+        then:
+        results.size() == threadCount * 20
+        results.every { it == [expectedJson, expectedId, true] }
+
+        cleanup:
+        executor.shutdownNow()
+    }
 }
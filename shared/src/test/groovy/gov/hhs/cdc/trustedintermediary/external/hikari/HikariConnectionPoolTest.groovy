@@ -26,6 +26,32 @@ class HikariConnectionPoolTest extends Specification {
         result.getDataSourceProperties().get("databaseName") == "test_name"
         result.getDataSourceProperties().get("portNumber") == "1234"
         result.getMaxLifetime() == 9001L
+        result.getDataSourceProperties().get("reWriteBatchedInserts") == "true"
+        result.getDataSourceProperties().get("prepareThreshold") == "1"
+    }
+
+    def "connection pool uses the configured prepare threshold" () {
+        when:
+        TestApplicationContext.addEnvironmentVariable("DB_PREPARE_THRESHOLD", "5")
+        def result = HikariConnectionPool.constructHikariDataSource()
+
+        then:
+        result.getDataSourceProperties().get("prepareThreshold") == "5"
+    }
+
+    def "the unpooled data source has the settings of the pool" () {
+        given:
+        def pooled = HikariConnectionPool.constructHikariDataSource()
+
+        when:
+        def result = HikariConnectionPool.constructUnpooledDataSource(pooled)
+
+        then:
+        result.getServerNames() == ["test_url"] as String[]
+        result.getDatabaseName() == "test_name"
+        result.getPortNumbers() == [1234] as int[]
+        result.getReWriteBatchedInserts()
+        result.getPrepareThreshold() == 1
     }
 
     def "connection pool works with default DB_MAX_LIFETIME" () {
@@ -0,0 +1,83 @@
+package gov.hhs.cdc.trustedintermediary.external.jackson
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import gov.hhs.cdc.trustedintermediary.wrappers.formatter.FormatterProcessingException
+import spock.lang.Specification
+
+class JacksonTest extends Specification {
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, Mock(Logger))
+        TestApplicationContext.register(Jackson, Jackson.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+    }
+
+    def "writeJsonObject writes each field and leaves the output open"() {
+        given:
+        def output = new ByteArrayOutputStream()
+        def fields = new LinkedHashMap<String, Object>()
+        fields.put("first", ["status": "PENDING", "stale": true])
+        fields.put("second", null)
+
+        when:
+        Jackson.getInstance().writeJsonObject(output, fields.entrySet().iterator())
+        output.write("!".getBytes())
+
+        then:
+        output.toString() == '{"first":{"status":"PENDING","stale":true},"second":null}!'
+    }
+
+    def "writeJsonObject writes an empty object when there are no fields"() {
+        given:
+        def output = new ByteArrayOutputStream()
+
+        when:
+        Jackson.getInstance().writeJsonObject(output, Collections.emptyIterator())
+
+        then:
+        output.toString() == "{}"
+    }
+
+    def "writeJsonObject leaves the object unterminated when reading the fields fails"() {
+        given:
+        def output = new ByteArrayOutputStream()
+        def fields = [Map.entry("first", "value")].iterator()
+        def failingFields = new Iterator<Map.Entry<String, ?>>() {
+                    boolean hasNext() {
+                        if (fields.hasNext()) {
+                            return true
+                        }
+                        throw new RuntimeException("DogCow")
+                    }
+
+                    Map.Entry<String, ?> next() {
+                        fields.next()
+                    }
+                }
+
+        when:
+        Jackson.getInstance().writeJsonObject(output, failingFields)
+
+        then:
+        thrown(RuntimeException)
+        output.toString() == '{"first":"value"'
+    }
+
+    def "writeJsonObject throws a FormatterProcessingException when the output fails"() {
+        given:
+        def output = new OutputStream() {
+                    void write(int b) {
+                        throw new IOException("DogCow")
+                    }
+                }
+
+        when:
+        Jackson.getInstance().writeJsonObject(output, Map.of("key", "value").entrySet().iterator())
+
+        then:
+        thrown(FormatterProcessingException)
+    }
+}
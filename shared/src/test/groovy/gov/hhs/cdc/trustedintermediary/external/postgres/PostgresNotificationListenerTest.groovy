@@ -0,0 +1,90 @@
+package gov.hhs.cdc.trustedintermediary.external.postgres
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.wrappers.database.ConnectionPool
+import org.postgresql.PGConnection
+import org.postgresql.PGNotification
+import spock.lang.Specification
+
+import java.sql.Connection
+import java.sql.SQLException
+import java.sql.Statement
+
+class PostgresNotificationListenerTest extends Specification {
+
+    def mockConnectionPool = Mock(ConnectionPool)
+    def mockConnection = Mock(Connection)
+    def mockPgConnection = Mock(PGConnection)
+    def mockStatement = Mock(Statement)
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(ConnectionPool, mockConnectionPool)
+        TestApplicationContext.register(PostgresNotificationListener, PostgresNotificationListener.getInstance())
+        TestApplicationContext.injectRegisteredImplementations()
+
+        mockConnectionPool.getUnpooledConnection() >> mockConnection
+        mockConnection.unwrap(PGConnection) >> mockPgConnection
+        mockConnection.createStatement() >> mockStatement
+    }
+
+    def "listen listens on the channel and returns the payloads of its notifications"() {
+        given:
+        def first = Mock(PGNotification)
+        first.getParameter() >> "first"
+        def second = Mock(PGNotification)
+        second.getParameter() >> "second"
+
+        when:
+        def channel = PostgresNotificationListener.getInstance().listen("metadata_changed")
+        def payloads = channel.awaitNotifications(1000)
+
+        then:
+        1 * mockStatement.execute("LISTEN metadata_changed")
+        1 * mockPgConnection.getNotifications(1000) >> ([first, second] as PGNotification[])
+        payloads == ["first", "second"]
+        0 * mockConnection.close()
+    }
+
+    def "listen doesn't take a connection from the pool"() {
+        when:
+        PostgresNotificationListener.getInstance().listen("metadata_changed")
+
+        then:
+        0 * mockConnectionPool.getConnection()
+    }
+
+    def "awaitNotifications returns an empty list when no notification arrived"() {
+        given:
+        def channel = PostgresNotificationListener.getInstance().listen("metadata_changed")
+
+        when:
+        def payloads = channel.awaitNotifications(1000)
+
+        then:
+        1 * mockPgConnection.getNotifications(1000) >> null
+        payloads == []
+    }
+
+    def "close closes the listening connection"() {
+        given:
+        def channel = PostgresNotificationListener.getInstance().listen("metadata_changed")
+
+        when:
+        channel.close()
+
+        then:
+        1 * mockConnection.close()
+    }
+
+    def "listen releases the connection when it can't listen"() {
+        when:
+        PostgresNotificationListener.getInstance().listen("metadata_changed")
+
+        then:
+        1 * mockStatement.execute("LISTEN metadata_changed") >> { throw new SQLException("DogCow") }
+        1 * mockConnection.close()
+        thrown(SQLException)
+    }
+}
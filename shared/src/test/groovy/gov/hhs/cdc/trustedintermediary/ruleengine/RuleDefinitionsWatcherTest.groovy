@@ -0,0 +1,151 @@
+package gov.hhs.cdc.trustedintermediary.ruleengine
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class RuleDefinitionsWatcherTest extends Specification {
+
+    def watcher = RuleDefinitionsWatcher.getInstance()
+    Path tempDirectory
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, Mock(Logger))
+        TestApplicationContext.register(RuleDefinitionsWatcher, watcher)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        tempDirectory = Files.createTempDirectory("rule_definitions")
+    }
+
+    def cleanup() {
+        watcher.stop()
+        tempDirectory.toFile().deleteDir()
+    }
+
+    def "watch calls the listener after the watched file changes"() {
+        given:
+        def definitionsFile = tempDirectory.resolve("transformation_definitions.json")
+        Files.writeString(definitionsFile, "{}")
+        def changed = new CountDownLatch(1)
+
+        when:
+        watcher.watch(definitionsFile, { changed.countDown() })
+        Files.writeString(definitionsFile, """{ "definitions": [] }""")
+
+        then:
+        changed.await(30, TimeUnit.SECONDS)
+    }
+
+    def "watch calls the listener when the watched file is created"() {
+        given:
+        def definitionsFile = tempDirectory.resolve("validation_definitions.json")
+        def changed = new CountDownLatch(1)
+
+        when:
+        watcher.watch(definitionsFile, { changed.countDown() })
+        Files.writeString(definitionsFile, "{}")
+
+        then:
+        changed.await(30, TimeUnit.SECONDS)
+    }
+
+    def "watch does not call the listener for other files in the directory"() {
+        given:
+        def definitionsFile = tempDirectory.resolve("transformation_definitions.json")
+        Files.writeString(definitionsFile, "{}")
+        def changed = new CountDownLatch(1)
+
+        when:
+        watcher.watch(definitionsFile, { changed.countDown() })
+        Files.writeString(tempDirectory.resolve("unrelated.json"), "{}")
+
+        then:
+        !changed.await(RuleDefinitionsWatcher.DEBOUNCE_MILLIS * 4, TimeUnit.MILLISECONDS)
+    }
+
+    def "watch calls every listener of the watched file"() {
+        given:
+        def definitionsFile = tempDirectory.resolve("transformation_definitions.json")
+        Files.writeString(definitionsFile, "{}")
+        def changed = new CountDownLatch(2)
+
+        when:
+        watcher.watch(definitionsFile, { changed.countDown() })
+        watcher.watch(definitionsFile, { changed.countDown() })
+        Files.writeString(definitionsFile, """{ "definitions": [] }""")
+
+        then:
+        changed.await(30, TimeUnit.SECONDS)
+    }
+
+    def "watch calls a listener registered twice for the same file once"() {
+        given:
+        def definitionsFile = tempDirectory.resolve("transformation_definitions.json")
+        Files.writeString(definitionsFile, "{}")
+        def calls = new AtomicInteger()
+        def otherChanged = new CountDownLatch(1)
+        Runnable listener = { calls.incrementAndGet() }
+
+        when:
+        watcher.watch(definitionsFile, listener)
+        watcher.watch(definitionsFile, listener)
+        // registered last, so the other listener has run by the time this one is called
+        watcher.watch(definitionsFile, { otherChanged.countDown() })
+        Files.writeString(definitionsFile, """{ "definitions": [] }""")
+
+        then:
+        otherChanged.await(30, TimeUnit.SECONDS)
+        calls.get() == 1
+    }
+
+    def "unwatch stops calling the removed listener but keeps the others"() {
+        given:
+        def definitionsFile = tempDirectory.resolve("transformation_definitions.json")
+        Files.writeString(definitionsFile, "{}")
+        def removedCalls = new AtomicInteger()
+        def keptChanged = new CountDownLatch(1)
+        Runnable removed = { removedCalls.incrementAndGet() }
+
+        when:
+        watcher.watch(definitionsFile, removed)
+        watcher.watch(definitionsFile, { keptChanged.countDown() })
+        watcher.unwatch(definitionsFile, removed)
+        Files.writeString(definitionsFile, """{ "definitions": [] }""")
+
+        then:
+        keptChanged.await(30, TimeUnit.SECONDS)
+        removedCalls.get() == 0
+    }
+
+    def "unwatch of the last listener stops calling it"() {
+        given:
+        def definitionsFile = tempDirectory.resolve("transformation_definitions.json")
+        Files.writeString(definitionsFile, "{}")
+        def changed = new CountDownLatch(1)
+        Runnable listener = { changed.countDown() }
+
+        when:
+        watcher.watch(definitionsFile, listener)
+        watcher.unwatch(definitionsFile, listener)
+        Files.writeString(definitionsFile, """{ "definitions": [] }""")
+
+        then:
+        !changed.await(RuleDefinitionsWatcher.DEBOUNCE_MILLIS * 4, TimeUnit.MILLISECONDS)
+    }
+
+    def "watch throws an IOException when the directory doesn't exist"() {
+        when:
+        watcher.watch(tempDirectory.resolve("missing").resolve("definitions.json"), {})
+
+        then:
+        thrown(IOException)
+    }
+}
@@ -0,0 +1,122 @@
+package gov.hhs.cdc.trustedintermediary.ruleengine
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import gov.hhs.cdc.trustedintermediary.wrappers.Logger
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class RuleStatisticsTest extends Specification {
+
+    def statistics = RuleStatistics.getInstance()
+    def mockLogger = Mock(Logger)
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+        TestApplicationContext.register(Logger, mockLogger)
+        TestApplicationContext.register(RuleStatistics, statistics)
+        TestApplicationContext.injectRegisteredImplementations()
+
+        statistics.reset()
+    }
+
+    def "recordConditionEvaluation counts evaluations and matches per rule"() {
+        when:
+        statistics.recordConditionEvaluation("transformation", "ruleA", 1_000, true)
+        statistics.recordConditionEvaluation("transformation", "ruleA", 1_000, false)
+        statistics.recordConditionEvaluation("transformation", "ruleA", 1_000, false)
+        statistics.recordConditionEvaluation("transformation", "ruleA", 1_000, true)
+        statistics.recordConditionEvaluation("validation", "ruleA", 1_000, false)
+        def summary = statistics.getSummary()
+
+        then:
+        def transformationRule = summary.engines.transformation.ruleA
+        transformationRule.evaluations == 4
+        transformationRule.matches == 2
+        transformationRule.matchRate == 0.5d
+        transformationRule.conditionLatency.count == 4
+
+        def validationRule = summary.engines.validation.ruleA
+        validationRule.evaluations == 1
+        validationRule.matches == 0
+        validationRule.matchRate == 0.0d
+    }
+
+    def "recordRuleRun and recordTransformation build latency histograms"() {
+        when:
+        statistics.recordRuleRun("transformation", "ruleA", TimeUnit.MICROSECONDS.toNanos(40))
+        statistics.recordRuleRun("transformation", "ruleA", TimeUnit.MICROSECONDS.toNanos(900))
+        statistics.recordTransformation("MapLocalObservationCodes", TimeUnit.MICROSECONDS.toNanos(8))
+        def summary = statistics.getSummary()
+
+        then:
+        def runLatency = summary.engines.transformation.ruleA.runLatency
+        runLatency.count == 2
+        runLatency.maxMicros == 900
+        runLatency.p50Micros == 50
+        runLatency.p99Micros == 1_000
+
+        def transformationLatency = summary.transformations.MapLocalObservationCodes
+        transformationLatency.count == 1
+        transformationLatency.p50Micros == 10
+    }
+
+    def "rules without a name are counted together"() {
+        when:
+        statistics.recordConditionEvaluation("transformation", null, 1_000, true)
+        statistics.recordRuleRun("transformation", null, 1_000)
+
+        then:
+        def unnamedRule = statistics.getSummary().engines.transformation[RuleStatistics.UNNAMED_RULE]
+        unnamedRule.evaluations == 1
+        unnamedRule.runLatency.count == 1
+    }
+
+    def "recordBudgetOverrun counts and logs rules that ran out of time"() {
+        when:
+        statistics.recordBudgetOverrun("transformation", "ruleA")
+        statistics.recordBudgetOverrun("transformation", "ruleA")
+
+        then:
+        statistics.getSummary().engines.transformation.ruleA.budgetOverruns == 2
+        2 * mockLogger.logWarning(_ as String, "transformation", "ruleA")
+    }
+
+    def "latencies over the largest bucket are reported with the max"() {
+        when:
+        statistics.recordTransformation("SlowTransformation", TimeUnit.SECONDS.toNanos(3))
+
+        then:
+        statistics.getSummary().transformations.SlowTransformation.p99Micros == TimeUnit.SECONDS.toMicros(3)
+    }
+
+    def "a rule slower than the threshold is logged"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(RuleStatistics.SLOW_RULE_THRESHOLD_PROPERTY, "5")
+
+        when:
+        statistics.recordRuleRun("transformation", "fastRule", TimeUnit.MILLISECONDS.toNanos(1))
+
+        then:
+        0 * mockLogger.logWarning(*_)
+
+        when:
+        statistics.recordRuleRun("transformation", "slowRule", TimeUnit.MILLISECONDS.toNanos(6))
+
+        then:
+        1 * mockLogger.logWarning(_ as String, { it.toString().contains("slowRule") }, 6L)
+    }
+
+    def "an invalid slow threshold falls back to the default"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(RuleStatistics.SLOW_RULE_THRESHOLD_PROPERTY, "not a number")
+
+        when:
+        def summary = statistics.getSummary()
+
+        then:
+        summary.slowThresholdMillis == RuleStatistics.DEFAULT_SLOW_RULE_THRESHOLD_MILLIS
+        1 * mockLogger.logWarning(_ as String, RuleStatistics.SLOW_RULE_THRESHOLD_PROPERTY, RuleStatistics.DEFAULT_SLOW_RULE_THRESHOLD_MILLIS)
+    }
+}
@@ -0,0 +1,103 @@
+package gov.hhs.cdc.trustedintermediary.ruleengine
+
+import gov.hhs.cdc.trustedintermediary.context.TestApplicationContext
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class RuleTimeBudgetTest extends Specification {
+
+    def setup() {
+        TestApplicationContext.reset()
+        TestApplicationContext.init()
+    }
+
+    def cleanup() {
+        RuleTimeBudget.clearCurrent()
+    }
+
+    def "a budget isn't exceeded while there is time left"() {
+        given:
+        def budget = RuleTimeBudget.startMessage()
+
+        expect:
+        !budget.isExceeded()
+    }
+
+    def "the rule budget is exceeded when a rule takes too long and restarts for the next rule"() {
+        given:
+        def budget = new RuleTimeBudget(TimeUnit.MILLISECONDS.toNanos(5), 0)
+
+        when:
+        Thread.sleep(10)
+
+        then:
+        budget.isExceeded()
+        budget.exceeded("slowRule").message.contains("Rule [slowRule] ran for")
+
+        when:
+        budget.startRule()
+
+        then:
+        !budget.isExceeded()
+    }
+
+    def "the message budget is exceeded when all the rules together take too long"() {
+        given:
+        def budget = new RuleTimeBudget(0, TimeUnit.MILLISECONDS.toNanos(5))
+
+        when:
+        Thread.sleep(10)
+        budget.startRule()
+
+        then:
+        budget.isExceeded()
+        budget.exceeded("lastRule").message.contains("message budget, stopped after rule [lastRule]")
+    }
+
+    def "a budget of 0 is never exceeded"() {
+        given:
+        def budget = new RuleTimeBudget(0, 0)
+
+        when:
+        Thread.sleep(5)
+
+        then:
+        !budget.isExceeded()
+    }
+
+    def "startMessage reads the budgets from the properties"() {
+        given:
+        TestApplicationContext.addEnvironmentVariable(RuleTimeBudget.RULE_TIME_BUDGET_PROPERTY, "1")
+        TestApplicationContext.addEnvironmentVariable(RuleTimeBudget.MESSAGE_TIME_BUDGET_PROPERTY, "not a number")
+        def budget = RuleTimeBudget.startMessage()
+
+        when:
+        Thread.sleep(5)
+
+        then:
+        budget.isExceeded()
+        budget.exceeded("rule").message.contains("over its 1 ms budget")
+    }
+
+    def "isCurrentExceeded checks the budget bound to the current thread"() {
+        given:
+        def budget = new RuleTimeBudget(TimeUnit.MILLISECONDS.toNanos(1), 0)
+
+        expect:
+        !RuleTimeBudget.isCurrentExceeded()
+
+        when:
+        RuleTimeBudget.setCurrent(budget)
+        Thread.sleep(5)
+
+        then:
+        RuleTimeBudget.isCurrentExceeded()
+
+        when:
+        RuleTimeBudget.clearCurrent()
+
+        then:
+        !RuleTimeBudget.isCurrentExceeded()
+    }
+}
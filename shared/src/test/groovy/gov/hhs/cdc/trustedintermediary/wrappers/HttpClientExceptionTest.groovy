@@ -14,5 +14,14 @@ class HttpClientExceptionTest extends Specification {
         then:
         exception.getMessage() == message
         exception.getCause() == innerException
+        exception.getStatusCode().isEmpty()
+    }
+
+    def "the status code of an error response is kept"() {
+        when:
+        def exception = new HttpClientException("DogCow", 503, new IOException())
+
+        then:
+        exception.getStatusCode().getAsInt() == 503
     }
 }